@@ -1,3 +1,5 @@
+-- @reads optionchains, analyze_scope
+-- @writes optionchains
 WITH matched_rows AS (
     SELECT
         ticker_symbol,
@@ -6,6 +8,8 @@ WITH matched_rows AS (
     FROM
         optionchains
     WHERE
+        ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
+      AND (
        -- Check for zero implied volatility for both calls and puts
         (call_iv = 0 OR put_iv = 0)
        OR
@@ -17,6 +21,7 @@ WITH matched_rows AS (
        OR
        -- Check for null delta or implied volatility for both calls and puts
         (call_delta IS NULL OR put_delta IS NULL OR call_iv IS NULL OR put_iv IS NULL)
+      )
     GROUP BY
         ticker_symbol,
         expiration_date,
@@ -0,0 +1,18 @@
+-- @reads analyze_scope
+-- @writes zero_gamma_ticker_expiration, top_strikes_ticker_expiration, sentiment_ticker_expiration
+-- @writes key_levels, ticker_expirations
+-- Remove the derived rows of the tickers in scope, the steps below recompute them
+DELETE FROM zero_gamma_ticker_expiration
+WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
+
+DELETE FROM top_strikes_ticker_expiration
+WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
+
+DELETE FROM sentiment_ticker_expiration
+WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
+
+DELETE FROM key_levels
+WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
+
+DELETE FROM ticker_expirations
+WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
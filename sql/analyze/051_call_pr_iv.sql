@@ -1,3 +1,5 @@
+-- @reads optionchains.call_iv, analyze_scope
+-- @writes optionchains.call_pr_iv
 WITH option_metrics AS (
     SELECT
         ticker_symbol,
@@ -11,6 +13,8 @@ WITH option_metrics AS (
             ) AS call_pr_iv
     FROM
         optionchains
+    WHERE
+        ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 )
 UPDATE optionchains AS o
 SET call_pr_iv = ROUND(om.call_pr_iv::NUMERIC, 6)
@@ -1,3 +1,5 @@
+-- @reads optionchains.expiration_date, analyze_scope
+-- @writes optionchains.tte
 WITH option_metrics AS (
     SELECT
         ticker_symbol,
@@ -5,9 +7,11 @@ WITH option_metrics AS (
         strike_price,
 
         -- Time to Expiration (TTE) in years
-        (expiration_date::DATE - CURRENT_DATE)::NUMERIC / 365 AS tte
+        (expiration_date - CURRENT_DATE)::DOUBLE PRECISION / 365 AS tte
     FROM
         optionchains
+    WHERE
+        ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 )
 UPDATE optionchains AS o
 SET tte = om.tte
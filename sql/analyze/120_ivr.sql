@@ -1,3 +1,5 @@
+-- @reads optionchains.call_iv, optionchains.put_iv, ticker, analyze_scope
+-- @writes optionchains.call_ivr, optionchains.put_ivr
 WITH option_metrics AS (
     SELECT
         o.ticker_symbol,
@@ -20,6 +22,8 @@ WITH option_metrics AS (
     FROM
         optionchains o
             JOIN ticker t ON o.ticker_symbol = t.ticker_symbol
+    WHERE
+        o.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 )
 UPDATE optionchains AS o
 SET
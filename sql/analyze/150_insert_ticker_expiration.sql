@@ -1,3 +1,5 @@
+-- @reads optionchains.call_iv, optionchains.put_iv, ticker, analyze_scope
+-- @writes ticker_expirations
 -- Step 1: Compute expected moves for all tickers and ensure deduplication
 WITH closest_strikes AS (
     SELECT
@@ -12,6 +14,8 @@ WITH closest_strikes AS (
         optionchains o
             JOIN
         ticker t ON o.ticker_symbol = t.ticker_symbol
+    WHERE
+        o.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 ),
      closest_iv AS (
          SELECT
@@ -40,13 +44,13 @@ WITH closest_strikes AS (
              ci.implied_volatility,
              ci.current_price,
              -- Compute days to expiration
-             CAST(TO_DATE(ci.expiration_date, 'YYYY-MM-DD') - CURRENT_DATE AS INTEGER) AS days_to_expiration,
+             (ci.expiration_date - CURRENT_DATE) AS days_to_expiration,
              -- Compute expected move in dollars
-             ci.current_price * ci.implied_volatility * SQRT(CAST(TO_DATE(ci.expiration_date, 'YYYY-MM-DD') - CURRENT_DATE AS DOUBLE PRECISION) / 365.0) AS expected_move_dollars
+             ci.current_price * ci.implied_volatility * SQRT((ci.expiration_date - CURRENT_DATE)::DOUBLE PRECISION / 365.0) AS expected_move_dollars
          FROM
              closest_iv ci
          WHERE
-             CAST(TO_DATE(ci.expiration_date, 'YYYY-MM-DD') - CURRENT_DATE AS INTEGER) > 0
+             ci.expiration_date > CURRENT_DATE
      ),
      final_expected_moves AS (
          SELECT DISTINCT
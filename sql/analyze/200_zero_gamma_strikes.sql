@@ -1,3 +1,5 @@
+-- @reads optionchains.call_gex, optionchains.put_gex, analyze_scope
+-- @writes zero_gamma_ticker_expiration
 -- Insert data into zero_gamma_ticker_expiration
 INSERT INTO zero_gamma_ticker_expiration (ticker_symbol, expiration_date, zero_gamma_level, flip_gamma)
 WITH gex_data AS (
@@ -11,6 +13,7 @@ WITH gex_data AS (
             ORDER BY strike_price
             ) AS cumulative_gex
     FROM optionchains
+    WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 ),
      lagged_gex_data AS (
          SELECT
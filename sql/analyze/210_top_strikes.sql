@@ -1,3 +1,6 @@
+-- @reads optionchains.call_gex, optionchains.put_gex, optionchains.call_dex, optionchains.put_dex, analyze_scope
+-- @reads optionchains.call_oi, optionchains.put_oi, optionchains.call_volume, optionchains.put_volume
+-- @writes top_strikes_ticker_expiration
 -- Insert all strikes into top_strikes_ticker_expiration
 INSERT INTO top_strikes_ticker_expiration (
     ticker_symbol,
@@ -22,4 +25,6 @@ SELECT
         ELSE 'Buy to Hedge'
         END AS mm_hedge_behaviour
 FROM
-    optionchains;
+    optionchains
+WHERE
+    ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
@@ -1,2 +1,5 @@
+-- @reads optionchains.call_iv, optionchains.put_iv, analyze_scope
+-- @writes optionchains
 DELETE FROM optionchains
-WHERE call_iv = 0 AND put_iv = 0;
+WHERE call_iv = 0 AND put_iv = 0
+  AND ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope);
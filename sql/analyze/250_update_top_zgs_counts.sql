@@ -1,9 +1,12 @@
+-- @reads zero_gamma_ticker_expiration, top_strikes_ticker_expiration, analyze_scope
+-- @writes top_strikes_ticker_expiration.zgs_count, top_strikes_ticker_expiration.top_count
 WITH zgs AS (
     SELECT
         zgte.ticker_symbol,
         zgte.zero_gamma_level AS strike_price,
         COUNT(*) AS zgs_count
     FROM zero_gamma_ticker_expiration zgte
+    WHERE zgte.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
     GROUP BY zgte.ticker_symbol, zgte.zero_gamma_level
 ),
      tops AS (
@@ -12,6 +15,7 @@ WITH zgs AS (
              tse2.strike_price,
              COUNT(*) AS top_count
          FROM top_strikes_ticker_expiration tse2
+         WHERE tse2.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
          GROUP BY tse2.ticker_symbol, tse2.strike_price
      )
 UPDATE top_strikes_ticker_expiration tse
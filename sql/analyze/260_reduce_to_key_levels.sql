@@ -1,3 +1,5 @@
+-- @reads top_strikes_ticker_expiration, analyze_scope
+-- @writes key_levels
 -- Insert into `key_levels` table for all tickers
 INSERT INTO key_levels (ticker_symbol, strike_price, max_zgs_count, max_top_count, net_gex, net_dex, mm_hedge_behaviour, open_interest, volume)
 SELECT
@@ -15,6 +17,8 @@ SELECT
     SUM(tse.volume) AS volume
 FROM
     top_strikes_ticker_expiration tse
+WHERE
+    tse.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 GROUP BY
     tse.ticker_symbol,
     tse.strike_price
@@ -1,3 +1,10 @@
+-- @reads optionchains, analyze_scope
+-- @writes ticker_expirations.avg_call_delta, ticker_expirations.avg_call_volume, ticker_expirations.avg_call_oi
+-- @writes ticker_expirations.avg_call_bid, ticker_expirations.avg_call_ask, ticker_expirations.avg_call_mid
+-- @writes ticker_expirations.avg_call_iv, ticker_expirations.avg_call_gex, ticker_expirations.avg_call_dex
+-- @writes ticker_expirations.avg_put_delta, ticker_expirations.avg_put_volume, ticker_expirations.avg_put_oi
+-- @writes ticker_expirations.avg_put_bid, ticker_expirations.avg_put_ask, ticker_expirations.avg_put_mid
+-- @writes ticker_expirations.avg_put_iv, ticker_expirations.avg_put_gex, ticker_expirations.avg_put_dex
 -- Step 1: Compute average metrics from the optionchains table
 WITH avg_data AS (
     SELECT
@@ -23,6 +30,8 @@ WITH avg_data AS (
         AVG(put_dex) FILTER (WHERE put_dex != 0.0) AS avg_put_dex
     FROM
         optionchains
+    WHERE
+        ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
     GROUP BY
         ticker_symbol, expiration_date
 )
@@ -1,3 +1,5 @@
+-- @reads top_strikes_ticker_expiration, analyze_scope
+-- @writes ticker_expirations.avg_key_level_distance
 -- Step 1: Calculate average key level distances for each ticker and expiration
 WITH ranked_strikes AS (
     SELECT
@@ -10,6 +12,8 @@ WITH ranked_strikes AS (
             ) AS next_strike
     FROM
         top_strikes_ticker_expiration
+    WHERE
+        ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
 ),
      avg_key_levels AS (
          SELECT
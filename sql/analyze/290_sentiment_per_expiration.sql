@@ -1,3 +1,6 @@
+-- @reads optionchains.call_gex, optionchains.put_gex, optionchains.call_dex, optionchains.put_dex, analyze_scope
+-- @reads optionchains.call_oi, optionchains.put_oi
+-- @writes sentiment_ticker_expiration
 WITH sentiment_calculations AS (
     SELECT
         oc.ticker_symbol,
@@ -25,33 +28,34 @@ WITH sentiment_calculations AS (
         -- **Computed PCR (Put/Call Ratio) at expiration level**
         CASE
             WHEN SUM(oc.call_oi) = 0 THEN NULL
-            ELSE SUM(oc.put_oi)::NUMERIC / NULLIF(SUM(oc.call_oi), 0)
+            ELSE SUM(oc.put_oi)::DOUBLE PRECISION / NULLIF(SUM(oc.call_oi), 0)
             END AS put_call_ratio,
 
         -- 🚦 **Sentiment Determination**
         CASE
             WHEN ((SUM(oc.call_gex) - SUM(oc.put_gex)) / NULLIF(SUM(ABS(oc.call_gex) + ABS(oc.put_gex)), 0)) * 100 > 40
                 AND ((SUM(oc.call_dex) - SUM(oc.put_dex)) / NULLIF(SUM(ABS(oc.call_dex) + ABS(oc.put_dex)), 0)) * 100 > 25
-                AND SUM(oc.put_oi)::NUMERIC / NULLIF(SUM(oc.call_oi), 0) <= 0.6
+                AND SUM(oc.put_oi)::DOUBLE PRECISION / NULLIF(SUM(oc.call_oi), 0) <= 0.6
                 THEN 'Strong Bullish'
 
             WHEN ((SUM(oc.call_gex) - SUM(oc.put_gex)) / NULLIF(SUM(ABS(oc.call_gex) + ABS(oc.put_gex)), 0)) * 100 > 10
                 AND ((SUM(oc.call_dex) - SUM(oc.put_dex)) / NULLIF(SUM(ABS(oc.call_dex) + ABS(oc.put_dex)), 0)) * 100 > 5
-                AND SUM(oc.put_oi)::NUMERIC / NULLIF(SUM(oc.call_oi), 0) <= 0.8
+                AND SUM(oc.put_oi)::DOUBLE PRECISION / NULLIF(SUM(oc.call_oi), 0) <= 0.8
                 THEN 'Slightly Bullish'
 
             WHEN ABS(((SUM(oc.call_gex) - SUM(oc.put_gex)) / NULLIF(SUM(ABS(oc.call_gex) + ABS(oc.put_gex)), 0)) * 100) <= 5
-                AND SUM(oc.put_oi)::NUMERIC / NULLIF(SUM(oc.call_oi), 0) BETWEEN 0.8 AND 1.2
+                AND SUM(oc.put_oi)::DOUBLE PRECISION / NULLIF(SUM(oc.call_oi), 0) BETWEEN 0.8 AND 1.2
                 THEN 'Neutral'
 
             WHEN ((SUM(oc.put_gex) - SUM(oc.call_gex)) / NULLIF(SUM(ABS(oc.call_gex) + ABS(oc.put_gex)), 0)) * 100 > 10
                 AND ((SUM(oc.put_dex) - SUM(oc.call_dex)) / NULLIF(SUM(ABS(oc.call_dex) + ABS(oc.put_dex)), 0)) * 100 > 5
-                AND SUM(oc.put_oi)::NUMERIC / NULLIF(SUM(oc.call_oi), 0) >= 1.0
+                AND SUM(oc.put_oi)::DOUBLE PRECISION / NULLIF(SUM(oc.call_oi), 0) >= 1.0
                 THEN 'Slightly Bearish'
 
             ELSE 'Strong Bearish'
             END AS sentiment
     FROM optionchains oc
+    WHERE oc.ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)
     GROUP BY oc.ticker_symbol, oc.expiration_date
 )
 
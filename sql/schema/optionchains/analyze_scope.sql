@@ -0,0 +1,5 @@
+-- Tickers the current analysis run recomputes, filled by the analyze service before each run
+CREATE UNLOGGED TABLE IF NOT EXISTS analyze_scope
+(
+    ticker_symbol VARCHAR(10) COLLATE "C" PRIMARY KEY
+);
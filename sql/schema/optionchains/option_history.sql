@@ -0,0 +1,51 @@
+-- Option chain history, one row per strike and store run, partitioned by trading day on snapshot_ts.
+-- Partitions are created by the store service, see HistoryPartitions.
+CREATE TABLE IF NOT EXISTS optionchains_history
+(
+    snapshot_ts      TIMESTAMPTZ NOT NULL,                    -- Start of the store run
+    ticker_symbol    VARCHAR(10) COLLATE "C" NOT NULL,
+    expiration_date  DATE NOT NULL,
+    strike_price     DOUBLE PRECISION NOT NULL,
+    underlying_price DOUBLE PRECISION,
+
+-- Call Metrics
+    call_bid         DOUBLE PRECISION,
+    call_ask         DOUBLE PRECISION,
+    call_mid         DOUBLE PRECISION,
+    call_volume      INT,
+    call_oi          INT,
+    call_delta       DOUBLE PRECISION,
+    call_gamma       DOUBLE PRECISION,
+    call_theta       DOUBLE PRECISION,
+    call_vega        DOUBLE PRECISION,
+    call_iv          DOUBLE PRECISION,
+
+-- Put Metrics
+    put_bid          DOUBLE PRECISION,
+    put_ask          DOUBLE PRECISION,
+    put_mid          DOUBLE PRECISION,
+    put_volume       INT,
+    put_oi           INT,
+    put_delta        DOUBLE PRECISION,
+    put_gamma        DOUBLE PRECISION,
+    put_theta        DOUBLE PRECISION,
+    put_vega         DOUBLE PRECISION,
+    put_iv           DOUBLE PRECISION,
+
+    PRIMARY KEY (snapshot_ts, ticker_symbol, expiration_date, strike_price)
+) PARTITION BY RANGE (snapshot_ts);
+
+-- One row per store run that wrote history
+CREATE TABLE IF NOT EXISTS optionchains_snapshots
+(
+    snapshot_ts TIMESTAMPTZ PRIMARY KEY,
+    partial     BOOLEAN NOT NULL DEFAULT FALSE,                -- Run covered only some segments
+    tickers     INT,
+    row_count   BIGINT
+);
+
+-- Latest run only, the snapshot_ts comparison is resolved before the scan, so all other partitions are pruned
+CREATE OR REPLACE VIEW optionchains_history_latest AS
+SELECT h.*
+FROM optionchains_history h
+WHERE h.snapshot_ts = (SELECT MAX(s.snapshot_ts) FROM optionchains_snapshots s);
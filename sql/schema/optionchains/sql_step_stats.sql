@@ -0,0 +1,25 @@
+-- Timing of the SQL steps of every analysis and signal run, written by the services after each
+-- run and compared with the previous runs of the same step to flag regressions
+CREATE TABLE IF NOT EXISTS sql_step_stats
+(
+    service     VARCHAR(32)  NOT NULL,
+    run_at      TIMESTAMPTZ  NOT NULL,
+    step        VARCHAR(128) NOT NULL,
+    executions  INTEGER      NOT NULL,
+    total_ms    BIGINT       NOT NULL,
+    max_ms      BIGINT       NOT NULL,
+    row_count   BIGINT       NOT NULL,
+    -- Number of tickers a scoped run covered, NULL for a run over all tickers
+    tickers     INTEGER,
+    -- Timed under EXPLAIN ANALYZE, never used as a baseline
+    explain     BOOLEAN      NOT NULL DEFAULT FALSE,
+    baseline_ms DOUBLE PRECISION,
+    slower      BOOLEAN      NOT NULL DEFAULT FALSE,
+    -- EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) of every statement, if captured
+    plan        JSONB,
+    PRIMARY KEY (service, step, run_at)
+);
+
+-- Tables created before the run scope was recorded
+ALTER TABLE sql_step_stats ADD COLUMN IF NOT EXISTS tickers INTEGER;
+ALTER TABLE sql_step_stats ADD COLUMN IF NOT EXISTS explain BOOLEAN NOT NULL DEFAULT FALSE;
@@ -0,0 +1,316 @@
+package org.optionsql.analyze;
+
+import org.optionsql.store.BinaryCopyWriter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * Computes the per-expiration analytics of the analysis scripts 150 to 290 in the JVM: expected
+ * moves, zero gamma strikes, top strikes and their counts, key levels, averages, key level
+ * distances and sentiment. Postgres only serves one ordered scan of the option chains and the
+ * bulk load of the results, instead of a dozen window scans and UPDATE passes.
+ * <p>
+ * The tickers of the analysis scope are processed in chunks to bound memory: the chains of a
+ * chunk are read into primitive columns, see {@link EngineChunk}, computed ticker by ticker on a
+ * fork-join pool, and the results written with binary COPY. Everything runs in the transaction of
+ * the given connection, the caller commits. {@code AnalyzeGoldenCheck} compares the results with
+ * those of the scripts. Close the engine to stop its threads.
+ */
+public class AnalyticsEngine implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AnalyticsEngine.class.getName());
+
+    /**
+     * Name of the analysis step the engine runs as, ordered after the UPDATE steps it does not
+     * depend on and before 220_remove_zero_iv.
+     */
+    public static final String STEP = "150_analytics_engine";
+
+    /**
+     * The tables the engine writes. Scripts writing nothing else are replaced by the engine.
+     */
+    public static final Set<String> TABLES = Set.of("ticker_expirations", "zero_gamma_ticker_expiration",
+            "top_strikes_ticker_expiration", "key_levels", "sentiment_ticker_expiration");
+
+    static final Set<String> READS = Set.of("optionchains.strike_price", "optionchains.call_iv", "optionchains.put_iv",
+            "optionchains.call_gex", "optionchains.put_gex", "optionchains.call_dex", "optionchains.put_dex",
+            "optionchains.call_oi", "optionchains.put_oi", "optionchains.call_volume", "optionchains.put_volume",
+            "optionchains.call_delta", "optionchains.put_delta", "optionchains.call_bid", "optionchains.put_bid",
+            "optionchains.call_ask", "optionchains.put_ask", "optionchains.call_mid", "optionchains.put_mid",
+            "ticker", "analyze_scope");
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int FETCH_SIZE = 10000;
+
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param chunkSize   number of tickers held in memory at a time
+     * @param parallelism number of threads computing tickers
+     */
+    public AnalyticsEngine(int chunkSize, int parallelism) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Replace the results of the tickers in analyze_scope. The connection must not be in
+     * autocommit mode, the option chains are read with a cursor.
+     *
+     * @return the number of rows written per table
+     */
+    public Map<String, Long> run(Connection connection) throws SQLException {
+        List<String> scope = new ArrayList<>();
+        LocalDate today;
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT ticker_symbol FROM analyze_scope ORDER BY ticker_symbol")) {
+                while (rs.next()) {
+                    scope.add(rs.getString(1));
+                }
+            }
+            // The scripts compare with the date of the database server
+            try (ResultSet rs = stmt.executeQuery("SELECT CURRENT_DATE")) {
+                rs.next();
+                today = rs.getDate(1).toLocalDate();
+            }
+            for (String table : TABLES) {
+                stmt.executeUpdate("DELETE FROM " + table + " WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)");
+            }
+        }
+
+        long[] written = new long[5];
+        long loadTime = 0;
+        long computeTime = 0;
+        long writeTime = 0;
+        for (int from = 0; from < scope.size(); from += chunkSize) {
+            String[] tickers = scope.subList(from, Math.min(scope.size(), from + chunkSize)).toArray(new String[0]);
+            long start = System.currentTimeMillis();
+            EngineChunk chunk = EngineChunk.load(connection, tickers, today, FETCH_SIZE);
+            long loaded = System.currentTimeMillis();
+            pool.invoke(new ComputeTask(chunk, 0, tickers.length));
+            long computed = System.currentTimeMillis();
+            written[0] += writeTickerExpirations(connection, chunk);
+            written[1] += writeZeroGamma(connection, chunk);
+            written[2] += writeTopStrikes(connection, chunk);
+            written[3] += writeKeyLevels(connection, chunk);
+            written[4] += writeSentiment(connection, chunk);
+            loadTime += loaded - start;
+            computeTime += computed - loaded;
+            writeTime += System.currentTimeMillis() - computed;
+        }
+        logger.info("Analytics engine processed " + scope.size() + " tickers: load " + loadTime + "ms, compute " +
+                    computeTime + "ms, write " + writeTime + "ms");
+        return Map.of("ticker_expirations", written[0], "zero_gamma_ticker_expiration", written[1],
+                "top_strikes_ticker_expiration", written[2], "key_levels", written[3],
+                "sentiment_ticker_expiration", written[4]);
+    }
+
+    /**
+     * Shut down the compute threads. A run still in progress fails at its next chunk.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private long writeTickerExpirations(Connection connection, EngineChunk chunk) throws SQLException {
+        String columns = "ticker_symbol, expiration_date, " +
+                         "avg_call_delta, avg_call_volume, avg_call_oi, avg_call_bid, avg_call_ask, avg_call_mid, " +
+                         "avg_call_iv, avg_call_gex, avg_call_dex, " +
+                         "avg_put_delta, avg_put_volume, avg_put_oi, avg_put_bid, avg_put_ask, avg_put_mid, " +
+                         "avg_put_iv, avg_put_gex, avg_put_dex, " +
+                         "avg_key_level_distance, expected_move_dollars, expected_move_percent, implied_volatility, days_to_expiration";
+        return copy(connection, "ticker_expirations", columns, writer -> {
+            for (int slice = 0; slice < chunk.slices; slice++) {
+                if (!chunk.expectedMove[slice]) {
+                    continue;
+                }
+                writer.startRow(25);
+                writer.writeText(BinaryCopyWriter.utf8(chunk.tickers[chunk.sliceTicker[slice]]));
+                writer.writeDate(chunk.sliceExpiration[slice]);
+                double[] averages = chunk.averages[slice];
+                for (int i = 0; i < EngineChunk.AVERAGED.length; i++) {
+                    int column = EngineChunk.AVERAGED[i];
+                    if (column == EngineChunk.CALL_VOLUME || column == EngineChunk.PUT_VOLUME
+                        || column == EngineChunk.CALL_OI || column == EngineChunk.PUT_OI) {
+                        writeInt4(writer, averages[i]);
+                    } else {
+                        writeFloat8(writer, averages[i]);
+                    }
+                }
+                writeFloat8(writer, chunk.keyLevelDistance[slice]);
+                writeFloat8(writer, chunk.moveDollars[slice]);
+                writeFloat8(writer, chunk.movePercent[slice]);
+                writeFloat8(writer, chunk.moveIv[slice]);
+                writer.writeInt2((short) chunk.daysToExpiration[slice]);
+            }
+        });
+    }
+
+    private long writeZeroGamma(Connection connection, EngineChunk chunk) throws SQLException {
+        return copy(connection, "zero_gamma_ticker_expiration", "ticker_symbol, expiration_date, zero_gamma_level, flip_gamma", writer -> {
+            for (int ticker = 0; ticker < chunk.tickers.length; ticker++) {
+                byte[] symbol = BinaryCopyWriter.utf8(chunk.tickers[ticker]);
+                for (double[] level : chunk.zeroGamma.get(ticker)) {
+                    writer.startRow(4);
+                    writer.writeText(symbol);
+                    writer.writeDate(chunk.sliceExpiration[(int) level[0]]);
+                    writer.writeFloat8(level[1]);
+                    writeFloat8(writer, level[2]);
+                }
+            }
+        });
+    }
+
+    private long writeTopStrikes(Connection connection, EngineChunk chunk) throws SQLException {
+        String columns = "ticker_symbol, expiration_date, strike_price, net_gex, net_dex, open_interest, volume, " +
+                         "zgs_count, top_count, mm_hedge_behaviour";
+        double[][] values = chunk.columns;
+        byte[] sell = BinaryCopyWriter.utf8("Sell to Hedge");
+        byte[] buy = BinaryCopyWriter.utf8("Buy to Hedge");
+        return copy(connection, "top_strikes_ticker_expiration", columns, writer -> {
+            for (int slice = 0; slice < chunk.slices; slice++) {
+                byte[] symbol = BinaryCopyWriter.utf8(chunk.tickers[chunk.sliceTicker[slice]]);
+                for (int row = chunk.sliceStart[slice]; row < chunk.sliceEnd(slice); row++) {
+                    if (!chunk.topStrike[row]) {
+                        continue;
+                    }
+                    double netGex = values[EngineChunk.CALL_GEX][row] - values[EngineChunk.PUT_GEX][row];
+                    writer.startRow(10);
+                    writer.writeText(symbol);
+                    writer.writeDate(chunk.sliceExpiration[slice]);
+                    writer.writeFloat8(values[EngineChunk.STRIKE][row]);
+                    writeFloat8(writer, netGex);
+                    writeFloat8(writer, values[EngineChunk.CALL_DEX][row] + values[EngineChunk.PUT_DEX][row]);
+                    writeInt4(writer, values[EngineChunk.CALL_OI][row] + values[EngineChunk.PUT_OI][row]);
+                    writeInt4(writer, values[EngineChunk.CALL_VOLUME][row] + values[EngineChunk.PUT_VOLUME][row]);
+                    writer.writeInt2(chunk.zgsCount[row]);
+                    writer.writeInt2(chunk.topCount[row]);
+                    writer.writeText(netGex > 0 ? sell : buy);
+                }
+            }
+        });
+    }
+
+    private long writeKeyLevels(Connection connection, EngineChunk chunk) throws SQLException {
+        String columns = "ticker_symbol, strike_price, max_zgs_count, max_top_count, net_gex, net_dex, mm_hedge_behaviour, " +
+                         "open_interest, volume";
+        // Inverted against the top strikes, as in 260
+        byte[] buy = BinaryCopyWriter.utf8("Buy to Hedge");
+        byte[] sell = BinaryCopyWriter.utf8("Sell to Hedge");
+        return copy(connection, "key_levels", columns, writer -> {
+            for (int ticker = 0; ticker < chunk.tickers.length; ticker++) {
+                byte[] symbol = BinaryCopyWriter.utf8(chunk.tickers[ticker]);
+                for (Map.Entry<Double, EngineChunk.KeyLevel> entry : chunk.keyLevels.get(ticker).entrySet()) {
+                    EngineChunk.KeyLevel level = entry.getValue();
+                    writer.startRow(9);
+                    writer.writeText(symbol);
+                    writer.writeFloat8(entry.getKey());
+                    writer.writeInt2((short) level.maxZgsCount);
+                    writer.writeInt2((short) level.maxTopCount);
+                    writeFloat8(writer, level.netGex);
+                    writeFloat8(writer, level.netDex);
+                    writer.writeText(level.netGex > 0 ? buy : sell);
+                    writeInt4(writer, level.openInterest);
+                    writeInt4(writer, level.volume);
+                }
+            }
+        });
+    }
+
+    private long writeSentiment(Connection connection, EngineChunk chunk) throws SQLException {
+        String columns = "ticker_symbol, expiration_date, sentiment, call_gex_total, put_gex_total, difference_percentage, put_call_ratio";
+        return copy(connection, "sentiment_ticker_expiration", columns, writer -> {
+            for (int slice = 0; slice < chunk.slices; slice++) {
+                writer.startRow(7);
+                writer.writeText(BinaryCopyWriter.utf8(chunk.tickers[chunk.sliceTicker[slice]]));
+                writer.writeDate(chunk.sliceExpiration[slice]);
+                writer.writeText(BinaryCopyWriter.utf8(chunk.sentiment[slice]));
+                writeFloat8(writer, chunk.callGexTotal[slice]);
+                writeFloat8(writer, chunk.putGexTotal[slice]);
+                writeFloat8(writer, chunk.differencePercentage[slice]);
+                writeFloat8(writer, chunk.putCallRatio[slice]);
+            }
+        });
+    }
+
+    private static long copy(Connection connection, String table, String columns, Rows rows) throws SQLException {
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + table + " (" + columns + ") FROM STDIN (FORMAT binary)");
+        try {
+            BinaryCopyWriter writer = new BinaryCopyWriter(copyIn, BUFFER_SIZE);
+            rows.write(writer);
+            return writer.finish();
+        } finally {
+            // Leaves the connection usable when encoding or streaming failed half way
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeFloat8(BinaryCopyWriter writer, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            writer.writeNull();
+        } else {
+            writer.writeFloat8(value);
+        }
+    }
+
+    private static void writeInt4(BinaryCopyWriter writer, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            writer.writeNull();
+        } else {
+            writer.writeInt4((int) value);
+        }
+    }
+
+    private interface Rows {
+        void write(BinaryCopyWriter writer) throws SQLException;
+    }
+
+    /**
+     * Splits the tickers of a chunk in halves until single tickers are left.
+     */
+    private static final class ComputeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Never serialized, the pool only runs it in process
+        private final transient EngineChunk chunk;
+        private final int from;
+        private final int to;
+
+        ComputeTask(EngineChunk chunk, int from, int to) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    chunk.compute(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComputeTask(chunk, from, middle), new ComputeTask(chunk, middle, to));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.optionsql.analyze;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.optionsql.db.Database;
+import org.optionsql.db.StepStats;
+
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Runs the steps of an {@link AnalyzeGraph} as soon as the steps they wait for have finished,
+ * at most {@code parallelism} at a time. Every script is one {@link Database#execute(String)},
+ * which takes its own pooled connection, so concurrent steps run on separate connections. Java
+ * steps take a connection of their own as well and tag it with the same application_name.
+ * <p>
+ * The first failing step fails the run: no further steps are started and the steps still in
+ * flight are cancelled on the server. The run completes once all of them have returned, so the
+ * next analysis never overlaps a cancelled one. All callbacks run on the context of the
+ * calling service.
+ * <p>
+ * The wall time and rows affected of every step end up in the {@link StepStats} of the run. With
+ * {@code explain}, every statement of a script runs as {@code EXPLAIN (ANALYZE, BUFFERS)}
+ * instead, which executes it as well, and the plans are kept with the stats. Rows are then the
+ * rows fed into the modification, and the statements run without the application_name, so a
+ * failure does not cancel them.
+ */
+class AnalyzeExecutor {
+
+    /**
+     * Prefix of the application_name of connections running a step, to find them for the
+     * cancellation.
+     */
+    static final String APPLICATION_PREFIX = "optionsql-analyze/";
+
+    private final Database db;
+    private final int parallelism;
+    private final boolean explain;
+    private final Logger logger;
+
+    AnalyzeExecutor(Database db, int parallelism, boolean explain, Logger logger) {
+        this.db = db;
+        this.parallelism = Math.max(1, parallelism);
+        this.explain = explain;
+        this.logger = logger;
+    }
+
+    Future<StepStats> run(AnalyzeGraph graph) {
+        return new Run(graph).start();
+    }
+
+    /**
+     * Run the statements of a script one after the other under EXPLAIN ANALYZE.
+     *
+     * @return the rows of all statements
+     */
+    private Future<Long> explain(String sql, JsonArray plans) {
+        Future<Long> chain = Future.succeededFuture(0L);
+        for (String statement : sql.split(";")) {
+            if (statement.replaceAll("--[^\n]*", "").isBlank()) {
+                continue;
+            }
+            chain = chain.compose(rows -> db.query("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + statement.trim())
+                    .map(result -> {
+                        Object value = result.get(0).getValue("QUERY PLAN");
+                        // JSON text over JDBC, decoded by the reactive client
+                        JsonArray plan = value instanceof JsonArray ? (JsonArray) value : new JsonArray(value.toString());
+                        plans.add(plan.getJsonObject(0));
+                        return rows + planRows(plan.getJsonObject(0).getJsonObject("Plan"));
+                    }));
+        }
+        return chain;
+    }
+
+    /**
+     * @return the rows a plan produced, for a modification the rows of its input
+     */
+    private static long planRows(JsonObject node) {
+        if ("ModifyTable".equals(node.getString("Node Type")) && node.containsKey("Plans")) {
+            for (Object child : node.getJsonArray("Plans")) {
+                JsonObject plan = (JsonObject) child;
+                String relationship = plan.getString("Parent Relationship", "");
+                if (!"InitPlan".equals(relationship) && !"SubPlan".equals(relationship)) {
+                    return planRows(plan);
+                }
+            }
+        }
+        return node.getLong("Actual Rows", 0L) * node.getLong("Actual Loops", 1L);
+    }
+
+    private class Run {
+
+        private final AnalyzeGraph graph;
+        private final Promise<StepStats> promise = Promise.promise();
+        private final StepStats stats = new StepStats();
+        private final int[] waiting;
+        private final long[] durations;
+        private final TreeSet<Integer> ready = new TreeSet<>();
+        private final long start = System.currentTimeMillis();
+        private int running;
+        private int finished;
+        private String failure;
+
+        Run(AnalyzeGraph graph) {
+            this.graph = graph;
+            this.waiting = new int[graph.size()];
+            this.durations = new long[graph.size()];
+            stats.setExplain(explain);
+            for (int i = 0; i < graph.size(); i++) {
+                waiting[i] = graph.getPredecessors(i).size();
+                if (waiting[i] == 0) {
+                    ready.add(i);
+                }
+            }
+        }
+
+        Future<StepStats> start() {
+            if (graph.size() == 0) {
+                promise.complete(stats);
+            } else {
+                schedule();
+            }
+            return promise.future();
+        }
+
+        private void schedule() {
+            // Lowest file number first, so a limit of one keeps the old serial order
+            while (failure == null && running < parallelism && !ready.isEmpty()) {
+                execute(ready.pollFirst());
+            }
+        }
+
+        private void execute(int i) {
+            AnalyzeStep step = graph.getStep(i);
+            running++;
+            long stepStart = System.currentTimeMillis();
+            Future<Long> execution;
+            JsonArray plans = new JsonArray();
+            if (step.getAction() != null) {
+                logger.info("Executing step: " + step.getName() + " (" + running + " running)");
+                execution = step.getAction().get();
+            } else if (explain) {
+                logger.info("Explaining SQL file: " + step.getName() + ".sql (" + db.getClientName() + ", " + running + " running)");
+                execution = explain(step.getSql(), plans);
+            } else {
+                logger.info("Executing SQL file: " + step.getName() + ".sql (" + db.getClientName() + ", " + running + " running)");
+                execution = db.executeCounted("SET application_name = '" + APPLICATION_PREFIX + step.getName() + "';\n" + step.getSql() +
+                                       "\n;\nRESET application_name");
+            }
+            execution.onComplete(result -> {
+                running--;
+                durations[i] = System.currentTimeMillis() - stepStart;
+                if (result.succeeded()) {
+                    finished++;
+                    stats.record(step.getName(), durations[i], result.result());
+                    if (!plans.isEmpty()) {
+                        stats.setPlan(step.getName(), plans);
+                    }
+                    logger.fine("Step " + step.getName() + " finished in " + durations[i] + "ms, " + result.result() + " rows");
+                    for (int successor : graph.getSuccessors(i)) {
+                        if (--waiting[successor] == 0) {
+                            ready.add(successor);
+                        }
+                    }
+                } else if (failure == null) {
+                    failure = "Failed to execute " + (step.getAction() != null ? "step " + step.getName() : "SQL file " + step.getName() + ".sql")
+                              + ": " + result.cause().getMessage();
+                    cancelRunning();
+                } else {
+                    logger.fine("Step " + step.getName() + " ended after the failure: " + result.cause().getMessage());
+                }
+                complete();
+            });
+        }
+
+        private void cancelRunning() {
+            if (running == 0) {
+                return;
+            }
+            db.query("SELECT pg_cancel_backend(pid) FROM pg_stat_activity WHERE datname = current_database() " +
+                     "AND pid <> pg_backend_pid() AND state = 'active' AND application_name LIKE ?", APPLICATION_PREFIX + "%")
+                    .onSuccess(rows -> logger.info("Cancelled " + rows.size() + " running analysis steps"))
+                    .onFailure(err -> logger.warning("Failed to cancel running analysis steps: " + err.getMessage()));
+        }
+
+        private void complete() {
+            if (failure != null) {
+                if (running == 0) {
+                    promise.tryFail(failure);
+                }
+                return;
+            }
+            if (finished == graph.size()) {
+                long sum = 0;
+                for (long duration : durations) {
+                    sum += duration;
+                }
+                logger.info("Analysis steps finished in " + (System.currentTimeMillis() - start) + "ms, " + sum +
+                            "ms in total, critical path " + graph.criticalPath(durations) + "ms");
+                promise.tryComplete(stats);
+                return;
+            }
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.optionsql.analyze;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dependency graph of the analysis steps. Edges only point from a step to later steps in file
+ * order, see {@link AnalyzeStep#mustFollow(AnalyzeStep)}, so file order is a topological order
+ * and the graph can never have a cycle.
+ */
+final class AnalyzeGraph {
+
+    private final List<AnalyzeStep> steps;
+    private final List<List<Integer>> predecessors = new ArrayList<>();
+    private final List<List<Integer>> successors = new ArrayList<>();
+
+    /**
+     * @param steps the steps in file order
+     * @throws IllegalArgumentException if a step depends on an unknown or later step
+     */
+    AnalyzeGraph(List<AnalyzeStep> steps) {
+        this.steps = List.copyOf(steps);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < steps.size(); i++) {
+            index.put(steps.get(i).getName(), i);
+            predecessors.add(new ArrayList<>());
+            successors.add(new ArrayList<>());
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            AnalyzeStep step = steps.get(i);
+            for (String dependency : step.getDepends()) {
+                Integer target = index.get(dependency);
+                if (target == null || target >= i) {
+                    throw new IllegalArgumentException("Analysis step " + step.getName() + " depends on " + dependency +
+                                                       ", which is not an earlier step");
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                if (step.mustFollow(steps.get(j))) {
+                    predecessors.get(i).add(j);
+                    successors.get(j).add(i);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return steps.size();
+    }
+
+    AnalyzeStep getStep(int i) {
+        return steps.get(i);
+    }
+
+    List<Integer> getPredecessors(int i) {
+        return predecessors.get(i);
+    }
+
+    List<Integer> getSuccessors(int i) {
+        return successors.get(i);
+    }
+
+    /**
+     * @param durations the run time of each step
+     * @return the length of the longest chain of dependent steps, the lower bound of the run
+     * time with unlimited parallelism
+     */
+    long criticalPath(long[] durations) {
+        long[] finish = new long[steps.size()];
+        long longest = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            long start = 0;
+            for (int predecessor : predecessors.get(i)) {
+                start = Math.max(start, finish[predecessor]);
+            }
+            finish[i] = start + durations[i];
+            longest = Math.max(longest, finish[i]);
+        }
+        return longest;
+    }
+
+    /**
+     * @return one line per step listing the steps it waits for
+     */
+    String describe() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < steps.size(); i++) {
+            description.append(steps.get(i).getName()).append(" <- ");
+            List<String> names = new ArrayList<>();
+            for (int predecessor : predecessors.get(i)) {
+                names.add(steps.get(predecessor).getName());
+            }
+            description.append(names.isEmpty() ? "-" : String.join(", ", names)).append('\n');
+        }
+        return description.toString();
+    }
+}
@@ -2,31 +2,42 @@ package org.optionsql.analyze;
 
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.optionsql.base.BaseService;
+import org.optionsql.db.Database;
+import org.optionsql.db.StepStats;
+import org.optionsql.db.StepStatsTable;
 
-import java.io.IOException;
-import java.nio.file.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class AnalyzeService extends BaseService {
 
     private String listenAddress;
     private String sqlDir;
-    private String jdbcUrl;
-    private String jdbcUser;
-    private String jdbcPassword;
-    private String hostname;
-    private int port;
     private String database;
-    private Connection dbConnection;
-    private MessageConsumer<Void> consumer;
+    private int parallelism;
+    private String scopeSchema;
+    private boolean scopeReady;
+    private AnalyticsEngine engine;
+    private Set<String> skippedSteps;
+    private boolean explain;
+    private StepStatsTable statsTable;
+    private Future<Void> analysisChain = Future.succeededFuture();
+    private MessageConsumer<JsonObject> consumer;
 
     public AnalyzeService(String serviceName) {
         super(serviceName);
@@ -37,119 +48,239 @@ public class AnalyzeService extends BaseService {
         super.start();
 
         // Load configuration
-        JsonObject resourcesConfig = getGlobalConfig().getJsonObject("resources").getJsonObject("postgres");
         JsonObject serviceConfig = getServiceConfig();
-        hostname = resourcesConfig.getString("hostname");
-        port = resourcesConfig.getInteger("port");
         database = serviceConfig.getString("database");
-        jdbcUrl = "jdbc:postgresql://" + hostname + ":" + port + "/" + database;
-        jdbcUser = resourcesConfig.getString("user");
-        jdbcPassword = resourcesConfig.getString("password");
         listenAddress = serviceConfig.getString("listen");
         sqlDir = serviceConfig.getString("sqldir");
-        openDatabaseConnection();
+        parallelism = serviceConfig.getInteger("parallelism", 1);
+        scopeSchema = serviceConfig.getString("scopeschema", "sql/schema/optionchains/analyze_scope.sql");
+        // Steps whose results the store already writes at ingest
+        skippedSteps = new HashSet<>();
+        for (Object step : serviceConfig.getJsonArray("skip", new JsonArray())) {
+            skippedSteps.add(step.toString());
+        }
+        explain = serviceConfig.getBoolean("explain", false);
+        if (serviceConfig.getJsonObject("stats") != null) {
+            statsTable = new StepStatsTable(vertx, getDatabase(database), getServiceName(), serviceConfig.getJsonObject("stats"));
+        }
+        if ("java".equals(serviceConfig.getString("engine", "sql"))) {
+            engine = new AnalyticsEngine(serviceConfig.getInteger("enginechunk", 500),
+                    serviceConfig.getInteger("engineparallelism", Runtime.getRuntime().availableProcessors()));
+            getLogger().info("Analytics of " + AnalyticsEngine.TABLES + " computed by the Java engine.");
+        }
         startListening();
         getLogger().info("Analyze service started.");
     }
 
     @Override
     public void stop() throws Exception {
+        if (consumer != null) {
+            consumer.unregister();
+        }
+        if (engine != null) {
+            engine.close();
+        }
         super.stop();
-        closeDatabaseConnection();
     }
 
-    private Future<Void> openDatabaseConnection() {
+    private Future<Void> startListening() {
         Promise<Void> promise = Promise.promise();
-        vertx.executeBlocking(blockingPromise -> {
-            try {
-                dbConnection = DriverManager.getConnection(jdbcUrl, jdbcUser, jdbcPassword);
-                getLogger().info("Database connection established.");
-                blockingPromise.complete();
-            } catch (Exception e) {
-                blockingPromise.fail(e);
+
+        consumer = getEventBus().consumer(listenAddress, message -> {
+            JsonObject body = message.body();
+            if (body != null && !body.getBoolean("reanalyze", true)) {
+                // The store skipped every slice as unchanged, the previous results still hold
+                getEventBus().publish("analyze.complete", new JsonObject().put("service", "analyze").put("status", "success").put("payload", "unchanged"));
+                getLogger().info("No changed slices (" + body.getInteger("skippedslices", 0) + " skipped), analysis skipped. Published analyze.complete.");
+                return;
             }
-        }).onComplete(res -> {
+            // Runs share the analyze_scope table, one at a time
+            JsonArray tickers = body != null ? body.getJsonArray("tickers") : null;
+            analysisChain = analysisChain.transform(ignored -> analyze(tickers));
+        });
+
+        consumer.completionHandler(res -> {
             if (res.succeeded()) {
+                getLogger().info("Listening for messages on address: " + listenAddress);
                 promise.complete();
             } else {
                 promise.fail(res.cause());
             }
         });
+
         return promise.future();
     }
 
-    private void closeDatabaseConnection() {
-        if (dbConnection != null) {
-            try {
-                dbConnection.close();
-                getLogger().info("Database connection closed.");
-            } catch (Exception e) {
-                getLogger().severe("Failed to close database connection: " + e.getMessage());
-            }
+    /**
+     * Recompute the analysis results of the given tickers, or of all tickers if null, and
+     * publish analyze.complete.
+     */
+    private Future<Void> analyze(JsonArray tickers) {
+        String scope = tickers == null ? "all tickers" : tickers.size() + " tickers";
+        return prepareScope(tickers)
+                .compose(v -> processSqlFiles())
+                .compose(stats -> {
+                    if (tickers != null) {
+                        stats.setScope(tickers.size());
+                    }
+                    return saveStats(stats);
+                })
+                .onSuccess(stats -> {
+                    JsonObject message = new JsonObject().put("service", "analyze").put("status", "success");
+                    if (tickers != null) {
+                        message.put("tickers", tickers);
+                    }
+                    message.put("steps", stats.toJson());
+                    getEventBus().publish("analyze.complete", message);
+                    getLogger().info("Analysis of " + scope + " completed successfully. Published analyze.complete.");
+                })
+                .onFailure(err -> {
+                    getEventBus().publish("analyze.complete", new JsonObject().put("service", "analyze").put("status", "failure").put("payload", err.getMessage()));
+                    getLogger().severe("Analysis of " + scope + " failed: " + err.getMessage());
+                })
+                .mapEmpty();
+    }
+
+    /**
+     * Log the slowest steps of the run and store its stats, flagging the steps that got markedly
+     * slower than in the previous runs. A failure to store them does not fail the analysis.
+     */
+    private Future<StepStats> saveStats(StepStats stats) {
+        getLogger().info("Slowest analysis steps: " + stats.getSlowest(5));
+        if (statsTable == null) {
+            return Future.succeededFuture(stats);
         }
+        return statsTable.save(stats)
+                .onSuccess(v -> {
+                    for (StepStats.Step step : stats.getSlower()) {
+                        getLogger().warning("Analysis step got slower: " + step);
+                    }
+                })
+                .recover(err -> {
+                    getLogger().warning(err.getMessage());
+                    return Future.succeededFuture();
+                })
+                .map(stats);
     }
 
-    private Future<Void> startListening() {
-        Promise<Void> promise = Promise.promise();
+    /**
+     * Fill the analyze_scope table that every analysis script filters on. The steps run on
+     * different pooled connections, so the scope is a regular (unlogged) table rather than a
+     * temp table.
+     */
+    private Future<Void> prepareScope(JsonArray tickers) {
+        Database db = getDatabase(database);
+        Future<Void> ready = scopeReady
+                ? Future.succeededFuture()
+                : vertx.fileSystem().readFile(scopeSchema)
+                        .compose(sql -> db.execute(sql.toString()))
+                        .onSuccess(v -> scopeReady = true);
+        return ready
+                .compose(v -> {
+                    if (tickers == null) {
+                        return db.execute("TRUNCATE analyze_scope;\n" +
+                                          "INSERT INTO analyze_scope (ticker_symbol) SELECT ticker_symbol FROM ticker");
+                    }
+                    List<Object[]> rows = new ArrayList<>();
+                    for (int i = 0; i < tickers.size(); i++) {
+                        rows.add(new Object[]{tickers.getString(i)});
+                    }
+                    return db.execute("TRUNCATE analyze_scope").compose(truncated -> rows.isEmpty()
+                            ? Future.succeededFuture()
+                            : db.executeBatch("INSERT INTO analyze_scope (ticker_symbol) VALUES (?) ON CONFLICT DO NOTHING", rows).mapEmpty());
+                })
+                .compose(v -> db.execute("ANALYZE analyze_scope"))
+                .recover(err -> Future.failedFuture("Failed to prepare analysis scope: " + err.getMessage()));
+    }
 
-        consumer = getEventBus().consumer(listenAddress, message -> {
-            processSqlFiles()
-                    .onSuccess(v -> {
-                        getEventBus().publish("analyze.complete", new JsonObject().put("service", "analyze").put("status", "success"));
-                        getLogger().info("Analysis completed successfully. Published analyze.complete.");
-                    })
-                    .onFailure(err -> {
-                        getEventBus().publish("analyze.complete", new JsonObject().put("service", "analyze").put("status", "failure").put("payload", err.getMessage()));
-                        getLogger().severe("Analysis failed: " + err.getMessage());
+    /**
+     * Run the SQL files of the analysis directory as a dependency graph built from their
+     * header declarations, see {@link AnalyzeStep}. Independent steps run concurrently on
+     * separate connections, up to the configured parallelism. With the Java engine, the scripts
+     * that only write its tables are replaced by a single engine step. Configured steps are left
+     * out, see {@code skip}.
+     */
+    private Future<StepStats> processSqlFiles() {
+        Database db = getDatabase(database);
+        // Fetch SQL files sorted by filename
+        return vertx.fileSystem().readDir(sqlDir, ".*\\.sql")
+                .recover(err -> Future.failedFuture("Failed to read SQL files: " + err.getMessage()))
+                .compose(paths -> {
+                    List<Path> sqlFiles = paths.stream()
+                            .map(Paths::get)
+                            .sorted(Comparator.comparing(Path::getFileName))
+                            .collect(Collectors.toList());
+                    List<Future<Buffer>> reads = new ArrayList<>();
+                    for (Path sqlFile : sqlFiles) {
+                        reads.add(vertx.fileSystem().readFile(sqlFile.toString()));
+                    }
+                    return Future.all(reads).map(v -> {
+                        List<AnalyzeStep> steps = new ArrayList<>();
+                        for (int i = 0; i < sqlFiles.size(); i++) {
+                            AnalyzeStep step = new AnalyzeStep(sqlFiles.get(i).getFileName().toString(), reads.get(i).result().toString());
+                            if (skippedSteps.contains(step.getName())) {
+                                getLogger().fine("Skipping analysis step " + step.getName());
+                            } else if (engine == null || !replacedByEngine(step)) {
+                                steps.add(step);
+                            }
+                        }
+                        if (engine != null) {
+                            int position = 0;
+                            while (position < steps.size() && steps.get(position).getName().compareTo(AnalyticsEngine.STEP) < 0) {
+                                position++;
+                            }
+                            steps.add(position, new AnalyzeStep(AnalyticsEngine.STEP, AnalyticsEngine.READS, AnalyticsEngine.TABLES, this::runEngine));
+                        }
+                        AnalyzeGraph graph = new AnalyzeGraph(steps);
+                        if (isDebugEnabled()) {
+                            getLogger().fine("Analysis graph:\n" + graph.describe());
+                        }
+                        return graph;
                     });
-        });
+                })
+                .compose(graph -> new AnalyzeExecutor(db, parallelism, explain, getLogger()).run(graph));
+    }
 
-        consumer.completionHandler(res -> {
-            if (res.succeeded()) {
-                getLogger().info("Listening for messages on address: " + listenAddress);
-                promise.complete();
-            } else {
-                promise.fail(res.cause());
+    private static boolean replacedByEngine(AnalyzeStep step) {
+        if (step.getWrites().isEmpty()) {
+            return false;
+        }
+        for (String write : step.getWrites()) {
+            int dot = write.indexOf('.');
+            if (!AnalyticsEngine.TABLES.contains(dot < 0 ? write : write.substring(0, dot))) {
+                return false;
             }
-        });
-
-        return promise.future();
+        }
+        return true;
     }
 
-    private Future<Void> processSqlFiles() {
-        Promise<Void> promise = Promise.promise();
-        vertx.executeBlocking(blockingPromise -> {
-            try {
-                // Fetch SQL files sorted by filename
-                List<Path> sqlFiles = Files.list(Paths.get(sqlDir))
-                        .filter(Files::isRegularFile)
-                        .filter(p -> p.toString().endsWith(".sql"))
-                        .sorted(Comparator.comparing(Path::getFileName))
-                        .collect(Collectors.toList());
-
-                // Execute SQL files sequentially
-                for (Path sqlFile : sqlFiles) {
-                    String sql = Files.readString(sqlFile);
-                    try (Statement stmt = dbConnection.createStatement()) {
-                        getLogger().info("Executing SQL file: " + sqlFile.getFileName());
-                        stmt.execute(sql);
+    /**
+     * Run the analytics engine in one transaction on a connection of its own.
+     *
+     * @return the rows written
+     */
+    private Future<Long> runEngine() {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = getConnection(database)) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("SET application_name = '" + AnalyzeExecutor.APPLICATION_PREFIX + AnalyticsEngine.STEP + "'");
+                }
+                connection.setAutoCommit(false);
+                try {
+                    Map<String, Long> written = engine.run(connection);
+                    connection.commit();
+                    getLogger().fine("Analytics engine wrote " + written);
+                    return written.values().stream().mapToLong(Long::longValue).sum();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("RESET application_name");
                     }
                 }
-
-                blockingPromise.complete();
-            } catch (IOException e) {
-                blockingPromise.fail("Failed to read SQL files: " + e.getMessage());
-            } catch (Exception e) {
-                blockingPromise.fail("Failed to execute SQL files: " + e.getMessage());
-            }
-        }).onComplete(res -> {
-            if (res.succeeded()) {
-                promise.complete();
-            } else {
-                promise.fail(res.cause());
             }
-        });
-
-        return promise.future();
+        }, false);
     }
 }
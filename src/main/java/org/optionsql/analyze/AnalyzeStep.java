@@ -0,0 +1,134 @@
+package org.optionsql.analyze;
+
+import io.vertx.core.Future;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One analysis script and the tables it touches, declared in header comments:
+ * <pre>
+ *   -- @reads optionchains.put_iv, ticker
+ *   -- @writes optionchains.put_pr_iv
+ *   -- @depends 000_clean_zero_rows
+ * </pre>
+ * A resource is a table or a {@code table.column}. Column writes are meant for UPDATEs that
+ * change nothing but those columns, a script that inserts or deletes rows writes the whole
+ * table. Dependencies name other steps by file name without {@code .sql}. A script without
+ * any declaration is a barrier that runs alone, after everything before it.
+ * <p>
+ * A step can also run Java code instead of a script, with its resources declared in code.
+ */
+final class AnalyzeStep {
+
+    private static final Pattern HEADER = Pattern.compile("^--\\s*@(reads|writes|depends)\\s+(.+)$", Pattern.MULTILINE);
+
+    private final String name;
+    private final String sql;
+    private final Set<String> reads = new LinkedHashSet<>();
+    private final Set<String> writes = new LinkedHashSet<>();
+    private final Set<String> depends = new LinkedHashSet<>();
+    private final Supplier<Future<Long>> action;
+
+    AnalyzeStep(String name, Set<String> reads, Set<String> writes, Supplier<Future<Long>> action) {
+        this.name = name;
+        this.sql = null;
+        this.reads.addAll(reads);
+        this.writes.addAll(writes);
+        this.action = action;
+    }
+
+    AnalyzeStep(String fileName, String sql) {
+        this.name = fileName.endsWith(".sql") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        this.sql = sql;
+        this.action = null;
+        Matcher matcher = HEADER.matcher(sql);
+        while (matcher.find()) {
+            Set<String> target = "reads".equals(matcher.group(1)) ? reads : "writes".equals(matcher.group(1)) ? writes : depends;
+            for (String entry : matcher.group(2).split(",")) {
+                if (!entry.isBlank()) {
+                    target.add(entry.trim().toLowerCase());
+                }
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the Java code of the step, completing with the rows it wrote, or null for a script
+     */
+    Supplier<Future<Long>> getAction() {
+        return action;
+    }
+
+    Set<String> getReads() {
+        return Collections.unmodifiableSet(reads);
+    }
+
+    Set<String> getWrites() {
+        return Collections.unmodifiableSet(writes);
+    }
+
+    Set<String> getDepends() {
+        return Collections.unmodifiableSet(depends);
+    }
+
+    boolean isBarrier() {
+        return reads.isEmpty() && writes.isEmpty() && depends.isEmpty();
+    }
+
+    /**
+     * Whether this step has to wait for an earlier step in file order, so that running both
+     * concurrently gives the same result as running them one after the other. Writers of the
+     * same table always wait for each other, even on different columns, since their UPDATEs
+     * would lock the same rows. A reader waits for an earlier writer of what it reads and a
+     * writer for an earlier reader of what it writes.
+     */
+    boolean mustFollow(AnalyzeStep earlier) {
+        if (isBarrier() || earlier.isBarrier() || depends.contains(earlier.name)) {
+            return true;
+        }
+        for (String write : writes) {
+            for (String other : earlier.writes) {
+                if (table(write).equals(table(other))) {
+                    return true;
+                }
+            }
+        }
+        return overlaps(reads, earlier.writes) || overlaps(writes, earlier.reads);
+    }
+
+    private static boolean overlaps(Set<String> resources, Set<String> others) {
+        for (String resource : resources) {
+            for (String other : others) {
+                // A whole table overlaps each of its columns
+                if (table(resource).equals(table(other))
+                    && (resource.equals(other) || !resource.contains(".") || !other.contains("."))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String table(String resource) {
+        int dot = resource.indexOf('.');
+        return dot < 0 ? resource : resource.substring(0, dot);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
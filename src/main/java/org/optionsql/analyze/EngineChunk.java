@@ -0,0 +1,488 @@
+package org.optionsql.analyze;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The option chains of a group of tickers as primitive columns, and the analysis results
+ * computed from them by {@link AnalyticsEngine}.
+ * <p>
+ * Rows are ordered by ticker, expiration and strike, so every expiration is one contiguous slice
+ * of rows and every ticker a contiguous run of slices. SQL NULL is kept as {@code NaN}, which
+ * drops out of comparisons the same way NULL does in the scripts. {@link #compute(int)} only
+ * touches the rows and slices of its ticker, so tickers can be computed in parallel.
+ */
+final class EngineChunk {
+
+    static final int STRIKE = 0;
+    static final int CALL_IV = 1;
+    static final int PUT_IV = 2;
+    static final int CALL_GEX = 3;
+    static final int PUT_GEX = 4;
+    static final int CALL_DEX = 5;
+    static final int PUT_DEX = 6;
+    static final int CALL_OI = 7;
+    static final int PUT_OI = 8;
+    static final int CALL_VOLUME = 9;
+    static final int PUT_VOLUME = 10;
+    static final int CALL_DELTA = 11;
+    static final int PUT_DELTA = 12;
+    static final int CALL_BID = 13;
+    static final int PUT_BID = 14;
+    static final int CALL_ASK = 15;
+    static final int PUT_ASK = 16;
+    static final int CALL_MID = 17;
+    static final int PUT_MID = 18;
+    static final int COLUMNS = 19;
+
+    static final String SELECT = "SELECT ticker_symbol, expiration_date, strike_price, call_iv, put_iv, call_gex, put_gex, " +
+                                 "call_dex, put_dex, call_oi, put_oi, call_volume, put_volume, call_delta, put_delta, " +
+                                 "call_bid, put_bid, call_ask, put_ask, call_mid, put_mid " +
+                                 "FROM optionchains WHERE ticker_symbol = ANY(?) " +
+                                 "ORDER BY ticker_symbol, expiration_date, strike_price";
+
+    /**
+     * Columns averaged into ticker_expirations, in the order of its avg_* columns.
+     */
+    static final int[] AVERAGED = {
+            CALL_DELTA, CALL_VOLUME, CALL_OI, CALL_BID, CALL_ASK, CALL_MID, CALL_IV, CALL_GEX, CALL_DEX,
+            PUT_DELTA, PUT_VOLUME, PUT_OI, PUT_BID, PUT_ASK, PUT_MID, PUT_IV, PUT_GEX, PUT_DEX
+    };
+
+    final String[] tickers;
+    final LocalDate today;
+
+    /** Whether the ticker has a row in the ticker table, and its current price. */
+    final boolean[] listed;
+    final double[] price;
+
+    int rows;
+    double[][] columns = new double[COLUMNS][1024];
+
+    int slices;
+    int[] sliceTicker = new int[64];
+    LocalDate[] sliceExpiration = new LocalDate[64];
+    int[] sliceStart = new int[65];
+    final int[] firstSlice;
+    final int[] endSlice;
+
+    // ticker_expirations, only for slices with an expected move row
+    boolean[] expectedMove;
+    double[] moveDollars;
+    double[] movePercent;
+    double[] moveIv;
+    int[] daysToExpiration;
+    double[][] averages;
+    double[] keyLevelDistance;
+
+    // zero_gamma_ticker_expiration, reduced to the expected move
+    final List<List<double[]>> zeroGamma = new ArrayList<>();
+
+    // top_strikes_ticker_expiration, one row per kept optionchains row
+    boolean[] topStrike;
+    short[] zgsCount;
+    short[] topCount;
+
+    // key_levels by strike
+    final List<TreeMap<Double, KeyLevel>> keyLevels = new ArrayList<>();
+
+    // sentiment_ticker_expiration
+    String[] sentiment;
+    double[] callGexTotal;
+    double[] putGexTotal;
+    double[] differencePercentage;
+    double[] putCallRatio;
+
+    /**
+     * An empty chunk, filled with {@link #setPrice}, {@link #addRow} and {@link #finish}, or
+     * read from the database by {@link #load}.
+     */
+    EngineChunk(String[] tickers, LocalDate today) {
+        this.tickers = tickers;
+        this.today = today;
+        this.listed = new boolean[tickers.length];
+        this.price = new double[tickers.length];
+        this.firstSlice = new int[tickers.length];
+        this.endSlice = new int[tickers.length];
+        for (int i = 0; i < tickers.length; i++) {
+            zeroGamma.add(new ArrayList<>());
+            keyLevels.add(new TreeMap<>());
+        }
+    }
+
+    /**
+     * Read the option chains and current prices of the tickers.
+     */
+    static EngineChunk load(Connection connection, String[] tickers, LocalDate today, int fetchSize) throws SQLException {
+        EngineChunk chunk = new EngineChunk(tickers, today);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < tickers.length; i++) {
+            index.put(tickers[i], i);
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT ticker_symbol, current_price FROM ticker WHERE ticker_symbol = ANY(?)")) {
+            stmt.setArray(1, connection.createArrayOf("varchar", tickers));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunk.setPrice(index.get(rs.getString(1)), value(rs, 2));
+                }
+            }
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT)) {
+            stmt.setArray(1, connection.createArrayOf("varchar", tickers));
+            // Streams with a cursor instead of buffering the whole result, autocommit is off
+            stmt.setFetchSize(fetchSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunk.nextRow(index.get(rs.getString(1)), rs.getDate(2).toLocalDate());
+                    for (int c = 0; c < COLUMNS; c++) {
+                        chunk.columns[c][chunk.rows] = value(rs, c + 3);
+                    }
+                    chunk.rows++;
+                }
+            }
+        }
+        chunk.finish();
+        return chunk;
+    }
+
+    /**
+     * The ticker has a row in the ticker table with the given price, NaN for NULL.
+     */
+    void setPrice(int ticker, double price) {
+        listed[ticker] = true;
+        this.price[ticker] = price;
+    }
+
+    /**
+     * Append one option chain row. Rows must come in the order of {@link #SELECT}.
+     *
+     * @param values the {@code COLUMNS} values from strike_price on, NaN for NULL
+     */
+    void addRow(int ticker, LocalDate expiration, double[] values) {
+        nextRow(ticker, expiration);
+        for (int c = 0; c < COLUMNS; c++) {
+            columns[c][rows] = values[c];
+        }
+        rows++;
+    }
+
+    /**
+     * Close the last slice and allocate the results, after the last row.
+     */
+    void finish() {
+        sliceStart[slices] = rows;
+        allocateResults();
+    }
+
+    /**
+     * Make room for the next row and start a new slice where the ticker or expiration changes.
+     */
+    private void nextRow(int ticker, LocalDate expiration) {
+        if (slices == 0 || sliceTicker[slices - 1] != ticker) {
+            firstSlice[ticker] = slices;
+            startSlice(ticker, expiration);
+        } else if (!expiration.equals(sliceExpiration[slices - 1])) {
+            startSlice(ticker, expiration);
+        }
+        endSlice[ticker] = slices;
+        if (rows == columns[0].length) {
+            for (int c = 0; c < COLUMNS; c++) {
+                columns[c] = Arrays.copyOf(columns[c], rows * 2);
+            }
+        }
+    }
+
+    private void startSlice(int ticker, LocalDate expiration) {
+        if (slices + 1 >= sliceTicker.length) {
+            sliceTicker = Arrays.copyOf(sliceTicker, sliceTicker.length * 2);
+            sliceExpiration = Arrays.copyOf(sliceExpiration, sliceExpiration.length * 2);
+            sliceStart = Arrays.copyOf(sliceStart, sliceStart.length * 2);
+        }
+        sliceTicker[slices] = ticker;
+        sliceExpiration[slices] = expiration;
+        sliceStart[slices] = rows;
+        slices++;
+    }
+
+    private void allocateResults() {
+        expectedMove = new boolean[slices];
+        moveDollars = new double[slices];
+        movePercent = new double[slices];
+        moveIv = new double[slices];
+        daysToExpiration = new int[slices];
+        averages = new double[slices][];
+        keyLevelDistance = new double[slices];
+        topStrike = new boolean[rows];
+        zgsCount = new short[rows];
+        topCount = new short[rows];
+        sentiment = new String[slices];
+        callGexTotal = new double[slices];
+        putGexTotal = new double[slices];
+        differencePercentage = new double[slices];
+        putCallRatio = new double[slices];
+    }
+
+    private static double value(ResultSet rs, int column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    int sliceEnd(int slice) {
+        return sliceStart[slice + 1];
+    }
+
+    /**
+     * Compute all results of one ticker, the same as the analysis scripts from
+     * 150_insert_ticker_expiration to 290_sentiment_per_expiration.
+     */
+    void compute(int ticker) {
+        Map<Double, Integer> zgsCounts = new HashMap<>();
+        Map<Double, Integer> topCounts = new HashMap<>();
+        for (int slice = firstSlice[ticker]; slice < endSlice[ticker]; slice++) {
+            computeExpectedMove(ticker, slice);
+            computeAverages(slice);
+            computeZeroGamma(ticker, slice, zgsCounts);
+            computeTopStrikes(ticker, slice, topCounts);
+            computeSentiment(slice);
+        }
+        for (int slice = firstSlice[ticker]; slice < endSlice[ticker]; slice++) {
+            for (int row = sliceStart[slice]; row < sliceEnd(slice); row++) {
+                if (topStrike[row]) {
+                    double strike = columns[STRIKE][row];
+                    zgsCount[row] = (short) (int) zgsCounts.getOrDefault(strike, 0);
+                    topCount[row] = (short) (int) topCounts.get(strike);
+                    keyLevels.get(ticker).computeIfAbsent(strike, s -> new KeyLevel()).add(this, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * 150: implied volatility of the strike closest to the current price and the expected move
+     * until expiration, for future expirations of listed tickers.
+     */
+    private void computeExpectedMove(int ticker, int slice) {
+        LocalDate expiration = sliceExpiration[slice];
+        if (!listed[ticker] || !expiration.isAfter(today)) {
+            return;
+        }
+        double currentPrice = price[ticker];
+        int start = sliceStart[slice];
+        int end = sliceEnd(slice);
+        double closest = Double.POSITIVE_INFINITY;
+        for (int row = start; row < end; row++) {
+            closest = Math.min(closest, Math.abs(columns[STRIKE][row] - currentPrice));
+        }
+        int days = (int) (expiration.toEpochDay() - today.toEpochDay());
+        double dollars = Double.NaN;
+        double percent = Double.NaN;
+        double iv = Double.NaN;
+        for (int row = start; row < end; row++) {
+            double distance = Math.abs(columns[STRIKE][row] - currentPrice);
+            // Without a price every distance is NULL and every strike ranks first
+            if (distance == closest || Double.isNaN(closest)) {
+                double strikeIv = (columns[CALL_IV][row] + columns[PUT_IV][row]) / 2;
+                double move = currentPrice * strikeIv * Math.sqrt(days / 365.0);
+                dollars = max(dollars, move);
+                percent = max(percent, (move / currentPrice) * 100);
+                iv = max(iv, strikeIv);
+            }
+        }
+        expectedMove[slice] = true;
+        moveDollars[slice] = dollars;
+        movePercent[slice] = percent;
+        moveIv[slice] = iv;
+        daysToExpiration[slice] = days;
+    }
+
+    /**
+     * 270: averages of the non-zero values per column, integer columns rounded like a numeric
+     * assigned to INT.
+     */
+    private void computeAverages(int slice) {
+        if (!expectedMove[slice]) {
+            return;
+        }
+        double[] result = new double[AVERAGED.length];
+        for (int i = 0; i < AVERAGED.length; i++) {
+            double[] column = columns[AVERAGED[i]];
+            boolean integer = AVERAGED[i] == CALL_VOLUME || AVERAGED[i] == PUT_VOLUME
+                              || AVERAGED[i] == CALL_OI || AVERAGED[i] == PUT_OI;
+            double sum = 0;
+            long count = 0;
+            for (int row = sliceStart[slice]; row < sliceEnd(slice); row++) {
+                double value = column[row];
+                if (value != 0 && !Double.isNaN(value)) {
+                    sum += value;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                result[i] = Double.NaN;
+            } else if (integer) {
+                long total = (long) sum;
+                long quotient = total / count;
+                long remainder = total % count;
+                result[i] = 2 * Math.abs(remainder) >= count ? quotient + Long.signum(remainder) : quotient;
+            } else {
+                result[i] = sum / count;
+            }
+        }
+        averages[slice] = result;
+    }
+
+    /**
+     * 200 and 230: strikes where the cumulative net GEX changes sign, within the expected move.
+     */
+    private void computeZeroGamma(int ticker, int slice, Map<Double, Integer> zgsCounts) {
+        double cumulative = Double.NaN;
+        double previous;
+        for (int row = sliceStart[slice]; row < sliceEnd(slice); row++) {
+            previous = cumulative;
+            double net = columns[CALL_GEX][row] - columns[PUT_GEX][row];
+            if (!Double.isNaN(net)) {
+                cumulative = Double.isNaN(cumulative) ? net : cumulative + net;
+            }
+            if (cumulative * previous < 0) {
+                double strike = columns[STRIKE][row];
+                if (withinExpectedMove(ticker, slice, strike)) {
+                    zeroGamma.get(ticker).add(new double[]{slice, strike, Math.abs(previous) + Math.abs(cumulative)});
+                    zgsCounts.merge(strike, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * 210, 240 and 280: every strike within the expected move and the average distance between
+     * them.
+     */
+    private void computeTopStrikes(int ticker, int slice, Map<Double, Integer> topCounts) {
+        double previous = Double.NaN;
+        double distances = 0;
+        int count = 0;
+        for (int row = sliceStart[slice]; row < sliceEnd(slice); row++) {
+            double strike = columns[STRIKE][row];
+            if (withinExpectedMove(ticker, slice, strike)) {
+                topStrike[row] = true;
+                topCounts.merge(strike, 1, Integer::sum);
+                if (!Double.isNaN(previous)) {
+                    distances += strike - previous;
+                    count++;
+                }
+                previous = strike;
+            }
+        }
+        keyLevelDistance[slice] = count == 0 ? Double.NaN : distances / count;
+    }
+
+    private boolean withinExpectedMove(int ticker, int slice, double strike) {
+        if (!expectedMove[slice]) {
+            return true;
+        }
+        // NULL bounds compare false, as in the DELETE of the scripts
+        return !(strike < price[ticker] - moveDollars[slice] || strike > price[ticker] + moveDollars[slice]);
+    }
+
+    /**
+     * 290: GEX and DEX totals, put/call ratio and the sentiment they add up to.
+     */
+    private void computeSentiment(int slice) {
+        double callGex = Double.NaN;
+        double putGex = Double.NaN;
+        double callDex = Double.NaN;
+        double putDex = Double.NaN;
+        double gexMagnitude = Double.NaN;
+        double dexMagnitude = Double.NaN;
+        double callOi = Double.NaN;
+        double putOi = Double.NaN;
+        for (int row = sliceStart[slice]; row < sliceEnd(slice); row++) {
+            callGex = sum(callGex, columns[CALL_GEX][row]);
+            putGex = sum(putGex, columns[PUT_GEX][row]);
+            callDex = sum(callDex, columns[CALL_DEX][row]);
+            putDex = sum(putDex, columns[PUT_DEX][row]);
+            gexMagnitude = sum(gexMagnitude, Math.abs(columns[CALL_GEX][row]) + Math.abs(columns[PUT_GEX][row]));
+            dexMagnitude = sum(dexMagnitude, Math.abs(columns[CALL_DEX][row]) + Math.abs(columns[PUT_DEX][row]));
+            callOi = sum(callOi, columns[CALL_OI][row]);
+            putOi = sum(putOi, columns[PUT_OI][row]);
+        }
+        callGexTotal[slice] = callGex;
+        putGexTotal[slice] = putGex;
+        differencePercentage[slice] = callGex + putGex == 0 ? 0 : ((callGex - putGex) / nullIfZero(callGex + putGex)) * 100;
+        double ratio = putOi / nullIfZero(callOi);
+        putCallRatio[slice] = ratio;
+
+        double gex = ((callGex - putGex) / nullIfZero(gexMagnitude)) * 100;
+        double dex = ((callDex - putDex) / nullIfZero(dexMagnitude)) * 100;
+        if (gex > 40 && dex > 25 && ratio <= 0.6) {
+            sentiment[slice] = "Strong Bullish";
+        } else if (gex > 10 && dex > 5 && ratio <= 0.8) {
+            sentiment[slice] = "Slightly Bullish";
+        } else if (Math.abs(gex) <= 5 && ratio >= 0.8 && ratio <= 1.2) {
+            sentiment[slice] = "Neutral";
+        } else if (((putGex - callGex) / nullIfZero(gexMagnitude)) * 100 > 10
+                   && ((putDex - callDex) / nullIfZero(dexMagnitude)) * 100 > 5 && ratio >= 1.0) {
+            sentiment[slice] = "Slightly Bearish";
+        } else {
+            sentiment[slice] = "Strong Bearish";
+        }
+    }
+
+    /**
+     * SUM semantics: NULL values are skipped, the sum of nothing is NULL.
+     */
+    private static double sum(double total, double value) {
+        if (Double.isNaN(value)) {
+            return total;
+        }
+        return Double.isNaN(total) ? value : total + value;
+    }
+
+    /**
+     * MAX semantics: NULL values are skipped, the maximum of nothing is NULL.
+     */
+    private static double max(double current, double value) {
+        if (Double.isNaN(value)) {
+            return current;
+        }
+        return Double.isNaN(current) ? value : Math.max(current, value);
+    }
+
+    private static double nullIfZero(double value) {
+        return value == 0 ? Double.NaN : value;
+    }
+
+    /**
+     * 250 and 260: one key level per ticker and strike, summed over the expirations.
+     */
+    static final class KeyLevel {
+
+        int maxZgsCount;
+        int maxTopCount;
+        double netGex = Double.NaN;
+        double netDex = Double.NaN;
+        double openInterest = Double.NaN;
+        double volume = Double.NaN;
+
+        void add(EngineChunk chunk, int row) {
+            double[][] columns = chunk.columns;
+            maxZgsCount = Math.max(maxZgsCount, chunk.zgsCount[row]);
+            maxTopCount = Math.max(maxTopCount, chunk.topCount[row]);
+            netGex = sum(netGex, columns[CALL_GEX][row] - columns[PUT_GEX][row]);
+            netDex = sum(netDex, columns[CALL_DEX][row] + columns[PUT_DEX][row]);
+            openInterest = sum(openInterest, columns[CALL_OI][row] + columns[PUT_OI][row]);
+            volume = sum(volume, columns[CALL_VOLUME][row] + columns[PUT_VOLUME][row]);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.optionsql.archive;
+
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One archived snapshot of one ticker. A block is self-contained so that archive files are
+ * append-only:
+ * <pre>
+ *   magic "OSCA" | version | snapshot epoch ms | raw length | compressed length | crc32 | deflated payload
+ * </pre>
+ * The payload holds the ticker fields, the expirations as day deltas, the row count per slice
+ * and then one column per field over all rows of the chain: strikes, the ten call columns and
+ * the ten put columns, each in the encoding of {@link ColumnCodec}.
+ */
+final class ArchiveBlock {
+
+    static final int MAGIC = 0x4F534341;
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = 4 + 1 + 8 + 4 + 4 + 4;
+
+    private ArchiveBlock() {
+    }
+
+    static byte[] encode(long snapshotMillis, OptionChain chain, int level) throws IOException {
+        byte[] raw = encodePayload(chain);
+        Deflater deflater = new Deflater(level);
+        byte[] compressed;
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                buffer.write(chunk, 0, deflater.deflate(chunk));
+            }
+            compressed = buffer.toByteArray();
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        ByteArrayOutputStream block = new ByteArrayOutputStream(HEADER_BYTES + compressed.length);
+        DataOutputStream out = new DataOutputStream(block);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(snapshotMillis);
+        out.writeInt(raw.length);
+        out.writeInt(compressed.length);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed);
+        out.flush();
+        return block.toByteArray();
+    }
+
+    /**
+     * @param compressed the deflated payload of a block whose checksum has been verified
+     */
+    static OptionChain decode(String ticker, byte[] compressed, int rawLength) throws IOException {
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                read += inflater.inflate(raw, read, rawLength - read);
+            }
+            if (read != rawLength) {
+                throw new IOException("Archive block of " + ticker + " inflated to " + read + " instead of " + rawLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block of " + ticker, e);
+        } finally {
+            inflater.end();
+        }
+        return decodePayload(ticker, raw);
+    }
+
+    private static byte[] encodePayload(OptionChain chain) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + (int) chain.getEstimatedBytes() / 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, chain.getSegment());
+        out.writeDouble(chain.getCurrentPrice());
+        out.writeDouble(chain.getIvHistoricalLow());
+        out.writeDouble(chain.getIvHistoricalHigh());
+        writeString(out, chain.getNextEarningsDate());
+        writeString(out, chain.getNextEarningsTime());
+
+        List<ExpirationSlice> slices = chain.getSlices();
+        ColumnCodec.writeVarLong(out, slices.size());
+        long previousDay = 0;
+        int rows = 0;
+        for (ExpirationSlice slice : slices) {
+            long day = LocalDate.parse(slice.getExpirationDate()).toEpochDay();
+            ColumnCodec.writeVarLong(out, ColumnCodec.zigzag(day - previousDay));
+            previousDay = day;
+            ColumnCodec.writeVarLong(out, slice.size());
+            rows += slice.size();
+        }
+
+        double[] doubles = new double[rows];
+        int[] ints = new int[rows];
+        int offset = 0;
+        for (ExpirationSlice slice : slices) {
+            for (int j = 0; j < slice.size(); j++) {
+                doubles[offset + j] = slice.getStrike(j);
+            }
+            offset += slice.size();
+        }
+        ColumnCodec.writeDoubles(out, doubles);
+        writeSide(out, slices, true, doubles, ints);
+        writeSide(out, slices, false, doubles, ints);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSide(DataOutputStream out, List<ExpirationSlice> slices, boolean calls,
+                                  double[] doubles, int[] ints) throws IOException {
+        for (int field = 0; field < 10; field++) {
+            boolean intField = field == 3 || field == 4;
+            int offset = 0;
+            for (ExpirationSlice slice : slices) {
+                OptionSide side = calls ? slice.getCalls() : slice.getPuts();
+                for (int j = 0; j < slice.size(); j++) {
+                    if (intField) {
+                        ints[offset + j] = field == 3 ? side.getVolume(j) : side.getOpenInterest(j);
+                    } else {
+                        doubles[offset + j] = doubleField(side, field, j);
+                    }
+                }
+                offset += slice.size();
+            }
+            if (intField) {
+                ColumnCodec.writeInts(out, ints);
+            } else {
+                ColumnCodec.writeDoubles(out, doubles);
+            }
+        }
+    }
+
+    private static double doubleField(OptionSide side, int field, int j) {
+        switch (field) {
+            case 0: return side.getBid(j);
+            case 1: return side.getAsk(j);
+            case 2: return side.getMid(j);
+            case 5: return side.getDelta(j);
+            case 6: return side.getGamma(j);
+            case 7: return side.getTheta(j);
+            case 8: return side.getVega(j);
+            default: return side.getIv(j);
+        }
+    }
+
+    private static OptionChain decodePayload(String ticker, byte[] raw) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        String segment = readString(in);
+        double currentPrice = in.readDouble();
+        double ivLow = in.readDouble();
+        double ivHigh = in.readDouble();
+        String earningsDate = readString(in);
+        String earningsTime = readString(in);
+
+        int sliceCount = (int) ColumnCodec.readVarLong(in);
+        String[] expirations = new String[sliceCount];
+        int[] sizes = new int[sliceCount];
+        long day = 0;
+        int rows = 0;
+        for (int i = 0; i < sliceCount; i++) {
+            day += ColumnCodec.unzigzag(ColumnCodec.readVarLong(in));
+            expirations[i] = LocalDate.ofEpochDay(day).toString();
+            sizes[i] = (int) ColumnCodec.readVarLong(in);
+            rows += sizes[i];
+        }
+
+        double[] strikes = ColumnCodec.readDoubles(in, rows);
+        Object[] calls = readSide(in, rows);
+        Object[] puts = readSide(in, rows);
+
+        List<ExpirationSlice> slices = new ArrayList<>(sliceCount);
+        int offset = 0;
+        for (int i = 0; i < sliceCount; i++) {
+            int end = offset + sizes[i];
+            slices.add(new ExpirationSlice(expirations[i], slice(strikes, offset, end),
+                    side(calls, offset, end), side(puts, offset, end)));
+            offset = end;
+        }
+        return new OptionChain(ticker, segment, currentPrice, ivLow, ivHigh, earningsDate, earningsTime, slices);
+    }
+
+    /**
+     * @return the ten columns of a side over all rows, double[] or int[] in field order
+     */
+    private static Object[] readSide(DataInputStream in, int rows) throws IOException {
+        Object[] columns = new Object[10];
+        for (int field = 0; field < 10; field++) {
+            columns[field] = field == 3 || field == 4 ? ColumnCodec.readInts(in, rows) : ColumnCodec.readDoubles(in, rows);
+        }
+        return columns;
+    }
+
+    private static OptionSide side(Object[] columns, int from, int to) {
+        return new OptionSide(slice((double[]) columns[0], from, to), slice((double[]) columns[1], from, to),
+                slice((double[]) columns[2], from, to), slice((int[]) columns[3], from, to),
+                slice((int[]) columns[4], from, to), slice((double[]) columns[5], from, to),
+                slice((double[]) columns[6], from, to), slice((double[]) columns[7], from, to),
+                slice((double[]) columns[8], from, to), slice((double[]) columns[9], from, to));
+    }
+
+    private static double[] slice(double[] column, int from, int to) {
+        return Arrays.copyOfRange(column, from, to);
+    }
+
+    private static int[] slice(int[] column, int from, int to) {
+        return Arrays.copyOfRange(column, from, to);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
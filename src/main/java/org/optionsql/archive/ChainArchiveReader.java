@@ -0,0 +1,165 @@
+package org.optionsql.archive;
+
+import org.optionsql.model.OptionChain;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the archive written by {@link ChainArchiveWriter}.
+ * <p>
+ * Snapshots come back as {@link OptionChain}s in the order they were stored. A block that is cut
+ * short or fails its checksum ends the scan of its file with a warning; it can only be the last
+ * one, from a write that was interrupted.
+ * <pre>
+ *   ChainArchiveReader archive = new ChainArchiveReader(Path.of("archive"));
+ *   for (LocalDate day : archive.days()) {
+ *       archive.scan(day, "SPY", (snapshot, chain) -> ...);
+ *   }
+ * </pre>
+ */
+public class ChainArchiveReader {
+
+    private static final Logger logger = Logger.getLogger(ChainArchiveReader.class.getName());
+
+    private final Path dir;
+
+    public ChainArchiveReader(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the archived trading days in ascending order
+     */
+    public List<LocalDate> days() throws IOException {
+        List<LocalDate> days = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return days;
+        }
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                try {
+                    days.add(LocalDate.parse(entry.getFileName().toString()));
+                } catch (DateTimeParseException e) {
+                    // Not a day partition
+                }
+            }
+        }
+        days.sort(null);
+        return days;
+    }
+
+    /**
+     * @return the tickers archived on the day in ascending order
+     */
+    public List<String> tickers(LocalDate day) throws IOException {
+        List<String> tickers = new ArrayList<>();
+        Path dayDir = dir.resolve(day.toString());
+        if (!Files.isDirectory(dayDir)) {
+            return tickers;
+        }
+        try (Stream<Path> entries = Files.list(dayDir)) {
+            entries.map(entry -> entry.getFileName().toString())
+                   .filter(name -> name.endsWith(ChainArchiveWriter.EXTENSION))
+                   .map(name -> name.substring(0, name.length() - ChainArchiveWriter.EXTENSION.length()))
+                   .sorted()
+                   .forEach(tickers::add);
+        }
+        return tickers;
+    }
+
+    /**
+     * @return all snapshots of the ticker on the day, oldest first
+     */
+    public List<Snapshot> read(LocalDate day, String ticker) throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        scan(day, ticker, (timestamp, chain) -> snapshots.add(new Snapshot(timestamp, chain)));
+        return snapshots;
+    }
+
+    /**
+     * Decode the snapshots of the ticker on the day one at a time, oldest first, without holding
+     * more than one of them in memory.
+     *
+     * @return the number of snapshots passed to the consumer
+     */
+    public int scan(LocalDate day, String ticker, BiConsumer<Instant, OptionChain> consumer) throws IOException {
+        Path file = ChainArchiveWriter.file(dir, day, ticker);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    return count;
+                }
+                try {
+                    if (magic != ArchiveBlock.MAGIC) {
+                        throw new IOException("bad block magic");
+                    }
+                    byte version = in.readByte();
+                    if (version != ArchiveBlock.VERSION) {
+                        throw new IOException("unsupported block version " + version);
+                    }
+                    long snapshotMillis = in.readLong();
+                    int rawLength = in.readInt();
+                    byte[] compressed = new byte[in.readInt()];
+                    int checksum = in.readInt();
+                    in.readFully(compressed);
+                    CRC32 crc = new CRC32();
+                    crc.update(compressed);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("checksum mismatch");
+                    }
+                    consumer.accept(Instant.ofEpochMilli(snapshotMillis), ArchiveBlock.decode(ticker, compressed, rawLength));
+                    count++;
+                } catch (EOFException e) {
+                    logger.warning("Archive file " + file + " ends in a torn block after " + count + " snapshots");
+                    return count;
+                } catch (IOException e) {
+                    logger.warning("Archive file " + file + " has an unreadable block after " + count + " snapshots: " + e.getMessage());
+                    return count;
+                }
+            }
+        }
+    }
+
+    /**
+     * One archived snapshot of a ticker.
+     */
+    public static final class Snapshot {
+
+        private final Instant timestamp;
+        private final OptionChain chain;
+
+        Snapshot(Instant timestamp, OptionChain chain) {
+            this.timestamp = timestamp;
+            this.chain = chain;
+        }
+
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        public OptionChain getChain() {
+            return chain;
+        }
+    }
+}
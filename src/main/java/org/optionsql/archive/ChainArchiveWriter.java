@@ -0,0 +1,73 @@
+package org.optionsql.archive;
+
+import io.vertx.core.json.JsonObject;
+import org.optionsql.model.OptionChain;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.zip.Deflater;
+
+/**
+ * Writes stored option chain snapshots to a columnar archive next to the database, for research
+ * jobs that scan long histories without going through Postgres.
+ * <p>
+ * The archive is partitioned by trading day and ticker: {@code <dir>/<yyyy-MM-dd>/<ticker>.occ}.
+ * Every snapshot of a ticker is appended to the file of its day as one self-contained compressed
+ * block, see {@link ArchiveBlock}, so files are never rewritten and a torn block at the end of a
+ * file only loses that snapshot. Read it back with {@link ChainArchiveReader}.
+ * <p>
+ * The format is our own rather than Arrow IPC or Parquet. Parquet files cannot be appended to,
+ * so every snapshot would become a file of its own or force a rewrite of the day, and either
+ * library would pull Arrow's or Hadoop's dependency tree into the store for one writer. The
+ * format stays simple enough to read from other languages: blocks are big-endian, the payload is
+ * a zlib stream checked by a CRC-32, strings are length-prefixed UTF-8 as
+ * {@code DataOutput.writeUTF} writes them, and every column is a tag byte followed by
+ * little-endian base-128 varints or 8-byte values, see {@link ColumnCodec}. {@link ArchiveBlock}
+ * lays out the block and its payload.
+ */
+public class ChainArchiveWriter {
+
+    static final String EXTENSION = ".occ";
+
+    private final Path dir;
+    private final ZoneId zone;
+    private final int level;
+
+    /**
+     * @param config the {@code archive} section of the store configuration
+     */
+    public ChainArchiveWriter(JsonObject config) {
+        this.dir = Path.of(config.getString("dir", "archive"));
+        this.zone = ZoneId.of(config.getString("timezone", "America/New_York"));
+        this.level = config.getInteger("level", Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Append the snapshot of one ticker to the file of its trading day.
+     *
+     * @return the number of bytes appended
+     */
+    public synchronized long append(Instant snapshot, OptionChain chain) throws IOException {
+        byte[] block = ArchiveBlock.encode(snapshot.toEpochMilli(), chain, level);
+        Path file = file(dir, snapshot.atZone(zone).toLocalDate(), chain.getTickerSymbol());
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(block);
+        }
+        return block.length;
+    }
+
+    static Path file(Path dir, LocalDate day, String ticker) {
+        return dir.resolve(day.toString()).resolve(ticker + EXTENSION);
+    }
+}
@@ -0,0 +1,222 @@
+package org.optionsql.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodings of the primitive columns of an archive block. Every column starts with a tag byte
+ * naming the encoding chosen for it:
+ * <ul>
+ *     <li>doubles that are exact decimals with at most {@link #MAX_SCALE} digits, like quotes and
+ *     strikes, as zigzag varint deltas of their scaled value</li>
+ *     <li>other doubles with few distinct values as a dictionary plus varint indexes</li>
+ *     <li>all remaining doubles raw, XOR-ed with their predecessor so that the shared sign,
+ *     exponent and high mantissa bytes turn into zeros for the block compression</li>
+ *     <li>ints as zigzag varints, of the values or of their deltas, whichever is shorter</li>
+ * </ul>
+ */
+final class ColumnCodec {
+
+    static final int MAX_SCALE = 6;
+
+    static final byte RAW = 0;
+    static final byte DECIMAL_DELTA = 1;
+    static final byte DICTIONARY = 2;
+    static final byte VARINT = 3;
+    static final byte VARINT_DELTA = 4;
+
+    private static final double[] POWERS = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private ColumnCodec() {
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        int scale = decimalScale(values);
+        if (scale >= 0) {
+            out.writeByte(DECIMAL_DELTA);
+            out.writeByte(scale);
+            long previous = 0;
+            for (double value : values) {
+                long scaled = (long) Math.rint(value * POWERS[scale]);
+                writeVarLong(out, zigzag(scaled - previous));
+                previous = scaled;
+            }
+            return;
+        }
+
+        Map<Long, Integer> dictionary = dictionary(values);
+        if (dictionary != null) {
+            out.writeByte(DICTIONARY);
+            writeVarLong(out, dictionary.size());
+            long[] entries = new long[dictionary.size()];
+            dictionary.forEach((bits, index) -> entries[index] = bits);
+            for (long bits : entries) {
+                out.writeLong(bits);
+            }
+            for (double value : values) {
+                writeVarLong(out, dictionary.get(Double.doubleToRawLongBits(value)));
+            }
+            return;
+        }
+
+        out.writeByte(RAW);
+        long previous = 0;
+        for (double value : values) {
+            long bits = Double.doubleToRawLongBits(value);
+            out.writeLong(bits ^ previous);
+            previous = bits;
+        }
+    }
+
+    static double[] readDoubles(DataInputStream in, int count) throws IOException {
+        double[] values = new double[count];
+        byte tag = in.readByte();
+        switch (tag) {
+            case DECIMAL_DELTA: {
+                double power = POWERS[in.readByte()];
+                long scaled = 0;
+                for (int i = 0; i < count; i++) {
+                    scaled += unzigzag(readVarLong(in));
+                    values[i] = scaled / power;
+                }
+                return values;
+            }
+            case DICTIONARY: {
+                double[] entries = new double[(int) readVarLong(in)];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = Double.longBitsToDouble(in.readLong());
+                }
+                for (int i = 0; i < count; i++) {
+                    values[i] = entries[(int) readVarLong(in)];
+                }
+                return values;
+            }
+            case RAW: {
+                long previous = 0;
+                for (int i = 0; i < count; i++) {
+                    previous ^= in.readLong();
+                    values[i] = Double.longBitsToDouble(previous);
+                }
+                return values;
+            }
+            default:
+                throw new IOException("Unknown double column encoding " + tag);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        long plainBytes = 0;
+        long deltaBytes = 0;
+        int previous = 0;
+        for (int value : values) {
+            plainBytes += varLongSize(zigzag(value));
+            deltaBytes += varLongSize(zigzag((long) value - previous));
+            previous = value;
+        }
+        boolean delta = deltaBytes < plainBytes;
+        out.writeByte(delta ? VARINT_DELTA : VARINT);
+        previous = 0;
+        for (int value : values) {
+            writeVarLong(out, zigzag(delta ? (long) value - previous : value));
+            previous = value;
+        }
+    }
+
+    static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        byte tag = in.readByte();
+        if (tag != VARINT && tag != VARINT_DELTA) {
+            throw new IOException("Unknown int column encoding " + tag);
+        }
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long value = unzigzag(readVarLong(in));
+            previous = tag == VARINT_DELTA ? previous + value : value;
+            values[i] = (int) previous;
+        }
+        return values;
+    }
+
+    /**
+     * @return the smallest number of decimal digits that represents every value exactly, or -1
+     * if there is none up to {@link #MAX_SCALE}
+     */
+    private static int decimalScale(double[] values) {
+        for (int scale = 0; scale <= MAX_SCALE; scale++) {
+            if (isDecimal(values, POWERS[scale])) {
+                return scale;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDecimal(double[] values, double power) {
+        for (double value : values) {
+            // Rejects NaN, infinities, -0.0 and anything the division does not restore bit for bit
+            if (!(Math.abs(value) < 1e12)) {
+                return false;
+            }
+            long scaled = (long) Math.rint(value * power);
+            if (Double.doubleToRawLongBits(scaled / power) != Double.doubleToRawLongBits(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value bits mapped to dictionary indexes in order of first occurrence, or null
+     * if the column has too many distinct values for a dictionary to pay off
+     */
+    private static Map<Long, Integer> dictionary(double[] values) {
+        int limit = values.length / 4;
+        Map<Long, Integer> dictionary = new HashMap<>();
+        for (double value : values) {
+            dictionary.putIfAbsent(Double.doubleToRawLongBits(value), dictionary.size());
+            if (dictionary.size() > limit) {
+                return null;
+            }
+        }
+        return dictionary;
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -3,17 +3,27 @@ package org.optionsql.base;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.web.client.WebClient;
-import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import org.optionsql.db.ConnectionPool;
+import org.optionsql.db.Database;
+import org.optionsql.db.JdbcDatabase;
+import org.optionsql.db.ReactiveDatabase;
+import org.optionsql.http.HttpGateway;
+import org.optionsql.replay.ReplayStore;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,6 +34,7 @@ public abstract class BaseService extends AbstractVerticle {
     private final String serviceName;
     private JsonObject globalConfig;
     private JsonObject serviceConfig;
+    private final Map<String, Database> databases = new HashMap<>();
 
     protected BaseService(String serviceName) {
         this.logger = Logger.getLogger(getClass().getName());
@@ -89,6 +100,55 @@ public abstract class BaseService extends AbstractVerticle {
         return serviceConfig;
     }
 
+    /**
+     * Get the HTTP gateway shared by all services of this Vert.x instance.
+     * @return the shared HTTP gateway
+     */
+    protected HttpGateway getHttpGateway() {
+        JsonObject httpConfig = globalConfig.getJsonObject("resources", new JsonObject()).getJsonObject("http", new JsonObject());
+        return HttpGateway.shared(vertx, httpConfig);
+    }
+
+    /**
+     * Get the database connection pool shared by all services of this Vert.x instance.
+     * @return the shared connection pool
+     */
+    protected ConnectionPool getConnectionPool() {
+        JsonObject postgresConfig = globalConfig.getJsonObject("resources").getJsonObject("postgres");
+        return ConnectionPool.shared(vertx, postgresConfig);
+    }
+
+    /**
+     * Borrow a pooled connection; closing it returns it to the pool. Blocks, so call it from
+     * {@code executeBlocking}.
+     * @param database the database name
+     * @return a pooled connection
+     */
+    protected Connection getConnection(String database) throws SQLException {
+        return getConnectionPool().getConnection(database);
+    }
+
+    /**
+     * Get the asynchronous access layer for a database, on JDBC or on the reactive PostgreSQL
+     * client depending on {@code resources.postgres.client}.
+     * @param database the database name
+     * @return the database access layer, cached per service
+     */
+    protected Database getDatabase(String database) {
+        return databases.computeIfAbsent(database, name -> {
+            JsonObject postgresConfig = globalConfig.getJsonObject("resources").getJsonObject("postgres");
+            if ("reactive".equals(postgresConfig.getString("client", "jdbc"))) {
+                return new ReactiveDatabase(vertx, postgresConfig, name);
+            }
+            return new JdbcDatabase(vertx, getConnectionPool(), name);
+        });
+    }
+
+    protected ReplayStore getReplayStore() {
+        JsonObject replayConfig = globalConfig.getJsonObject("resources", new JsonObject()).getJsonObject("replay", new JsonObject());
+        return ReplayStore.shared(vertx, replayConfig);
+    }
+
     protected String getFutureDateISO8601(int days) {
         Calendar calendar = Calendar.getInstance();
         calendar.add(Calendar.DAY_OF_YEAR, days);
@@ -99,24 +159,47 @@ public abstract class BaseService extends AbstractVerticle {
         return date;
     }
 
-    protected Future<JsonObject> makeHttpRequest(String urlStr) {
+    /**
+     * Send a GET request through the shared HTTP gateway and return the raw response.
+     * @param urlStr the absolute URL
+     * @return a Future with the response, whatever its status code
+     */
+    protected Future<HttpResponse<Buffer>> makeRawHttpRequest(String urlStr) {
+        return makeRawHttpRequest(urlStr, null);
+    }
+
+    /**
+     * Send a GET request with extra headers, e.g. conditional request validators.
+     * @param urlStr  the absolute URL
+     * @param headers extra request headers, may be null
+     * @return a Future with the response, whatever its status code
+     */
+    protected Future<HttpResponse<Buffer>> makeRawHttpRequest(String urlStr, MultiMap headers) {
         if (isDebugEnabled()) {
             logger.info("Making HTTP request to URL: " + urlStr);
         }
+        ReplayStore replayStore = getReplayStore();
+        if (replayStore.getMode() == ReplayStore.Mode.REPLAY) {
+            return replayStore.replayHttp(urlStr);
+        }
+        long start = System.currentTimeMillis();
+        Future<HttpResponse<Buffer>> response = getHttpGateway().get(urlStr, headers);
+        if (replayStore.getMode() == ReplayStore.Mode.RECORD) {
+            response = response.onSuccess(r -> replayStore.recordHttp(urlStr, r, System.currentTimeMillis() - start));
+        }
+        return response;
+    }
 
-        WebClientOptions options = new WebClientOptions()
-                .setDefaultHost("api.marketdata.app")
-                .setDefaultPort(443) // Assuming HTTPS
-                .setSsl(true); // Enable SSL for HTTPS
-
-        WebClient client = WebClient.create(vertx, options);
-
-        // Parse the URL for path and query params
-        String path = urlStr.substring(urlStr.indexOf("/v1"));
+    protected Future<JsonObject> makeHttpRequest(String urlStr) {
+        return toJsonResponse(makeRawHttpRequest(urlStr));
+    }
 
-        return client
-                .get(path)
-                .send()
+    /**
+     * Decode a raw response as JSON. Failures and non-OK statuses come back as a JSON object
+     * with {@code "s": "error"}, the status code under {@code "code"} if there was a response.
+     */
+    protected Future<JsonObject> toJsonResponse(Future<HttpResponse<Buffer>> rawResponse) {
+        return rawResponse
                 .compose(response -> {
                     if (response.statusCode() == 200 || response.statusCode() == 203) {
                         JsonObject jsonResponse = response.bodyAsJsonObject();
@@ -125,7 +208,12 @@ public abstract class BaseService extends AbstractVerticle {
                         }
                         return Future.succeededFuture(jsonResponse);
                     } else {
-                        return Future.failedFuture(new RuntimeException("HTTP request failed with status: " + response.statusCode()));
+                        // Keep the status code so callers can react to throttling (429) or server errors (5xx)
+                        JsonObject errorResponse = new JsonObject()
+                                .put("s", "error")
+                                .put("code", response.statusCode())
+                                .put("message", "HTTP request failed with status: " + response.statusCode());
+                        return Future.succeededFuture(errorResponse);
                     }
                 })
                 .recover(err -> {
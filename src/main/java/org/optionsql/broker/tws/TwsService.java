@@ -8,8 +8,10 @@ import org.optionsql.broker.tws.request.TwsRequestManager;
 import org.optionsql.broker.tws.request.TwsSession;
 import org.optionsql.broker.tws.task.HistIV;
 import org.optionsql.broker.tws.task.MarketPrice;
+import org.optionsql.replay.ReplayStore;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class TwsService extends BaseService {
@@ -33,6 +35,13 @@ public class TwsService extends BaseService {
         port = serviceConfig.getInteger("port", 7496);
         clientId = serviceConfig.getInteger("clientid", 0);
 
+        if (getReplayStore().getMode() == ReplayStore.Mode.REPLAY) {
+            // Answer from recorded responses, no TWS gateway needed
+            getLogger().info("TWS replay mode, not connecting to " + hostname + ":" + port);
+            listenForRequests();
+            return;
+        }
+
         initializeTwsConnection()
                 .thenRun(this::listenForRequests)
                 .exceptionally(ex -> {
@@ -71,15 +80,11 @@ public class TwsService extends BaseService {
             return;
         }
 
-        MarketPrice marketPriceRequest = new MarketPrice(twsRequestManager);
-        marketPriceRequest.fetchMarketPrice(symbol).thenRun(() -> {
-            JsonObject response = new JsonObject()
+        respond(message, "get_current_price", symbol, "Failed to fetch current price: ", () -> {
+            MarketPrice marketPriceRequest = new MarketPrice(twsRequestManager);
+            return marketPriceRequest.fetchMarketPrice(symbol).thenApply(ignored -> new JsonObject()
                     .put("symbol", symbol)
-                    .put("current_price", marketPriceRequest.getCurrentPrice());
-            message.reply(response);
-        }).exceptionally(ex -> {
-            message.fail(500, "Failed to fetch current price: " + ex.getMessage());
-            return null;
+                    .put("current_price", marketPriceRequest.getCurrentPrice()));
         });
     }
 
@@ -90,15 +95,37 @@ public class TwsService extends BaseService {
             return;
         }
 
-        HistIV histIVRequest = new HistIV(twsRequestManager);
-        histIVRequest.fetchHistoricalIV(symbol).thenRun(() -> {
-            JsonObject response = new JsonObject()
+        respond(message, "get_hist_iv", symbol, "Failed to fetch historical IV: ", () -> {
+            HistIV histIVRequest = new HistIV(twsRequestManager);
+            return histIVRequest.fetchHistoricalIV(symbol).thenApply(ignored -> new JsonObject()
                     .put("symbol", symbol)
                     .put("iv_low", histIVRequest.getHistoricalLowIV())
-                    .put("iv_high", histIVRequest.getHistoricalHighIV());
+                    .put("iv_high", histIVRequest.getHistoricalHighIV()));
+        });
+    }
+
+    /**
+     * Reply with a live TWS result, recording it in record mode, or with a recorded one in replay mode.
+     */
+    private void respond(Message<JsonObject> message, String request, String symbol, String failurePrefix,
+                         Supplier<CompletableFuture<JsonObject>> live) {
+        ReplayStore replayStore = getReplayStore();
+        String endpoint = "tws_" + request;
+        if (replayStore.getMode() == ReplayStore.Mode.REPLAY) {
+            replayStore.replayJson(endpoint, symbol)
+                    .onSuccess(message::reply)
+                    .onFailure(err -> message.fail(500, failurePrefix + err.getMessage()));
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        live.get().thenAccept(response -> {
+            if (replayStore.getMode() == ReplayStore.Mode.RECORD) {
+                replayStore.recordJson(endpoint, symbol, response, System.currentTimeMillis() - start);
+            }
             message.reply(response);
         }).exceptionally(ex -> {
-            message.fail(500, "Failed to fetch historical IV: " + ex.getMessage());
+            message.fail(500, failurePrefix + ex.getMessage());
             return null;
         });
     }
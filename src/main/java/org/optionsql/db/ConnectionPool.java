@@ -0,0 +1,141 @@
+package org.optionsql.db;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import org.optionsql.http.LatencyHistogram;
+
+import java.beans.PropertyVetoException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Pooled PostgreSQL connections shared by all services of a Vert.x instance, one c3p0 pool per
+ * database, configured once under {@code resources.postgres.pool}.
+ * <p>
+ * Connections are validated on check-in and while idle and replaced transparently when the
+ * server drops them. pgjdbc caches server-side prepared statements per connection, so statements
+ * prepared by one run are reused by the next one that borrows the same connection.
+ * {@link #getConnection(String)} blocks and must be called from a worker thread.
+ */
+public class ConnectionPool implements Shareable {
+
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+    private static final String SHARED_MAP = "optionsql.postgres";
+
+    private final JsonObject postgresConfig;
+    private final JsonObject poolConfig;
+    private final Map<String, ComboPooledDataSource> dataSources = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> checkoutLatency = new ConcurrentHashMap<>();
+
+    private ConnectionPool(Vertx vertx, JsonObject postgresConfig) {
+        this.postgresConfig = postgresConfig;
+        this.poolConfig = postgresConfig.getJsonObject("pool", new JsonObject());
+
+        long reportIntervalMs = poolConfig.getLong("reportintervalms", 0L);
+        if (reportIntervalMs > 0) {
+            vertx.setPeriodic(reportIntervalMs, id -> {
+                if (!dataSources.isEmpty()) {
+                    logger.info("Connection pool metrics: " + metrics().encode());
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the pool owned by the given Vert.x instance, creating it on first use.
+     *
+     * @param vertx          the Vert.x instance
+     * @param postgresConfig the {@code resources.postgres} configuration
+     * @return the shared pool
+     */
+    public static ConnectionPool shared(Vertx vertx, JsonObject postgresConfig) {
+        LocalMap<String, ConnectionPool> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        return map.computeIfAbsent("pool", key -> new ConnectionPool(vertx, postgresConfig));
+    }
+
+    /**
+     * Borrow a connection. Closing it returns it to the pool.
+     *
+     * @param database the database name
+     * @return a validated connection in auto-commit mode
+     */
+    public Connection getConnection(String database) throws SQLException {
+        ComboPooledDataSource dataSource = dataSources.computeIfAbsent(database, this::createDataSource);
+        long start = System.currentTimeMillis();
+        Connection connection = dataSource.getConnection();
+        checkoutLatency.computeIfAbsent(database, key -> new LatencyHistogram()).record(System.currentTimeMillis() - start);
+        return connection;
+    }
+
+    private ComboPooledDataSource createDataSource(String database) {
+        // Server-side prepared statements after prepareThreshold executions, cached per connection
+        String jdbcUrl = "jdbc:postgresql://" + postgresConfig.getString("hostname") + ":" + postgresConfig.getInteger("port") +
+                         "/" + database +
+                         "?prepareThreshold=" + poolConfig.getInteger("preparethreshold", 1) +
+                         "&preparedStatementCacheQueries=" + poolConfig.getInteger("statementcachesize", 256) +
+                         "&ApplicationName=optionsql";
+
+        ComboPooledDataSource dataSource = new ComboPooledDataSource();
+        try {
+            dataSource.setDriverClass("org.postgresql.Driver");
+        } catch (PropertyVetoException e) {
+            throw new IllegalStateException("PostgreSQL driver not available", e);
+        }
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUser(postgresConfig.getString("user"));
+        dataSource.setPassword(postgresConfig.getString("password"));
+        dataSource.setDataSourceName("optionsql-" + database);
+        dataSource.setMinPoolSize(poolConfig.getInteger("minsize", 1));
+        dataSource.setInitialPoolSize(poolConfig.getInteger("minsize", 1));
+        dataSource.setMaxPoolSize(poolConfig.getInteger("maxsize", 8));
+        dataSource.setCheckoutTimeout(poolConfig.getInteger("checkouttimeoutms", 30000));
+        dataSource.setPreferredTestQuery(poolConfig.getString("testquery", "SELECT 1"));
+        dataSource.setTestConnectionOnCheckin(true);
+        dataSource.setTestConnectionOnCheckout(poolConfig.getBoolean("testoncheckout", false));
+        dataSource.setIdleConnectionTestPeriod(poolConfig.getInteger("idletestseconds", 60));
+        dataSource.setMaxIdleTime(poolConfig.getInteger("maxidleseconds", 600));
+        dataSource.setAcquireRetryAttempts(poolConfig.getInteger("acquireretries", 5));
+        dataSource.setAcquireRetryDelay(poolConfig.getInteger("acquireretrydelayms", 1000));
+
+        logger.info("Created connection pool for database " + database + " (max " + dataSource.getMaxPoolSize() + ")");
+        return dataSource;
+    }
+
+    /**
+     * @return per-database active, idle and waiting connection counts plus checkout wait times
+     */
+    public JsonObject metrics() {
+        JsonObject databases = new JsonObject();
+        dataSources.forEach((database, dataSource) -> {
+            JsonObject stats = new JsonObject();
+            try {
+                stats.put("active", dataSource.getNumBusyConnectionsDefaultUser())
+                        .put("idle", dataSource.getNumIdleConnectionsDefaultUser())
+                        .put("total", dataSource.getNumConnectionsDefaultUser())
+                        .put("waiting", dataSource.getNumThreadsAwaitingCheckoutDefaultUser());
+            } catch (SQLException e) {
+                stats.put("error", e.getMessage());
+            }
+            LatencyHistogram latency = checkoutLatency.get(database);
+            if (latency != null) {
+                stats.put("checkoutms", latency.toJson());
+            }
+            databases.put(database, stats);
+        });
+        return new JsonObject().put("databases", databases);
+    }
+
+    /**
+     * Close all pools, e.g. on shutdown.
+     */
+    public void close() {
+        dataSources.values().forEach(ComboPooledDataSource::close);
+        dataSources.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package org.optionsql.db;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * Asynchronous access to one PostgreSQL database, independent of the driver underneath.
+ * <p>
+ * Statements use JDBC style {@code ?} placeholders. Parameters may be String, Number, Boolean,
+ * java.time values or null. Rows come back as JSON objects keyed by column label.
+ */
+public interface Database {
+
+    /**
+     * Run a script of one or more statements without parameters, e.g. a DDL or analysis file.
+     */
+    Future<Void> execute(String script);
+
+    /**
+     * Run a script like {@link #execute(String)}.
+     *
+     * @return the total number of rows affected by its statements
+     */
+    Future<Long> executeCounted(String script);
+
+    /**
+     * @return the rows of a single query
+     */
+    Future<List<JsonObject>> query(String sql, Object... params);
+
+    /**
+     * Run a single query and time it from the moment it has a connection, so neither the wait
+     * for a pooled connection nor queued work of other queries counts.
+     */
+    Future<TimedRows> timedQuery(String sql, Object... params);
+
+    /**
+     * @return the number of rows affected by a single statement
+     */
+    Future<Integer> update(String sql, Object... params);
+
+    /**
+     * Execute one statement for many parameter sets in a single batch.
+     *
+     * @return the total number of affected rows
+     */
+    Future<Integer> executeBatch(String sql, List<Object[]> batch);
+
+    /**
+     * @return "jdbc" or "reactive"
+     */
+    String getClientName();
+}
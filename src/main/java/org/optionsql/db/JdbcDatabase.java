@@ -0,0 +1,154 @@
+package org.optionsql.db;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Database} on blocking JDBC: every call borrows a connection from the shared
+ * {@link ConnectionPool} on a worker thread. Calls from one context run unordered, so
+ * independent statements can use several pooled connections at once.
+ */
+public class JdbcDatabase implements Database {
+
+    private final Vertx vertx;
+    private final ConnectionPool pool;
+    private final String database;
+
+    public JdbcDatabase(Vertx vertx, ConnectionPool pool, String database) {
+        this.vertx = vertx;
+        this.pool = pool;
+        this.database = database;
+    }
+
+    @Override
+    public Future<Void> execute(String script) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database);
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute(script);
+            }
+            return null;
+        }, false);
+    }
+
+    @Override
+    public Future<Long> executeCounted(String script) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database);
+                 Statement stmt = connection.createStatement()) {
+                long rows = 0;
+                boolean resultSet = stmt.execute(script);
+                while (true) {
+                    if (!resultSet) {
+                        int count = stmt.getUpdateCount();
+                        if (count == -1) {
+                            break;
+                        }
+                        rows += count;
+                    }
+                    resultSet = stmt.getMoreResults();
+                }
+                return rows;
+            }
+        }, false);
+    }
+
+    @Override
+    public Future<List<JsonObject>> query(String sql, Object... params) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database);
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                bind(stmt, params);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    return toJson(resultSet);
+                }
+            }
+        }, false);
+    }
+
+    @Override
+    public Future<TimedRows> timedQuery(String sql, Object... params) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database)) {
+                long start = System.nanoTime();
+                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                    bind(stmt, params);
+                    try (ResultSet resultSet = stmt.executeQuery()) {
+                        List<JsonObject> rows = toJson(resultSet);
+                        return new TimedRows(rows, (System.nanoTime() - start) / 1_000_000);
+                    }
+                }
+            }
+        }, false);
+    }
+
+    @Override
+    public Future<Integer> update(String sql, Object... params) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database);
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                bind(stmt, params);
+                return stmt.executeUpdate();
+            }
+        }, false);
+    }
+
+    @Override
+    public Future<Integer> executeBatch(String sql, List<Object[]> batch) {
+        return vertx.executeBlocking(() -> {
+            try (Connection connection = pool.getConnection(database);
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (Object[] params : batch) {
+                    bind(stmt, params);
+                    stmt.addBatch();
+                }
+                int total = 0;
+                for (int count : stmt.executeBatch()) {
+                    total += Math.max(count, 0);
+                }
+                return total;
+            }
+        }, false);
+    }
+
+    @Override
+    public String getClientName() {
+        return "jdbc";
+    }
+
+    private static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+
+    private static List<JsonObject> toJson(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columns = metaData.getColumnCount();
+        List<JsonObject> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            JsonObject row = new JsonObject();
+            for (int i = 1; i <= columns; i++) {
+                Object value = resultSet.getObject(i);
+                if (value == null || value instanceof Number || value instanceof String || value instanceof Boolean) {
+                    row.put(metaData.getColumnLabel(i), value);
+                } else {
+                    // Dates, timestamps and arrays as their text form
+                    row.put(metaData.getColumnLabel(i), value.toString());
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,158 @@
+package org.optionsql.db;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgBuilder;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Database} on the non-blocking Vert.x PostgreSQL client. The client pipelines up to
+ * {@code pipelininglimit} queries per connection, so many round trips can be in flight without
+ * occupying worker threads.
+ * <p>
+ * A pipelined query waits behind the queries sent before it on the same connection, so timed
+ * queries run on connections of their own from a second, unpipelined pool. Its connections are
+ * only opened when timed queries are used.
+ */
+public class ReactiveDatabase implements Database {
+
+    private final SqlClient client;
+    private final Pool timingPool;
+
+    /**
+     * @param postgresConfig the {@code resources.postgres} configuration
+     * @param database       the database name
+     */
+    public ReactiveDatabase(Vertx vertx, JsonObject postgresConfig, String database) {
+        JsonObject reactiveConfig = postgresConfig.getJsonObject("reactive", new JsonObject());
+        PgConnectOptions connectOptions = new PgConnectOptions()
+                .setHost(postgresConfig.getString("hostname"))
+                .setPort(postgresConfig.getInteger("port"))
+                .setDatabase(database)
+                .setUser(postgresConfig.getString("user"))
+                .setPassword(postgresConfig.getString("password"))
+                .setPipeliningLimit(reactiveConfig.getInteger("pipelininglimit", 256))
+                .setCachePreparedStatements(true)
+                .setPreparedStatementCacheMaxSize(reactiveConfig.getInteger("statementcachesize", 256));
+        PoolOptions poolOptions = new PoolOptions()
+                .setMaxSize(reactiveConfig.getInteger("maxsize", 4))
+                .setShared(true)
+                .setName("optionsql-" + database);
+        this.client = PgBuilder.client()
+                .with(poolOptions)
+                .connectingTo(connectOptions)
+                .using(vertx)
+                .build();
+        this.timingPool = PgBuilder.pool()
+                .with(new PoolOptions()
+                        .setMaxSize(poolOptions.getMaxSize())
+                        .setShared(true)
+                        .setName("optionsql-" + database + "-timed"))
+                .connectingTo(connectOptions)
+                .using(vertx)
+                .build();
+    }
+
+    @Override
+    public Future<Void> execute(String script) {
+        // Simple query protocol, accepts several statements separated by semicolons
+        return client.query(script).execute().mapEmpty();
+    }
+
+    @Override
+    public Future<Long> executeCounted(String script) {
+        // One row set per statement of the script
+        return client.query(script).execute().map(rows -> {
+            long total = 0;
+            for (RowSet<Row> rowSet = rows; rowSet != null; rowSet = rowSet.next()) {
+                total += rowSet.rowCount();
+            }
+            return total;
+        });
+    }
+
+    @Override
+    public Future<List<JsonObject>> query(String sql, Object... params) {
+        return client.preparedQuery(toNative(sql)).execute(Tuple.from(params)).map(ReactiveDatabase::toJson);
+    }
+
+    @Override
+    public Future<TimedRows> timedQuery(String sql, Object... params) {
+        return timingPool.withConnection(connection -> {
+            long start = System.nanoTime();
+            return connection.preparedQuery(toNative(sql)).execute(Tuple.from(params))
+                    .map(rows -> new TimedRows(toJson(rows), (System.nanoTime() - start) / 1_000_000));
+        });
+    }
+
+    @Override
+    public Future<Integer> update(String sql, Object... params) {
+        return client.preparedQuery(toNative(sql)).execute(Tuple.from(params)).map(RowSet::rowCount);
+    }
+
+    @Override
+    public Future<Integer> executeBatch(String sql, List<Object[]> batch) {
+        if (batch.isEmpty()) {
+            return Future.succeededFuture(0);
+        }
+        List<Tuple> tuples = new ArrayList<>(batch.size());
+        for (Object[] params : batch) {
+            tuples.add(Tuple.from(params));
+        }
+        return client.preparedQuery(toNative(sql)).executeBatch(tuples).map(rows -> {
+            int total = 0;
+            for (RowSet<Row> rowSet = rows; rowSet != null; rowSet = rowSet.next()) {
+                total += rowSet.rowCount();
+            }
+            return total;
+        });
+    }
+
+    @Override
+    public String getClientName() {
+        return "reactive";
+    }
+
+    public Future<Void> close() {
+        return Future.join(client.close(), timingPool.close()).mapEmpty();
+    }
+
+    private static List<JsonObject> toJson(RowSet<Row> rowSet) {
+        List<JsonObject> rows = new ArrayList<>(rowSet.rowCount());
+        for (Row row : rowSet) {
+            rows.add(row.toJson());
+        }
+        return rows;
+    }
+
+    /**
+     * Rewrite JDBC {@code ?} placeholders to PostgreSQL {@code $n}, leaving quoted text alone.
+     */
+    static String toNative(String sql) {
+        StringBuilder out = new StringBuilder(sql.length() + 16);
+        int index = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            if (c == '?' && !quoted) {
+                out.append('$').append(++index);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
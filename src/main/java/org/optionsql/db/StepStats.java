@@ -0,0 +1,190 @@
+package org.optionsql.db;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Timing of the SQL steps of one run: wall time, executions and rows affected or returned per
+ * step, optionally with the captured plans. Steps that run many times in a run, like the signal
+ * filters, accumulate. Not thread safe, record from one context.
+ * <p>
+ * A run over a subset of the tickers or under EXPLAIN ANALYZE is not comparable with a full
+ * plain run, so the stats carry the scope and the explain flag of the run.
+ * <p>
+ * {@link StepStatsTable} stores a run and fills in the baseline of every step from the previous
+ * runs.
+ */
+public class StepStats {
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private Integer scopeTickers;
+    private boolean explain;
+
+    public void record(String step, long ms, long rows) {
+        Step entry = steps.computeIfAbsent(step, Step::new);
+        entry.executions++;
+        entry.totalMs += ms;
+        entry.maxMs = Math.max(entry.maxMs, ms);
+        entry.rows += rows;
+    }
+
+    /**
+     * @param plan the EXPLAIN output of the statements of the step
+     */
+    public void setPlan(String step, JsonArray plan) {
+        steps.computeIfAbsent(step, Step::new).plan = plan;
+    }
+
+    /**
+     * @param tickers the number of tickers the run was scoped to
+     */
+    public void setScope(int tickers) {
+        this.scopeTickers = tickers;
+    }
+
+    /**
+     * @return the number of tickers the run was scoped to, or null for a run over all tickers
+     */
+    public Integer getScopeTickers() {
+        return scopeTickers;
+    }
+
+    /**
+     * @param explain the steps ran under EXPLAIN ANALYZE
+     */
+    public void setExplain(boolean explain) {
+        this.explain = explain;
+    }
+
+    public boolean isExplain() {
+        return explain;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public Collection<Step> getSteps() {
+        return steps.values();
+    }
+
+    /**
+     * @return the steps flagged as markedly slower than their baseline
+     */
+    public List<Step> getSlower() {
+        return steps.values().stream().filter(Step::isSlower).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the steps with the most wall time first
+     */
+    public List<Step> getSlowest(int limit) {
+        List<Step> sorted = new ArrayList<>(steps.values());
+        sorted.sort(Comparator.comparingLong(Step::getTotalMs).reversed());
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * @return the stats of every step without plans, keyed by step
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        for (Step step : steps.values()) {
+            json.put(step.name, step.toJson());
+        }
+        return json;
+    }
+
+    public static class Step {
+
+        private final String name;
+        private int executions;
+        private long totalMs;
+        private long maxMs;
+        private long rows;
+        private JsonArray plan;
+        private double baselineMs = Double.NaN;
+        private boolean slower;
+
+        private Step(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getExecutions() {
+            return executions;
+        }
+
+        public long getTotalMs() {
+            return totalMs;
+        }
+
+        public long getMaxMs() {
+            return maxMs;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public JsonArray getPlan() {
+            return plan;
+        }
+
+        public double getMeanMs() {
+            return executions == 0 ? 0 : (double) totalMs / executions;
+        }
+
+        /**
+         * @return the median mean time of the previous runs, NaN without history
+         */
+        public double getBaselineMs() {
+            return baselineMs;
+        }
+
+        public boolean isSlower() {
+            return slower;
+        }
+
+        void setBaseline(double baselineMs, boolean slower) {
+            this.baselineMs = baselineMs;
+            this.slower = slower;
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject()
+                    .put("ms", totalMs)
+                    .put("executions", executions)
+                    .put("maxms", maxMs)
+                    .put("rows", rows);
+            if (!Double.isNaN(baselineMs)) {
+                json.put("baselinems", Math.round(baselineMs * 10) / 10.0).put("slower", slower);
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            String text = name + " " + totalMs + "ms";
+            if (executions > 1) {
+                text += String.format(" (%dx, mean %.1fms, max %dms)", executions, getMeanMs(), maxMs);
+            }
+            text += ", " + rows + " rows";
+            if (!Double.isNaN(baselineMs)) {
+                text += String.format(", baseline %.1fms", baselineMs);
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.optionsql.db;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the {@link StepStats} of every run of a service in the sql_step_stats table and compares
+ * each step with its previous runs.
+ * <p>
+ * The baseline of a step is the median of its mean execution time over the last {@code runs}
+ * comparable runs: runs over all tickers are compared with runs over all tickers, scoped runs
+ * with scoped runs of at most twice or half as many tickers. Runs under EXPLAIN ANALYZE are
+ * stored but neither get nor give a baseline. A step is flagged as slower when its mean time exceeds {@code factor} times the baseline
+ * by at least {@code minms}, so steps of a few milliseconds do not flag on noise. Rows older than
+ * {@code retentiondays} are removed on the way.
+ */
+public class StepStatsTable {
+
+    private static final String BASELINE_FULL = baseline("tickers IS NULL");
+
+    private static final String BASELINE_SCOPED = baseline("tickers BETWEEN ? AND ?");
+
+    private static final String INSERT =
+            "INSERT INTO sql_step_stats (service, run_at, step, executions, total_ms, max_ms, row_count, tickers, explain, " +
+            "baseline_ms, slower, plan) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CAST(CAST(? AS text) AS jsonb))";
+
+    private final Vertx vertx;
+    private final Database db;
+    private final String service;
+    private final String schema;
+    private final int runs;
+    private final double factor;
+    private final long minMs;
+    private final int retentionDays;
+    private boolean ready;
+
+    /**
+     * @param config the {@code stats} section of the service
+     */
+    public StepStatsTable(Vertx vertx, Database db, String service, JsonObject config) {
+        this.vertx = vertx;
+        this.db = db;
+        this.service = service;
+        this.schema = config.getString("schema", "sql/schema/optionchains/sql_step_stats.sql");
+        this.runs = config.getInteger("runs", 10);
+        this.factor = config.getDouble("factor", 2.0);
+        this.minMs = config.getLong("minms", 100L);
+        this.retentionDays = config.getInteger("retentiondays", 30);
+    }
+
+    /**
+     * Compare the run with the previous ones, flag the steps that got slower and store it.
+     */
+    public Future<Void> save(StepStats stats) {
+        if (stats.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        OffsetDateTime runAt = OffsetDateTime.now(ZoneOffset.UTC);
+        Future<Void> prepared = ready
+                ? Future.succeededFuture()
+                : vertx.fileSystem().readFile(schema)
+                        .compose(sql -> db.execute(sql.toString()))
+                        .onSuccess(v -> ready = true);
+        Integer scope = stats.getScopeTickers();
+        return prepared
+                .compose(v -> {
+                    if (stats.isExplain()) {
+                        return Future.succeededFuture(List.<JsonObject>of());
+                    }
+                    return scope == null
+                            ? db.query(BASELINE_FULL, service, (long) runs)
+                            : db.query(BASELINE_SCOPED, service, (scope + 1) / 2, scope * 2, (long) runs);
+                })
+                .compose(rows -> {
+                    Map<String, Double> baselines = new HashMap<>();
+                    for (JsonObject row : rows) {
+                        baselines.put(row.getString("step"), row.getDouble("baseline_ms"));
+                    }
+                    List<Object[]> batch = new ArrayList<>();
+                    for (StepStats.Step step : stats.getSteps()) {
+                        Double baseline = baselines.get(step.getName());
+                        if (baseline != null) {
+                            double mean = step.getMeanMs();
+                            step.setBaseline(baseline, mean > factor * baseline && mean - baseline >= minMs);
+                        }
+                        batch.add(new Object[]{service, runAt, step.getName(), step.getExecutions(), step.getTotalMs(),
+                                step.getMaxMs(), step.getRows(), scope, stats.isExplain(), baseline, step.isSlower(),
+                                step.getPlan() != null ? step.getPlan().encode() : null});
+                    }
+                    return db.executeBatch(INSERT, batch);
+                })
+                .compose(inserted -> db.update("DELETE FROM sql_step_stats WHERE service = ? AND run_at < ?",
+                        service, runAt.minusDays(retentionDays)))
+                .recover(err -> Future.failedFuture("Failed to store step stats: " + err.getMessage()))
+                .mapEmpty();
+    }
+
+    private static String baseline(String scope) {
+        return "SELECT step, PERCENTILE_CONT(0.5) WITHIN GROUP (ORDER BY total_ms::float8 / executions) AS baseline_ms " +
+               "FROM (SELECT step, total_ms, executions, " +
+               "ROW_NUMBER() OVER (PARTITION BY step ORDER BY run_at DESC) AS recent " +
+               "FROM sql_step_stats WHERE service = ? AND NOT explain AND " + scope + ") s " +
+               "WHERE recent <= ? GROUP BY step";
+    }
+}
@@ -0,0 +1,31 @@
+package org.optionsql.db;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * The rows of a query and how long it ran once it had a connection, see
+ * {@link Database#timedQuery(String, Object...)}.
+ */
+public class TimedRows {
+
+    private final List<JsonObject> rows;
+    private final long ms;
+
+    public TimedRows(List<JsonObject> rows, long ms) {
+        this.rows = rows;
+        this.ms = ms;
+    }
+
+    public List<JsonObject> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return milliseconds from having a connection until the last row was read
+     */
+    public long getMs() {
+        return ms;
+    }
+}
@@ -0,0 +1,78 @@
+package org.optionsql.fetch;
+
+/**
+ * Additive-increase / multiplicative-decrease concurrency limit.
+ * <p>
+ * The limit grows by roughly one slot per window of healthy responses (latency at or below
+ * the target) and is halved whenever the provider signals overload (HTTP 429 or 5xx) or a
+ * request fails without a response (timeout, reset connection, open circuit).
+ * Must be used from a single Vert.x context.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyMs;
+
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long targetLatencyMs) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid concurrency bounds: min=" + minLimit + ", max=" + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyMs = targetLatencyMs;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Reserve a slot if the current limit allows it.
+     *
+     * @return true if a slot was reserved and must later be released
+     */
+    public boolean tryAcquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    public void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * Feed a completed request into the limit.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param latencyMs  the observed latency in milliseconds
+     */
+    public void onResponse(int statusCode, long latencyMs) {
+        if (statusCode == 429 || statusCode >= 500) {
+            limit = Math.max(minLimit, limit / 2);
+        } else if (latencyMs <= targetLatencyMs) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Feed a request that failed without a response into the limit. A failure can come back
+     * fast, so it never counts as a healthy response.
+     */
+    public void onFailure() {
+        limit = Math.max(minLimit, limit / 2);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+}
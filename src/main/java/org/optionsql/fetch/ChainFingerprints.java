@@ -0,0 +1,188 @@
+package org.optionsql.fetch;
+
+import io.vertx.core.MultiMap;
+import org.optionsql.model.ExpirationSlice;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers, per ticker, the HTTP validators and the per-expiration content hashes of the last
+ * stored option chain, so the next run can send a conditional request and flag slices that
+ * did not change. Must be used from a single Vert.x context.
+ * <p>
+ * The store derives columns of every row from more than the slice itself: the time to
+ * expiration from the trading day and the IV rank from the historical IV range of the ticker.
+ * A slice only counts as unchanged if those inputs are the same as for the last stored chain,
+ * otherwise its stored rows would keep stale derived values.
+ * <p>
+ * A fetched chain only yields a {@link Candidate}. It becomes the reference for the next run
+ * once the store has written it ({@link #commit}), and is dropped if the ticker or its batch
+ * fails ({@link #discard}). While a ticker has unresolved candidates, or after its batch failed,
+ * nothing is known about what the tables hold, so every slice counts as changed and no
+ * conditional request is sent.
+ */
+public class ChainFingerprints {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Integer> unresolved = new HashMap<>();
+    private final boolean conditional;
+    private long sequence;
+
+    /**
+     * @param conditional send If-None-Match / If-Modified-Since when the provider returned validators
+     */
+    public ChainFingerprints(boolean conditional) {
+        this.conditional = conditional;
+    }
+
+    /**
+     * @return conditional request headers for the ticker, or null if there is nothing to validate against
+     */
+    public MultiMap conditionalHeaders(String ticker) {
+        Entry entry = entries.get(ticker);
+        if (!conditional || entry == null || entry.slices == null || unresolved.containsKey(ticker)) {
+            return null;
+        }
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        if (entry.etag != null) {
+            headers.add("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            headers.add("If-Modified-Since", entry.lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * @return the slices of the last stored chain, to be reused after a 304 Not Modified response
+     */
+    public List<ExpirationSlice> lastSlices(String ticker) {
+        Entry entry = entries.get(ticker);
+        return entry == null ? null : entry.slices;
+    }
+
+    /**
+     * Compare freshly fetched slices with the last stored chain. Nothing is remembered until the
+     * returned candidate is committed or discarded.
+     *
+     * @param etag         ETag response header, may be null
+     * @param lastModified Last-Modified response header, may be null
+     * @param inputs       hash of the values outside the chain the store derives columns from,
+     *                     see {@link #inputs(LocalDate, double, double)}
+     */
+    public Candidate compare(String ticker, List<ExpirationSlice> slices, String etag, String lastModified, long inputs) {
+        Entry previous = unresolved.containsKey(ticker) ? null : entries.get(ticker);
+        if (previous != null && previous.inputs != inputs) {
+            previous = null;
+        }
+        BitSet unchanged = new BitSet(slices.size());
+        Map<String, Long> hashes = new HashMap<>();
+        for (int i = 0; i < slices.size(); i++) {
+            ExpirationSlice slice = slices.get(i);
+            long hash = slice.getContentHash();
+            hashes.put(slice.getExpirationDate(), hash);
+            if (previous != null && previous.hashes != null) {
+                Long previousHash = previous.hashes.get(slice.getExpirationDate());
+                if (previousHash != null && previousHash == hash) {
+                    unchanged.set(i);
+                }
+            }
+        }
+
+        Entry entry = new Entry(++sequence);
+        entry.inputs = inputs;
+        entry.hashes = hashes;
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        // Only keep the slices when a 304 can actually be answered with them
+        if (conditional && (etag != null || lastModified != null)) {
+            entry.slices = slices;
+        }
+        unresolved.merge(ticker, 1, Integer::sum);
+        return new Candidate(ticker, entry, unchanged);
+    }
+
+    /**
+     * The chain of the candidate is stored, compare the next run against it. A candidate older
+     * than what is already known is ignored.
+     */
+    public void commit(Candidate candidate) {
+        resolve(candidate.ticker);
+        Entry current = entries.get(candidate.ticker);
+        if (current == null || current.sequence < candidate.entry.sequence) {
+            entries.put(candidate.ticker, candidate.entry);
+        }
+    }
+
+    /**
+     * The chain of the candidate was not stored.
+     *
+     * @param forget the store may have written part of it, so forget the last stored chain too
+     */
+    public void discard(Candidate candidate, boolean forget) {
+        resolve(candidate.ticker);
+        if (forget) {
+            // An empty entry newer than every open candidate, none of them may commit over it
+            entries.put(candidate.ticker, new Entry(++sequence));
+        }
+    }
+
+    /**
+     * @param tradingDay       the day time to expiration counts from
+     * @param ivHistoricalLow  low of the historical IV range of the ticker
+     * @param ivHistoricalHigh high of the historical IV range of the ticker
+     * @return the hash to pass to {@link #compare}
+     */
+    public static long inputs(LocalDate tradingDay, double ivHistoricalLow, double ivHistoricalHigh) {
+        long h = tradingDay.toEpochDay();
+        h = h * 31 + Double.doubleToLongBits(ivHistoricalLow);
+        return h * 31 + Double.doubleToLongBits(ivHistoricalHigh);
+    }
+
+    private void resolve(String ticker) {
+        unresolved.computeIfPresent(ticker, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Fingerprints of one fetched chain, waiting for the outcome of its store.
+     */
+    public static class Candidate {
+        private final String ticker;
+        private final Entry entry;
+        private final BitSet unchanged;
+
+        private Candidate(String ticker, Entry entry, BitSet unchanged) {
+            this.ticker = ticker;
+            this.entry = entry;
+            this.unchanged = unchanged;
+        }
+
+        public String getTicker() {
+            return ticker;
+        }
+
+        /**
+         * @return indexes of the slices whose content hash matches the last stored chain
+         */
+        public BitSet getUnchanged() {
+            return unchanged;
+        }
+    }
+
+    private static class Entry {
+        private final long sequence;
+        private long inputs;
+        private Map<String, Long> hashes;
+        private String etag;
+        private String lastModified;
+        private List<ExpirationSlice> slices;
+
+        private Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.optionsql.fetch;
+
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionSide;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-contract columns of a decoded option chain response, one entry per call or put.
+ * Filled by {@link OptionChainDecoder}.
+ */
+public final class DecodedChain {
+
+    String status;
+    String errorMessage;
+
+    boolean[] isCall;
+    long[] expiration;
+    double[] strike;
+    double[] bid;
+    double[] ask;
+    double[] mid;
+    double[] delta;
+    double[] gamma;
+    double[] theta;
+    double[] vega;
+    double[] iv;
+    int[] openInterest;
+    int[] volume;
+
+    DecodedChain() {
+    }
+
+    public boolean isOk() {
+        return "ok".equals(status);
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public int size() {
+        return strike == null ? 0 : strike.length;
+    }
+
+    /**
+     * Check that the key columns are present and every column has one entry per contract.
+     * Optional columns missing from the response are filled with zeros.
+     */
+    void validate() throws IOException {
+        if (strike == null || expiration == null || isCall == null) {
+            throw new IOException("Option chain response is missing strike, expiration or side");
+        }
+        int n = strike.length;
+        if (expiration.length != n || isCall.length != n) {
+            throw new IOException("Option chain columns have inconsistent lengths");
+        }
+        bid = orZeros(bid, n);
+        ask = orZeros(ask, n);
+        mid = orZeros(mid, n);
+        delta = orZeros(delta, n);
+        gamma = orZeros(gamma, n);
+        theta = orZeros(theta, n);
+        vega = orZeros(vega, n);
+        iv = orZeros(iv, n);
+        openInterest = orZeros(openInterest, n);
+        volume = orZeros(volume, n);
+    }
+
+    private static double[] orZeros(double[] column, int n) throws IOException {
+        if (column == null) {
+            return new double[n];
+        }
+        if (column.length != n) {
+            throw new IOException("Option chain columns have inconsistent lengths");
+        }
+        return column;
+    }
+
+    private static int[] orZeros(int[] column, int n) throws IOException {
+        if (column == null) {
+            return new int[n];
+        }
+        if (column.length != n) {
+            throw new IOException("Option chain columns have inconsistent lengths");
+        }
+        return column;
+    }
+
+    /**
+     * Pair calls with puts of the same expiration and strike and split the chain per expiration.
+     *
+     * @return one slice per expiration in date order, strikes ascending within each slice
+     */
+    public List<ExpirationSlice> toSlices() {
+        int n = size();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (!isSorted(order)) {
+            sort(order, 0, n - 1);
+        }
+
+        List<ExpirationSlice> slices = new ArrayList<>();
+        int start = 0;
+        while (start < n) {
+            long currentExpiration = expiration[order[start]];
+            int end = start;
+            while (end < n && expiration[order[end]] == currentExpiration) {
+                end++;
+            }
+
+            // Count distinct strikes first so the slice columns are sized exactly
+            int rows = 0;
+            for (int k = start; k < end; k++) {
+                if (k == start || compare(order[k - 1], order[k]) != 0) {
+                    rows++;
+                }
+            }
+
+            double[] strikes = new double[rows];
+            SideColumns calls = new SideColumns(rows);
+            SideColumns puts = new SideColumns(rows);
+            int row = -1;
+            for (int k = start; k < end; k++) {
+                int i = order[k];
+                if (k == start || compare(order[k - 1], i) != 0) {
+                    strikes[++row] = strike[i];
+                }
+                (isCall[i] ? calls : puts).set(row, i);
+            }
+
+            slices.add(new ExpirationSlice(formatExpiration(currentExpiration), strikes, calls.toSide(), puts.toSide()));
+            start = end;
+        }
+        return slices;
+    }
+
+    private static String formatExpiration(long epochSeconds) {
+        // LocalDate prints as YYYY-MM-DD
+        return Instant.ofEpochSecond(epochSeconds).atZone(ZoneId.systemDefault()).toLocalDate().toString();
+    }
+
+    private int compare(int x, int y) {
+        int result = Long.compare(expiration[x], expiration[y]);
+        return result != 0 ? result : Double.compare(strike[x], strike[y]);
+    }
+
+    private boolean isSorted(int[] order) {
+        for (int k = 1; k < order.length; k++) {
+            if (compare(order[k - 1], order[k]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Quicksort of contract indexes by (expiration, strike), insertion sort for short ranges.
+     */
+    private void sort(int[] order, int lo, int hi) {
+        while (hi - lo > 16) {
+            int pivot = order[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compare(order[i], pivot) < 0) {
+                    i++;
+                }
+                while (compare(order[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            // Recurse into the smaller half, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(order, lo, j);
+                lo = i;
+            } else {
+                sort(order, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int value = order[i];
+            int j = i - 1;
+            while (j >= lo && compare(order[j], value) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = value;
+        }
+    }
+
+    /**
+     * Columns of one side of a slice while it is being filled.
+     */
+    private class SideColumns {
+        private final double[] bid;
+        private final double[] ask;
+        private final double[] mid;
+        private final int[] volume;
+        private final int[] openInterest;
+        private final double[] delta;
+        private final double[] gamma;
+        private final double[] theta;
+        private final double[] vega;
+        private final double[] iv;
+
+        private SideColumns(int rows) {
+            bid = new double[rows];
+            ask = new double[rows];
+            mid = new double[rows];
+            volume = new int[rows];
+            openInterest = new int[rows];
+            delta = new double[rows];
+            gamma = new double[rows];
+            theta = new double[rows];
+            vega = new double[rows];
+            iv = new double[rows];
+        }
+
+        private void set(int row, int contract) {
+            bid[row] = DecodedChain.this.bid[contract];
+            ask[row] = DecodedChain.this.ask[contract];
+            mid[row] = DecodedChain.this.mid[contract];
+            volume[row] = DecodedChain.this.volume[contract];
+            openInterest[row] = DecodedChain.this.openInterest[contract];
+            delta[row] = DecodedChain.this.delta[contract];
+            gamma[row] = DecodedChain.this.gamma[contract];
+            theta[row] = DecodedChain.this.theta[contract];
+            vega[row] = DecodedChain.this.vega[contract];
+            iv[row] = DecodedChain.this.iv[contract];
+        }
+
+        private OptionSide toSide() {
+            return new OptionSide(bid, ask, mid, volume, openInterest, delta, gamma, theta, vega, iv);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.optionsql.fetch;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * On-disk cache of next earnings dates per ticker.
+ * <p>
+ * Entries are kept for {@code ttl} as long as the next report is further away than
+ * {@code window}. Inside the window, or once the cached report date has passed, the entry is
+ * treated as stale so it is refetched on every run. Must be used from a single Vert.x context.
+ */
+public class EarningsCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EarningsCache.class.getName());
+
+    private final Path file;
+    private final long ttlMs;
+    private final long windowMs;
+    private JsonObject entries = new JsonObject();
+    private boolean dirty;
+    private long hits;
+    private long misses;
+
+    public EarningsCache(Path file, long ttlMs, long windowMs) {
+        this.file = file;
+        this.ttlMs = ttlMs;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Read the cache file if present. A missing or unreadable file leaves the cache empty.
+     */
+    public void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            entries = new JsonObject(Files.readString(file));
+            LOGGER.info("Earnings cache loaded from " + file + ": " + entries.size() + " tickers");
+        } catch (Exception e) {
+            LOGGER.warning("Ignoring unreadable earnings cache " + file + ": " + e.getMessage());
+            entries = new JsonObject();
+        }
+    }
+
+    /**
+     * @return the cached earnings response for the ticker, or null if absent or stale
+     */
+    public JsonObject get(String ticker, long nowMs) {
+        JsonObject entry = entries.getJsonObject(ticker);
+        if (entry == null || !isFresh(entry, nowMs)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.getJsonObject("response");
+    }
+
+    /**
+     * Cache an earnings response, keeping only the fields the fetch service reads.
+     */
+    public void put(String ticker, JsonObject response, long nowMs) {
+        JsonObject compact = new JsonObject().put("s", response.getString("s"));
+        JsonArray reportDate = response.getJsonArray("reportDate");
+        JsonArray reportTime = response.getJsonArray("reportTime");
+        if (reportDate != null && !reportDate.isEmpty()) {
+            compact.put("reportDate", new JsonArray().add(reportDate.getLong(0)));
+            compact.put("reportTime", new JsonArray().add(reportTime == null || reportTime.isEmpty() ? "N/A" : reportTime.getString(0)));
+        }
+        entries.put(ticker, new JsonObject().put("fetchedat", nowMs).put("response", compact));
+        dirty = true;
+    }
+
+    private boolean isFresh(JsonObject entry, long nowMs) {
+        if (nowMs - entry.getLong("fetchedat", 0L) > ttlMs) {
+            return false;
+        }
+        JsonArray reportDate = entry.getJsonObject("response").getJsonArray("reportDate");
+        if (reportDate == null || reportDate.isEmpty()) {
+            return true;
+        }
+        // Close to or past the report the date may move or roll over to the next quarter
+        long reportMs = TimeUnit.SECONDS.toMillis(reportDate.getLong(0));
+        return reportMs - nowMs > windowMs;
+    }
+
+    /**
+     * Write the cache back to disk if it changed since the last save.
+     */
+    public Future<Void> save(Vertx vertx) {
+        if (!dirty) {
+            return Future.succeededFuture();
+        }
+        dirty = false;
+        Buffer content = entries.toBuffer();
+        return vertx.<Void>executeBlocking(() -> {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            // Write to a temp file first so a crash never leaves a truncated cache behind
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, content.getBytes());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }).onFailure(err -> {
+            dirty = true;
+            LOGGER.warning("Failed to save earnings cache " + file + ": " + err.getMessage());
+        });
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public JsonObject metrics() {
+        return new JsonObject()
+                .put("entries", entries.size())
+                .put("hits", hits)
+                .put("misses", misses);
+    }
+}
@@ -1,19 +1,27 @@
 package org.optionsql.fetch;
 
 import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
 import org.optionsql.base.BaseService;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.replay.ReplayStore;
+import org.optionsql.schedule.MarketCalendar;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class MarketDataFetchService extends BaseService {
 
@@ -23,6 +31,24 @@ public class MarketDataFetchService extends BaseService {
     private JsonObject tickerConfig;
     private int fromDays;
     private int toDays;
+    private TokenBucket rateLimiter;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    private boolean replaying;
+    private int replayConcurrency;
+    private boolean streaming;
+    private String streamAddress;
+    private int streamCredits;
+    private FetchRun currentRun;
+    private EarningsCache earningsCache;
+    private ChainFingerprints fingerprints;
+    private final Map<String, List<ChainFingerprints.Candidate>> unstoredBatches = new HashMap<>();
+    private RetryScheduler retryScheduler;
+    private MarketCalendar calendar;
+    private long cycleTimeoutMs;
+    private boolean cycleRunning;
+    private long cycleStartedAt;
+    private int coalescedTicks;
+    private final Map<String, Long> segmentLastRun = new HashMap<>();
 
     public MarketDataFetchService(String serviceName) {
         super(serviceName);
@@ -43,12 +69,70 @@ public class MarketDataFetchService extends BaseService {
             fromDays = serviceConfig.getInteger("fromdays");
             toDays = serviceConfig.getInteger("todays");
 
+            // Rate limit matched to the marketdata.app plan, concurrency adapts to provider health
+            JsonObject rateLimitConfig = serviceConfig.getJsonObject("ratelimit", new JsonObject());
+            rateLimiter = new TokenBucket(vertx,
+                    rateLimitConfig.getInteger("permits", 10),
+                    rateLimitConfig.getLong("periodms", 1000L),
+                    rateLimitConfig.getInteger("burst", 10));
+            JsonObject concurrencyConfig = serviceConfig.getJsonObject("concurrency", new JsonObject());
+            concurrencyLimit = new AdaptiveConcurrencyLimit(
+                    concurrencyConfig.getInteger("initial", 4),
+                    concurrencyConfig.getInteger("min", 1),
+                    concurrencyConfig.getInteger("max", 16),
+                    concurrencyConfig.getLong("targetlatencyms", 2000L));
+            // Replayed responses come from disk, so neither the plan's rate limit nor provider health applies to them
+            replaying = getReplayStore().getMode() == ReplayStore.Mode.REPLAY;
+            replayConcurrency = concurrencyConfig.getInteger("max", 16);
+
+            // Failed tickers are retried with backoff and given up after a fixed number of attempts
+            JsonObject retryConfig = serviceConfig.getJsonObject("retry", new JsonObject());
+            retryScheduler = new RetryScheduler(vertx,
+                    retryConfig.getInteger("maxattempts", 5),
+                    retryConfig.getLong("backoffms", 2000L),
+                    retryConfig.getLong("maxbackoffms", 60000L));
+
+            // Earnings dates change a few times a year, keep them on disk between runs
+            JsonObject earningsCacheConfig = serviceConfig.getJsonObject("earningscache", new JsonObject());
+            earningsCache = new EarningsCache(
+                    Path.of(earningsCacheConfig.getString("file", "cache/earnings.json")),
+                    TimeUnit.DAYS.toMillis(earningsCacheConfig.getLong("ttldays", 5L)),
+                    TimeUnit.DAYS.toMillis(earningsCacheConfig.getLong("windowdays", 7L)));
+            earningsCache.load();
+
+            // Change detection: per-expiration content hashes plus conditional requests
+            JsonObject changeConfig = serviceConfig.getJsonObject("changedetection", new JsonObject());
+            if (changeConfig.getBoolean("enabled", true)) {
+                fingerprints = new ChainFingerprints(changeConfig.getBoolean("conditional", true));
+                getEventBus().<JsonObject>consumer("store.complete", message -> resolveFingerprints(message.body()));
+            }
+
+            // Per-ticker streaming to the store stage, paced by credits the store hands back
+            JsonObject streamingConfig = serviceConfig.getJsonObject("streaming", new JsonObject());
+            streaming = streamingConfig.getBoolean("enabled", false);
+            if (streaming) {
+                streamAddress = streamingConfig.getString("address", "fetch.ticker");
+                streamCredits = streamingConfig.getInteger("window", 4);
+                String creditAddress = streamingConfig.getString("creditaddress", "fetch.credit");
+                getEventBus().<JsonObject>consumer(creditAddress, message -> {
+                    streamCredits += message.body().getInteger("credits", 1);
+                    if (currentRun != null) {
+                        dispatchTickers(currentRun);
+                    }
+                });
+            }
+
             // Load ticker configuration from the specified file
             String tickerFilePath = serviceConfig.getString("ticker");
             tickerConfig = loadTickerConfig(tickerFilePath);
 
             getLogger().info("MarketDataFetchService started and ready.");
-            processTickers();
+            JsonObject scheduleConfig = serviceConfig.getJsonObject("schedule", new JsonObject());
+            if (scheduleConfig.getBoolean("enabled", false)) {
+                startScheduler(scheduleConfig);
+            } else {
+                processTickers(null);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -67,36 +151,181 @@ public class MarketDataFetchService extends BaseService {
         }
     }
 
-    private void processTickers() {
+    /**
+     * Run fetch cycles on a timer while the exchange is open. Each tick starts a cycle for the
+     * segments whose cadence (minutes, from the "cadence" section of the ticker configuration)
+     * has elapsed. A cycle lasts until analyze.complete; ticks that fall inside a running cycle
+     * are coalesced, their segments stay due and are picked up by the next free tick.
+     */
+    private void startScheduler(JsonObject scheduleConfig) throws IOException {
+        calendar = MarketCalendar.load(Path.of(scheduleConfig.getString("calendar", "config/nyse_calendar.json")));
+        cycleTimeoutMs = scheduleConfig.getLong("cycletimeoutms", 1800000L);
+        long tickMs = scheduleConfig.getLong("tickms", 60000L);
+
+        getEventBus().<JsonObject>consumer("analyze.complete", message -> {
+            if (cycleRunning) {
+                cycleRunning = false;
+                getLogger().info("Cycle finished in " + (System.currentTimeMillis() - cycleStartedAt) / 1000.0 +
+                                 "s | Analyze status: " + message.body().getString("status"));
+            }
+        });
+
+        vertx.setPeriodic(1, tickMs, id -> onScheduleTick());
+        getLogger().info("Scheduler started | Calendar: " + calendar.getExchange() + " | Tick: " + tickMs + "ms" +
+                         " | Next open: " + calendar.nextOpen(Instant.now()));
+    }
+
+    private void onScheduleTick() {
+        long now = System.currentTimeMillis();
+        if (!calendar.isOpen(Instant.ofEpochMilli(now))) {
+            return;
+        }
+
+        Set<String> due = new HashSet<>();
+        JsonObject cadenceConfig = tickerConfig.getJsonObject("cadence", new JsonObject());
+        long defaultCadence = TimeUnit.MINUTES.toMillis(cadenceConfig.getLong("default", 60L));
+        JsonObject segmentCadence = cadenceConfig.getJsonObject("segments", new JsonObject());
+        for (String segment : tickerConfig.getJsonObject("segments").fieldNames()) {
+            Long minutes = segmentCadence.getLong(segment);
+            long cadence = minutes != null ? TimeUnit.MINUTES.toMillis(minutes) : defaultCadence;
+            if (now - segmentLastRun.getOrDefault(segment, 0L) >= cadence) {
+                due.add(segment);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        if (cycleRunning) {
+            if (now - cycleStartedAt < cycleTimeoutMs) {
+                coalescedTicks++;
+                getLogger().info("Previous cycle still running, coalescing " + due.size() + " due segments into the next cycle" +
+                                 " | Coalesced ticks: " + coalescedTicks);
+                return;
+            }
+            getLogger().warning("Cycle started " + (now - cycleStartedAt) / 1000 + "s ago never reported analyze.complete, starting a new one.");
+            abandonCycle();
+        }
+
+        due.forEach(segment -> segmentLastRun.put(segment, now));
+        cycleRunning = true;
+        cycleStartedAt = now;
+        boolean full = due.size() == tickerConfig.getJsonObject("segments").size();
+        getLogger().info("Starting cycle for " + (full ? "all segments" : "segments " + due));
+        processTickers(full ? null : due);
+    }
+
+    /**
+     * Give up on the timed out cycle before the next one starts, so two runs never share the
+     * concurrency limit, the stream credits or the store. A fetch run still in progress stops
+     * dispatching, drops its queue and retries, and ignores the tickers still in flight; in
+     * streaming mode the store is told to drop the batch. Fingerprints of the run and of
+     * batches the store never confirmed are discarded.
+     */
+    private void abandonCycle() {
+        FetchRun run = currentRun;
+        if (run != null) {
+            currentRun = null;
+            run.abandoned = true;
+            run.tickerQueue.clear();
+            if (streaming) {
+                getEventBus().send(streamAddress, new JsonObject()
+                        .put("service", "fetch")
+                        .put("status", "abort")
+                        .put("batch", run.batchId));
+            }
+            if (fingerprints != null) {
+                run.candidates.forEach(candidate -> fingerprints.discard(candidate, true));
+                run.candidates.clear();
+            }
+            run.complete.tryFail("Fetch run " + run.batchId + " abandoned after the cycle timeout, " +
+                                 run.inFlight + " tickers still in flight, " + run.pendingRetries + " retries pending");
+        }
+        if (fingerprints != null) {
+            unstoredBatches.values().forEach(candidates -> candidates.forEach(candidate -> fingerprints.discard(candidate, true)));
+            unstoredBatches.clear();
+        }
+    }
+
+    /**
+     * @param segments segments to fetch, or null for the whole ticker configuration
+     */
+    private void processTickers(Set<String> segments) {
         getLogger().info("Processing tickers from configuration...");
-        JsonArray allOptionChains = new JsonArray();
+        FetchRun run = new FetchRun();
+        run.partial = segments != null;
+        currentRun = run;
 
         // Create a queue of tickers to process
-        Queue<JsonObject> tickerQueue = new LinkedList<>();
         tickerConfig.getJsonObject("segments").forEach(entry -> {
             String segment = entry.getKey();
+            if (segments != null && !segments.contains(segment)) {
+                return;
+            }
             JsonArray tickers = (JsonArray) entry.getValue(); // Cast to List<String>
             tickers.forEach(ticker -> {
-                tickerQueue.add(new JsonObject().put("ticker", ticker).put("segment", segment));
+                run.tickerQueue.add(new JsonObject().put("ticker", ticker).put("segment", segment));
+                run.tickers.add(ticker);
             });
         });
 
-        // A promise to complete when processing finishes
-        Promise<Void> processComplete = Promise.promise();
+        if (streaming) {
+            // Tell the store a new batch starts before the first ticker arrives
+            getEventBus().send(streamAddress, new JsonObject()
+                    .put("service", "fetch")
+                    .put("status", "begin")
+                    .put("batch", run.batchId)
+                    .put("tradingday", run.tradingDay.toString())
+                    .put("partial", run.partial)
+                    .put("tickers", run.tickers));
+        }
 
         // Start processing the queue
-        processNextTicker(tickerQueue, allOptionChains, processComplete);
+        dispatchTickers(run);
 
         // Return the future to indicate completion
-        processComplete.future()
+        run.complete.future()
                 .onSuccess(ignored -> {
                     try {
+                        currentRun = null;
+                        getLogger().info("Fetch run finished | Tickers: " + run.tickerCount +
+                                         " | Strikes: " + run.strikeCount +
+                                         " | Unchanged slices: " + run.unchangedSliceCount + "/" + run.sliceCount +
+                                         " | Chain heap: " + run.bytes / 1024 + " KiB (" + (run.strikeCount == 0 ? 0 : run.bytes / run.strikeCount) + " bytes/strike)" +
+                                         " | Duration: " + (System.currentTimeMillis() - run.startTime) / 1000.0 + "s" +
+                                         " | Final concurrency: " + concurrencyLimit.getLimit() +
+                                         " | Earnings cache: " + earningsCache.metrics().encode() +
+                                         " | Dead letters: " + run.deadLetters.size());
+                        if (!run.deadLetters.isEmpty()) {
+                            getLogger().warning("Tickers given up in this run: " + run.deadLetters.encode());
+                        }
+                        earningsCache.save(vertx);
+                        if (fingerprints != null) {
+                            unstoredBatches.put(run.batchId, run.candidates);
+                        }
+
+                        if (streaming) {
+                            // End-of-batch marker, the store publishes store.complete once it has written everything before it
+                            getEventBus().send(streamAddress, new JsonObject()
+                                    .put("service", "fetch")
+                                    .put("status", "end")
+                                    .put("batch", run.batchId)
+                                    .put("tickers", run.tickerCount)
+                                    .put("deadletters", run.deadLetters));
+                            getLogger().info("Sent end of batch " + run.batchId + " to " + streamAddress);
+                            return;
+                        }
 
                         // Publish to fetch.complete
                         JsonObject message = new JsonObject()
                                 .put("service", "fetch")
                                 .put("status", "success")
-                                .put("payload", allOptionChains);
+                                .put("batch", run.batchId)
+                                .put("tradingday", run.tradingDay.toString())
+                                .put("payload", run.optionChains)
+                                .put("partial", run.partial)
+                                .put("tickers", run.tickers)
+                                .put("deadletters", run.deadLetters);
 
                         getEventBus().publish("fetch.complete", message);
 
@@ -109,78 +338,164 @@ public class MarketDataFetchService extends BaseService {
                 .onFailure(err -> getLogger().severe("Failed to process all tickers: " + err.getMessage()));
     }
 
-    private void processNextTicker(Queue<JsonObject> tickerQueue, JsonArray allOptionChains, Promise<Void> processComplete) {
-        if (tickerQueue.isEmpty()) {
-            processComplete.complete();
+    /**
+     * Commit the fingerprints of a batch the store has written. On failure the store may have
+     * written part of the batch, so what it holds for those tickers is unknown and their next
+     * fetch counts every slice as changed.
+     */
+    private void resolveFingerprints(JsonObject storeComplete) {
+        List<ChainFingerprints.Candidate> candidates = unstoredBatches.remove(storeComplete.getString("batch"));
+        if (candidates == null) {
             return;
         }
+        boolean stored = "success".equals(storeComplete.getString("status"));
+        for (ChainFingerprints.Candidate candidate : candidates) {
+            if (stored) {
+                fingerprints.commit(candidate);
+            } else {
+                fingerprints.discard(candidate, true);
+            }
+        }
+        if (!stored) {
+            getLogger().warning("Store failed for batch " + storeComplete.getString("batch") +
+                                ", change detection reset for " + candidates.size() + " tickers");
+        }
+    }
 
-        JsonObject tickerInfo = tickerQueue.poll();  // Removes the ticker from the queue
-        String ticker = tickerInfo.getString("ticker");
-        String segment = tickerInfo.getString("segment");
-
-        getLogger().info("Processing ticker: " + ticker);
+    /**
+     * Start as many tickers as the adaptive concurrency limit allows. Called again whenever a
+     * ticker finishes, so the pipeline stays full until the queue drains. In streaming mode each
+     * started ticker also takes a store credit, which bounds how many fetched chains can be
+     * waiting for the database. The run is complete once it has nothing queued, in flight or
+     * waiting for a retry.
+     */
+    private void dispatchTickers(FetchRun run) {
+        if (run.abandoned) {
+            return;
+        }
+        if (run.tickerQueue.isEmpty() && run.inFlight == 0 && run.pendingRetries == 0) {
+            run.complete.tryComplete();
+            return;
+        }
 
-        processSingleTicker(ticker, segment)
-                .onSuccess(tickerData -> {
-                    if (tickerData != null) {
-                        allOptionChains.add(tickerData);
+        while (!run.tickerQueue.isEmpty() && (!streaming || streamCredits > 0) && acquireSlot(run)) {
+            if (streaming) {
+                streamCredits--;
+            }
+            JsonObject tickerInfo = run.tickerQueue.poll();  // Removes the ticker from the queue
+            run.inFlight++;
+            String ticker = tickerInfo.getString("ticker");
+            String segment = tickerInfo.getString("segment");
+
+            getLogger().info("Processing ticker: " + ticker + " | In flight: " +
+                             (replaying ? run.inFlight + "/" + replayConcurrency : concurrencyLimit.getInFlight() + "/" + concurrencyLimit.getLimit()));
+
+            processSingleTicker(ticker, segment, run).onComplete(ar -> {
+                releaseSlot();
+                run.inFlight--;
+                if (run.abandoned) {
+                    // Nothing of an abandoned run reaches the store, its slot and credit go to the current run
+                    if (streaming) {
+                        streamCredits++;
+                    }
+                    getLogger().info("Dropped result of abandoned run " + run.batchId + " for ticker: " + ticker);
+                    if (currentRun != null) {
+                        dispatchTickers(currentRun);
+                    }
+                    return;
+                }
+                if (ar.succeeded()) {
+                    OptionChain chain = ar.result();
+                    run.tickerCount++;
+                    run.strikeCount += chain.getStrikeCount();
+                    run.bytes += chain.getEstimatedBytes();
+                    run.sliceCount += chain.getSlices().size();
+                    run.unchangedSliceCount += chain.getUnchangedSliceCount();
+                    if (streaming) {
+                        // The credit taken at dispatch is returned by the store once this chain is written
+                        getEventBus().send(streamAddress, new JsonObject()
+                                .put("service", "fetch")
+                                .put("status", "ticker")
+                                .put("batch", run.batchId)
+                                .put("payload", chain));
+                    } else {
+                        run.optionChains.add(chain);
                     }
                     getLogger().info("Successfully processed ticker: " + ticker);
-                    processNextTicker(tickerQueue, allOptionChains, processComplete);
-                })
-                .onFailure(err -> {
-                    getLogger().warning("Failed to process ticker: " + ticker + " | Reason: " + err.getMessage() + ". Retrying...");
-                    tickerQueue.add(tickerInfo);  // Re-add the ticker for retry
-                    processNextTicker(tickerQueue, allOptionChains, processComplete);
-                });
+                } else {
+                    if (streaming) {
+                        streamCredits++;
+                    }
+                    int attempts = tickerInfo.getInteger("attempts", 0) + 1;
+                    tickerInfo.put("attempts", attempts);
+                    boolean scheduled = retryScheduler.retry(attempts, () -> {
+                        run.pendingRetries--;
+                        if (!run.abandoned) {
+                            run.tickerQueue.add(tickerInfo);  // Re-add the ticker once the backoff has elapsed
+                            dispatchTickers(run);
+                        }
+                    });
+                    if (scheduled) {
+                        run.pendingRetries++;
+                        getLogger().warning("Failed to process ticker: " + ticker + " | Attempt " + attempts + "/" +
+                                            retryScheduler.getMaxAttempts() + " | Reason: " + ar.cause().getMessage() + ". Retrying...");
+                    } else {
+                        getLogger().severe("Giving up on ticker: " + ticker + " after " + attempts + " attempts | Reason: " + ar.cause().getMessage());
+                        run.deadLetters.add(tickerInfo.copy().put("reason", ar.cause().getMessage()));
+                    }
+                }
+                dispatchTickers(run);
+            });
+        }
     }
 
-    private Future<JsonObject> processSingleTicker(String ticker, String segment) {
-        Promise<JsonObject> resultPromise = Promise.promise();
+    private Future<OptionChain> processSingleTicker(String ticker, String segment, FetchRun run) {
         long startTime = System.currentTimeMillis();
 
-        fetchNextEarnings(ticker).compose(nextEarnings -> {
-                    boolean hasEarnings = "ok".equals(nextEarnings.getString("s"));
-
-                    Future<Double> currentPriceFuture = requestCurrentPrice(ticker);
-                    Future<JsonObject> histIVFuture = requestHistoricalIV(ticker);
-                    Future<JsonObject> optionChainFuture = fetchOptionChain(ticker);
-
-                    return currentPriceFuture.compose(currentPrice ->
-                            histIVFuture.compose(histIV ->
-                                    optionChainFuture.map(optionChainData -> {
-                                        JsonArray mergedData = mergeOptionData(optionChainData);
-                                        JsonObject optionsByExpiration = transformOptionChain(mergedData);
-
-                                        long endTime = System.currentTimeMillis();
-                                        double durationSeconds = (endTime - startTime) / 1000.0;
-
-                                        getLogger().info("Ticker: " + ticker + " | Duration: " + durationSeconds + "s | Option Chains: " + mergedData.size());
-
-                                        JsonObject result = new JsonObject()
-                                                .put("ticker_symbol", ticker)
-                                                .put("current_price", currentPrice)
-                                                .put("segment", segment)
-                                                .put("iv_historical_low", histIV.getDouble("iv_low", 0.0))
-                                                .put("iv_historical_high", histIV.getDouble("iv_high", 100.0))
-                                                .put("expirations", optionsByExpiration);
-
-                                        if (hasEarnings) {
-                                            result.put("next_earnings_date", convertUnixToDate(nextEarnings.getJsonArray("reportDate").getLong(0)))
-                                                    .put("next_earnings_time", nextEarnings.getJsonArray("reportTime").getString(0));
-                                        } else {
-                                            result.put("next_earnings_date", "N/A")
-                                                    .put("next_earnings_time", "N/A");
-                                        }
-                                        return result;
-                                    })
-                            )
-                    );
-                }).onSuccess(resultPromise::complete)
-                .onFailure(resultPromise::fail);
-
-        return resultPromise.future();
+        return fetchNextEarnings(ticker).compose(nextEarnings -> {
+            boolean hasEarnings = "ok".equals(nextEarnings.getString("s"));
+
+            Future<Double> currentPriceFuture = requestCurrentPrice(ticker);
+            Future<JsonObject> histIVFuture = requestHistoricalIV(ticker);
+            Future<FetchedChain> optionChainFuture = fetchOptionChain(ticker);
+
+            return Future.all(currentPriceFuture, histIVFuture, optionChainFuture)
+                    .map(all -> {
+                        FetchedChain fetched = optionChainFuture.result();
+                        String nextEarningsDate = "N/A";
+                        String nextEarningsTime = "N/A";
+                        if (hasEarnings) {
+                            nextEarningsDate = convertUnixToDate(nextEarnings.getJsonArray("reportDate").getLong(0));
+                            nextEarningsTime = nextEarnings.getJsonArray("reportTime").getString(0);
+                        }
+
+                        JsonObject histIV = histIVFuture.result();
+                        double ivLow = histIV.getDouble("iv_low", 0.0);
+                        double ivHigh = histIV.getDouble("iv_high", 100.0);
+                        BitSet unchanged = new BitSet();
+                        if (fingerprints != null) {
+                            // Compared only now, the IV range is part of what makes a slice unchanged
+                            ChainFingerprints.Candidate candidate = fingerprints.compare(ticker, fetched.slices,
+                                    fetched.etag, fetched.lastModified, ChainFingerprints.inputs(run.tradingDay, ivLow, ivHigh));
+                            unchanged = candidate.getUnchanged();
+                            if (run.abandoned) {
+                                fingerprints.discard(candidate, false);
+                            } else {
+                                // Committed once the store has written the batch
+                                run.candidates.add(candidate);
+                            }
+                        }
+                        OptionChain result = new OptionChain(ticker, segment, currentPriceFuture.result(), ivLow, ivHigh,
+                                nextEarningsDate, nextEarningsTime, fetched.slices, unchanged);
+
+                        long endTime = System.currentTimeMillis();
+                        double durationSeconds = (endTime - startTime) / 1000.0;
+
+                        getLogger().info("Ticker: " + ticker + " | Duration: " + durationSeconds + "s | Option Chains: " + result.getStrikeCount() +
+                                         " | Unchanged slices: " + result.getUnchangedSliceCount() + "/" + result.getSlices().size());
+                        return result;
+                    });
+        });
     }
 
     private Future<Double> requestCurrentPrice(String ticker) {
@@ -214,210 +529,109 @@ public class MarketDataFetchService extends BaseService {
         return promise.future();
     }
 
-    private JsonObject transformOptionChain(JsonArray mergedData) {
-        JsonObject optionsByExpiration = new JsonObject();
+    /**
+     * Reserve a slot of the adaptive concurrency limit for a ticker. A replay runs up to the
+     * configured maximum of tickers at once and leaves the limit alone.
+     */
+    private boolean acquireSlot(FetchRun run) {
+        return replaying ? run.inFlight < replayConcurrency : concurrencyLimit.tryAcquire();
+    }
 
-        for (int i = 0; i < mergedData.size(); i++) {
-            JsonObject option = mergedData.getJsonObject(i);
-            String expiration = option.getString("expiration");
+    private void releaseSlot() {
+        if (!replaying) {
+            concurrencyLimit.release();
+        }
+    }
 
-            // Add expiration key if not already present
-            if (!optionsByExpiration.containsKey(expiration)) {
-                optionsByExpiration.put(expiration, new JsonArray());
-            }
+    /**
+     * JSON variant of {@link #requestMarketDataRaw(String, MultiMap)}.
+     */
+    private Future<JsonObject> requestMarketData(String url) {
+        return toJsonResponse(requestMarketDataRaw(url, null));
+    }
 
-            // Add strike data to the corresponding expiration
-            JsonObject strikeData = new JsonObject()
-                    .put("strike_price", option.getDouble("strike"))
-                    .put("call_bid", option.getDouble("call_bid", 0.0))
-                    .put("call_ask", option.getDouble("call_ask", 0.0))
-                    .put("call_mid", option.getDouble("call_mid", 0.0))
-                    .put("call_volume", option.getInteger("call_volume", 0))
-                    .put("call_oi", option.getInteger("call_oi", 0))
-                    .put("call_delta", option.getDouble("call_delta", 0.0))
-                    .put("call_gamma", option.getDouble("call_gamma", 0.0))
-                    .put("call_theta", option.getDouble("call_theta", 0.0))
-                    .put("call_vega", option.getDouble("call_vega", 0.0))
-                    .put("call_iv", option.getDouble("call_iv", 0.0))
-                    .put("put_bid", option.getDouble("put_bid", 0.0))
-                    .put("put_ask", option.getDouble("put_ask", 0.0))
-                    .put("put_mid", option.getDouble("put_mid", 0.0))
-                    .put("put_volume", option.getInteger("put_volume", 0))
-                    .put("put_oi", option.getInteger("put_oi", 0))
-                    .put("put_delta", option.getDouble("put_delta", 0.0))
-                    .put("put_gamma", option.getDouble("put_gamma", 0.0))
-                    .put("put_theta", option.getDouble("put_theta", 0.0))
-                    .put("put_vega", option.getDouble("put_vega", 0.0))
-                    .put("put_iv", option.getDouble("put_iv", 0.0));
-
-            optionsByExpiration.getJsonArray(expiration).add(strikeData);
+    /**
+     * Issue a marketdata.app request through the rate limiter and feed the outcome into the
+     * adaptive concurrency limit, a failure without response as overload. Extra headers carry
+     * conditional request validators and may be null. Replayed requests bypass both limits.
+     */
+    private Future<HttpResponse<Buffer>> requestMarketDataRaw(String url, MultiMap headers) {
+        if (replaying) {
+            return makeRawHttpRequest(url, headers);
         }
-
-        return optionsByExpiration;
+        return rateLimiter.acquire().compose(v -> {
+            long start = System.currentTimeMillis();
+            return makeRawHttpRequest(url, headers).onComplete(ar -> {
+                if (ar.succeeded()) {
+                    concurrencyLimit.onResponse(ar.result().statusCode(), System.currentTimeMillis() - start);
+                } else {
+                    concurrencyLimit.onFailure();
+                }
+            });
+        });
     }
 
     private Future<JsonObject> fetchNextEarnings(String ticker) {
+        JsonObject cached = earningsCache.get(ticker, System.currentTimeMillis());
+        if (cached != null) {
+            return Future.succeededFuture(cached);
+        }
         String url = marketDataEarningsUrl + ticker + "?token=" + marketDataToken;
-        return makeHttpRequest(url)
+        return requestMarketData(url)
                 .compose(response -> {
                     if ("ok".equals(response.getString("s"))) {
+                        earningsCache.put(ticker, response, System.currentTimeMillis());
                         return Future.succeededFuture(response);
                     } else {
                         JsonObject defaultResponse = new JsonObject()
                                 .put("s", "no earnings");
+                        // Provider errors are not cached, only a definite "no data" answer is
+                        if ("no_data".equals(response.getString("s"))) {
+                            earningsCache.put(ticker, defaultResponse, System.currentTimeMillis());
+                        }
                         return Future.succeededFuture(defaultResponse);
                     }
                 });
     }
 
-    private Future<JsonObject> fetchOptionChain(String ticker) {
+    private Future<FetchedChain> fetchOptionChain(String ticker) {
         String url = marketDataApiUrl + ticker + "?token=" + marketDataToken + "&from=" +
                      getFutureDateISO8601(fromDays) + "&to=" + getFutureDateISO8601(toDays);
-        return makeHttpRequest(url)
+        MultiMap headers = fingerprints != null ? fingerprints.conditionalHeaders(ticker) : null;
+        return requestMarketDataRaw(url, headers)
                 .compose(response -> {
-                    if ("ok".equals(response.getString("s"))) {
-                        return Future.succeededFuture(response);
-                    } else {
-                        return Future.failedFuture("Failed to fetch option chain for ticker: " + ticker+", response: "+response.encodePrettily());
+                    if (response.statusCode() == 304 && fingerprints != null && fingerprints.lastSlices(ticker) != null) {
+                        // Provider confirmed nothing changed, reuse the chain of the last run under the validators it was sent
+                        return Future.succeededFuture(new FetchedChain(fingerprints.lastSlices(ticker),
+                                validator(response, "ETag", headers, "If-None-Match"),
+                                validator(response, "Last-Modified", headers, "If-Modified-Since")));
                     }
-                });
-    }
-
-    private JsonArray mergeOptionData(JsonObject jsonResponse) {
-        JsonArray mergedArray = new JsonArray();
-        try {
-            // Replace nulls with 0
-            replaceNullsInNumericArrays(jsonResponse);
-
-            // Extract relevant fields from the JSON response
-            JsonArray strikes = jsonResponse.getJsonArray("strike");
-            JsonArray expirations = jsonResponse.getJsonArray("expiration");
-            JsonArray sides = jsonResponse.getJsonArray("side");
-            JsonArray bids = jsonResponse.getJsonArray("bid");
-            JsonArray asks = jsonResponse.getJsonArray("ask");
-            JsonArray mids = jsonResponse.getJsonArray("mid");
-            JsonArray deltas = jsonResponse.getJsonArray("delta");
-            JsonArray gammas = jsonResponse.getJsonArray("gamma");
-            JsonArray thetas = jsonResponse.getJsonArray("theta");
-            JsonArray vegas = jsonResponse.getJsonArray("vega");
-            JsonArray openInterests = jsonResponse.getJsonArray("openInterest");
-            JsonArray volumes = jsonResponse.getJsonArray("volume");
-            JsonArray intrinsicValues = jsonResponse.getJsonArray("intrinsicValue");
-            JsonArray extrinsicValues = jsonResponse.getJsonArray("extrinsicValue");
-            JsonArray ivs = jsonResponse.getJsonArray("iv");
-            JsonArray underlyingPrices = jsonResponse.getJsonArray("underlyingPrice");
-
-            // Date format for expiration conversion
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
-            // Map to hold merged options by strike and expiration
-            Map<String, JsonObject> optionMap = new HashMap<>();
-
-            // Loop over all options and categorize them by strike and expiration
-            for (int i = 0; i < strikes.size(); i++) {
-                // Convert expiration timestamp to YYYY-MM-DD format
-                Date expirationDate = new Date(expirations.getLong(i) * 1000); // Convert seconds to milliseconds
-                String formattedExpiration = dateFormat.format(expirationDate);
-
-                String key = formattedExpiration + "-" + strikes.getDouble(i); // Key by expiration-strike
-
-                JsonObject existingEntry = optionMap.getOrDefault(key, new JsonObject()
-                        .put("strike", strikes.getDouble(i))
-                        .put("expiration", formattedExpiration)
-                );
-
-                double underlyingPrice = underlyingPrices.getDouble(i);
-
-                if (sides.getString(i).equals("call")) {
-                    // Calculate DEX and GEX for call options
-                    double callDelta = deltas.getDouble(i);
-                    double callGamma = gammas.getDouble(i);
-                    double callTheta = thetas.getDouble(i);
-                    double callVega = vegas.getDouble(i);
-                    int callOpenInterest = openInterests.getInteger(i);
-                    double callDex = callDelta * callOpenInterest * 100;
-                    double callGex = callGamma * callOpenInterest * 100 * underlyingPrice;
-
-                    // Add call-specific data
-                    existingEntry
-                            .put("call_bid", bids.getDouble(i))
-                            .put("call_ask", asks.getDouble(i))
-                            .put("call_mid", mids.getDouble(i))
-                            .put("call_delta", callDelta)
-                            .put("call_gamma", callGamma)
-                            .put("call_theta", callTheta)
-                            .put("call_vega", callVega)
-                            .put("call_oi", callOpenInterest)
-                            .put("call_volume", volumes.getInteger(i))
-                            .put("call_iv", ivs.getDouble(i))
-                            .put("call_intrinsic_value", intrinsicValues.getDouble(i))
-                            .put("call_extrinsic_value", extrinsicValues.getDouble(i))
-                            .put("call_dex", callDex)
-                            .put("call_gex", callGex);
-                } else if (sides.getString(i).equals("put")) {
-                    // Calculate DEX and GEX for put options
-                    double putDelta = deltas.getDouble(i);
-                    double putGamma = gammas.getDouble(i);
-                    double putTheta = thetas.getDouble(i);
-                    double putVega = vegas.getDouble(i);
-                    int putOpenInterest = openInterests.getInteger(i);
-                    double putDex = putDelta * putOpenInterest * 100;
-                    double putGex = putGamma * putOpenInterest * 100 * underlyingPrice;
-
-                    // Add put-specific data
-                    existingEntry
-                            .put("put_bid", bids.getDouble(i))
-                            .put("put_ask", asks.getDouble(i))
-                            .put("put_mid", mids.getDouble(i))
-                            .put("put_delta", putDelta)
-                            .put("put_gamma", putGamma)
-                            .put("put_theta", putTheta)
-                            .put("put_vega", putVega)
-                            .put("put_oi", putOpenInterest)
-                            .put("put_volume", volumes.getInteger(i))
-                            .put("put_iv", ivs.getDouble(i))
-                            .put("put_intrinsic_value", intrinsicValues.getDouble(i))
-                            .put("put_extrinsic_value", extrinsicValues.getDouble(i))
-                            .put("put_dex", putDex)
-                            .put("put_gex", putGex);
-                }
-
-                // Store the merged option data
-                optionMap.put(key, existingEntry);
-            }
-
-            // Convert the map to JsonArray
-            mergedArray.addAll(JsonArray.of(optionMap.values().toArray()));
-        } catch (Exception e) {
-            System.out.println(jsonResponse.encodePrettily());
-        }
-        return mergedArray;
-    }
-
-    private void replaceNullsInNumericArrays(JsonObject jsonObject) {
-        jsonObject.forEach(entry -> {
-            Object value = entry.getValue();
-
-            if (value instanceof JsonArray array) {
-                if (isNumericArray(array)) {
-                    for (int i = 0; i < array.size(); i++) {
-                        if (array.getValue(i) == null) {
-                            array.set(i, 0); // Replace null with 0
+                    if (response.statusCode() != 200 && response.statusCode() != 203) {
+                        return Future.failedFuture("Failed to fetch option chain for ticker: " + ticker + ", HTTP status: " + response.statusCode());
+                    }
+                    try {
+                        DecodedChain chain = OptionChainDecoder.decode(response.body());
+                        if (!chain.isOk()) {
+                            return Future.failedFuture("Failed to fetch option chain for ticker: " + ticker + ", status: " +
+                                                       chain.getStatus() + ", message: " + chain.getErrorMessage());
                         }
+                        return Future.succeededFuture(new FetchedChain(chain.toSlices(),
+                                response.getHeader("ETag"), response.getHeader("Last-Modified")));
+                    } catch (Exception e) {
+                        return Future.failedFuture("Failed to decode option chain for ticker: " + ticker + ", reason: " + e.getMessage());
                     }
-                }
-            }
-        });
+                });
     }
 
-    // Helper method to check if an array only contains numeric values (integers or floats)
-    private boolean isNumericArray(JsonArray array) {
-        for (Object element : array) {
-            if (element != null && !(element instanceof Number)) {
-                return false;
-            }
+    /**
+     * @return the validator of the response, or the one the request was sent with
+     */
+    private static String validator(HttpResponse<Buffer> response, String name, MultiMap requestHeaders, String requestName) {
+        String value = response.getHeader(name);
+        if (value == null && requestHeaders != null) {
+            value = requestHeaders.get(requestName);
         }
-        return true;
+        return value;
     }
 
     public static String convertUnixToDate(long unixTimestamp) {
@@ -429,4 +643,45 @@ public class MarketDataFetchService extends BaseService {
         // Format the date as YYYY-MM-DD
         return date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
     }
+
+    /**
+     * State of one pass over the ticker universe.
+     */
+    private static class FetchRun {
+        private final String batchId = String.valueOf(System.currentTimeMillis());
+        private final long startTime = System.currentTimeMillis();
+        // The day the store derives time to expiration from, the same for every chain of the run
+        private final LocalDate tradingDay = LocalDate.now();
+        private final Queue<JsonObject> tickerQueue = new LinkedList<>();
+        private final JsonArray optionChains = new JsonArray();
+        private final JsonArray deadLetters = new JsonArray();
+        private final JsonArray tickers = new JsonArray();
+        private boolean partial;
+        private final Promise<Void> complete = Promise.promise();
+        private int tickerCount;
+        private long strikeCount;
+        private long bytes;
+        private int sliceCount;
+        private int unchangedSliceCount;
+        private final List<ChainFingerprints.Candidate> candidates = new ArrayList<>();
+        private int inFlight;
+        private int pendingRetries;
+        private boolean abandoned;
+    }
+
+    /**
+     * Slices of one option chain response with its validators, which may be null. After a 304
+     * the slices are those of the last run.
+     */
+    private static class FetchedChain {
+        private final List<ExpirationSlice> slices;
+        private final String etag;
+        private final String lastModified;
+
+        private FetchedChain(List<ExpirationSlice> slices, String etag, String lastModified) {
+            this.slices = slices;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
 }
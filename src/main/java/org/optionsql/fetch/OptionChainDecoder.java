@@ -0,0 +1,158 @@
+package org.optionsql.fetch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder for marketdata.app option chain responses.
+ * <p>
+ * The response is columnar: one JSON array per field, one element per contract. The decoder
+ * walks the token stream once and reads the arrays it needs straight into primitive columns,
+ * turning nulls into zeros. Fields it does not use are skipped without being materialized.
+ */
+public final class OptionChainDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private OptionChainDecoder() {
+    }
+
+    /**
+     * Decode a chain response body.
+     *
+     * @param body the raw response body
+     * @return the per-contract columns
+     * @throws IOException if the body is not valid JSON or the columns are inconsistent
+     */
+    public static DecodedChain decode(Buffer body) throws IOException {
+        DecodedChain chain = new DecodedChain();
+        ColumnBuffer buffer = new ColumnBuffer();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(body.getBytes())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Option chain response is not a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                switch (field) {
+                    case "s" -> chain.status = parser.getValueAsString();
+                    case "errmsg" -> chain.errorMessage = parser.getValueAsString();
+                    case "side" -> chain.isCall = readSides(parser, buffer);
+                    case "expiration" -> chain.expiration = readLongs(parser, buffer);
+                    case "strike" -> chain.strike = readDoubles(parser, buffer);
+                    case "bid" -> chain.bid = readDoubles(parser, buffer);
+                    case "ask" -> chain.ask = readDoubles(parser, buffer);
+                    case "mid" -> chain.mid = readDoubles(parser, buffer);
+                    case "delta" -> chain.delta = readDoubles(parser, buffer);
+                    case "gamma" -> chain.gamma = readDoubles(parser, buffer);
+                    case "theta" -> chain.theta = readDoubles(parser, buffer);
+                    case "vega" -> chain.vega = readDoubles(parser, buffer);
+                    case "iv" -> chain.iv = readDoubles(parser, buffer);
+                    case "openInterest" -> chain.openInterest = readInts(parser, buffer);
+                    case "volume" -> chain.volume = readInts(parser, buffer);
+                    default -> {
+                        if (value == JsonToken.START_ARRAY || value == JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (chain.isOk()) {
+            chain.validate();
+        }
+        return chain;
+    }
+
+    private static double[] readDoubles(JsonParser parser, ColumnBuffer buffer) throws IOException {
+        expectArray(parser);
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            double value = token == JsonToken.VALUE_NULL ? 0.0 : parser.getDoubleValue();
+            buffer.doubles = ensureCapacity(buffer.doubles, size);
+            buffer.doubles[size++] = value;
+        }
+        return Arrays.copyOf(buffer.doubles, size);
+    }
+
+    private static long[] readLongs(JsonParser parser, ColumnBuffer buffer) throws IOException {
+        expectArray(parser);
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            long value = token == JsonToken.VALUE_NULL ? 0L : parser.getLongValue();
+            buffer.longs = ensureCapacity(buffer.longs, size);
+            buffer.longs[size++] = value;
+        }
+        return Arrays.copyOf(buffer.longs, size);
+    }
+
+    private static int[] readInts(JsonParser parser, ColumnBuffer buffer) throws IOException {
+        expectArray(parser);
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            int value = token == JsonToken.VALUE_NULL ? 0 : parser.getIntValue();
+            buffer.ints = ensureCapacity(buffer.ints, size);
+            buffer.ints[size++] = value;
+        }
+        return Arrays.copyOf(buffer.ints, size);
+    }
+
+    private static boolean[] readSides(JsonParser parser, ColumnBuffer buffer) throws IOException {
+        expectArray(parser);
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            // Compare the first character in place instead of allocating a String per contract
+            boolean isCall = token == JsonToken.VALUE_STRING
+                             && parser.getTextLength() > 0
+                             && parser.getTextCharacters()[parser.getTextOffset()] == 'c';
+            buffer.booleans = ensureCapacity(buffer.booleans, size);
+            buffer.booleans[size++] = isCall;
+        }
+        return Arrays.copyOf(buffer.booleans, size);
+    }
+
+    private static void expectArray(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Expected array for field '" + parser.currentName() + "'");
+        }
+    }
+
+    private static double[] ensureCapacity(double[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    private static long[] ensureCapacity(long[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    private static int[] ensureCapacity(int[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    private static boolean[] ensureCapacity(boolean[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Scratch arrays reused across columns of one response.
+     */
+    private static class ColumnBuffer {
+        private double[] doubles = new double[1024];
+        private long[] longs = new long[1024];
+        private int[] ints = new int[1024];
+        private boolean[] booleans = new boolean[1024];
+    }
+}
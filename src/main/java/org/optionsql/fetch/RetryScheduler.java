@@ -0,0 +1,71 @@
+package org.optionsql.fetch;
+
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Schedules delayed retries of failed work items on Vert.x timers.
+ * <p>
+ * The delay grows exponentially with the number of failed attempts, capped at
+ * {@code maxBackoffMs}, and is randomized between half and the full value so retries of many
+ * tickers failing together spread out. Must be used from a single Vert.x context.
+ */
+public class RetryScheduler {
+
+    private final Vertx vertx;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private int pending;
+
+    public RetryScheduler(Vertx vertx, int maxAttempts, long backoffMs, long maxBackoffMs) {
+        if (maxAttempts < 1 || backoffMs <= 0 || maxBackoffMs < backoffMs) {
+            throw new IllegalArgumentException("Invalid retry settings: attempts=" + maxAttempts +
+                                               ", backoff=" + backoffMs + ", maxBackoff=" + maxBackoffMs);
+        }
+        this.vertx = vertx;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * Schedule another attempt after a failure.
+     *
+     * @param attempts number of attempts made so far, including the one that just failed
+     * @param action   run on the calling context once the backoff has elapsed
+     * @return false if the attempt budget is used up and nothing was scheduled
+     */
+    public boolean retry(int attempts, Runnable action) {
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+        pending++;
+        vertx.setTimer(delay(attempts), id -> {
+            pending--;
+            action.run();
+        });
+        return true;
+    }
+
+    /**
+     * @return the backoff before attempt number {@code attempts + 1}
+     */
+    public long delay(int attempts) {
+        long ceiling = Math.min(maxBackoffMs, backoffMs << Math.min(attempts - 1, 20));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * @return retries waiting for their timer
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
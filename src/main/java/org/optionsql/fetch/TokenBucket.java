@@ -0,0 +1,91 @@
+package org.optionsql.fetch;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Token bucket rate limiter driven by Vert.x timers.
+ * <p>
+ * Tokens refill continuously at {@code permits / periodMs} up to {@code burst}. Callers that
+ * find the bucket empty are queued and released in FIFO order as tokens become available.
+ * Must be used from a single Vert.x context.
+ */
+public class TokenBucket {
+
+    private final Vertx vertx;
+    private final double burst;
+    private final double tokensPerMs;
+    private final Queue<Promise<Void>> waiters = new LinkedList<>();
+
+    private double tokens;
+    private long lastRefill;
+    private long timerId = -1;
+
+    public TokenBucket(Vertx vertx, int permits, long periodMs, int burst) {
+        if (permits <= 0 || periodMs <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate limit permits, period and burst must be positive.");
+        }
+        this.vertx = vertx;
+        this.burst = burst;
+        this.tokensPerMs = (double) permits / periodMs;
+        this.tokens = burst;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Acquire a single token.
+     *
+     * @return a Future completed once a token has been granted
+     */
+    public Future<Void> acquire() {
+        refill();
+        if (waiters.isEmpty() && tokens >= 1) {
+            tokens -= 1;
+            return Future.succeededFuture();
+        }
+
+        Promise<Void> promise = Promise.promise();
+        waiters.add(promise);
+        scheduleDrain();
+        return promise.future();
+    }
+
+    /**
+     * @return the number of callers currently waiting for a token
+     */
+    public int getWaiting() {
+        return waiters.size();
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMs);
+        lastRefill = now;
+    }
+
+    private void scheduleDrain() {
+        if (timerId != -1) {
+            return;
+        }
+        long delay = Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMs));
+        timerId = vertx.setTimer(delay, id -> {
+            timerId = -1;
+            drain();
+        });
+    }
+
+    private void drain() {
+        refill();
+        while (!waiters.isEmpty() && tokens >= 1) {
+            tokens -= 1;
+            waiters.poll().complete();
+        }
+        if (!waiters.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+}
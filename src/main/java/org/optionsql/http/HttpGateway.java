@@ -0,0 +1,258 @@
+package org.optionsql.http;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Shared outbound HTTP gateway, one per Vert.x instance.
+ * <p>
+ * Keeps one pooled, keep-alive {@link WebClient} per host (HTTP/2 via ALPN where the server
+ * supports it, gzip negotiated), caps concurrent requests per host, retries failed connection
+ * attempts with jittered exponential backoff, and guards each host with a {@link CircuitBreaker}.
+ * Latency histograms and pool usage are available from {@link #metrics()} and optionally logged
+ * on a fixed interval.
+ * <p>
+ * Only requests that never reached the server are retried here. 429 and 5xx responses and
+ * failures after the request went out, such as timeouts, go back to the caller, so every request
+ * the provider sees passes the caller's rate limit and its outcome reaches the caller's
+ * concurrency limit. The fetch service retries failed tickers as a whole.
+ */
+public class HttpGateway implements Shareable {
+
+    private static final Logger logger = Logger.getLogger(HttpGateway.class.getName());
+    private static final String SHARED_MAP = "optionsql.http";
+
+    private final Vertx vertx;
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+    private final int maxPerHost;
+    private final boolean http2;
+    private final int maxRetries;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final int breakerFailures;
+    private final long breakerResetMs;
+    private final int connectTimeoutMs;
+    private final int idleTimeoutSeconds;
+
+    private HttpGateway(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.maxPerHost = config.getInteger("maxperhost", 16);
+        this.http2 = config.getBoolean("http2", true);
+        this.maxRetries = config.getInteger("retries", 3);
+        this.backoffMs = config.getLong("backoffms", 250L);
+        this.maxBackoffMs = config.getLong("maxbackoffms", 8000L);
+        JsonObject breakerConfig = config.getJsonObject("breaker", new JsonObject());
+        this.breakerFailures = breakerConfig.getInteger("failures", 10);
+        this.breakerResetMs = breakerConfig.getLong("resetms", 30000L);
+        this.connectTimeoutMs = config.getInteger("connecttimeoutms", 10000);
+        this.idleTimeoutSeconds = config.getInteger("idletimeoutseconds", 60);
+
+        long reportIntervalMs = config.getLong("reportintervalms", 0L);
+        if (reportIntervalMs > 0) {
+            vertx.setPeriodic(reportIntervalMs, id -> logger.info("HTTP gateway metrics: " + metrics().encode()));
+        }
+    }
+
+    /**
+     * Get the gateway owned by the given Vert.x instance, creating it on first use.
+     *
+     * @param vertx  the Vert.x instance
+     * @param config the {@code resources.http} configuration
+     * @return the shared gateway
+     */
+    public static HttpGateway shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, HttpGateway> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        return map.computeIfAbsent("gateway", key -> new HttpGateway(vertx, config));
+    }
+
+    /**
+     * Send a GET request to an absolute URL.
+     *
+     * @param url the absolute URL including scheme and host
+     * @return a Future with the final response after retries
+     */
+    public Future<HttpResponse<Buffer>> get(String url) {
+        return get(url, null);
+    }
+
+    /**
+     * Send a GET request to an absolute URL with extra request headers.
+     *
+     * @param url     the absolute URL including scheme and host
+     * @param headers extra headers, may be null
+     * @return a Future with the final response after retries
+     */
+    public Future<HttpResponse<Buffer>> get(String url, MultiMap headers) {
+        URI uri = URI.create(url);
+        HostPool pool = pools.computeIfAbsent(uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort(),
+                key -> new HostPool(uri));
+        String requestUri = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+
+        Promise<HttpResponse<Buffer>> promise = Promise.promise();
+        attempt(pool, requestUri, headers, 0, promise);
+        return promise.future();
+    }
+
+    private void attempt(HostPool pool, String requestUri, MultiMap headers, int attempt, Promise<HttpResponse<Buffer>> promise) {
+        if (!pool.breaker.allowRequest()) {
+            pool.rejected.incrementAndGet();
+            promise.fail(new IllegalStateException("Circuit open for host: " + pool.host));
+            return;
+        }
+
+        pool.acquire(vertx.getOrCreateContext()).onComplete(slot -> {
+            long start = System.currentTimeMillis();
+            HttpRequest<Buffer> request = pool.client.get(requestUri);
+            if (headers != null) {
+                request.putHeaders(headers);
+            }
+            pool.requests.incrementAndGet();
+
+            request.send().onComplete(ar -> {
+                pool.release();
+                pool.latency.record(System.currentTimeMillis() - start);
+
+                boolean failure = ar.failed() || ar.result().statusCode() == 429 || ar.result().statusCode() >= 500;
+                if (failure) {
+                    pool.failures.incrementAndGet();
+                    pool.breaker.onFailure();
+                } else {
+                    pool.breaker.onSuccess();
+                }
+
+                // A connection that was never established sent nothing to the provider
+                if (ar.failed() && ar.cause() instanceof ConnectException && attempt < maxRetries) {
+                    pool.retries.incrementAndGet();
+                    vertx.setTimer(backoff(attempt), id -> attempt(pool, requestUri, headers, attempt + 1, promise));
+                } else if (ar.succeeded()) {
+                    promise.complete(ar.result());
+                } else {
+                    promise.fail(ar.cause());
+                }
+            });
+        });
+    }
+
+    /**
+     * Full-jitter exponential backoff: a random delay up to {@code backoffMs * 2^attempt}, capped.
+     */
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, backoffMs << Math.min(attempt, 20));
+        return 1 + ThreadLocalRandom.current().nextLong(Math.max(1, ceiling));
+    }
+
+    /**
+     * @return per-host pool usage, breaker state and latency histograms
+     */
+    public JsonObject metrics() {
+        JsonObject hosts = new JsonObject();
+        pools.forEach((key, pool) -> hosts.put(pool.host, pool.toJson()));
+        return new JsonObject().put("hosts", hosts);
+    }
+
+    /**
+     * Per-host client, concurrency cap and counters.
+     */
+    private class HostPool {
+        private final String host;
+        private final WebClient client;
+        private final CircuitBreaker breaker = new CircuitBreaker(breakerFailures, breakerResetMs);
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Queue<Waiter> waiters = new LinkedList<>();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private int inFlight;
+
+        private HostPool(URI uri) {
+            boolean ssl = "https".equalsIgnoreCase(uri.getScheme());
+            this.host = uri.getHost();
+
+            WebClientOptions options = new WebClientOptions()
+                    .setDefaultHost(uri.getHost())
+                    .setDefaultPort(uri.getPort() != -1 ? uri.getPort() : (ssl ? 443 : 80))
+                    .setSsl(ssl)
+                    .setKeepAlive(true)
+                    .setMaxPoolSize(maxPerHost)
+                    .setDecompressionSupported(true)
+                    .setConnectTimeout(connectTimeoutMs)
+                    .setIdleTimeout(idleTimeoutSeconds);
+            if (http2 && ssl) {
+                // ALPN negotiates HTTP/2 and falls back to HTTP/1.1 for servers without h2
+                options.setProtocolVersion(HttpVersion.HTTP_2).setUseAlpn(true);
+            }
+            this.client = WebClient.create(vertx, options);
+        }
+
+        private Future<Void> acquire(Context context) {
+            synchronized (this) {
+                if (inFlight < maxPerHost) {
+                    inFlight++;
+                    return Future.succeededFuture();
+                }
+                Waiter waiter = new Waiter(context, Promise.promise());
+                waiters.add(waiter);
+                return waiter.promise.future();
+            }
+        }
+
+        private void release() {
+            Waiter next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            // Hand the slot straight to the next waiter on its own context
+            next.context.runOnContext(v -> next.promise.complete());
+        }
+
+        private synchronized JsonObject toJson() {
+            return new JsonObject()
+                    .put("in_flight", inFlight)
+                    .put("queued", waiters.size())
+                    .put("max", maxPerHost)
+                    .put("requests", requests.get())
+                    .put("retries", retries.get())
+                    .put("failures", failures.get())
+                    .put("rejected", rejected.get())
+                    .put("breaker", breaker.getState().name())
+                    .put("latency", latency.toJson());
+        }
+    }
+
+    private static class Waiter {
+        private final Context context;
+        private final Promise<Void> promise;
+
+        private Waiter(Context context, Promise<Void> promise) {
+            this.context = context;
+            this.promise = promise;
+        }
+    }
+}
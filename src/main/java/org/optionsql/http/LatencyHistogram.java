@@ -0,0 +1,75 @@
+package org.optionsql.http;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram, safe to update from any thread.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MS.length + 1);
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MS.length && latencyMs > BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        totalMs.addAndGet(latencyMs);
+        maxMs.accumulateAndGet(latencyMs, Math::max);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Approximate a percentile from the bucket upper bounds.
+     *
+     * @param percentile value between 0 and 100
+     * @return the upper bound of the bucket containing the percentile, or the max for the overflow bucket
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return BOUNDS_MS[i];
+            }
+        }
+        return maxMs.get();
+    }
+
+    public JsonObject toJson() {
+        long count = getCount();
+        JsonObject buckets = new JsonObject();
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            buckets.put("le_" + BOUNDS_MS[i], counts.get(i));
+        }
+        buckets.put("le_inf", counts.get(BOUNDS_MS.length));
+        return new JsonObject()
+                .put("count", count)
+                .put("avg_ms", count == 0 ? 0 : totalMs.get() / count)
+                .put("p50_ms", getPercentile(50))
+                .put("p95_ms", getPercentile(95))
+                .put("p99_ms", getPercentile(99))
+                .put("max_ms", maxMs.get())
+                .put("buckets", buckets);
+    }
+}
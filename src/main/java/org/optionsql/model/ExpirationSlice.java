@@ -0,0 +1,100 @@
+package org.optionsql.model;
+
+/**
+ * All strikes of one expiration of an {@link OptionChain}, ordered by strike, with call and
+ * put data held in parallel primitive columns. Immutable.
+ */
+public final class ExpirationSlice {
+
+    private final int expirationCode;
+    private final double[] strike;
+    private final OptionSide calls;
+    private final OptionSide puts;
+    private volatile long contentHash;
+
+    /**
+     * @param expirationDate the expiration date as YYYY-MM-DD
+     * @param strike         strike prices in ascending order; ownership passes to the slice
+     * @param calls          call columns, one entry per strike
+     * @param puts           put columns, one entry per strike
+     */
+    public ExpirationSlice(String expirationDate, double[] strike, OptionSide calls, OptionSide puts) {
+        if (calls.size() != strike.length || puts.size() != strike.length) {
+            throw new IllegalArgumentException("Slice columns have inconsistent lengths for " + expirationDate);
+        }
+        this.expirationCode = StringDictionary.EXPIRATIONS.encode(expirationDate);
+        this.strike = strike;
+        this.calls = calls;
+        this.puts = puts;
+    }
+
+    public String getExpirationDate() {
+        return StringDictionary.EXPIRATIONS.decode(expirationCode);
+    }
+
+    public int size() {
+        return strike.length;
+    }
+
+    public double getStrike(int i) {
+        return strike[i];
+    }
+
+    public OptionSide getCalls() {
+        return calls;
+    }
+
+    public OptionSide getPuts() {
+        return puts;
+    }
+
+    /**
+     * 64-bit FNV-1a style hash over strikes and both sides, used to detect slices that did not
+     * change between fetch runs. Computed on first use.
+     */
+    public long getContentHash() {
+        long h = contentHash;
+        if (h == 0) {
+            h = hash(0xcbf29ce484222325L, strike);
+            h = calls.hash(h);
+            h = puts.hash(h);
+            // Zero marks "not computed yet"
+            contentHash = h == 0 ? 1 : h;
+        }
+        return contentHash;
+    }
+
+    /**
+     * Fingerprint of the quote and greek fields of both sides at strike {@code i}, stored with
+     * the row so that an upsert can skip rows that did not change.
+     */
+    public long getRowHash(int i) {
+        long h = calls.hashRow(0xcbf29ce484222325L, i);
+        return puts.hashRow(h, i);
+    }
+
+    static long mix(long h, long value) {
+        return (h ^ value) * 0x100000001b3L;
+    }
+
+    static long hash(long h, double[] column) {
+        for (double value : column) {
+            h = (h ^ Double.doubleToLongBits(value)) * 0x100000001b3L;
+        }
+        return (h ^ column.length) * 0x100000001b3L;
+    }
+
+    static long hash(long h, int[] column) {
+        for (int value : column) {
+            h = (h ^ value) * 0x100000001b3L;
+        }
+        return (h ^ column.length) * 0x100000001b3L;
+    }
+
+    /**
+     * @return approximate retained heap size of the slice in bytes
+     */
+    public long getEstimatedBytes() {
+        return 32 + 16 + 8L * strike.length + calls.getEstimatedBytes() + puts.getEstimatedBytes();
+    }
+}
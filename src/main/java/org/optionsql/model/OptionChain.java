@@ -0,0 +1,143 @@
+package org.optionsql.model;
+
+import io.vertx.core.shareddata.Shareable;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Fetched option chain of one ticker: ticker-level data plus one {@link ExpirationSlice} per
+ * expiration. Immutable, so it is {@link Shareable} and travels over the local event bus by
+ * reference instead of being copied.
+ */
+public final class OptionChain implements Shareable {
+
+    private final int tickerCode;
+    private final int segmentCode;
+    private final double currentPrice;
+    private final double ivHistoricalLow;
+    private final double ivHistoricalHigh;
+    private final String nextEarningsDate;
+    private final String nextEarningsTime;
+    private final List<ExpirationSlice> slices;
+    private final BitSet unchangedSlices;
+
+    public OptionChain(String tickerSymbol, String segment, double currentPrice, double ivHistoricalLow,
+                       double ivHistoricalHigh, String nextEarningsDate, String nextEarningsTime,
+                       List<ExpirationSlice> slices) {
+        this(tickerSymbol, segment, currentPrice, ivHistoricalLow, ivHistoricalHigh, nextEarningsDate,
+                nextEarningsTime, slices, new BitSet());
+    }
+
+    /**
+     * @param unchangedSlices indexes into {@code slices} of expirations whose content is identical
+     *                        to the previous fetch run
+     */
+    public OptionChain(String tickerSymbol, String segment, double currentPrice, double ivHistoricalLow,
+                       double ivHistoricalHigh, String nextEarningsDate, String nextEarningsTime,
+                       List<ExpirationSlice> slices, BitSet unchangedSlices) {
+        this.tickerCode = StringDictionary.TICKERS.encode(tickerSymbol);
+        this.segmentCode = StringDictionary.SEGMENTS.encode(segment);
+        this.currentPrice = currentPrice;
+        this.ivHistoricalLow = ivHistoricalLow;
+        this.ivHistoricalHigh = ivHistoricalHigh;
+        this.nextEarningsDate = nextEarningsDate;
+        this.nextEarningsTime = nextEarningsTime;
+        this.slices = List.copyOf(slices);
+        this.unchangedSlices = (BitSet) unchangedSlices.clone();
+    }
+
+    public String getTickerSymbol() {
+        return StringDictionary.TICKERS.decode(tickerCode);
+    }
+
+    public String getSegment() {
+        return StringDictionary.SEGMENTS.decode(segmentCode);
+    }
+
+    public double getCurrentPrice() {
+        return currentPrice;
+    }
+
+    public double getIvHistoricalLow() {
+        return ivHistoricalLow;
+    }
+
+    public double getIvHistoricalHigh() {
+        return ivHistoricalHigh;
+    }
+
+    public String getNextEarningsDate() {
+        return nextEarningsDate;
+    }
+
+    /**
+     * @return the next earnings date, or null if none is known ("N/A")
+     */
+    public LocalDate getNextEarningsLocalDate() {
+        if (nextEarningsDate == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(nextEarningsDate);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public String getNextEarningsTime() {
+        return nextEarningsTime;
+    }
+
+    /**
+     * @return the slices ordered by expiration date, unmodifiable
+     */
+    public List<ExpirationSlice> getSlices() {
+        return slices;
+    }
+
+    /**
+     * @param sliceIndex index into {@link #getSlices()}
+     * @return true if the slice is identical to the one fetched in the previous run
+     */
+    public boolean isUnchanged(int sliceIndex) {
+        return unchangedSlices.get(sliceIndex);
+    }
+
+    /**
+     * @return the number of slices identical to the previous run
+     */
+    public int getUnchangedSliceCount() {
+        return unchangedSlices.cardinality();
+    }
+
+    /**
+     * @return the number of strikes across all expirations
+     */
+    public int getStrikeCount() {
+        int count = 0;
+        for (ExpirationSlice slice : slices) {
+            count += slice.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate retained heap size of the chain in bytes
+     */
+    public long getEstimatedBytes() {
+        long bytes = 96;
+        for (ExpirationSlice slice : slices) {
+            bytes += slice.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public OptionChain copy() {
+        // Immutable, safe to share between verticles
+        return this;
+    }
+}
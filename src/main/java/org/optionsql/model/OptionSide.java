@@ -0,0 +1,125 @@
+package org.optionsql.model;
+
+/**
+ * Quote and greek columns for one side (calls or puts) of an {@link ExpirationSlice}.
+ * Index {@code i} refers to the strike at {@link ExpirationSlice#getStrike(int)}.
+ * <p>
+ * The constructor takes ownership of the arrays; they must not be modified afterwards.
+ */
+public final class OptionSide {
+
+    private final double[] bid;
+    private final double[] ask;
+    private final double[] mid;
+    private final int[] volume;
+    private final int[] openInterest;
+    private final double[] delta;
+    private final double[] gamma;
+    private final double[] theta;
+    private final double[] vega;
+    private final double[] iv;
+
+    public OptionSide(double[] bid, double[] ask, double[] mid, int[] volume, int[] openInterest,
+                      double[] delta, double[] gamma, double[] theta, double[] vega, double[] iv) {
+        int n = bid.length;
+        if (ask.length != n || mid.length != n || volume.length != n || openInterest.length != n
+            || delta.length != n || gamma.length != n || theta.length != n || vega.length != n || iv.length != n) {
+            throw new IllegalArgumentException("Option side columns have inconsistent lengths");
+        }
+        this.bid = bid;
+        this.ask = ask;
+        this.mid = mid;
+        this.volume = volume;
+        this.openInterest = openInterest;
+        this.delta = delta;
+        this.gamma = gamma;
+        this.theta = theta;
+        this.vega = vega;
+        this.iv = iv;
+    }
+
+    public int size() {
+        return bid.length;
+    }
+
+    public double getBid(int i) {
+        return bid[i];
+    }
+
+    public double getAsk(int i) {
+        return ask[i];
+    }
+
+    public double getMid(int i) {
+        return mid[i];
+    }
+
+    public int getVolume(int i) {
+        return volume[i];
+    }
+
+    public int getOpenInterest(int i) {
+        return openInterest[i];
+    }
+
+    public double getDelta(int i) {
+        return delta[i];
+    }
+
+    public double getGamma(int i) {
+        return gamma[i];
+    }
+
+    public double getTheta(int i) {
+        return theta[i];
+    }
+
+    public double getVega(int i) {
+        return vega[i];
+    }
+
+    public double getIv(int i) {
+        return iv[i];
+    }
+
+    /**
+     * Fold every column into a running 64-bit hash.
+     */
+    long hash(long h) {
+        h = ExpirationSlice.hash(h, bid);
+        h = ExpirationSlice.hash(h, ask);
+        h = ExpirationSlice.hash(h, mid);
+        h = ExpirationSlice.hash(h, volume);
+        h = ExpirationSlice.hash(h, openInterest);
+        h = ExpirationSlice.hash(h, delta);
+        h = ExpirationSlice.hash(h, gamma);
+        h = ExpirationSlice.hash(h, theta);
+        h = ExpirationSlice.hash(h, vega);
+        return ExpirationSlice.hash(h, iv);
+    }
+
+    /**
+     * Fold the columns of strike {@code i} into a running 64-bit hash.
+     */
+    long hashRow(long h, int i) {
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(bid[i]));
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(ask[i]));
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(mid[i]));
+        h = ExpirationSlice.mix(h, volume[i]);
+        h = ExpirationSlice.mix(h, openInterest[i]);
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(delta[i]));
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(gamma[i]));
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(theta[i]));
+        h = ExpirationSlice.mix(h, Double.doubleToLongBits(vega[i]));
+        return ExpirationSlice.mix(h, Double.doubleToLongBits(iv[i]));
+    }
+
+    /**
+     * @return approximate retained heap size of the columns in bytes
+     */
+    long getEstimatedBytes() {
+        long n = size();
+        // 8 double columns, 2 int columns, 16 byte header per array, plus the object itself
+        return 8 * (16 + 8 * n) + 2 * (16 + 4 * n) + 56;
+    }
+}
@@ -0,0 +1,52 @@
+package org.optionsql.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only dictionary that maps repeated strings (ticker symbols, expiration dates, segments)
+ * to small integer codes, so each distinct value is held once for the life of the process.
+ * <p>
+ * Encoding is synchronized; decoding reads a volatile snapshot and never blocks.
+ */
+public final class StringDictionary {
+
+    public static final StringDictionary TICKERS = new StringDictionary();
+    public static final StringDictionary EXPIRATIONS = new StringDictionary();
+    public static final StringDictionary SEGMENTS = new StringDictionary();
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    private StringDictionary() {
+    }
+
+    /**
+     * @param value the string to encode
+     * @return the code for the value, assigning a new one on first use
+     */
+    public synchronized int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /**
+     * @param code a code returned by {@link #encode(String)}
+     * @return the original string
+     */
+    public String decode(int code) {
+        return values[code];
+    }
+}
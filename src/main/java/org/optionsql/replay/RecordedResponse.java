@@ -0,0 +1,92 @@
+package org.optionsql.replay;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.web.client.HttpResponse;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded HTTP response served in replay mode: status, headers and body, no trailers,
+ * cookies or redirects.
+ */
+class RecordedResponse implements HttpResponse<Buffer> {
+
+    private final int statusCode;
+    private final MultiMap headers;
+    private final Buffer body;
+
+    RecordedResponse(int statusCode, MultiMap headers, Buffer body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public HttpVersion version() {
+        return HttpVersion.HTTP_1_1;
+    }
+
+    @Override
+    public int statusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String statusMessage() {
+        return "Replayed";
+    }
+
+    @Override
+    public MultiMap headers() {
+        return headers;
+    }
+
+    @Override
+    public String getHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public String getHeader(CharSequence headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public List<String> cookies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public MultiMap trailers() {
+        return MultiMap.caseInsensitiveMultiMap();
+    }
+
+    @Override
+    public String getTrailer(String trailerName) {
+        return null;
+    }
+
+    @Override
+    public Buffer body() {
+        return body;
+    }
+
+    @Override
+    public Buffer bodyAsBuffer() {
+        return body;
+    }
+
+    @Override
+    public List<String> followedRedirects() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public JsonArray bodyAsJsonArray() {
+        return body.toJsonArray();
+    }
+}
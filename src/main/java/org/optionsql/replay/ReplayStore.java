@@ -0,0 +1,207 @@
+package org.optionsql.replay;
+
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.HttpResponse;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Record and replay of external responses (marketdata.app over HTTP, TWS over the event bus),
+ * one per Vert.x instance.
+ * <p>
+ * In record mode every response is appended to {@code <dir>/<endpoint>/<symbol>.jsonl.gz}. Each
+ * record is written as its own gzip member, so files are append-only and never rewritten; the
+ * concatenated members read back as one stream. In replay mode the records of a file are served
+ * in order, optionally delayed by their recorded latency times {@code latencyscale}, and start
+ * over from the first record once exhausted.
+ */
+public class ReplayStore implements Shareable {
+
+    public enum Mode { OFF, RECORD, REPLAY }
+
+    private static final Logger logger = Logger.getLogger(ReplayStore.class.getName());
+    private static final String SHARED_MAP = "optionsql.replay";
+
+    private final Vertx vertx;
+    private final Mode mode;
+    private final Path dir;
+    private final double latencyScale;
+    private final Map<Path, Future<List<JsonObject>>> recordings = new ConcurrentHashMap<>();
+    private final Map<Path, AtomicInteger> cursors = new ConcurrentHashMap<>();
+
+    private ReplayStore(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.mode = Mode.valueOf(config.getString("mode", "off").toUpperCase());
+        this.dir = Path.of(config.getString("dir", "replay"));
+        this.latencyScale = config.getDouble("latencyscale", 0.0);
+        if (mode != Mode.OFF) {
+            logger.info("Replay store in " + mode + " mode, directory: " + dir.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Get the store owned by the given Vert.x instance, creating it on first use.
+     *
+     * @param vertx  the Vert.x instance
+     * @param config the {@code resources.replay} configuration
+     * @return the shared store
+     */
+    public static ReplayStore shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, ReplayStore> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        return map.computeIfAbsent("store", key -> new ReplayStore(vertx, config));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Record an HTTP response. 304 responses are not recorded, they only make sense against the
+     * client state of the recording run.
+     */
+    public void recordHttp(String url, HttpResponse<Buffer> response, long latencyMs) {
+        if (response.statusCode() == 304) {
+            return;
+        }
+        URI uri = URI.create(url);
+        JsonObject entry = new JsonObject()
+                .put("path", uri.getPath())
+                .put("status", response.statusCode())
+                .put("etag", response.getHeader("ETag"))
+                .put("lastmodified", response.getHeader("Last-Modified"))
+                .put("body", response.body() != null ? response.body().toString(StandardCharsets.UTF_8) : "");
+        record(httpFile(uri), entry, latencyMs);
+    }
+
+    /**
+     * @return the next recorded response for the URL's endpoint and symbol
+     */
+    public Future<HttpResponse<Buffer>> replayHttp(String url) {
+        return replay(httpFile(URI.create(url))).map(entry -> {
+            MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+            if (entry.getString("etag") != null) {
+                headers.add("ETag", entry.getString("etag"));
+            }
+            if (entry.getString("lastmodified") != null) {
+                headers.add("Last-Modified", entry.getString("lastmodified"));
+            }
+            int status = entry.getInteger("status", 200);
+            return new RecordedResponse(status, headers, Buffer.buffer(entry.getString("body", "")));
+        });
+    }
+
+    /**
+     * Record a JSON reply, e.g. from the TWS service.
+     */
+    public void recordJson(String endpoint, String symbol, JsonObject reply, long latencyMs) {
+        record(file(endpoint, symbol), new JsonObject().put("reply", reply), latencyMs);
+    }
+
+    /**
+     * @return the next recorded JSON reply for the endpoint and symbol
+     */
+    public Future<JsonObject> replayJson(String endpoint, String symbol) {
+        return replay(file(endpoint, symbol)).map(entry -> entry.getJsonObject("reply"));
+    }
+
+    private void record(Path file, JsonObject entry, long latencyMs) {
+        entry.put("ts", System.currentTimeMillis()).put("latencyms", latencyMs);
+        byte[] line = (entry.encode() + "\n").getBytes(StandardCharsets.UTF_8);
+        vertx.executeBlocking(() -> {
+            // One gzip member per record keeps the file append-only
+            ByteArrayOutputStream member = new ByteArrayOutputStream(line.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(member)) {
+                gzip.write(line);
+            }
+            synchronized (this) {
+                Files.createDirectories(file.getParent());
+                try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    member.writeTo(out);
+                }
+            }
+            return null;
+        }, false).onFailure(err -> logger.warning("Failed to record response to " + file + ": " + err.getMessage()));
+    }
+
+    private Future<JsonObject> replay(Path file) {
+        return recordings.computeIfAbsent(file, this::load).compose(entries -> {
+            if (entries.isEmpty()) {
+                return Future.failedFuture("No recorded response in " + file);
+            }
+            int index = Math.floorMod(cursors.computeIfAbsent(file, key -> new AtomicInteger()).getAndIncrement(), entries.size());
+            JsonObject entry = entries.get(index);
+            long delay = Math.round(entry.getLong("latencyms", 0L) * latencyScale);
+            if (delay <= 0) {
+                return Future.succeededFuture(entry);
+            }
+            Promise<JsonObject> promise = Promise.promise();
+            vertx.setTimer(delay, id -> promise.complete(entry));
+            return promise.future();
+        });
+    }
+
+    private Future<List<JsonObject>> load(Path file) {
+        return vertx.executeBlocking(() -> {
+            List<JsonObject> entries = new ArrayList<>();
+            if (!Files.exists(file)) {
+                return entries;
+            }
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file));
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        entries.add(new JsonObject(line));
+                    }
+                }
+            } catch (IOException e) {
+                // A record cut short by a crash only loses itself, earlier members are intact
+                logger.warning("Stopped reading " + file + " after " + entries.size() + " records: " + e.getMessage());
+            }
+            return entries;
+        }, false);
+    }
+
+    /**
+     * The endpoint is the URL path without its last segment, the symbol is the last segment,
+     * e.g. {@code /v1/options/chain/AAPL} maps to {@code v1_options_chain/AAPL}. Query
+     * parameters (token, date range) are not part of the key.
+     */
+    private Path httpFile(URI uri) {
+        String path = uri.getPath();
+        int slash = path.lastIndexOf('/');
+        String endpoint = path.substring(0, Math.max(slash, 0));
+        return file(endpoint, path.substring(slash + 1));
+    }
+
+    private Path file(String endpoint, String symbol) {
+        String safeEndpoint = endpoint.replaceAll("^/+", "").replaceAll("[^A-Za-z0-9._-]", "_");
+        String safeSymbol = symbol.replaceAll("[^A-Za-z0-9._-]", "_");
+        return dir.resolve(safeEndpoint.isEmpty() ? "root" : safeEndpoint).resolve(safeSymbol + ".jsonl.gz");
+    }
+}
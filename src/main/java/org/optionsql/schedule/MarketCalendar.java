@@ -0,0 +1,106 @@
+package org.optionsql.schedule;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.logging.Logger;
+
+/**
+ * Exchange trading calendar loaded from a local JSON file: regular session hours, full-day
+ * holidays and early-close days. Weekends are always closed.
+ */
+public class MarketCalendar {
+
+    private static final Logger LOGGER = Logger.getLogger(MarketCalendar.class.getName());
+
+    private final String exchange;
+    private final ZoneId zone;
+    private final LocalTime open;
+    private final LocalTime close;
+    private final LocalTime earlyClose;
+    private final LocalDate validThrough;
+    private final JsonObject holidays;
+    private final JsonObject earlyCloses;
+
+    private MarketCalendar(JsonObject config) {
+        this.exchange = config.getString("exchange", "NYSE");
+        this.zone = ZoneId.of(config.getString("timezone", "America/New_York"));
+        this.open = LocalTime.parse(config.getString("open", "09:30"));
+        this.close = LocalTime.parse(config.getString("close", "16:00"));
+        this.earlyClose = LocalTime.parse(config.getString("earlyclose", "13:00"));
+        this.validThrough = LocalDate.parse(config.getString("validthrough", "9999-12-31"));
+        this.holidays = config.getJsonObject("holidays", new JsonObject());
+        this.earlyCloses = config.getJsonObject("earlycloses", new JsonObject());
+    }
+
+    /**
+     * @param file path to the calendar JSON file
+     * @return the loaded calendar
+     */
+    public static MarketCalendar load(Path file) throws IOException {
+        MarketCalendar calendar = new MarketCalendar(new JsonObject(Files.readString(file)));
+        if (LocalDate.now(calendar.zone).isAfter(calendar.validThrough)) {
+            LOGGER.warning(calendar.exchange + " calendar " + file + " ends on " + calendar.validThrough +
+                           ", holidays after that date are not known.");
+        }
+        return calendar;
+    }
+
+    /**
+     * @return true if the exchange is in its regular session at the given instant
+     */
+    public boolean isOpen(Instant instant) {
+        ZonedDateTime local = instant.atZone(zone);
+        LocalDate date = local.toLocalDate();
+        if (!isTradingDay(date)) {
+            return false;
+        }
+        LocalTime time = local.toLocalTime();
+        return !time.isBefore(open) && time.isBefore(closeTime(date));
+    }
+
+    /**
+     * @return true for weekdays that are not exchange holidays
+     */
+    public boolean isTradingDay(LocalDate date) {
+        DayOfWeek day = date.getDayOfWeek();
+        return day != DayOfWeek.SATURDAY && day != DayOfWeek.SUNDAY && !holidays.containsKey(date.toString());
+    }
+
+    /**
+     * @return the session close of a trading day, earlier on half days
+     */
+    public LocalTime closeTime(LocalDate date) {
+        return earlyCloses.containsKey(date.toString()) ? earlyClose : close;
+    }
+
+    /**
+     * @return the start of the next regular session at or after the given instant
+     */
+    public ZonedDateTime nextOpen(Instant instant) {
+        ZonedDateTime local = instant.atZone(zone);
+        LocalDate date = local.toLocalDate();
+        if (isTradingDay(date) && local.toLocalTime().isBefore(open)) {
+            return date.atTime(open).atZone(zone);
+        }
+        if (isOpen(instant)) {
+            return local;
+        }
+        do {
+            date = date.plusDays(1);
+        } while (!isTradingDay(date));
+        return date.atTime(open).atZone(zone);
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+}
@@ -0,0 +1,156 @@
+package org.optionsql.store;
+
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Encodes rows in the PostgreSQL binary COPY format and streams them to a {@link CopyIn}
+ * through a fixed-size buffer, so no per-row objects or strings are created.
+ */
+public class BinaryCopyWriter {
+
+    private static final byte[] HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0,  // signature
+            0, 0, 0, 0,  // flags
+            0, 0, 0, 0   // header extension length
+    };
+
+    private static final long POSTGRES_EPOCH_DAY = LocalDate.of(2000, 1, 1).toEpochDay();
+
+    private final CopyIn copyIn;
+    private final byte[] buffer;
+    private int position;
+    private long rows;
+
+    public BinaryCopyWriter(CopyIn copyIn, int bufferSize) throws SQLException {
+        this.copyIn = copyIn;
+        this.buffer = new byte[bufferSize];
+        write(HEADER);
+    }
+
+    public void startRow(int fields) throws SQLException {
+        ensure(2);
+        putShort(fields);
+        rows++;
+    }
+
+    public void writeFloat8(double value) throws SQLException {
+        ensure(12);
+        putInt(8);
+        putLong(Double.doubleToRawLongBits(value));
+    }
+
+    public void writeInt2(short value) throws SQLException {
+        ensure(6);
+        putInt(2);
+        putShort(value);
+    }
+
+    public void writeInt4(int value) throws SQLException {
+        ensure(8);
+        putInt(4);
+        putInt(value);
+    }
+
+    public void writeInt8(long value) throws SQLException {
+        ensure(12);
+        putInt(8);
+        putLong(value);
+    }
+
+    /**
+     * @param value the date, or null for SQL NULL
+     */
+    public void writeDate(LocalDate value) throws SQLException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        // Days since the PostgreSQL epoch 2000-01-01
+        ensure(8);
+        putInt(4);
+        putInt((int) (value.toEpochDay() - POSTGRES_EPOCH_DAY));
+    }
+
+    public void writeNull() throws SQLException {
+        ensure(4);
+        putInt(-1);
+    }
+
+    /**
+     * @param utf8 value already encoded as UTF-8, or null for SQL NULL
+     */
+    public void writeText(byte[] utf8) throws SQLException {
+        if (utf8 == null) {
+            writeNull();
+            return;
+        }
+        ensure(4);
+        putInt(utf8.length);
+        write(utf8);
+    }
+
+    public static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the trailer and complete the COPY.
+     *
+     * @return the number of rows the server reports as copied
+     */
+    public long finish() throws SQLException {
+        ensure(2);
+        putShort(-1);
+        flush();
+        return copyIn.endCopy();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    private void write(byte[] bytes) throws SQLException {
+        if (bytes.length > buffer.length) {
+            flush();
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int bytes) throws SQLException {
+        if (position + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (position > 0) {
+            copyIn.writeToCopy(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void putShort(int value) {
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putInt(int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+}
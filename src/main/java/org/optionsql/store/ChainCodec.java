@@ -0,0 +1,122 @@
+package org.optionsql.store;
+
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Compact binary form of an {@link OptionChain} for the {@link PayloadSpool}: ticker fields,
+ * then per slice the expiration, the strike column and the ten columns of each side.
+ */
+class ChainCodec {
+
+    private ChainCodec() {
+    }
+
+    static byte[] encode(OptionChain chain) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + (int) chain.getEstimatedBytes());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(chain.getTickerSymbol());
+        out.writeUTF(chain.getSegment());
+        out.writeDouble(chain.getCurrentPrice());
+        out.writeDouble(chain.getIvHistoricalLow());
+        out.writeDouble(chain.getIvHistoricalHigh());
+        out.writeUTF(chain.getNextEarningsDate());
+        out.writeUTF(chain.getNextEarningsTime());
+
+        List<ExpirationSlice> slices = chain.getSlices();
+        out.writeInt(slices.size());
+        for (int sliceIndex = 0; sliceIndex < slices.size(); sliceIndex++) {
+            ExpirationSlice slice = slices.get(sliceIndex);
+            out.writeUTF(slice.getExpirationDate());
+            out.writeBoolean(chain.isUnchanged(sliceIndex));
+            int n = slice.size();
+            out.writeInt(n);
+            for (int j = 0; j < n; j++) {
+                out.writeDouble(slice.getStrike(j));
+            }
+            writeSide(out, slice.getCalls(), n);
+            writeSide(out, slice.getPuts(), n);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static OptionChain decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        String ticker = in.readUTF();
+        String segment = in.readUTF();
+        double currentPrice = in.readDouble();
+        double ivLow = in.readDouble();
+        double ivHigh = in.readDouble();
+        String earningsDate = in.readUTF();
+        String earningsTime = in.readUTF();
+
+        int sliceCount = in.readInt();
+        List<ExpirationSlice> slices = new ArrayList<>(sliceCount);
+        BitSet unchanged = new BitSet();
+        for (int sliceIndex = 0; sliceIndex < sliceCount; sliceIndex++) {
+            String expiration = in.readUTF();
+            unchanged.set(sliceIndex, in.readBoolean());
+            int n = in.readInt();
+            double[] strike = new double[n];
+            for (int j = 0; j < n; j++) {
+                strike[j] = in.readDouble();
+            }
+            OptionSide calls = readSide(in, n);
+            OptionSide puts = readSide(in, n);
+            slices.add(new ExpirationSlice(expiration, strike, calls, puts));
+        }
+        return new OptionChain(ticker, segment, currentPrice, ivLow, ivHigh, earningsDate, earningsTime, slices, unchanged);
+    }
+
+    private static void writeSide(DataOutputStream out, OptionSide side, int n) throws IOException {
+        for (int j = 0; j < n; j++) {
+            out.writeDouble(side.getBid(j));
+            out.writeDouble(side.getAsk(j));
+            out.writeDouble(side.getMid(j));
+            out.writeInt(side.getVolume(j));
+            out.writeInt(side.getOpenInterest(j));
+            out.writeDouble(side.getDelta(j));
+            out.writeDouble(side.getGamma(j));
+            out.writeDouble(side.getTheta(j));
+            out.writeDouble(side.getVega(j));
+            out.writeDouble(side.getIv(j));
+        }
+    }
+
+    private static OptionSide readSide(DataInputStream in, int n) throws IOException {
+        double[] bid = new double[n];
+        double[] ask = new double[n];
+        double[] mid = new double[n];
+        int[] volume = new int[n];
+        int[] openInterest = new int[n];
+        double[] delta = new double[n];
+        double[] gamma = new double[n];
+        double[] theta = new double[n];
+        double[] vega = new double[n];
+        double[] iv = new double[n];
+        for (int j = 0; j < n; j++) {
+            bid[j] = in.readDouble();
+            ask[j] = in.readDouble();
+            mid[j] = in.readDouble();
+            volume[j] = in.readInt();
+            openInterest[j] = in.readInt();
+            delta[j] = in.readDouble();
+            gamma[j] = in.readDouble();
+            theta[j] = in.readDouble();
+            vega[j] = in.readDouble();
+            iv[j] = in.readDouble();
+        }
+        return new OptionSide(bid, ask, mid, volume, openInterest, delta, gamma, theta, vega, iv);
+    }
+}
@@ -0,0 +1,254 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonArray;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Bulk loader for the ticker and optionchains tables based on {@code COPY ... FROM STDIN (FORMAT binary)}.
+ * <p>
+ * Rows are streamed straight from the in-memory chains into session temp tables with the
+ * float8 / int4 / date / text column types of the target tables, and then moved
+ * into the target tables with a single {@code INSERT ... SELECT} that keeps the conflict rules
+ * of the INSERT loader. The target can be the live tables or their staging copies of the swap
+ * load mode, see {@link SnapshotSwap}.
+ * <p>
+ * Every chain row carries its derived columns from {@link SliceMetrics} and the fingerprint of
+ * {@link SliceMetrics#getRowHash(int)}. The change-aware upsert of the incremental mode merges
+ * the loaded rows into optionchains and only writes rows whose fingerprint differs from the
+ * stored one.
+ */
+class CopyLoader {
+
+    static final String CHAIN_LOAD = "optionchains_load";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final String TICKER_COLUMNS =
+            "ticker_symbol, current_price, segment, iv_historical_low, iv_historical_high, next_earnings_date, next_earnings_time";
+
+    private static final String CHAIN_COLUMNS =
+            "ticker_symbol, expiration_date, strike_price, underlying_price, " +
+            "call_bid, call_ask, call_mid, call_volume, call_oi, call_delta, call_gamma, call_theta, call_vega, call_iv, " +
+            "put_bid, put_ask, put_mid, put_volume, put_oi, put_delta, put_gamma, put_theta, put_vega, put_iv, row_hash, " +
+            SliceMetrics.COLUMNS;
+
+    private static final String CREATE_TICKER_LOAD =
+            "CREATE TEMP TABLE IF NOT EXISTS ticker_load (ticker_symbol text, current_price float8, segment text, " +
+            "iv_historical_low float8, iv_historical_high float8, next_earnings_date date, next_earnings_time text)";
+
+    private static final String CREATE_CHAIN_LOAD =
+            "CREATE TEMP TABLE IF NOT EXISTS optionchains_load (ticker_symbol text, expiration_date date, " +
+            "strike_price float8, underlying_price float8, " +
+            "call_bid float8, call_ask float8, call_mid float8, call_volume int4, call_oi int4, " +
+            "call_delta float8, call_gamma float8, call_theta float8, call_vega float8, call_iv float8, " +
+            "put_bid float8, put_ask float8, put_mid float8, put_volume int4, put_oi int4, " +
+            "put_delta float8, put_gamma float8, put_theta float8, put_vega float8, put_iv float8, row_hash int8, " +
+            SliceMetrics.COLUMN_TYPES + ")";
+
+    /**
+     * The narrow update of a changed row: its quote and greek fields, the derived columns and the
+     * fingerprint, but none of the columns the analysis scripts maintain.
+     */
+    private static final String CHAIN_UPSERT =
+            " ON CONFLICT (ticker_symbol, expiration_date, strike_price) DO UPDATE SET " +
+            "underlying_price = EXCLUDED.underlying_price, " +
+            "call_bid = EXCLUDED.call_bid, call_ask = EXCLUDED.call_ask, call_mid = EXCLUDED.call_mid, " +
+            "call_volume = EXCLUDED.call_volume, call_oi = EXCLUDED.call_oi, call_delta = EXCLUDED.call_delta, " +
+            "call_gamma = EXCLUDED.call_gamma, call_theta = EXCLUDED.call_theta, call_vega = EXCLUDED.call_vega, call_iv = EXCLUDED.call_iv, " +
+            "put_bid = EXCLUDED.put_bid, put_ask = EXCLUDED.put_ask, put_mid = EXCLUDED.put_mid, " +
+            "put_volume = EXCLUDED.put_volume, put_oi = EXCLUDED.put_oi, put_delta = EXCLUDED.put_delta, " +
+            "put_gamma = EXCLUDED.put_gamma, put_theta = EXCLUDED.put_theta, put_vega = EXCLUDED.put_vega, put_iv = EXCLUDED.put_iv, " +
+            "row_hash = EXCLUDED.row_hash, " + SliceMetrics.UPDATE_SET +
+            " WHERE t.row_hash IS DISTINCT FROM EXCLUDED.row_hash";
+
+    private static final String TICKER_UPSERT =
+            " ON CONFLICT (ticker_symbol) DO UPDATE SET current_price = EXCLUDED.current_price, segment = EXCLUDED.segment, " +
+            "iv_historical_low = EXCLUDED.iv_historical_low, iv_historical_high = EXCLUDED.iv_historical_high, " +
+            "next_earnings_date = EXCLUDED.next_earnings_date, next_earnings_time = EXCLUDED.next_earnings_time, " +
+            "last_updated = CURRENT_TIMESTAMP";
+
+    private CopyLoader() {
+    }
+
+    /**
+     * @param table  the target table, ticker or its staging copy
+     * @param upsert update existing tickers instead of failing on duplicates
+     * @return the number of ticker rows written
+     */
+    static long loadTickers(Connection connection, String table, JsonArray options, boolean upsert) throws SQLException {
+        prepare(connection, CREATE_TICKER_LOAD, "ticker_load");
+
+        CopyIn copyIn = copyManager(connection).copyIn("COPY ticker_load (" + TICKER_COLUMNS + ") FROM STDIN (FORMAT binary)");
+        try {
+            BinaryCopyWriter writer = new BinaryCopyWriter(copyIn, BUFFER_SIZE);
+            for (int i = 0; i < options.size(); i++) {
+                OptionChain chain = (OptionChain) options.getValue(i);
+                writer.startRow(7);
+                writer.writeText(BinaryCopyWriter.utf8(chain.getTickerSymbol()));
+                writer.writeFloat8(chain.getCurrentPrice());
+                writer.writeText(BinaryCopyWriter.utf8(chain.getSegment()));
+                writer.writeFloat8(chain.getIvHistoricalLow());
+                writer.writeFloat8(chain.getIvHistoricalHigh());
+                writer.writeDate(chain.getNextEarningsLocalDate());
+                writer.writeText(BinaryCopyWriter.utf8(chain.getNextEarningsTime()));
+            }
+            writer.finish();
+        } finally {
+            cancelIfActive(copyIn);
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            return stmt.executeUpdate("INSERT INTO " + table + " (" + TICKER_COLUMNS + ") SELECT " + TICKER_COLUMNS +
+                                      " FROM ticker_load" + (upsert ? TICKER_UPSERT : ""));
+        }
+    }
+
+    /**
+     * @param table          the target table, optionchains or its staging copy
+     * @param changedOnly    skip slices flagged as unchanged since the previous fetch run
+     * @param skipDuplicates ignore rows whose key already exists; needs a primary key on the target
+     * @param today          the trading day of the batch, see {@link SliceMetrics}
+     * @return the number of option chain rows written
+     */
+    static long loadOptionChains(Connection connection, String table, JsonArray options, boolean changedOnly,
+                                 boolean skipDuplicates, LocalDate today) throws SQLException {
+        copyOptionChains(connection, options, changedOnly, today);
+        try (Statement stmt = connection.createStatement()) {
+            return stmt.executeUpdate("INSERT INTO " + table + " (" + CHAIN_COLUMNS + ") SELECT " + CHAIN_COLUMNS +
+                                      " FROM " + CHAIN_LOAD +
+                                      (skipDuplicates ? " ON CONFLICT (ticker_symbol, expiration_date, strike_price) DO NOTHING" : ""));
+        }
+    }
+
+    /**
+     * Change-aware upsert of the changed slices into the live table, see
+     * {@link #mergeOptionChains(Connection, String)}.
+     */
+    static UpsertCounts upsertOptionChains(Connection connection, String table, JsonArray options, LocalDate today) throws SQLException {
+        copyOptionChains(connection, options, true, today);
+        return mergeOptionChains(connection, table);
+    }
+
+    /**
+     * Create or empty the session temp table that {@link #mergeOptionChains(Connection, String)}
+     * reads, for loaders that fill it themselves.
+     */
+    static void prepareChainLoad(Connection connection) throws SQLException {
+        prepare(connection, CREATE_CHAIN_LOAD, CHAIN_LOAD);
+    }
+
+    /**
+     * Merge the rows of {@link #CHAIN_LOAD} into the table. Every slice in the load is
+     * complete, so stored strikes of those slices that are not in the load are deleted. Loaded
+     * rows with a new key are inserted, rows with a different fingerprint get a narrow update and
+     * rows with the same fingerprint are neither written nor locked.
+     */
+    static UpsertCounts mergeOptionChains(Connection connection, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Temp tables are never analyzed automatically
+            stmt.execute("ANALYZE " + CHAIN_LOAD);
+            stmt.executeUpdate("DELETE FROM " + table + " o USING (SELECT DISTINCT ticker_symbol, expiration_date FROM " + CHAIN_LOAD + ") s " +
+                               "WHERE o.ticker_symbol = s.ticker_symbol AND o.expiration_date = s.expiration_date " +
+                               "AND NOT EXISTS (SELECT 1 FROM " + CHAIN_LOAD + " l WHERE l.ticker_symbol = o.ticker_symbol " +
+                               "AND l.expiration_date = o.expiration_date AND l.strike_price = o.strike_price)");
+            try (ResultSet rs = stmt.executeQuery(
+                    "WITH written AS (INSERT INTO " + table + " AS t (" + CHAIN_COLUMNS + ") " +
+                    "SELECT DISTINCT ON (ticker_symbol, expiration_date, strike_price) " + CHAIN_COLUMNS + " FROM " + CHAIN_LOAD + " l " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM " + table + " o WHERE o.ticker_symbol = l.ticker_symbol " +
+                    "AND o.expiration_date = l.expiration_date AND o.strike_price = l.strike_price AND o.row_hash = l.row_hash)" +
+                    CHAIN_UPSERT + " RETURNING (xmax = 0) AS inserted) " +
+                    "SELECT count(*) FILTER (WHERE inserted), count(*) FILTER (WHERE NOT inserted), " +
+                    "(SELECT count(*) FROM " + CHAIN_LOAD + ") FROM written")) {
+                rs.next();
+                long inserted = rs.getLong(1);
+                long updated = rs.getLong(2);
+                return new UpsertCounts(inserted, updated, rs.getLong(3) - inserted - updated);
+            }
+        }
+    }
+
+    private static void copyOptionChains(Connection connection, JsonArray options, boolean changedOnly, LocalDate today) throws SQLException {
+        prepare(connection, CREATE_CHAIN_LOAD, CHAIN_LOAD);
+
+        CopyIn copyIn = copyManager(connection).copyIn("COPY optionchains_load (" + CHAIN_COLUMNS + ") FROM STDIN (FORMAT binary)");
+        try {
+            BinaryCopyWriter writer = new BinaryCopyWriter(copyIn, BUFFER_SIZE);
+            for (int i = 0; i < options.size(); i++) {
+                OptionChain chain = (OptionChain) options.getValue(i);
+                // Encode the repeating key columns once per chain and slice
+                byte[] tickerSymbol = BinaryCopyWriter.utf8(chain.getTickerSymbol());
+                double currentPrice = chain.getCurrentPrice();
+                List<ExpirationSlice> slices = chain.getSlices();
+
+                for (int sliceIndex = 0; sliceIndex < slices.size(); sliceIndex++) {
+                    if (changedOnly && chain.isUnchanged(sliceIndex)) {
+                        continue;
+                    }
+                    ExpirationSlice slice = slices.get(sliceIndex);
+                    LocalDate expiration = LocalDate.parse(slice.getExpirationDate());
+                    OptionSide calls = slice.getCalls();
+                    OptionSide puts = slice.getPuts();
+                    SliceMetrics metrics = SliceMetrics.compute(chain, slice, today);
+
+                    for (int j = 0; j < slice.size(); j++) {
+                        writer.startRow(25 + SliceMetrics.COUNT);
+                        writer.writeText(tickerSymbol);
+                        writer.writeDate(expiration);
+                        writer.writeFloat8(slice.getStrike(j));
+                        writer.writeFloat8(currentPrice);
+                        writeSide(writer, calls, j);
+                        writeSide(writer, puts, j);
+                        writer.writeInt8(metrics.getRowHash(j));
+                        metrics.write(writer, j);
+                    }
+                }
+            }
+            writer.finish();
+        } finally {
+            cancelIfActive(copyIn);
+        }
+    }
+
+    private static void writeSide(BinaryCopyWriter writer, OptionSide side, int j) throws SQLException {
+        writer.writeFloat8(side.getBid(j));
+        writer.writeFloat8(side.getAsk(j));
+        writer.writeFloat8(side.getMid(j));
+        writer.writeInt4(side.getVolume(j));
+        writer.writeInt4(side.getOpenInterest(j));
+        writer.writeFloat8(side.getDelta(j));
+        writer.writeFloat8(side.getGamma(j));
+        writer.writeFloat8(side.getTheta(j));
+        writer.writeFloat8(side.getVega(j));
+        writer.writeFloat8(side.getIv(j));
+    }
+
+    private static void prepare(Connection connection, String createSql, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(createSql);
+            stmt.execute("TRUNCATE " + table);
+        }
+    }
+
+    private static CopyManager copyManager(Connection connection) throws SQLException {
+        return connection.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    private static void cancelIfActive(CopyIn copyIn) throws SQLException {
+        // Leaves the connection usable when encoding or streaming failed half way
+        if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+}
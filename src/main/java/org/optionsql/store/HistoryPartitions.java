@@ -0,0 +1,177 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonObject;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintenance of the {@code optionchains_history} table, range partitioned by trading day on
+ * {@code snapshot_ts}.
+ * <p>
+ * Each store run copies the rows it wrote into the history under one snapshot timestamp. The
+ * partition of the day is created on first use, optionally split into hash subpartitions by
+ * ticker. Partitions older than the retention period are dropped, or detached and moved to an
+ * archive schema, which are catalog-only operations regardless of their size.
+ */
+class HistoryPartitions {
+
+    static final String TABLE = "optionchains_history";
+
+    private static final String PARTITION_PREFIX = TABLE + "_p";
+
+    private static final String COLUMNS =
+            "ticker_symbol, expiration_date, strike_price, underlying_price, " +
+            "call_bid, call_ask, call_mid, call_volume, call_oi, call_delta, call_gamma, call_theta, call_vega, call_iv, " +
+            "put_bid, put_ask, put_mid, put_volume, put_oi, put_delta, put_gamma, put_theta, put_vega, put_iv";
+
+    private final ZoneId zone;
+    private final int hashPartitions;
+    private final int retentionDays;
+    private final boolean archive;
+    private final String archiveSchema;
+    private LocalDate lastPartitionDay;
+
+    /**
+     * @param config the {@code history} section of the store configuration
+     */
+    HistoryPartitions(JsonObject config) {
+        this.zone = ZoneId.of(config.getString("timezone", "America/New_York"));
+        this.hashPartitions = config.getInteger("hashpartitions", 0);
+        this.retentionDays = config.getInteger("retentiondays", 0);
+        this.archive = "detach".equals(config.getString("retention", "drop"));
+        this.archiveSchema = config.getString("archiveschema", "archive");
+    }
+
+    /**
+     * Copy the current rows of the given tickers from optionchains into the history.
+     *
+     * @return the number of history rows written
+     */
+    long record(Connection connection, Instant snapshot, boolean partial, List<String> tickers) throws SQLException {
+        ensurePartition(connection, snapshot);
+        Timestamp snapshotTs = Timestamp.from(snapshot);
+        long rows;
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (snapshot_ts, " + COLUMNS + ") SELECT ?, " + COLUMNS +
+                " FROM optionchains WHERE ticker_symbol = ANY (?)")) {
+            Array symbols = connection.createArrayOf("varchar", tickers.toArray());
+            stmt.setTimestamp(1, snapshotTs);
+            stmt.setArray(2, symbols);
+            rows = stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO optionchains_snapshots (snapshot_ts, partial, tickers, row_count) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (snapshot_ts) DO UPDATE SET tickers = optionchains_snapshots.tickers + EXCLUDED.tickers, " +
+                "row_count = optionchains_snapshots.row_count + EXCLUDED.row_count")) {
+            stmt.setTimestamp(1, snapshotTs);
+            stmt.setBoolean(2, partial);
+            stmt.setInt(3, tickers.size());
+            stmt.setLong(4, rows);
+            stmt.executeUpdate();
+        }
+        return rows;
+    }
+
+    /**
+     * Create the partition holding the snapshot's trading day, and its hash subpartitions, if
+     * they do not exist yet. Day boundaries are midnight in the exchange time zone.
+     */
+    private void ensurePartition(Connection connection, Instant snapshot) throws SQLException {
+        LocalDate day = snapshot.atZone(zone).toLocalDate();
+        if (day.equals(lastPartitionDay)) {
+            return;
+        }
+        String partition = partitionName(day);
+        String from = day.atStartOfDay(zone).toOffsetDateTime().toString();
+        String to = day.plusDays(1).atStartOfDay(zone).toOffsetDateTime().toString();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + TABLE +
+                         " FOR VALUES FROM ('" + from + "') TO ('" + to + "')" +
+                         (hashPartitions > 1 ? " PARTITION BY HASH (ticker_symbol)" : ""));
+            for (int remainder = 0; hashPartitions > 1 && remainder < hashPartitions; remainder++) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + partition + "_h" + remainder + " PARTITION OF " + partition +
+                             " FOR VALUES WITH (MODULUS " + hashPartitions + ", REMAINDER " + remainder + ")");
+            }
+        }
+        lastPartitionDay = day;
+    }
+
+    /**
+     * Drop or archive the partitions of days before the retention period.
+     *
+     * @return the names of the partitions removed from the history
+     */
+    List<String> applyRetention(Connection connection, Instant now) throws SQLException {
+        List<String> removed = new ArrayList<>();
+        if (retentionDays <= 0) {
+            return removed;
+        }
+        LocalDate cutoff = now.atZone(zone).toLocalDate().minusDays(retentionDays);
+
+        List<String> expired = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                                              "WHERE i.inhparent = '" + TABLE + "'::regclass")) {
+            while (rs.next()) {
+                String partition = rs.getString(1);
+                LocalDate day = partitionDay(partition);
+                if (day != null && day.isBefore(cutoff)) {
+                    expired.add(partition);
+                }
+            }
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            if (archive && !expired.isEmpty()) {
+                stmt.execute("CREATE SCHEMA IF NOT EXISTS " + archiveSchema);
+            }
+            for (String partition : expired) {
+                if (archive) {
+                    stmt.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition);
+                    stmt.execute("ALTER TABLE " + partition + " SET SCHEMA " + archiveSchema);
+                } else {
+                    stmt.execute("DROP TABLE " + partition);
+                }
+                removed.add(partition);
+            }
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM optionchains_snapshots WHERE snapshot_ts < ?")) {
+            stmt.setTimestamp(1, Timestamp.from(cutoff.atStartOfDay(zone).toInstant()));
+            stmt.executeUpdate();
+        }
+        return removed;
+    }
+
+    static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    /**
+     * @return the day of a partition created by {@link #partitionName(LocalDate)}, or null for
+     * tables attached by hand under another name
+     */
+    static LocalDate partitionDay(String partition) {
+        if (!partition.startsWith(PARTITION_PREFIX) || partition.length() != PARTITION_PREFIX.length() + 8) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(partition.substring(PARTITION_PREFIX.length()), DateTimeFormatter.BASIC_ISO_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.optionsql.model.OptionChain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only spool of fetched batches in front of the database.
+ * <p>
+ * A batch is written as a begin record, one record per option chain and an end record into
+ * memory-mapped segment files of {@code segmentbytes}, and is acknowledged once the end record
+ * is forced to disk. Every record carries a CRC32 of its body, so a record torn by a crash ends
+ * the readable part of its segment, and a batch without end record is dropped on recovery.
+ * <p>
+ * The store drains batches in spool order. The id of the last applied batch is kept in a
+ * checkpoint file; segments whose batches are all applied are deleted, and the active segment
+ * is rewound once nothing is pending. Except for {@link #peek()} and {@link #metrics()} all
+ * methods block and must run on a worker thread.
+ */
+class PayloadSpool {
+
+    private static final Logger logger = Logger.getLogger(PayloadSpool.class.getName());
+
+    private static final int MAGIC = 0x4f53504c; // "OSPL"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 8;
+    private static final int RECORD_HEADER = 8;  // body length + CRC32
+    private static final int BODY_HEADER = 9;    // type + batch id
+    private static final int TERMINATOR = 4;
+
+    private static final byte BEGIN = 1;
+    private static final byte CHAIN = 2;
+    private static final byte END = 3;
+
+    private final Path dir;
+    private final Path checkpointFile;
+    private final int segmentBytes;
+    private final boolean fsync;
+    // Concurrent collections, so peek and metrics can be read from the event loop without locking
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Deque<SpoolBatch> pending = new ConcurrentLinkedDeque<>();
+    private Segment current;
+    private long nextBatchId = 1;
+    private volatile long appliedBatchId;
+    private volatile long appliedBatches;
+
+    /**
+     * @param config the {@code spool} section of the store configuration
+     */
+    PayloadSpool(JsonObject config) {
+        this.dir = Path.of(config.getString("dir", "spool"));
+        this.checkpointFile = dir.resolve("checkpoint");
+        this.segmentBytes = config.getInteger("segmentbytes", 64 * 1024 * 1024);
+        this.fsync = config.getBoolean("fsync", true);
+    }
+
+    /**
+     * A batch in the spool, complete up to its end record.
+     */
+    static class SpoolBatch {
+        private final long id;
+        private final long firstSegment;
+        private final List<Location> chains = new ArrayList<>();
+        private boolean partial;
+        private JsonArray tickers;
+        private String fetchBatch;
+        private String tradingDay;
+        private long spooledAt;
+        private long bytes;
+
+        private SpoolBatch(long id, long firstSegment) {
+            this.id = id;
+            this.firstSegment = firstSegment;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        boolean isPartial() {
+            return partial;
+        }
+
+        JsonArray getTickers() {
+            return tickers;
+        }
+
+        /**
+         * @return the batch id the fetch service gave the batch, may be null
+         */
+        String getFetchBatch() {
+            return fetchBatch;
+        }
+
+        /**
+         * @return the trading day of the fetch run, may be null
+         */
+        String getTradingDay() {
+            return tradingDay;
+        }
+    }
+
+    private static class Segment {
+        private final long seq;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int position = SEGMENT_HEADER;
+
+        private Segment(long seq, Path file, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Map the existing segments and rebuild the list of complete, not yet applied batches.
+     */
+    synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        if (Files.exists(checkpointFile)) {
+            appliedBatchId = Long.parseLong(Files.readString(checkpointFile).trim());
+        }
+        nextBatchId = appliedBatchId + 1;
+
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*.spool")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring("segment-".length(), name.length() - ".spool".length())), file);
+            }
+        }
+
+        SpoolBatch open = null;
+        for (Map.Entry<Long, Path> entry : files.entrySet()) {
+            long size = Files.size(entry.getValue());
+            Segment segment = size < SEGMENT_HEADER ? null : map(entry.getKey(), entry.getValue(), size, false);
+            if (segment == null || segment.buffer.getInt(0) != MAGIC) {
+                logger.warning("Ignoring spool file with unknown format: " + entry.getValue());
+                continue;
+            }
+            segments.put(segment.seq, segment);
+            open = scan(segment, open);
+        }
+        if (open != null) {
+            logger.warning("Dropped spooled batch " + open.id + " without end record");
+        }
+        current = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        compact();
+        if (!pending.isEmpty()) {
+            logger.info("Recovered " + pending.size() + " spooled batches waiting for the database");
+        }
+    }
+
+    private SpoolBatch scan(Segment segment, SpoolBatch open) {
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = SEGMENT_HEADER;
+        while (pos + RECORD_HEADER + BODY_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length < BODY_HEADER || pos + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(pos + RECORD_HEADER, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                logger.warning("Spool segment " + segment.file + " ends with a torn record at offset " + pos);
+                break;
+            }
+            byte type = body[0];
+            long batchId = buffer.getLong(pos + RECORD_HEADER + 1);
+            nextBatchId = Math.max(nextBatchId, batchId + 1);
+            int payloadOffset = pos + RECORD_HEADER + BODY_HEADER;
+            int payloadLength = length - BODY_HEADER;
+            if (type == BEGIN) {
+                open = new SpoolBatch(batchId, segment.seq);
+                JsonObject begin = new JsonObject(new String(body, BODY_HEADER, payloadLength, StandardCharsets.UTF_8));
+                open.partial = begin.getBoolean("partial", false);
+                open.tickers = begin.getJsonArray("tickers");
+                open.fetchBatch = begin.getString("batch");
+                open.tradingDay = begin.getString("tradingday");
+            } else if (open != null && open.id == batchId && type == CHAIN) {
+                open.chains.add(new Location(segment, payloadOffset, payloadLength));
+                open.bytes += payloadLength;
+            } else if (open != null && open.id == batchId && type == END) {
+                open.spooledAt = new JsonObject(new String(body, BODY_HEADER, payloadLength, StandardCharsets.UTF_8)).getLong("ts", 0L);
+                if (open.id > appliedBatchId) {
+                    pending.add(open);
+                }
+                open = null;
+            }
+            pos += RECORD_HEADER + length;
+        }
+        segment.position = pos;
+        return open;
+    }
+
+    /**
+     * Write a batch and force it to disk.
+     *
+     * @param fetchBatch batch id of the fetch service, may be null
+     * @param tradingDay trading day of the fetch run, may be null
+     * @return the id of the spooled batch
+     */
+    synchronized long append(JsonArray options, boolean partial, JsonArray tickers, String fetchBatch, String tradingDay) throws IOException {
+        long batchId = nextBatchId++;
+        long now = System.currentTimeMillis();
+
+        JsonObject begin = new JsonObject().put("partial", partial).put("tickers", tickers).put("batch", fetchBatch)
+                .put("tradingday", tradingDay).put("ts", now);
+        Location first = write(BEGIN, batchId, begin.toBuffer().getBytes());
+        SpoolBatch batch = new SpoolBatch(batchId, first.segment.seq);
+        batch.partial = partial;
+        batch.tickers = tickers;
+        batch.fetchBatch = fetchBatch;
+        batch.tradingDay = tradingDay;
+        batch.spooledAt = now;
+        for (int i = 0; i < options.size(); i++) {
+            Location location = write(CHAIN, batchId, ChainCodec.encode((OptionChain) options.getValue(i)));
+            batch.chains.add(location);
+            batch.bytes += location.length;
+        }
+        write(END, batchId, new JsonObject().put("chains", options.size()).put("ts", now).toBuffer().getBytes());
+        if (fsync) {
+            current.buffer.force();
+        }
+        pending.add(batch);
+        return batchId;
+    }
+
+    private Location write(byte type, long batchId, byte[] payload) throws IOException {
+        int length = BODY_HEADER + payload.length;
+        int size = RECORD_HEADER + length;
+        if (current == null || current.position + size + TERMINATOR > current.buffer.capacity()) {
+            roll(size);
+        }
+        byte[] body = new byte[length];
+        body[0] = type;
+        for (int i = 0; i < 8; i++) {
+            body[1 + i] = (byte) (batchId >>> (56 - 8 * i));
+        }
+        System.arraycopy(payload, 0, body, BODY_HEADER, payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        MappedByteBuffer buffer = current.buffer;
+        int pos = current.position;
+        // Terminator first, so a reader never runs into stale bytes behind the new record
+        buffer.putInt(pos + size, 0);
+        buffer.put(pos + RECORD_HEADER, body);
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        buffer.putInt(pos, length);
+        current.position = pos + size;
+        return new Location(current, pos + RECORD_HEADER + BODY_HEADER, payload.length);
+    }
+
+    private void roll(int recordSize) throws IOException {
+        if (current != null && fsync) {
+            current.buffer.force();
+        }
+        long seq = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        long capacity = Math.max(segmentBytes, SEGMENT_HEADER + recordSize + TERMINATOR);
+        Segment segment = map(seq, dir.resolve(String.format("segment-%020d.spool", seq)), capacity, true);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segments.put(seq, segment);
+        current = segment;
+    }
+
+    private static Segment map(long seq, Path file, long capacity, boolean create) throws IOException {
+        StandardOpenOption[] options = create
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(seq, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    /**
+     * @return the oldest batch not yet applied, or null if the spool is drained
+     */
+    SpoolBatch peek() {
+        return pending.peekFirst();
+    }
+
+    /**
+     * Decode the option chains of a spooled batch.
+     */
+    JsonArray read(SpoolBatch batch) throws IOException {
+        JsonArray options = new JsonArray();
+        for (Location location : batch.chains) {
+            byte[] data = new byte[location.length];
+            location.segment.buffer.get(location.offset, data);
+            options.add(ChainCodec.decode(data));
+        }
+        return options;
+    }
+
+    /**
+     * Record the batch as stored in the database and release the segments no longer needed.
+     */
+    synchronized void markApplied(SpoolBatch batch) throws IOException {
+        pending.remove(batch);
+        appliedBatchId = Math.max(appliedBatchId, batch.id);
+        appliedBatches++;
+        Path temp = checkpointFile.resolveSibling("checkpoint.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(Long.toString(appliedBatchId).getBytes(StandardCharsets.UTF_8)));
+            if (fsync) {
+                // On disk before the rename, so a crash cannot leave an empty checkpoint in place
+                channel.force(true);
+            }
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compact();
+    }
+
+    private void compact() throws IOException {
+        long keepFrom = pending.isEmpty() ? Long.MAX_VALUE : pending.peekFirst().firstSegment;
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment != current && segment.seq < keepFrom) {
+                iterator.remove();
+                Files.deleteIfExists(segment.file);
+            }
+        }
+        if (pending.isEmpty() && current != null && current.position > SEGMENT_HEADER) {
+            // Everything applied, start the active segment over
+            current.buffer.putInt(SEGMENT_HEADER, 0);
+            current.position = SEGMENT_HEADER;
+            if (fsync) {
+                current.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Spool depth and drain lag.
+     */
+    JsonObject metrics() {
+        long pendingBytes = 0;
+        for (SpoolBatch batch : pending) {
+            pendingBytes += batch.bytes;
+        }
+        long segmentBytesOnDisk = 0;
+        for (Segment segment : segments.values()) {
+            segmentBytesOnDisk += segment.buffer.capacity();
+        }
+        SpoolBatch oldest = pending.peekFirst();
+        return new JsonObject()
+                .put("pendingbatches", pending.size())
+                .put("pendingbytes", pendingBytes)
+                .put("segments", segments.size())
+                .put("segmentbytes", segmentBytesOnDisk)
+                .put("lagms", oldest == null ? 0 : System.currentTimeMillis() - oldest.spooledAt)
+                .put("appliedbatches", appliedBatches)
+                .put("lastappliedid", appliedBatchId);
+    }
+}
@@ -0,0 +1,279 @@
+package org.optionsql.store;
+
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Ingest-time enrichment of one expiration slice: the derived optionchains columns, computed in
+ * Java so every row is written once and complete.
+ * <p>
+ * Covers what used to be the generated columns of the table (spreads, exposures, break-evens,
+ * ROR, BPR, POP/POT, ratios, skew) with the same expressions, and the columns the analysis
+ * steps 050_put_pr_iv, 051_call_pr_iv, 080_tte and 120_ivr fill with UPDATE passes. The IV
+ * percentile ranks only rank the strikes that 000_clean_zero_rows keeps, so they match the
+ * values of those steps, and those steps can be skipped. Incremental batches skip unchanged
+ * slices, which is only safe because the fetch service counts a slice as changed whenever the
+ * trading day or the historical IV range moved. NaN stands for SQL NULL.
+ */
+final class SliceMetrics {
+
+    private static final String[] SIDE_COLUMNS = {
+            "spread", "dex", "gex", "break_even", "vega_exp", "theta_decay_exp", "elasticity", "dvr", "ovr",
+            "ror", "bpr", "pop", "pot", "pr_delta", "nv_oi"
+    };
+
+    // Offsets within the columns of a side
+    private static final int SPREAD = 0;
+    private static final int DEX = 1;
+    private static final int GEX = 2;
+    private static final int BREAK_EVEN = 3;
+    private static final int VEGA_EXP = 4;
+    private static final int THETA_DECAY_EXP = 5;
+    private static final int ELASTICITY = 6;
+    private static final int DVR = 7;
+    private static final int OVR = 8;
+    private static final int ROR = 9;
+    private static final int BPR = 10;
+    private static final int POP = 11;
+    private static final int POT = 12;
+    private static final int PR_DELTA = 13;
+    private static final int NV_OI = 14;
+
+    private static final int SIDE = SIDE_COLUMNS.length;
+    private static final int PUT = SIDE;
+    private static final int PCR = 2 * SIDE;
+    private static final int IMPLIED_MOVE = PCR + 1;
+    private static final int SKEW = PCR + 2;
+    private static final int SKEW_DELTA = PCR + 3;
+    private static final int CALL_IVR = PCR + 4;
+    private static final int PUT_IVR = PCR + 5;
+    private static final int CALL_PR_IV = PCR + 6;
+    private static final int PUT_PR_IV = PCR + 7;
+    private static final int TTE = PCR + 8;
+
+    /**
+     * Number of enriched columns per row.
+     */
+    static final int COUNT = TTE + 1;
+
+    /**
+     * The enriched columns in write order.
+     */
+    static final String COLUMNS;
+
+    /**
+     * The enriched columns with their type, for the load temp table.
+     */
+    static final String COLUMN_TYPES;
+
+    /**
+     * {@code column = EXCLUDED.column} for every enriched column, for upserts.
+     */
+    static final String UPDATE_SET;
+
+    static {
+        String[] names = new String[COUNT];
+        for (int i = 0; i < SIDE; i++) {
+            names[i] = "call_" + SIDE_COLUMNS[i];
+            names[PUT + i] = "put_" + SIDE_COLUMNS[i];
+        }
+        names[PCR] = "pcr";
+        names[IMPLIED_MOVE] = "implied_move";
+        names[SKEW] = "skew";
+        names[SKEW_DELTA] = "skew_delta";
+        names[CALL_IVR] = "call_ivr";
+        names[PUT_IVR] = "put_ivr";
+        names[CALL_PR_IV] = "call_pr_iv";
+        names[PUT_PR_IV] = "put_pr_iv";
+        names[TTE] = "tte";
+        StringBuilder columns = new StringBuilder();
+        StringBuilder types = new StringBuilder();
+        StringBuilder updates = new StringBuilder();
+        for (String name : names) {
+            String separator = columns.length() == 0 ? "" : ", ";
+            columns.append(separator).append(name);
+            types.append(separator).append(name).append(" float8");
+            updates.append(separator).append(name).append(" = EXCLUDED.").append(name);
+        }
+        COLUMNS = columns.toString();
+        COLUMN_TYPES = types.toString();
+        UPDATE_SET = updates.toString();
+    }
+
+    private static final MathContext SIGNIFICANT = new MathContext(15);
+
+    private final ExpirationSlice slice;
+    private final double[][] values;
+
+    private SliceMetrics(ExpirationSlice slice, double[][] values) {
+        this.slice = slice;
+        this.values = values;
+    }
+
+    /**
+     * @param today the trading day, time to expiration counts from it
+     */
+    static SliceMetrics compute(OptionChain chain, ExpirationSlice slice, LocalDate today) {
+        int n = slice.size();
+        double[][] values = new double[COUNT][n];
+        double underlying = chain.getCurrentPrice();
+        OptionSide calls = slice.getCalls();
+        OptionSide puts = slice.getPuts();
+        double tte = (LocalDate.parse(slice.getExpirationDate()).toEpochDay() - today.toEpochDay()) / 365.0;
+        double ivLow = chain.getIvHistoricalLow();
+        double ivHigh = chain.getIvHistoricalHigh();
+
+        for (int j = 0; j < n; j++) {
+            double strike = slice.getStrike(j);
+            sideMetrics(values, 0, calls, j, strike);
+            sideMetrics(values, PUT, puts, j, strike);
+
+            double callBid = calls.getBid(j);
+            values[ROR][j] = strike - underlying > 0 ? (callBid / (strike - underlying + callBid)) * 100 : 0;
+            values[BPR][j] = Math.max((0.20 * underlying - Math.max(0, strike - underlying) + callBid) * 100,
+                                     (0.10 * underlying + callBid) * 100);
+            values[POP][j] = 1 - Math.abs(calls.getDelta(j));
+            values[PR_DELTA][j] = calls.getDelta(j);
+            values[BREAK_EVEN][j] = strike + calls.getAsk(j);
+
+            double putBid = puts.getBid(j);
+            values[PUT + ROR][j] = strike - putBid > 0 ? (putBid / (strike - putBid)) * 100 : 0;
+            values[PUT + BPR][j] = strike * 100 - putBid * 100;
+            values[PUT + POP][j] = 1 + puts.getDelta(j);
+            values[PUT + PR_DELTA][j] = (puts.getDelta(j) + 1) / 2;
+            values[PUT + BREAK_EVEN][j] = strike - putBid;
+
+            int callOi = calls.getOpenInterest(j);
+            int putOi = puts.getOpenInterest(j);
+            values[PCR][j] = callOi + putOi > 0 ? (double) putOi / (callOi + putOi) : 0;
+            values[IMPLIED_MOVE][j] = underlying * puts.getIv(j) * 0.025;
+            values[SKEW][j] = calls.getIv(j) - puts.getIv(j);
+            values[SKEW_DELTA][j] = calls.getDelta(j) - puts.getDelta(j);
+
+            values[CALL_IVR][j] = ivRank(calls.getIv(j), ivLow, ivHigh);
+            values[PUT_IVR][j] = ivRank(puts.getIv(j), ivLow, ivHigh);
+            values[TTE][j] = tte;
+        }
+        percentRanks(slice, values[CALL_PR_IV], values[PUT_PR_IV]);
+        return new SliceMetrics(slice, values);
+    }
+
+    /**
+     * The columns with the same expression for calls and puts.
+     */
+    private static void sideMetrics(double[][] values, int offset, OptionSide side, int j, double strike) {
+        double delta = side.getDelta(j);
+        double gamma = side.getGamma(j);
+        double vega = side.getVega(j);
+        int oi = side.getOpenInterest(j);
+        int volume = side.getVolume(j);
+        values[offset + SPREAD][j] = Math.max(0, side.getAsk(j) - side.getBid(j));
+        values[offset + DEX][j] = delta * oi * 100;
+        values[offset + GEX][j] = gamma * oi * 100;
+        values[offset + VEGA_EXP][j] = vega * oi;
+        values[offset + THETA_DECAY_EXP][j] = side.getTheta(j) * oi;
+        values[offset + ELASTICITY][j] = delta != 0 ? gamma / delta : 0.0;
+        values[offset + DVR][j] = vega != 0 ? delta / vega : 0.0;
+        values[offset + OVR][j] = volume == 0 ? Double.NaN : Math.min((double) oi / volume, 100);
+        values[offset + POT][j] = 2 * Math.abs(delta);
+        values[offset + NV_OI][j] = oi * strike * 100;
+    }
+
+    private static double ivRank(double iv, double low, double high) {
+        if (!(high > low)) {
+            return Double.NaN;
+        }
+        return Math.min(((iv - low) / (high - low)) * 100, 999999.9999);
+    }
+
+    /**
+     * PERCENT_RANK of the call and put IV over the strikes that survive the zero row cleanup,
+     * ties broken by strike and rounded to six decimals. Removed strikes get NULL.
+     */
+    private static void percentRanks(ExpirationSlice slice, double[] callRank, double[] putRank) {
+        OptionSide calls = slice.getCalls();
+        OptionSide puts = slice.getPuts();
+        Integer[] kept = new Integer[slice.size()];
+        int count = 0;
+        for (int j = 0; j < slice.size(); j++) {
+            callRank[j] = Double.NaN;
+            putRank[j] = Double.NaN;
+            if (!isZeroRow(calls, puts, j)) {
+                kept[count++] = j;
+            }
+        }
+        Integer[] order = Arrays.copyOf(kept, count);
+        rank(order, calls, callRank);
+        rank(order, puts, putRank);
+    }
+
+    private static void rank(Integer[] order, OptionSide side, double[] rank) {
+        // Strikes are ascending, so a stable sort by IV keeps the strike as tie breaker
+        Arrays.sort(order, (a, b) -> Double.compare(side.getIv(a), side.getIv(b)));
+        for (int r = 0; r < order.length; r++) {
+            double percent = order.length > 1 ? (double) r / (order.length - 1) : 0;
+            rank[order[r]] = new BigDecimal(percent, SIGNIFICANT).setScale(6, RoundingMode.HALF_UP).doubleValue();
+        }
+    }
+
+    /**
+     * The rows 000_clean_zero_rows deletes.
+     */
+    private static boolean isZeroRow(OptionSide calls, OptionSide puts, int j) {
+        return calls.getIv(j) == 0 || puts.getIv(j) == 0
+               || calls.getBid(j) == 0 && calls.getAsk(j) == 0 || puts.getBid(j) == 0 && puts.getAsk(j) == 0
+               || calls.getOpenInterest(j) == 0 && calls.getVolume(j) == 0
+               || puts.getOpenInterest(j) == 0 && puts.getVolume(j) == 0;
+    }
+
+    /**
+     * The fingerprint of the row including the enriched values that depend on more than the row
+     * itself, so the upsert rewrites a row whose rank, IV rank or time to expiration moved. The
+     * underlying price is not part of it, the store moves it for every row of the ticker.
+     */
+    long getRowHash(int j) {
+        long h = slice.getRowHash(j);
+        h = mix(h, Double.doubleToLongBits(values[CALL_IVR][j]));
+        h = mix(h, Double.doubleToLongBits(values[PUT_IVR][j]));
+        h = mix(h, Double.doubleToLongBits(values[CALL_PR_IV][j]));
+        h = mix(h, Double.doubleToLongBits(values[PUT_PR_IV][j]));
+        return mix(h, Double.doubleToLongBits(values[TTE][j]));
+    }
+
+    private static long mix(long h, long value) {
+        return (h ^ value) * 0x100000001b3L;
+    }
+
+    void write(BinaryCopyWriter writer, int j) throws SQLException {
+        for (double[] column : values) {
+            if (Double.isNaN(column[j])) {
+                writer.writeNull();
+            } else {
+                writer.writeFloat8(column[j]);
+            }
+        }
+    }
+
+    /**
+     * Bind the enriched columns of row {@code j} starting at parameter {@code index}.
+     */
+    void bind(PreparedStatement stmt, int index, int j) throws SQLException {
+        for (double[] column : values) {
+            if (Double.isNaN(column[j])) {
+                stmt.setNull(index++, Types.DOUBLE);
+            } else {
+                stmt.setDouble(index++, column[j]);
+            }
+        }
+    }
+}
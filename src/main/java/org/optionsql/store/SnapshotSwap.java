@@ -0,0 +1,124 @@
+package org.optionsql.store;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Staging tables for the swap load mode.
+ * <p>
+ * A batch is written into UNLOGGED copies of the ticker and optionchains tables that have no
+ * indexes, so the load neither writes WAL nor maintains a primary key row by row. Once the batch
+ * is complete the primary keys are built, the tables analyzed, and the copies renamed over the
+ * live tables in one short transaction. Readers keep seeing the previous snapshot until that
+ * transaction commits and never observe a half-loaded table.
+ */
+class SnapshotSwap {
+
+    static final String STAGING_SUFFIX = "_staging";
+
+    private static final String OLD_SUFFIX = "_old";
+
+    private static final String[] TABLES = {"ticker", "optionchains"};
+
+    private static final String[] PRIMARY_KEYS = {"ticker_symbol", "ticker_symbol, expiration_date, strike_price"};
+
+    private SnapshotSwap() {
+    }
+
+    /**
+     * @return true if the live tables exist, the staging tables are created from their definition
+     */
+    static boolean liveTablesExist(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT to_regclass('ticker') IS NOT NULL AND to_regclass('optionchains') IS NOT NULL")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Create empty staging tables with the columns and defaults of the live tables but without
+     * indexes or constraints.
+     */
+    static void createStaging(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String table : TABLES) {
+                stmt.execute("DROP TABLE IF EXISTS " + table + STAGING_SUFFIX);
+                stmt.execute("CREATE UNLOGGED TABLE " + table + STAGING_SUFFIX + " (LIKE " + table +
+                             " INCLUDING DEFAULTS)");
+            }
+        }
+    }
+
+    /**
+     * Build the primary keys of the loaded staging tables and refresh their planner statistics.
+     *
+     * @param logged convert the tables to logged ones, so the snapshot survives a crash and is
+     *               replicated, at the price of writing it to the WAL once
+     */
+    static void finishStaging(Connection connection, boolean logged) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (int i = 0; i < TABLES.length; i++) {
+                String staging = TABLES[i] + STAGING_SUFFIX;
+                stmt.execute("ALTER TABLE " + staging + " ADD CONSTRAINT " + staging + "_pkey PRIMARY KEY (" + PRIMARY_KEYS[i] + ")");
+                if (logged) {
+                    stmt.execute("ALTER TABLE " + staging + " SET LOGGED");
+                }
+                stmt.execute("ANALYZE " + staging);
+            }
+        }
+    }
+
+    /**
+     * Open the swap transaction and rename the staging tables over the live ones. The previous
+     * tables stay around as {@code <table>_old} until {@link #commitSwap(Connection)}, so views on
+     * them can be recreated in between.
+     *
+     * @param lockTimeoutMs how long to wait for running readers before giving up
+     */
+    static void beginSwap(Connection connection, long lockTimeoutMs) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SET LOCAL lock_timeout = " + lockTimeoutMs);
+            stmt.execute("LOCK TABLE ticker, optionchains IN ACCESS EXCLUSIVE MODE");
+            for (String table : TABLES) {
+                // Index names are unique per schema, so the primary keys are renamed along with the tables
+                stmt.execute("DROP TABLE IF EXISTS " + table + OLD_SUFFIX);
+                stmt.execute("ALTER TABLE " + table + " RENAME TO " + table + OLD_SUFFIX);
+                stmt.execute("ALTER INDEX IF EXISTS " + table + "_pkey RENAME TO " + table + OLD_SUFFIX + "_pkey");
+                stmt.execute("ALTER TABLE " + table + STAGING_SUFFIX + " RENAME TO " + table);
+                stmt.execute("ALTER INDEX " + table + STAGING_SUFFIX + "_pkey RENAME TO " + table + "_pkey");
+            }
+        }
+    }
+
+    /**
+     * Drop the previous tables and commit the swap.
+     */
+    static void commitSwap(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String table : TABLES) {
+                stmt.execute("DROP TABLE " + table + OLD_SUFFIX);
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Roll back a failed swap, leaving the previous snapshot live.
+     */
+    static void abortSwap(Connection connection) throws SQLException {
+        if (connection.getAutoCommit()) {
+            // Failed before the swap transaction was opened
+            return;
+        }
+        try {
+            connection.rollback();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.optionsql.model.OptionChain;
+
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of one batch while the store writes it: its connection, ids, snapshot time and the
+ * counters reported in store.complete. Every batch gets its own instance, so a batch never sees
+ * the connection or counters of the one before it, also when that one failed half way.
+ */
+class StoreBatch {
+
+    private final String id;
+    private final Instant snapshot;
+    private final LocalDate date;
+    private final boolean partial;
+    private final JsonArray requestedTickers;
+    private final List<String> tickers = new ArrayList<>();
+    private final JsonArray shardReports = new JsonArray();
+    private final JsonArray streamedChains = new JsonArray();
+    private Connection connection;
+    private boolean staging;
+    private int slices;
+    private int skippedSlices;
+    private UpsertCounts rows = UpsertCounts.NONE;
+    private int failures;
+    private String lastError;
+
+    /**
+     * @param id               batch id of the fetch service, may be null
+     * @param tradingDay       the day of the fetch run, or null for today
+     * @param requestedTickers the tickers a partial batch was requested for, may be null
+     * @param shards           the number of store shards to report on
+     */
+    StoreBatch(String id, String tradingDay, boolean partial, JsonArray requestedTickers, int shards) {
+        this.id = id;
+        this.snapshot = Instant.now();
+        // Time to expiration counts from the day of the run, as CURRENT_DATE did in 080_tte. The
+        // fetch service compared the slices on that day, so unchanged slices hold the same values.
+        this.date = tradingDay != null ? LocalDate.parse(tradingDay) : LocalDate.now();
+        this.partial = partial;
+        this.requestedTickers = requestedTickers;
+        for (int shard = 0; shard < shards; shard++) {
+            shardReports.add(new JsonObject().put("shard", shard).put("tickers", 0).put("ms", 0L).put("failures", 0));
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Instant getSnapshot() {
+        return snapshot;
+    }
+
+    LocalDate getDate() {
+        return date;
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
+
+    JsonArray getRequestedTickers() {
+        return requestedTickers;
+    }
+
+    /**
+     * @return the tickers written so far
+     */
+    List<String> getTickers() {
+        return tickers;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    void setConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return true if the batch loads into the staging tables instead of the live ones
+     */
+    boolean isStaging() {
+        return staging;
+    }
+
+    void setStaging(boolean staging) {
+        this.staging = staging;
+    }
+
+    int getSlices() {
+        return slices;
+    }
+
+    int getSkippedSlices() {
+        return skippedSlices;
+    }
+
+    void countSlices(JsonArray options, boolean skipUnchanged) {
+        for (int i = 0; i < options.size(); i++) {
+            OptionChain chain = (OptionChain) options.getValue(i);
+            tickers.add(chain.getTickerSymbol());
+            slices += chain.getSlices().size();
+            if (skipUnchanged) {
+                skippedSlices += chain.getUnchangedSliceCount();
+            }
+        }
+    }
+
+    synchronized UpsertCounts getRows() {
+        return rows;
+    }
+
+    /**
+     * Shard writers report their upsert counts from worker threads.
+     */
+    synchronized void addRows(UpsertCounts rows) {
+        this.rows = this.rows.plus(rows);
+    }
+
+    JsonArray getShardReports() {
+        return shardReports;
+    }
+
+    synchronized void recordShard(int shard, int tickers, long elapsedMs, Throwable error) {
+        JsonObject report = shardReports.getJsonObject(shard);
+        report.put("tickers", report.getInteger("tickers") + tickers)
+              .put("ms", report.getLong("ms") + elapsedMs);
+        if (error != null) {
+            report.put("failures", report.getInteger("failures") + 1).put("error", error.getMessage());
+        }
+    }
+
+    /**
+     * @return the chains of a streamed batch written so far, archived once the batch is live
+     */
+    JsonArray getStreamedChains() {
+        return streamedChains;
+    }
+
+    int getFailures() {
+        return failures;
+    }
+
+    String getLastError() {
+        return lastError;
+    }
+
+    void recordFailure(String error) {
+        failures++;
+        lastError = error;
+    }
+}
@@ -1,36 +1,69 @@
 package org.optionsql.store;
 
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import org.optionsql.archive.ChainArchiveWriter;
 import org.optionsql.base.BaseService;
+import org.optionsql.fetch.RetryScheduler;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Array;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.zip.GZIPInputStream;
 
 public class StoreService extends BaseService {
 
-    private String jdbcUrl;
     private String jdbcUser;
     private String jdbcPassword;
     private String hostname;
     private int port;
     private String database;
     private String backupDir;
-    private Connection dbConnection;
     private MessageConsumer<JsonObject> dataConsumer;
+    private MessageConsumer<JsonObject> streamConsumer;
+    private Future<Void> batchChain = Future.succeededFuture();
+    private boolean streamOpen;
+    private StoreBatch streamBatch;
+    private final Deque<Runnable> heldBatches = new ArrayDeque<>();
+    private boolean incremental;
+    private boolean upsert;
+    private boolean copyLoader;
+    private boolean swap;
+    private boolean swapLogged;
+    private long swapLockTimeoutMs;
+    private int shards;
+    private HistoryPartitions history;
+    private String historySchema;
+    private boolean historyReady;
+    private PayloadSpool spool;
+    private ChainArchiveWriter archive;
+    private RetryScheduler drainRetry;
+    private boolean draining;
+    private int drainAttempts;
 
     public StoreService(String serviceName) {
         super(serviceName);
@@ -40,19 +73,24 @@ public class StoreService extends BaseService {
         String dataAddress = getServiceConfig().getString("listen");
         dataConsumer = getEventBus().consumer(dataAddress, message -> {
             JsonObject jsonData = message.body();
-            openDatabaseConnection()
-//                    .compose(v -> backupDatabase())
-                    .compose(v -> preprocessSqlFiles())
-                    .compose(v -> storeData(jsonData))
-                    .onSuccess(v -> {
-                        closeDatabaseConnection();
-                        sendCompleteToEventBus(true, "");
-                        getLogger().info("Data successfully stored.");
+            JsonArray options = jsonData.getJsonArray("payload");
+            boolean partial = jsonData.getBoolean("partial", false);
+            JsonArray tickers = jsonData.getJsonArray("tickers");
+            String fetchBatch = jsonData.getString("batch");
+            String tradingDay = jsonData.getString("tradingday");
+            if (spool == null) {
+                enqueueBatch(() -> storeBatch(options, partial, tickers, fetchBatch, tradingDay, true));
+                return;
+            }
+            vertx.executeBlocking(() -> spool.append(options, partial, tickers, fetchBatch, tradingDay), false)
+                    .onSuccess(spoolId -> {
+                        getLogger().info("Spooled batch " + spoolId + " with " + options.size() + " tickers.");
+                        drainSpool();
                     })
                     .onFailure(err -> {
-                        closeDatabaseConnection();
-                        sendCompleteToEventBus(false, err.getMessage());
-                        getLogger().severe("Failed to store data: " + err.getMessage());
+                        // Better a direct attempt than losing the fetched data
+                        getLogger().severe("Failed to spool batch, storing directly: " + err.getMessage());
+                        enqueueBatch(() -> storeBatch(options, partial, tickers, fetchBatch, tradingDay, true));
                     });
         });
 
@@ -65,11 +103,237 @@ public class StoreService extends BaseService {
         });
     }
 
-    private Future<Void> openDatabaseConnection() {
+    /**
+     * Run store work once everything queued before it is done. Every batch has its own
+     * {@link StoreBatch}, but batches write the same tables and the swap replaces them as a whole,
+     * so they go through one chain, whether they come from fetch.complete, the spool or the stream. Batches arriving while a streamed batch is open are held until
+     * its end, they would otherwise run between its begin and its tickers.
+     */
+    private Future<Void> enqueueBatch(Supplier<Future<Void>> work) {
+        if (streamOpen) {
+            Promise<Void> promise = Promise.promise();
+            heldBatches.add(() -> enqueueBatch(work).onComplete(promise));
+            return promise.future();
+        }
+        batchChain = batchChain.transform(ignored -> work.get());
+        return batchChain;
+    }
+
+    /**
+     * Store one batch and publish store.complete.
+     *
+     * @param fetchBatch    batch id of the fetch service, echoed in store.complete, may be null
+     * @param tradingDay    the day the fetch service compared slices on, may be null
+     * @param reportFailure publish store.complete on failure; off for spool retries of a batch
+     *                      whose failure was already reported
+     */
+    private Future<Void> storeBatch(JsonArray options, boolean partial, JsonArray tickers, String fetchBatch, String tradingDay,
+                                    boolean reportFailure) {
+        StoreBatch batch = new StoreBatch(fetchBatch, tradingDay, partial, tickers, shards);
+        if (incremental && !hasChangedSlices(options)) {
+            // Nothing new since the last run, the tables already hold this data
+            batch.countSlices(options, true);
+            archiveChains(batch, options);
+            sendCompleteToEventBus(batch, true, "", false);
+            getLogger().info("No changed slices, skipped store of " + batch.getSlices() + " slices.");
+            return Future.succeededFuture();
+        }
+        return openDatabaseConnection(batch)
+//                .compose(v -> backupDatabase())
+                .compose(v -> prepareBatch(batch))
+                .compose(v -> storeData(batch, options))
+                .compose(v -> swapStaging(batch))
+                .compose(v -> recordHistory(batch))
+                .onSuccess(v -> {
+                    closeDatabaseConnection(batch);
+                    archiveChains(batch, options);
+                    sendCompleteToEventBus(batch, true, "", true);
+                    getLogger().info("Data successfully stored. Skipped " + batch.getSkippedSlices() + "/" + batch.getSlices() + " unchanged slices" +
+                                     (incremental && upsert ? ", rows " + batch.getRows() + "." : "."));
+                })
+                .onFailure(err -> {
+                    closeDatabaseConnection(batch);
+                    if (reportFailure) {
+                        sendCompleteToEventBus(batch, false, err.getMessage(), true);
+                    }
+                    getLogger().severe("Failed to store data: " + err.getMessage());
+                });
+    }
+
+    /**
+     * Apply spooled batches to the database one at a time, oldest first. A failed batch stays
+     * in the spool and is retried with backoff until the database takes it.
+     */
+    private void drainSpool() {
+        PayloadSpool.SpoolBatch batch = draining ? null : spool.peek();
+        if (batch == null) {
+            return;
+        }
+        draining = true;
+        long start = System.currentTimeMillis();
+        vertx.executeBlocking(() -> spool.read(batch), false)
+                .compose(options -> enqueueBatch(() -> storeBatch(options, batch.isPartial(), batch.getTickers(), batch.getFetchBatch(),
+                        batch.getTradingDay(), drainAttempts == 0)))
+                .compose(v -> vertx.<Void>executeBlocking(() -> {
+                    spool.markApplied(batch);
+                    return null;
+                }, false))
+                .onComplete(result -> {
+                    draining = false;
+                    if (result.succeeded()) {
+                        drainAttempts = 0;
+                        getLogger().info("Applied spooled batch " + batch.getId() + " in " + (System.currentTimeMillis() - start) + "ms, spool: " + spool.metrics().encode());
+                        drainSpool();
+                    } else {
+                        drainAttempts++;
+                        getLogger().warning("Spooled batch " + batch.getId() + " not applied (attempt " + drainAttempts + "), retrying with backoff: " +
+                                            result.cause().getMessage());
+                        drainRetry.retry(drainAttempts, this::drainSpool);
+                    }
+                });
+    }
+
+    /**
+     * Streaming hand-off from the fetch service: a begin marker, one message per ticker and an
+     * end or abort marker per batch. Messages are handled strictly one after another, and every ticker
+     * message returns a credit to the fetch service once it has been written, so the number of
+     * chains waiting for the database never exceeds the fetch window. Written chains are kept
+     * until the end marker and only archived once the batch has been stored successfully.
+     */
+    private void startStreamListening() {
+        String streamAddress = getServiceConfig().getString("listenstream");
+        if (streamAddress == null) {
+            return;
+        }
+        String creditAddress = getServiceConfig().getString("creditaddress", "fetch.credit");
+        streamConsumer = getEventBus().consumer(streamAddress, message -> {
+            JsonObject body = message.body();
+            String status = body.getString("status", "");
+            batchChain = batchChain.transform(ignored -> handleStreamMessage(body, creditAddress));
+            if ("begin".equals(status)) {
+                streamOpen = true;
+            } else if ("end".equals(status) || "abort".equals(status)) {
+                streamOpen = false;
+                while (!streamOpen && !heldBatches.isEmpty()) {
+                    heldBatches.poll().run();
+                }
+            }
+        });
+
+        streamConsumer.completionHandler(res -> {
+            if (res.succeeded()) {
+                getLogger().info("Listening for streamed tickers on address: " + streamAddress);
+            } else {
+                getLogger().severe("Failed to start listening for streamed tickers: " + res.cause().getMessage());
+            }
+        });
+    }
+
+    private Future<Void> handleStreamMessage(JsonObject body, String creditAddress) {
+        String status = body.getString("status", "");
+        switch (status) {
+            case "begin": {
+                if (streamBatch != null) {
+                    // The end or abort of the previous batch never arrived
+                    closeDatabaseConnection(streamBatch);
+                }
+                StoreBatch batch = new StoreBatch(body.getString("batch"), body.getString("tradingday"),
+                        body.getBoolean("partial", false), body.getJsonArray("tickers"), shards);
+                streamBatch = batch;
+                getLogger().info("Begin of streamed batch " + batch.getId());
+                return openDatabaseConnection(batch)
+                        .compose(v -> prepareBatch(batch))
+                        .onFailure(err -> recordStreamFailure(batch, "Failed to prepare streamed batch: " + err.getMessage()));
+            }
+            case "ticker": {
+                StoreBatch batch = streamBatch;
+                if (batch == null || batch.getId() == null || !batch.getId().equals(body.getString("batch"))) {
+                    // Left over from an aborted batch, only the credit matters
+                    getEventBus().send(creditAddress, new JsonObject().put("credits", 1));
+                    return Future.succeededFuture();
+                }
+                JsonArray chain = new JsonArray().add(body.getValue("payload"));
+                return storeData(batch, chain)
+                        .onSuccess(v -> batch.getStreamedChains().add(chain.getValue(0)))
+                        .onFailure(err -> recordStreamFailure(batch, "Failed to store streamed ticker: " + err.getMessage()))
+                        .eventually(() -> {
+                            getEventBus().send(creditAddress, new JsonObject().put("credits", 1));
+                            return Future.succeededFuture();
+                        });
+            }
+            case "end": {
+                StoreBatch batch = streamBatch;
+                if (batch == null || batch.getId() == null || !batch.getId().equals(body.getString("batch"))) {
+                    getLogger().warning("Ignoring end of streamed batch " + body.getString("batch") + ", it is not in progress.");
+                    return Future.succeededFuture();
+                }
+                streamBatch = null;
+                // A failed batch never reaches the swap, the previous snapshot stays live
+                Future<Void> swapped = batch.getFailures() == 0
+                        ? swapStaging(batch).compose(v -> recordHistory(batch))
+                                .onFailure(err -> recordStreamFailure(batch, "Failed to swap streamed batch: " + err.getMessage()))
+                        : Future.succeededFuture();
+                return swapped.transform(ignored -> {
+                    closeDatabaseConnection(batch);
+                    if (batch.getFailures() == 0) {
+                        // Archived only now, a batch that never went live must not show up in the archive
+                        archiveChains(batch, batch.getStreamedChains());
+                        sendCompleteToEventBus(batch, true, "", true);
+                        getLogger().info("Streamed batch " + batch.getId() + " stored, " + body.getInteger("tickers", 0) +
+                                         " tickers. Skipped " + batch.getSkippedSlices() + "/" + batch.getSlices() + " unchanged slices.");
+                    } else {
+                        sendCompleteToEventBus(batch, false, batch.getLastError(), true);
+                        getLogger().severe("Streamed batch " + batch.getId() + " finished with " + batch.getFailures() + " failures.");
+                    }
+                    return Future.succeededFuture();
+                });
+            }
+            case "abort":
+                // The fetch run timed out, drop the batch without swap or store.complete
+                if (streamBatch != null && body.getString("batch").equals(streamBatch.getId())) {
+                    closeDatabaseConnection(streamBatch);
+                    streamBatch = null;
+                    getLogger().warning("Streamed batch " + body.getString("batch") + " aborted by the fetch service.");
+                }
+                return Future.succeededFuture();
+            default:
+                getLogger().warning("Ignoring stream message with status: " + status);
+                return Future.succeededFuture();
+        }
+    }
+
+    /**
+     * Append the stored chains to the columnar archive on the worker pool, under the snapshot
+     * time of the batch. Archive failures are logged and never fail the store.
+     */
+    private void archiveChains(StoreBatch batch, JsonArray options) {
+        if (archive == null) {
+            return;
+        }
+        Instant snapshot = batch.getSnapshot();
+        vertx.executeBlocking(() -> {
+            long bytes = 0;
+            for (int i = 0; i < options.size(); i++) {
+                bytes += archive.append(snapshot, (OptionChain) options.getValue(i));
+            }
+            return bytes;
+        }).onSuccess(bytes -> {
+            if (isDebugEnabled()) {
+                getLogger().fine("Archived " + options.size() + " chains in " + bytes + " bytes");
+            }
+        }).onFailure(err -> getLogger().warning("Failed to archive chains: " + err.getMessage()));
+    }
+
+    private void recordStreamFailure(StoreBatch batch, String error) {
+        batch.recordFailure(error);
+        getLogger().severe(error);
+    }
+
+    private Future<Void> openDatabaseConnection(StoreBatch batch) {
         return vertx.executeBlocking(promise -> {
             try {
-                dbConnection = DriverManager.getConnection(jdbcUrl, jdbcUser, jdbcPassword);
-                getLogger().info("Database connection opened.");
+                batch.setConnection(getConnection(database));
+                getLogger().info("Database connection borrowed from pool.");
                 promise.complete();
             } catch (SQLException e) {
                 getLogger().severe("Failed to open database connection: " + e.getMessage());
@@ -78,14 +342,16 @@ public class StoreService extends BaseService {
         });
     }
 
-    private void closeDatabaseConnection() {
-        if (dbConnection != null) {
+    private void closeDatabaseConnection(StoreBatch batch) {
+        Connection connection = batch.getConnection();
+        if (connection != null) {
             try {
-                dbConnection.close();
-                getLogger().info("Database connection closed.");
+                connection.close();
+                getLogger().info("Database connection returned to pool.");
             } catch (SQLException e) {
-                getLogger().severe("Failed to close database connection: " + e.getMessage());
+                getLogger().severe("Failed to return database connection: " + e.getMessage());
             }
+            batch.setConnection(null);
         }
     }
     private Future<Void> backupDatabase() {
@@ -121,105 +387,432 @@ public class StoreService extends BaseService {
         });
     }
 
-    private Future<Void> preprocessSqlFiles() {
-        List<String> sqlFiles = getServiceConfig().getJsonArray("preprocess").getList();
+    private static boolean hasChangedSlices(JsonArray options) {
+        for (int i = 0; i < options.size(); i++) {
+            OptionChain chain = (OptionChain) options.getValue(i);
+            if (chain.getUnchangedSliceCount() < chain.getSlices().size()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the tables ready for a new batch: full batches in swap mode load into fresh staging
+     * tables, all others run their preprocess scripts against the live tables.
+     */
+    private Future<Void> prepareBatch(StoreBatch batch) {
+        Connection connection = batch.getConnection();
+        // Partial and incremental batches update the live tables in place
+        batch.setStaging(swap && !batch.isPartial() && !incremental);
+        if (!batch.isStaging()) {
+            return preprocessSqlFiles(connection, batch.isPartial()).compose(v -> clearTickers(batch));
+        }
+        return vertx.executeBlocking(() -> SnapshotSwap.liveTablesExist(connection), false)
+                // The staging tables copy the live definition, so the first run creates the schema
+                .compose(exists -> exists ? Future.succeededFuture() : preprocessSqlFiles(connection, false))
+                .compose(v -> vertx.<Void>executeBlocking(() -> {
+                    SnapshotSwap.createStaging(connection);
+                    getLogger().info("Created unlogged staging tables for swap load.");
+                    return null;
+                }, false));
+    }
+
+    /**
+     * Index and analyze the staging tables and swap them in. The {@code swappreprocess} scripts
+     * run inside the swap transaction, so views on the live tables are recreated against the new
+     * ones and derived tables are reset in the same instant the snapshot changes.
+     */
+    private Future<Void> swapStaging(StoreBatch batch) {
+        if (!batch.isStaging()) {
+            return Future.succeededFuture();
+        }
+        Connection connection = batch.getConnection();
+        long start = System.currentTimeMillis();
+        Future<Void> future = vertx.<Void>executeBlocking(() -> {
+            SnapshotSwap.finishStaging(connection, swapLogged);
+            getLogger().info("Indexed and analyzed staging tables in " + (System.currentTimeMillis() - start) + "ms");
+            SnapshotSwap.beginSwap(connection, swapLockTimeoutMs);
+            return null;
+        }, false);
+
+        for (String sqlFile : sqlFiles("swappreprocess")) {
+            future = future.compose(ignored -> processSqlFile(connection, sqlFile));
+        }
+
+        return future
+                .compose(v -> vertx.<Void>executeBlocking(() -> {
+                    SnapshotSwap.commitSwap(connection);
+                    getLogger().info("Swapped in new snapshot, " + (System.currentTimeMillis() - start) + "ms after load.");
+                    return null;
+                }, false))
+                .recover(err -> vertx.<Void>executeBlocking(() -> {
+                    SnapshotSwap.abortSwap(connection);
+                    return null;
+                }, false).transform(ignored -> Future.failedFuture(err)));
+    }
+
+    /**
+     * Copy the rows of this batch's tickers into the partitioned history under the batch's
+     * snapshot timestamp and apply the retention policy. Runs before store.complete, so the
+     * history holds the chains as fetched, not as reduced by the analysis scripts. A failure is
+     * logged but does not fail the batch, the latest snapshot is already stored.
+     */
+    private Future<Void> recordHistory(StoreBatch batch) {
+        if (history == null || batch.getTickers().isEmpty()) {
+            return Future.succeededFuture();
+        }
+        Connection connection = batch.getConnection();
+        Future<Void> schema = historyReady
+                ? Future.succeededFuture()
+                : processSqlFile(connection, historySchema).onSuccess(v -> historyReady = true);
+        return schema
+                .compose(v -> vertx.<Void>executeBlocking(() -> {
+                    long start = System.currentTimeMillis();
+                    long rows = history.record(connection, batch.getSnapshot(), batch.isPartial(), batch.getTickers());
+                    List<String> removed = history.applyRetention(connection, Instant.now());
+                    getLogger().info("Recorded " + rows + " history rows for snapshot " + batch.getSnapshot() + " in " +
+                                     (System.currentTimeMillis() - start) + "ms" +
+                                     (removed.isEmpty() ? "" : ", retired partitions " + removed));
+                    return null;
+                }, false))
+                .recover(err -> {
+                    getLogger().warning("Failed to record option chain history: " + err.getMessage());
+                    return Future.succeededFuture();
+                });
+    }
+
+    /**
+     * @param partial the batch covers only some segments, so tables holding the other tickers must survive
+     */
+    private Future<Void> preprocessSqlFiles(Connection connection, boolean partial) {
+        // Incremental and partial batches keep the option chain tables, so they have their own (lighter) preprocess lists
+        String preprocessKey = incremental ? "incrementalpreprocess" : partial ? "partialpreprocess" : "preprocess";
         Future<Void> future = Future.succeededFuture();
 
-        for (String sqlFile : sqlFiles) {
+        for (String sqlFile : sqlFiles(preprocessKey)) {
             getLogger().info("Preprocessing SQL file: " + sqlFile);
-            future = future.compose(ignored -> processSqlFile(dbConnection, sqlFile));
+            future = future.compose(ignored -> processSqlFile(connection, sqlFile));
         }
 
         return future;
     }
 
-    private Future<Void> storeData(JsonObject data) {
+    /**
+     * @return the SQL files listed under {@code key} in the service config, none if it is missing
+     */
+    private List<String> sqlFiles(String key) {
+        JsonArray files = getServiceConfig().getJsonArray(key, new JsonArray());
+        List<String> sqlFiles = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            sqlFiles.add(files.getString(i));
+        }
+        return sqlFiles;
+    }
+
+    /**
+     * Remove the rows of the tickers in a partial batch before they are written again. Incremental
+     * mode replaces rows per slice instead and needs no clearing.
+     */
+    private Future<Void> clearTickers(StoreBatch batch) {
+        JsonArray tickers = batch.getRequestedTickers();
+        if (!batch.isPartial() || incremental || tickers == null || tickers.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        Connection connection = batch.getConnection();
         return vertx.executeBlocking(promise -> {
-            try {
-                JsonArray options = data.getJsonArray("payload");
+            try (PreparedStatement chainsStmt = connection.prepareStatement("DELETE FROM optionchains WHERE ticker_symbol = ANY (?)");
+                 PreparedStatement tickerStmt = connection.prepareStatement("DELETE FROM ticker WHERE ticker_symbol = ANY (?)")) {
+                Array symbols = connection.createArrayOf("varchar", tickers.getList().toArray());
+                chainsStmt.setArray(1, symbols);
+                int rows = chainsStmt.executeUpdate();
+                tickerStmt.setArray(1, symbols);
+                tickerStmt.executeUpdate();
+                getLogger().info("Cleared " + rows + " option chain rows of " + tickers.size() + " tickers for partial batch.");
+                promise.complete();
+            } catch (SQLException e) {
+                promise.fail(e);
+            }
+        });
+    }
 
-                // Store ticker information
-                storeTicker(options);
+    private Future<Void> storeData(StoreBatch batch, JsonArray options) {
+        if (shards <= 1) {
+            return vertx.<Void>executeBlocking(() -> {
+                writeChains(batch, batch.getConnection(), options);
+                return null;
+            }).onSuccess(v -> batch.countSlices(options, incremental));
+        }
+        return storeSharded(batch, options).onSuccess(v -> batch.countSlices(options, incremental));
+    }
 
-                // Store option chains grouped by expiration
-                storeOptionChains(options);
+    /**
+     * Split the chains by ticker hash and write every shard on its own pooled connection, in
+     * parallel on the worker pool and in its own transaction. Tickers never span shards, so
+     * the writers touch disjoint rows. Completes once every shard has committed, and fails
+     * with the errors of all failed shards otherwise.
+     */
+    private Future<Void> storeSharded(StoreBatch batch, JsonArray options) {
+        JsonArray[] shardOptions = new JsonArray[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            shardOptions[shard] = new JsonArray();
+        }
+        for (int i = 0; i < options.size(); i++) {
+            OptionChain chain = (OptionChain) options.getValue(i);
+            shardOptions[Math.floorMod(chain.getTickerSymbol().hashCode(), shards)].add(chain);
+        }
 
-                promise.complete();
-            } catch (Exception e) {
-                e.printStackTrace();
-                promise.fail(e);
+        List<Future<Void>> writers = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            JsonArray chains = shardOptions[shard];
+            if (chains.isEmpty()) {
+                continue;
             }
+            int shardIndex = shard;
+            long start = System.currentTimeMillis();
+            writers.add(vertx.<Void>executeBlocking(() -> {
+                try (Connection connection = getConnection(database)) {
+                    connection.setAutoCommit(false);
+                    try {
+                        writeChains(batch, connection, chains);
+                        connection.commit();
+                    } catch (Exception e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                }
+                return null;
+            }, false).andThen(result -> recordShard(batch, shardIndex, chains.size(), System.currentTimeMillis() - start, result.cause())));
+        }
+
+        return Future.join(writers).transform(ignored -> {
+            List<String> errors = new ArrayList<>();
+            for (int shard = 0; shard < writers.size(); shard++) {
+                if (writers.get(shard).failed()) {
+                    errors.add(writers.get(shard).cause().getMessage());
+                }
+            }
+            return errors.isEmpty()
+                    ? Future.succeededFuture()
+                    : Future.failedFuture(errors.size() + "/" + writers.size() + " store shards failed: " + String.join("; ", errors));
         });
     }
 
-    private void storeTicker(JsonArray data) throws SQLException {
-        String query = "INSERT INTO ticker (ticker_symbol, current_price, segment, iv_historical_low, iv_historical_high, next_earnings_date, next_earnings_time) " +
+    private void recordShard(StoreBatch batch, int shard, int tickers, long elapsedMs, Throwable error) {
+        batch.recordShard(shard, tickers, elapsedMs, error);
+        if (error == null) {
+            if (isDebugEnabled()) {
+                getLogger().fine("Shard " + shard + "/" + shards + " committed " + tickers + " tickers in " + elapsedMs + "ms");
+            }
+        } else {
+            getLogger().severe("Shard " + shard + "/" + shards + " failed for " + tickers + " tickers: " + error.getMessage());
+        }
+    }
+
+    /**
+     * Write the tickers and option chains on the given connection with the configured loader.
+     */
+    private void writeChains(StoreBatch batch, Connection connection, JsonArray options) throws SQLException {
+        long start = System.currentTimeMillis();
+        String tickerTable = batch.isStaging() ? "ticker" + SnapshotSwap.STAGING_SUFFIX : "ticker";
+        String chainTable = batch.isStaging() ? "optionchains" + SnapshotSwap.STAGING_SUFFIX : "optionchains";
+        if (copyLoader) {
+            // Binary COPY into temp tables, then one INSERT ... SELECT per table
+            if (incremental) {
+                removeStaleSlices(connection, options);
+            }
+            CopyLoader.loadTickers(connection, tickerTable, options, incremental);
+            if (incremental && upsert) {
+                UpsertCounts rows = CopyLoader.upsertOptionChains(connection, chainTable, options, batch.getDate());
+                batch.addRows(rows);
+                getLogger().info("COPY upserted option chain rows (" + rows + ") in " + (System.currentTimeMillis() - start) + "ms");
+                return;
+            }
+            // Staging tables get their primary key after the load
+            long rows = CopyLoader.loadOptionChains(connection, chainTable, options, incremental, !batch.isStaging(), batch.getDate());
+            getLogger().info("COPY loaded " + rows + " option chain rows in " + (System.currentTimeMillis() - start) + "ms");
+        } else if (incremental) {
+            // Rewrite only what changed since the previous run
+            upsertTicker(connection, options);
+            removeStaleSlices(connection, options);
+            if (upsert) {
+                CopyLoader.prepareChainLoad(connection);
+                storeOptionChains(connection, CopyLoader.CHAIN_LOAD, options, batch.getDate(), true, false);
+                batch.addRows(CopyLoader.mergeOptionChains(connection, chainTable));
+            } else {
+                storeOptionChains(connection, chainTable, options, batch.getDate(), true, true);
+            }
+        } else {
+            // Store ticker information
+            storeTicker(connection, tickerTable, options);
+
+            // Store option chains grouped by expiration
+            storeOptionChains(connection, chainTable, options, batch.getDate(), false, !batch.isStaging());
+        }
+    }
+
+    private void storeTicker(Connection connection, String table, JsonArray data) throws SQLException {
+        String query = "INSERT INTO " + table + " (ticker_symbol, current_price, segment, iv_historical_low, iv_historical_high, next_earnings_date, next_earnings_time) " +
                        "VALUES (?, ?, ?, ?, ?, ?, ?) ";
 
         for (int i = 0; i < data.size(); i++) {
-            try (PreparedStatement stmt = dbConnection.prepareStatement(query)) {
-                JsonObject obj = data.getJsonObject(i);
-                stmt.setString(1, obj.getString("ticker_symbol"));
-                stmt.setDouble(2, obj.getDouble("current_price"));
-                stmt.setString(3, obj.getString("segment"));
-                stmt.setDouble(4, obj.getDouble("iv_historical_low"));
-                stmt.setDouble(5, obj.getDouble("iv_historical_high"));
-                stmt.setString(6, obj.getString("next_earnings_date"));
-                stmt.setString(7, obj.getString("next_earnings_time"));
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                OptionChain chain = (OptionChain) data.getValue(i);
+                stmt.setString(1, chain.getTickerSymbol());
+                stmt.setDouble(2, chain.getCurrentPrice());
+                stmt.setString(3, chain.getSegment());
+                stmt.setDouble(4, chain.getIvHistoricalLow());
+                stmt.setDouble(5, chain.getIvHistoricalHigh());
+                stmt.setObject(6, chain.getNextEarningsLocalDate(), Types.DATE);
+                stmt.setString(7, chain.getNextEarningsTime());
                 stmt.executeUpdate();
             }
         }
     }
 
-    private void storeOptionChains(JsonArray options) throws SQLException {
-        String query = "INSERT INTO optionchains (" +
-                       "ticker_symbol, expiration_date, strike_price, underlying_price, " +  // Added underlying_price
-                       "call_bid, call_ask, call_mid, call_volume, call_oi, call_delta, call_gamma, call_theta, call_vega, call_iv, " +
-                       "put_bid, put_ask, put_mid, put_volume, put_oi, put_delta, put_gamma, put_theta, put_vega, put_iv" +
-                       ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" +  // Now 24 placeholders
-                       " ON CONFLICT (ticker_symbol, expiration_date, strike_price) DO NOTHING";
+    private void upsertTicker(Connection connection, JsonArray data) throws SQLException {
+        String query = "INSERT INTO ticker (ticker_symbol, current_price, segment, iv_historical_low, iv_historical_high, next_earnings_date, next_earnings_time) " +
+                       "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                       "ON CONFLICT (ticker_symbol) DO UPDATE SET current_price = EXCLUDED.current_price, segment = EXCLUDED.segment, " +
+                       "iv_historical_low = EXCLUDED.iv_historical_low, iv_historical_high = EXCLUDED.iv_historical_high, " +
+                       "next_earnings_date = EXCLUDED.next_earnings_date, next_earnings_time = EXCLUDED.next_earnings_time, " +
+                       "last_updated = CURRENT_TIMESTAMP";
+
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            for (int i = 0; i < data.size(); i++) {
+                OptionChain chain = (OptionChain) data.getValue(i);
+                stmt.setString(1, chain.getTickerSymbol());
+                stmt.setDouble(2, chain.getCurrentPrice());
+                stmt.setString(3, chain.getSegment());
+                stmt.setDouble(4, chain.getIvHistoricalLow());
+                stmt.setDouble(5, chain.getIvHistoricalHigh());
+                stmt.setObject(6, chain.getNextEarningsLocalDate(), Types.DATE);
+                stmt.setString(7, chain.getNextEarningsTime());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
 
-        try (PreparedStatement stmt = dbConnection.prepareStatement(query)) {
+    /**
+     * Delete the rows of changed slices and of expirations that are no longer in the chain, and
+     * move the underlying price of the rows that stay, with the derived columns that depend on
+     * it (same expressions as {@link SliceMetrics}).
+     * <p>
+     * With the change-aware upsert only the expirations that are gone are deleted and changed
+     * slices are merged row by row. The row hash does not cover the underlying price, so the
+     * price still moves here for every row, unchanged slices included. Rows already at the
+     * current price are left alone.
+     */
+    private void removeStaleSlices(Connection connection, JsonArray options) throws SQLException {
+        String deleteSlice = "DELETE FROM optionchains WHERE ticker_symbol = ? AND expiration_date = ?";
+        String deleteExpired = "DELETE FROM optionchains WHERE ticker_symbol = ? AND expiration_date <> ALL (?)";
+        String updatePrice = "UPDATE optionchains o SET underlying_price = p.price, " +
+                             "call_ror = CASE WHEN o.strike_price - p.price > 0 " +
+                             "THEN (o.call_bid / (o.strike_price - p.price + o.call_bid)) * 100 ELSE 0 END, " +
+                             "call_bpr = GREATEST((0.20 * p.price - GREATEST(0, o.strike_price - p.price) + o.call_bid) * 100, " +
+                             "(0.10 * p.price + o.call_bid) * 100), " +
+                             "implied_move = p.price * o.put_iv * 0.025 " +
+                             "FROM (SELECT ?::float8 AS price) p WHERE o.ticker_symbol = ? " +
+                             "AND o.underlying_price IS DISTINCT FROM p.price";
+
+        try (PreparedStatement sliceStmt = connection.prepareStatement(deleteSlice);
+             PreparedStatement expiredStmt = connection.prepareStatement(deleteExpired);
+             PreparedStatement priceStmt = connection.prepareStatement(updatePrice)) {
             for (int i = 0; i < options.size(); i++) {
-                JsonObject tickerData = options.getJsonObject(i);
-                String tickerSymbol = tickerData.getString("ticker_symbol");
-                double currentPrice = tickerData.getDouble("current_price");
-                JsonObject expirations = tickerData.getJsonObject("expirations");
+                OptionChain chain = (OptionChain) options.getValue(i);
+                List<ExpirationSlice> slices = chain.getSlices();
+                String[] expirations = new String[slices.size()];
+                for (int j = 0; j < slices.size(); j++) {
+                    expirations[j] = slices.get(j).getExpirationDate();
+                    if (!upsert && !chain.isUnchanged(j)) {
+                        sliceStmt.setString(1, chain.getTickerSymbol());
+                        sliceStmt.setObject(2, LocalDate.parse(expirations[j]));
+                        sliceStmt.addBatch();
+                    }
+                }
+                expiredStmt.setString(1, chain.getTickerSymbol());
+                expiredStmt.setArray(2, connection.createArrayOf("date", expirations));
+                expiredStmt.addBatch();
 
-                for (String expiration : expirations.fieldNames()) {
-                    JsonArray strikes = expirations.getJsonArray(expiration);
+                priceStmt.setDouble(1, chain.getCurrentPrice());
+                priceStmt.setString(2, chain.getTickerSymbol());
+                priceStmt.addBatch();
+            }
+            sliceStmt.executeBatch();
+            expiredStmt.executeBatch();
+            priceStmt.executeBatch();
+        }
+    }
 
-                    for (int j = 0; j < strikes.size(); j++) {
-                        JsonObject strikeData = strikes.getJsonObject(j);
+    /**
+     * @param table          the target table, optionchains, its staging copy or the load table
+     *                       of the upsert
+     * @param day            the day time to expiration counts from
+     * @param changedOnly    skip slices flagged as unchanged since the previous fetch run
+     * @param skipDuplicates ignore rows whose key already exists; needs a primary key on the target
+     */
+    private void storeOptionChains(Connection connection, String table, JsonArray options, LocalDate day, boolean changedOnly,
+                                   boolean skipDuplicates) throws SQLException {
+        String query = "INSERT INTO " + table + " (" +
+                       "ticker_symbol, expiration_date, strike_price, underlying_price, " +  // Added underlying_price
+                       "call_bid, call_ask, call_mid, call_volume, call_oi, call_delta, call_gamma, call_theta, call_vega, call_iv, " +
+                       "put_bid, put_ask, put_mid, put_volume, put_oi, put_delta, put_gamma, put_theta, put_vega, put_iv, row_hash, " +
+                       SliceMetrics.COLUMNS +
+                       ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?" +
+                       ", ?".repeat(SliceMetrics.COUNT) + ")" +
+                       (skipDuplicates ? " ON CONFLICT (ticker_symbol, expiration_date, strike_price) DO NOTHING" : "");
 
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            for (int i = 0; i < options.size(); i++) {
+                OptionChain chain = (OptionChain) options.getValue(i);
+                String tickerSymbol = chain.getTickerSymbol();
+                double currentPrice = chain.getCurrentPrice();
+                List<ExpirationSlice> slices = chain.getSlices();
+
+                for (int sliceIndex = 0; sliceIndex < slices.size(); sliceIndex++) {
+                    if (changedOnly && chain.isUnchanged(sliceIndex)) {
+                        continue;
+                    }
+                    ExpirationSlice slice = slices.get(sliceIndex);
+                    LocalDate expiration = LocalDate.parse(slice.getExpirationDate());
+                    OptionSide calls = slice.getCalls();
+                    OptionSide puts = slice.getPuts();
+                    SliceMetrics metrics = SliceMetrics.compute(chain, slice, day);
+
+                    for (int j = 0; j < slice.size(); j++) {
                         stmt.setString(1, tickerSymbol);
-                        stmt.setString(2, expiration);
-                        stmt.setDouble(3, strikeData.getDouble("strike_price", 0.0));
+                        stmt.setObject(2, expiration);
+                        stmt.setDouble(3, slice.getStrike(j));
                         stmt.setDouble(4, currentPrice);  // Added underlying_price
 
                         // Set call option fields
-                        stmt.setDouble(5, strikeData.getDouble("call_bid", 0.0));
-                        stmt.setDouble(6, strikeData.getDouble("call_ask", 0.0));
-                        stmt.setDouble(7, strikeData.getDouble("call_mid", 0.0));
-                        stmt.setInt(8, strikeData.getInteger("call_volume", 0));
-                        stmt.setInt(9, strikeData.getInteger("call_oi", 0));
-                        stmt.setDouble(10, strikeData.getDouble("call_delta", 0.0));
-                        stmt.setDouble(11, strikeData.getDouble("call_gamma", 0.0));
-                        stmt.setDouble(12, strikeData.getDouble("call_theta", 0.0));
-                        stmt.setDouble(13, strikeData.getDouble("call_vega", 0.0));
-                        stmt.setDouble(14, strikeData.getDouble("call_iv", 0.0));
+                        stmt.setDouble(5, calls.getBid(j));
+                        stmt.setDouble(6, calls.getAsk(j));
+                        stmt.setDouble(7, calls.getMid(j));
+                        stmt.setInt(8, calls.getVolume(j));
+                        stmt.setInt(9, calls.getOpenInterest(j));
+                        stmt.setDouble(10, calls.getDelta(j));
+                        stmt.setDouble(11, calls.getGamma(j));
+                        stmt.setDouble(12, calls.getTheta(j));
+                        stmt.setDouble(13, calls.getVega(j));
+                        stmt.setDouble(14, calls.getIv(j));
 
                         // Set put option fields
-                        stmt.setDouble(15, strikeData.getDouble("put_bid", 0.0));
-                        stmt.setDouble(16, strikeData.getDouble("put_ask", 0.0));
-                        stmt.setDouble(17, strikeData.getDouble("put_mid", 0.0));
-                        stmt.setInt(18, strikeData.getInteger("put_volume", 0));
-                        stmt.setInt(19, strikeData.getInteger("put_oi", 0));
-                        stmt.setDouble(20, strikeData.getDouble("put_delta", 0.0));
-                        stmt.setDouble(21, strikeData.getDouble("put_gamma", 0.0));
-                        stmt.setDouble(22, strikeData.getDouble("put_theta", 0.0));
-                        stmt.setDouble(23, strikeData.getDouble("put_vega", 0.0));
-                        stmt.setDouble(24, strikeData.getDouble("put_iv", 0.0));  // Corrected index
+                        stmt.setDouble(15, puts.getBid(j));
+                        stmt.setDouble(16, puts.getAsk(j));
+                        stmt.setDouble(17, puts.getMid(j));
+                        stmt.setInt(18, puts.getVolume(j));
+                        stmt.setInt(19, puts.getOpenInterest(j));
+                        stmt.setDouble(20, puts.getDelta(j));
+                        stmt.setDouble(21, puts.getGamma(j));
+                        stmt.setDouble(22, puts.getTheta(j));
+                        stmt.setDouble(23, puts.getVega(j));
+                        stmt.setDouble(24, puts.getIv(j));
+                        stmt.setLong(25, metrics.getRowHash(j));
+                        metrics.bind(stmt, 26, j);
 
                         stmt.addBatch();
                     }
@@ -230,12 +823,41 @@ public class StoreService extends BaseService {
         }
     }
 
-    private void sendCompleteToEventBus(boolean success, String errorMessage) {
+    /**
+     * @param reanalyze false if the store neither ran preprocessing nor wrote rows, so the
+     *                  analysis results of the previous run are still current
+     */
+    private void sendCompleteToEventBus(StoreBatch batch, boolean success, String errorMessage, boolean reanalyze) {
         // Publish to fetch.complete
         JsonObject message = new JsonObject()
                 .put("service", "store")
                 .put("status", success?"success":"error")
-                .put("payload", success?"success":errorMessage);
+                .put("batch", batch.getId())
+                .put("payload", success?"success":errorMessage)
+                .put("slices", batch.getSlices())
+                .put("skippedslices", batch.getSkippedSlices())
+                .put("reanalyze", reanalyze);
+        if (batch.isPartial() || incremental) {
+            // Only these tickers changed, the analysis keeps the results of all others. Requested
+            // tickers that failed to store were cleared, so their results go as well.
+            Set<String> scope = new LinkedHashSet<>(batch.getTickers());
+            JsonArray requested = batch.getRequestedTickers();
+            if (requested != null) {
+                for (int i = 0; i < requested.size(); i++) {
+                    scope.add(requested.getString(i));
+                }
+            }
+            message.put("tickers", new JsonArray(new ArrayList<>(scope)));
+        }
+        if (incremental && upsert) {
+            message.put("rows", batch.getRows().toJson());
+        }
+        if (shards > 1) {
+            message.put("shards", batch.getShardReports());
+        }
+        if (spool != null) {
+            message.put("spool", spool.metrics());
+        }
 
         getEventBus().publish("store.complete", message);
 
@@ -248,11 +870,49 @@ public class StoreService extends BaseService {
         hostname = resourcesConfig.getString("hostname");
         port = resourcesConfig.getInteger("port");
         database = serviceConfig.getString("database");
-        jdbcUrl = "jdbc:postgresql://" + hostname + ":" + port + "/" + database;
         jdbcUser = resourcesConfig.getString("user");
         jdbcPassword = resourcesConfig.getString("password");
         backupDir = serviceConfig.getString("backupdir");
+        incremental = serviceConfig.getBoolean("incremental", false);
+        upsert = serviceConfig.getBoolean("upsert", true);
+        copyLoader = "copy".equals(serviceConfig.getString("loader", "copy"));
+        shards = serviceConfig.getInteger("shards", 1);
+        swap = serviceConfig.getBoolean("swap", false);
+        swapLogged = serviceConfig.getBoolean("swaplogged", false);
+        swapLockTimeoutMs = serviceConfig.getLong("swaplocktimeoutms", 5000L);
+        JsonObject historyConfig = serviceConfig.getJsonObject("history", new JsonObject());
+        if (historyConfig.getBoolean("enabled", false)) {
+            history = new HistoryPartitions(historyConfig);
+            historySchema = historyConfig.getString("schema", "sql/schema/optionchains/option_history.sql");
+        }
+        if (swap && incremental) {
+            getLogger().warning("Swap load mode is ignored in incremental mode, rows are updated in place.");
+        }
+        JsonObject archiveConfig = serviceConfig.getJsonObject("archive", new JsonObject());
+        if (archiveConfig.getBoolean("enabled", false)) {
+            archive = new ChainArchiveWriter(archiveConfig);
+            getLogger().info("Archiving stored chains to " + archive.getDir().toAbsolutePath());
+        }
+        JsonObject spoolConfig = serviceConfig.getJsonObject("spool", new JsonObject());
+        if (spoolConfig.getBoolean("enabled", false)) {
+            if (serviceConfig.getString("listenstream") != null) {
+                // Streamed tickers go straight to the database, a restart would lose them
+                throw new IllegalStateException("The store spool cannot be combined with listenstream, streamed tickers bypass the spool");
+            }
+            spool = new PayloadSpool(spoolConfig);
+            spool.open();
+            drainRetry = new RetryScheduler(vertx, Integer.MAX_VALUE,
+                    spoolConfig.getLong("backoffms", 1000L), spoolConfig.getLong("maxbackoffms", 60000L));
+            long reportIntervalMs = spoolConfig.getLong("reportintervalms", 0L);
+            if (reportIntervalMs > 0) {
+                vertx.setPeriodic(reportIntervalMs, id -> getLogger().info("Spool metrics: " + spool.metrics().encode()));
+            }
+        }
         startListening();
+        startStreamListening();
+        if (spool != null) {
+            drainSpool();
+        }
         getLogger().info("StoreService started");
     }
 }
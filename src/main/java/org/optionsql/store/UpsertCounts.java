@@ -0,0 +1,47 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Row counts of a change-aware upsert into optionchains: new keys, rows whose fingerprint
+ * differed and rows left untouched because their fingerprint matched.
+ */
+class UpsertCounts {
+
+    static final UpsertCounts NONE = new UpsertCounts(0, 0, 0);
+
+    private final long inserted;
+    private final long updated;
+    private final long unchanged;
+
+    UpsertCounts(long inserted, long updated, long unchanged) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.unchanged = unchanged;
+    }
+
+    UpsertCounts plus(UpsertCounts other) {
+        return new UpsertCounts(inserted + other.inserted, updated + other.updated, unchanged + other.unchanged);
+    }
+
+    long getInserted() {
+        return inserted;
+    }
+
+    long getUpdated() {
+        return updated;
+    }
+
+    long getUnchanged() {
+        return unchanged;
+    }
+
+    JsonObject toJson() {
+        return new JsonObject().put("inserted", inserted).put("updated", updated).put("unchanged", unchanged);
+    }
+
+    @Override
+    public String toString() {
+        return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged";
+    }
+}
@@ -1,17 +1,24 @@
 package org.optionsql.strategy.csp;
 
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.optionsql.base.BaseService;
+import org.optionsql.db.Database;
+import org.optionsql.db.StepStats;
+import org.optionsql.db.StepStatsTable;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SignalService extends BaseService {
 
-    private Connection optionsDbConnection;
-    private Connection strategyDbConnection;
+    private String optionsDbName;
+    private String strategyDbName;
+    private StepStatsTable statsTable;
 
     public SignalService(String serviceName) {
         super(serviceName);
@@ -22,30 +29,30 @@ public class SignalService extends BaseService {
         super.start();
 
         // Load database configurations
-        JsonObject dbConfig = getGlobalConfig().getJsonObject("resources").getJsonObject("postgres");
         JsonObject serviceConfig = getServiceConfig();
         JsonObject databases = serviceConfig.getJsonObject("databases");
 
-        // Connect to the options database
-        String optionsDbName = databases.getString("options");
-        optionsDbConnection = createDatabaseConnection(dbConfig, optionsDbName);
-        getLogger().info("Connected to Options database: " + optionsDbName);
+        // Check both databases are reachable
+        optionsDbName = databases.getString("options");
+        getDatabase(optionsDbName).query("SELECT 1")
+                .onSuccess(rows -> getLogger().info("Connected to Options database: " + optionsDbName))
+                .onFailure(err -> getLogger().severe("Options database " + optionsDbName + " not reachable: " + err.getMessage()));
 
-        // Connect to the strategy database
-        String strategyDbName = databases.getString("strategy");
-        strategyDbConnection = createDatabaseConnection(dbConfig, strategyDbName);
-        getLogger().info("Connected to Strategy database: " + strategyDbName);
+        strategyDbName = databases.getString("strategy");
+        getDatabase(strategyDbName).query("SELECT 1")
+                .onSuccess(rows -> getLogger().info("Connected to Strategy database: " + strategyDbName))
+                .onFailure(err -> getLogger().severe("Strategy database " + strategyDbName + " not reachable: " + err.getMessage()));
 
-        // Start listening for events
-        //      startListening();
-        generateSignals();
-    }
+        // Filter timings go to the options database, next to the analysis steps
+        if (serviceConfig.getJsonObject("stats") != null) {
+            statsTable = new StepStatsTable(vertx, getDatabase(optionsDbName), getServiceName(), serviceConfig.getJsonObject("stats"));
+        }
 
-    private Connection createDatabaseConnection(JsonObject dbConfig, String dbName) throws SQLException {
-        String jdbcUrl = "jdbc:postgresql://" + dbConfig.getString("hostname") + ":" + dbConfig.getInteger("port") + "/" + dbName;
-        String user = dbConfig.getString("user");
-        String password = dbConfig.getString("password");
-        return DriverManager.getConnection(jdbcUrl, user, password);
+        // Start listening for events, so every scheduled cycle ends with fresh signals
+        if (serviceConfig.getString("listen") != null) {
+            startListening();
+        }
+        generateSignals();
     }
 
     private void startListening() {
@@ -78,9 +85,10 @@ public class SignalService extends BaseService {
                 String path = paths.getString(i);
                 String query = loadQuery(path); // Reuse loadQuery
 
-                // Add both the filename and query content
+                // Add the filename, the step name for the stats and the query content
                 JsonObject queryObject = new JsonObject()
                         .put("filename", path)
+                        .put("step", category + "/" + stepName(path))
                         .put("query", query);
                 queries.add(queryObject);
 
@@ -94,146 +102,180 @@ public class SignalService extends BaseService {
         return filterQueries;
     }
 
-    private void generateSignals() {
-        try {
-            JsonObject sqlConfig = getServiceConfig().getJsonObject("sql");
-            String findTickerQuery = loadQuery(sqlConfig.getJsonObject("find").getString("ticker"));
-            String findExpirationQuery = loadQuery(sqlConfig.getJsonObject("find").getString("expiration"));
-            String findStrikesQuery = loadQuery(sqlConfig.getJsonObject("find").getString("strikes"));
-            JsonObject filterQueries = loadFilterQueries();
-
-            JsonArray signals = new JsonArray();
-
-            ResultSet tickerResultSet = optionsDbConnection.createStatement().executeQuery(findTickerQuery);
-            while (tickerResultSet.next()) {
-                String ticker = tickerResultSet.getString("ticker_symbol");
-                getLogger().info("Processing Ticker: " + ticker);
-
-                String logPrefix = ticker;
-                // Apply ticker-level filters
-                if (!applyFilters(logPrefix, filterQueries.getJsonArray("ticker"), ticker)) {
-                    continue;
-                }
-
-                // Execute expiration query
-                PreparedStatement expirationStmt = optionsDbConnection.prepareStatement(findExpirationQuery);
-                expirationStmt.setString(1, ticker);
-                ResultSet expirationResultSet = expirationStmt.executeQuery();
-                if (!expirationResultSet.next()) {
-                    getLogger().info("No valid expiration found for ticker: " + ticker);
-                    continue;
-                }
-                String expirationDate = expirationResultSet.getString("expiration_date");
-                expirationStmt.close();
-                expirationResultSet.close();
+    private static String stepName(String path) {
+        String name = Paths.get(path).getFileName().toString();
+        return name.endsWith(".sql") ? name.substring(0, name.length() - 4) : name;
+    }
 
-                logPrefix = ticker + " | " + expirationDate;
-                // Apply expiration-level filters
-                if (!applyFilters(logPrefix, filterQueries.getJsonArray("expiration"), ticker, expirationDate)) {
-                    continue;
-                }
+    /**
+     * Run a query and record its time and rows in the stats of the run. Queries of one run
+     * overlap, so the time only counts from the moment the query has a connection.
+     */
+    private Future<List<JsonObject>> timedQuery(Database db, SignalQueries queries, String step, String sql, Object... params) {
+        return db.timedQuery(sql, params).map(result -> {
+            queries.stats.record(step, result.getMs(), result.getRows().size());
+            return result.getRows();
+        });
+    }
 
-                // Execute strikes query
-                PreparedStatement strikesStmt = optionsDbConnection.prepareStatement(findStrikesQuery);
-                strikesStmt.setString(1, ticker);
-                strikesStmt.setString(2, expirationDate);
-                ResultSet strikesResultSet = strikesStmt.executeQuery();
+    /**
+     * Run the find queries and filters for every ticker. Tickers and their candidate strikes are
+     * evaluated concurrently; the filters of one candidate run in order and stop at the first
+     * one that fails. The time spent in every find query and filter is logged and stored, see
+     * {@link StepStatsTable}.
+     */
+    private Future<JsonArray> generateSignals() {
+        JsonObject sqlConfig = getServiceConfig().getJsonObject("sql");
+        SignalQueries queries = new SignalQueries();
+        try {
+            queries.findTicker = loadQuery(sqlConfig.getJsonObject("find").getString("ticker"));
+            queries.findExpiration = loadQuery(sqlConfig.getJsonObject("find").getString("expiration"));
+            queries.findStrikes = loadQuery(sqlConfig.getJsonObject("find").getString("strikes"));
+            queries.filters = loadFilterQueries();
+        } catch (Exception e) {
+            getLogger().severe("Error during signal generation: " + e.getMessage());
+            return Future.failedFuture(e);
+        }
 
-                // Process each strike
-                while (strikesResultSet.next()) {
-                    double strikePrice = strikesResultSet.getDouble("strike_price");
+        Database db = getDatabase(optionsDbName);
+        JsonArray signals = new JsonArray();
 
-                    logPrefix = ticker + " | " + expirationDate + " | " + strikePrice;
-                    // Apply strike-level filters
-                    if (!applyFilters(logPrefix, filterQueries.getJsonArray("strike"), ticker, expirationDate, strikePrice)) {
-                        continue;
+        return timedQuery(db, queries, "find/ticker", queries.findTicker)
+                .compose(tickers -> {
+                    List<Future<Void>> tickerFutures = new ArrayList<>();
+                    for (JsonObject row : tickers) {
+                        tickerFutures.add(processTicker(db, queries, row.getString("ticker_symbol"), signals));
                     }
-                    signals.add(new JsonObject()
-                            .put("strategy", "put")
-                            .put("direction", "short")
-                            .put("ticker_symbol", ticker)
-                            .put("expiration_date", expirationDate)
-                            .put("strike_price", strikePrice));
-                }
-                strikesStmt.close();
-                strikesResultSet.close();
-            }
-            if (signals.isEmpty())
-                getLogger().info("No valid signals found");
-            else
-                getLogger().info("Signals found: " + signals.encodePrettily());
+                    return Future.join(tickerFutures);
+                })
+                .compose(v -> saveStats(queries.stats))
+                .map(v -> {
+                    if (signals.isEmpty())
+                        getLogger().info("No valid signals found");
+                    else
+                        getLogger().info("Signals found: " + signals.encodePrettily());
+                    return signals;
+                })
+                .onFailure(err -> getLogger().severe("Error during signal generation: " + err.getMessage()));
+    }
 
-            tickerResultSet.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            getLogger().severe("Error during signal generation: " + e.getMessage());
+    /**
+     * Log the slowest queries of the run and store the stats. A failure to store them does not
+     * fail the run.
+     */
+    private Future<Void> saveStats(StepStats stats) {
+        getLogger().info("Slowest signal queries: " + stats.getSlowest(5));
+        if (statsTable == null) {
+            return Future.succeededFuture();
         }
+        return statsTable.save(stats)
+                .onSuccess(v -> {
+                    for (StepStats.Step step : stats.getSlower()) {
+                        getLogger().warning("Signal query got slower: " + step);
+                    }
+                })
+                .recover(err -> {
+                    getLogger().warning(err.getMessage());
+                    return Future.succeededFuture();
+                });
     }
 
-    private boolean applyFilters(String logPrefix, JsonArray filters, Object... params) {
-        for (int i = 0; i < filters.size(); i++) {
-            JsonObject filter = filters.getJsonObject(i);
-            String filename = filter.getString("filename");
-            String query = filter.getString("query");
-            String ticker = params[0].toString();
+    private Future<Void> processTicker(Database db, SignalQueries queries, String ticker, JsonArray signals) {
+        getLogger().info("Processing Ticker: " + ticker);
 
-            try {
-                PreparedStatement stmt = optionsDbConnection.prepareStatement(query);
+        // Apply ticker-level filters
+        return applyFilters(db, queries, ticker, queries.filters.getJsonArray("ticker"), ticker).compose(tickerPassed -> {
+            if (!tickerPassed) {
+                return Future.succeededFuture();
+            }
 
-                // Set parameters dynamically
-                for (int j = 0; j < params.length; j++) {
-                    stmt.setObject(j + 1, params[j]);
+            // Execute expiration query
+            return timedQuery(db, queries, "find/expiration", queries.findExpiration, ticker).compose(expirations -> {
+                if (expirations.isEmpty()) {
+                    getLogger().info("No valid expiration found for ticker: " + ticker);
+                    return Future.succeededFuture();
                 }
+                String expirationDate = expirations.get(0).getValue("expiration_date").toString();
+                // Bound as a DATE, the column type of expiration_date
+                LocalDate expiration = LocalDate.parse(expirationDate);
 
-                ResultSet resultSet = stmt.executeQuery();
-                boolean passed = resultSet.next() && resultSet.getBoolean(1);
-                String valueLine = "";
-                if (hasColumn(resultSet, "option")) {
-                    valueLine = ", option: " + resultSet.getString(2);
-                    valueLine += " threshold: " + resultSet.getString(3);
-                }
-                if (passed) {
-                    getLogger().info(logPrefix + ": ✅ Filter passed" + valueLine + ", file: " + filename);
-                } else {
-                    getLogger().warning(logPrefix + ": ❌ Filter failed" + valueLine + ", file: " + filename);
-                    return false; // Stop processing on first failed filter
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                getLogger().severe(logPrefix + ": ❌ Error applying filter: " + filename + " | Error: " + e.getMessage());
-                return false; // Treat any exception as a failed filter
-            }
-        }
-        return true; // All filters passed
+                // Apply expiration-level filters
+                String expirationPrefix = ticker + " | " + expirationDate;
+                return applyFilters(db, queries, expirationPrefix, queries.filters.getJsonArray("expiration"), ticker, expiration).compose(expirationPassed -> {
+                    if (!expirationPassed) {
+                        return Future.succeededFuture();
+                    }
+
+                    // Execute strikes query and apply strike-level filters to each strike
+                    return timedQuery(db, queries, "find/strikes", queries.findStrikes, ticker, expiration).compose(strikes -> {
+                        List<Future<Void>> strikeFutures = new ArrayList<>();
+                        for (JsonObject strike : strikes) {
+                            double strikePrice = strike.getDouble("strike_price");
+                            String strikePrefix = ticker + " | " + expirationDate + " | " + strikePrice;
+                            strikeFutures.add(applyFilters(db, queries, strikePrefix, queries.filters.getJsonArray("strike"), ticker, expiration, strikePrice)
+                                    .map(strikePassed -> {
+                                        if (strikePassed) {
+                                            signals.add(new JsonObject()
+                                                    .put("strategy", "put")
+                                                    .put("direction", "short")
+                                                    .put("ticker_symbol", ticker)
+                                                    .put("expiration_date", expirationDate)
+                                                    .put("strike_price", strikePrice));
+                                        }
+                                        return null;
+                                    }));
+                        }
+                        return Future.join(strikeFutures).mapEmpty();
+                    });
+                });
+            });
+        });
     }
 
-    public boolean hasColumn(ResultSet resultSet, String columnName) {
-        try {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
+    private Future<Boolean> applyFilters(Database db, SignalQueries queries, String logPrefix, JsonArray filters, Object... params) {
+        return applyFilter(db, queries, logPrefix, filters, 0, params);
+    }
 
-            for (int i = 1; i <= columnCount; i++) {
-                if (metaData.getColumnName(i).equalsIgnoreCase(columnName)) {
-                    return true; // Column found
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private Future<Boolean> applyFilter(Database db, SignalQueries queries, String logPrefix, JsonArray filters, int index, Object... params) {
+        if (index >= filters.size()) {
+            return Future.succeededFuture(true); // All filters passed
         }
-
-        return false; // Column not found
+        JsonObject filter = filters.getJsonObject(index);
+        String filename = filter.getString("filename");
+        String query = filter.getString("query");
+
+        return timedQuery(db, queries, filter.getString("step"), query, params)
+                .map(rows -> {
+                    List<Object> values = rows.isEmpty() ? List.of() : new ArrayList<>(rows.get(0).getMap().values());
+                    boolean passed = !values.isEmpty() && Boolean.TRUE.equals(values.get(0));
+                    String valueLine = "";
+                    if (!rows.isEmpty() && rows.get(0).containsKey("option") && values.size() >= 3) {
+                        valueLine = ", option: " + values.get(1);
+                        valueLine += " threshold: " + values.get(2);
+                    }
+                    if (passed) {
+                        getLogger().info(logPrefix + ": ✅ Filter passed" + valueLine + ", file: " + filename);
+                    } else {
+                        getLogger().warning(logPrefix + ": ❌ Filter failed" + valueLine + ", file: " + filename);
+                    }
+                    return passed;
+                })
+                .recover(err -> {
+                    getLogger().severe(logPrefix + ": ❌ Error applying filter: " + filename + " | Error: " + err.getMessage());
+                    return Future.succeededFuture(false); // Treat any exception as a failed filter
+                })
+                // Stop processing on first failed filter
+                .compose(passed -> passed ? applyFilter(db, queries, logPrefix, filters, index + 1, params) : Future.succeededFuture(false));
     }
 
-    @Override
-    public void stop() throws Exception {
-        super.stop();
-        if (optionsDbConnection != null && !optionsDbConnection.isClosed()) {
-            optionsDbConnection.close();
-            getLogger().info("Options database connection closed.");
-        }
-        if (strategyDbConnection != null && !strategyDbConnection.isClosed()) {
-            strategyDbConnection.close();
-            getLogger().info("Strategy database connection closed.");
-        }
+    /**
+     * Query texts and query stats of one signal run.
+     */
+    private static class SignalQueries {
+        private String findTicker;
+        private String findExpiration;
+        private String findStrikes;
+        private JsonObject filters;
+        private final StepStats stats = new StepStats();
     }
 }
@@ -0,0 +1,108 @@
+package org.optionsql.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Times the analysis scripts against the snapshot currently stored in the options database, for
+ * before/after comparisons of schema changes such as {@link MigrateSchemaV2}.
+ * <p>
+ * Each iteration runs all scripts of the analyze service in file order inside one transaction
+ * and rolls it back, so every iteration starts from the same snapshot. The analysis scope is
+ * every ticker, as in a full run. Reports the median time per script, the median total and the
+ * size of the main tables.
+ * <p>
+ * Usage: {@code AnalyzeBenchmark [config file] [iterations]}
+ */
+public class AnalyzeBenchmark {
+
+    private static final String[] TABLES = {"optionchains", "ticker_expirations", "top_strikes_ticker_expiration"};
+
+    public static void main(String[] args) throws Exception {
+        String configFile = args.length > 0 ? args[0] : "config/optionsql.json";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        JsonObject config = new JsonObject(Files.readString(Paths.get(configFile)));
+        JsonObject postgres = config.getJsonObject("resources").getJsonObject("postgres");
+        JsonObject analyzeConfig = config.getJsonObject("services").getJsonObject("analyze");
+        String database = analyzeConfig.getString("database");
+        String url = "jdbc:postgresql://" + postgres.getString("hostname") + ":" + postgres.getInteger("port") + "/" + database;
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(Paths.get(analyzeConfig.getString("sqldir")))) {
+            scripts = files.filter(file -> file.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+
+        long[][] timings = new long[scripts.size()][iterations];
+        long[] totals = new long[iterations];
+        try (Connection connection = DriverManager.getConnection(url, postgres.getString("user"), postgres.getString("password"))) {
+            printSizes(connection);
+            connection.setAutoCommit(false);
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                try {
+                    runScript(connection, Paths.get(analyzeConfig.getString("scopeschema", "sql/schema/optionchains/analyze_scope.sql")));
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("TRUNCATE analyze_scope");
+                        stmt.execute("INSERT INTO analyze_scope (ticker_symbol) SELECT ticker_symbol FROM ticker");
+                        stmt.execute("ANALYZE analyze_scope");
+                    }
+                    for (int i = 0; i < scripts.size(); i++) {
+                        long start = System.nanoTime();
+                        runScript(connection, scripts.get(i));
+                        timings[i][iteration] = System.nanoTime() - start;
+                        totals[iteration] += timings[i][iteration];
+                    }
+                } finally {
+                    connection.rollback();
+                }
+            }
+        }
+
+        System.out.printf("%-50s %12s%n", "script", "median ms");
+        for (int i = 0; i < scripts.size(); i++) {
+            System.out.printf("%-50s %12.1f%n", scripts.get(i).getFileName(), median(timings[i]) / 1e6);
+        }
+        System.out.printf("%-50s %12.1f%n", "total", median(totals) / 1e6);
+    }
+
+    private static void printSizes(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String table : TABLES) {
+                try (ResultSet rs = stmt.executeQuery("SELECT count(*), pg_size_pretty(pg_total_relation_size('" + table + "')) FROM " + table)) {
+                    if (rs.next()) {
+                        System.out.println(table + ": " + rs.getLong(1) + " rows, " + rs.getString(2));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void runScript(Connection connection, Path file) throws Exception {
+        String sqlContent = Files.readString(file);
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : sqlContent.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    stmt.execute(sql.trim());
+                }
+            }
+        }
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+}
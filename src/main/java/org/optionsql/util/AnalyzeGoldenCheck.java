@@ -0,0 +1,370 @@
+package org.optionsql.util;
+
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.optionsql.analyze.AnalyticsEngine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the results of the Java analytics engine against the analysis scripts on the snapshot
+ * currently stored in the options database.
+ * <p>
+ * Runs all scripts of the analyze service in file order, keeps the rows of the engine tables as
+ * the golden output, lets the engine recompute them and compares both row by row. Doubles match
+ * within a relative tolerance, since Postgres and the engine may sum in a different order. All of
+ * it runs in one transaction that is rolled back. Exits with status 1 on any difference.
+ * <p>
+ * Usage: {@code AnalyzeGoldenCheck [config file] [ticker ...]}, all tickers by default.
+ * <p>
+ * With {@code --regenerate <dir> [config file]} it instead rewrites {@code expected.json} of the
+ * engine golden test from {@code fixture.json} in the same directory, normally
+ * {@code src/test/resources/org/optionsql/analyze/golden}: the fixture chains are loaded into a
+ * scratch schema of the options database, the store schema and all analysis scripts run on them
+ * and the rows of the engine tables are written out. The scripts compare expirations with the
+ * date of the server, so the expirations are shifted by the days between the fixture date and
+ * the server date on the way in and back on the way out. The schema lives in a transaction that
+ * is rolled back, the live tables are not touched. Run it from the project root after changing
+ * an analysis script, and review the diff of {@code expected.json} before committing it.
+ */
+public class AnalyzeGoldenCheck {
+
+    private static final double TOLERANCE = 1e-9;
+    private static final int MAX_REPORTED = 20;
+
+    /**
+     * Number of leading primary key columns of each table in {@code SELECT *} order.
+     */
+    private static final Map<String, Integer> KEYS = Map.of(
+            "ticker_expirations", 2,
+            "zero_gamma_ticker_expiration", 3,
+            "top_strikes_ticker_expiration", 3,
+            "key_levels", 2,
+            "sentiment_ticker_expiration", 2);
+
+    /**
+     * Columns of the engine tables in the order the golden test reads them, the order the
+     * engine writes them, and the leading primary key columns to sort by.
+     */
+    private static final Map<String, String[]> GOLDEN_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        GOLDEN_COLUMNS.put("ticker_expirations", new String[]{
+                "ticker_symbol, expiration_date, avg_call_delta, avg_call_volume, avg_call_oi, avg_call_bid, avg_call_ask, " +
+                "avg_call_mid, avg_call_iv, avg_call_gex, avg_call_dex, avg_put_delta, avg_put_volume, avg_put_oi, avg_put_bid, " +
+                "avg_put_ask, avg_put_mid, avg_put_iv, avg_put_gex, avg_put_dex, avg_key_level_distance, expected_move_dollars, " +
+                "expected_move_percent, implied_volatility, days_to_expiration",
+                "ticker_symbol, expiration_date"});
+        GOLDEN_COLUMNS.put("zero_gamma_ticker_expiration", new String[]{
+                "ticker_symbol, expiration_date, zero_gamma_level, flip_gamma",
+                "ticker_symbol, expiration_date, zero_gamma_level"});
+        GOLDEN_COLUMNS.put("top_strikes_ticker_expiration", new String[]{
+                "ticker_symbol, expiration_date, strike_price, net_gex, net_dex, open_interest, volume, zgs_count, top_count, " +
+                "mm_hedge_behaviour",
+                "ticker_symbol, expiration_date, strike_price"});
+        GOLDEN_COLUMNS.put("key_levels", new String[]{
+                "ticker_symbol, strike_price, max_zgs_count, max_top_count, net_gex, net_dex, mm_hedge_behaviour, open_interest, volume",
+                "ticker_symbol, strike_price"});
+        GOLDEN_COLUMNS.put("sentiment_ticker_expiration", new String[]{
+                "ticker_symbol, expiration_date, sentiment, call_gex_total, put_gex_total, difference_percentage, put_call_ratio",
+                "ticker_symbol, expiration_date"});
+    }
+
+    private static final String GOLDEN_SCHEMA = "golden_fixture";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && "--regenerate".equals(args[0])) {
+            regenerate(Paths.get(args[1]), args.length > 2 ? args[2] : "config/optionsql.json");
+            return;
+        }
+        String configFile = args.length > 0 ? args[0] : "config/optionsql.json";
+        JsonObject config = new JsonObject(Files.readString(Paths.get(configFile)));
+        JsonObject postgres = config.getJsonObject("resources").getJsonObject("postgres");
+        JsonObject analyzeConfig = config.getJsonObject("services").getJsonObject("analyze");
+        String database = analyzeConfig.getString("database");
+        String url = "jdbc:postgresql://" + postgres.getString("hostname") + ":" + postgres.getInteger("port") + "/" + database;
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(Paths.get(analyzeConfig.getString("sqldir")))) {
+            scripts = files.filter(file -> file.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+
+        int differences = 0;
+        try (Connection connection = DriverManager.getConnection(url, postgres.getString("user"), postgres.getString("password"))) {
+            connection.setAutoCommit(false);
+            try {
+                runScript(connection, Paths.get(analyzeConfig.getString("scopeschema", "sql/schema/optionchains/analyze_scope.sql")));
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("TRUNCATE analyze_scope");
+                    if (args.length > 1) {
+                        for (int i = 1; i < args.length; i++) {
+                            stmt.execute("INSERT INTO analyze_scope (ticker_symbol) VALUES ('" + args[i].replace("'", "''") + "')");
+                        }
+                    } else {
+                        stmt.execute("INSERT INTO analyze_scope (ticker_symbol) SELECT ticker_symbol FROM ticker");
+                    }
+                }
+                for (Path script : scripts) {
+                    runScript(connection, script);
+                }
+                Map<String, Map<String, Object[]>> golden = snapshot(connection);
+
+                try (AnalyticsEngine engine = new AnalyticsEngine(500, Runtime.getRuntime().availableProcessors())) {
+                    engine.run(connection);
+                }
+                Map<String, Map<String, Object[]>> computed = snapshot(connection);
+
+                for (String table : KEYS.keySet()) {
+                    differences += compare(table, golden.get(table), computed.get(table));
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+        System.out.println(differences == 0 ? "Engine output matches the scripts" : differences + " differences");
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    /**
+     * Run the analysis scripts on the chains of {@code fixture.json} and write the rows of the
+     * engine tables to {@code expected.json}.
+     */
+    private static void regenerate(Path dir, String configFile) throws Exception {
+        JsonObject config = new JsonObject(Files.readString(Paths.get(configFile)));
+        JsonObject postgres = config.getJsonObject("resources").getJsonObject("postgres");
+        JsonObject storeConfig = config.getJsonObject("services").getJsonObject("store");
+        JsonObject analyzeConfig = config.getJsonObject("services").getJsonObject("analyze");
+        String url = "jdbc:postgresql://" + postgres.getString("hostname") + ":" + postgres.getInteger("port") + "/" +
+                     analyzeConfig.getString("database");
+        JsonObject fixture = new JsonObject(Files.readString(dir.resolve("fixture.json")));
+        LocalDate fixtureDate = LocalDate.parse(fixture.getString("today"));
+
+        // The tables as the store creates them
+        List<Path> schema = new ArrayList<>();
+        for (Object file : storeConfig.getJsonArray("preprocess")) {
+            schema.add(Paths.get(file.toString()));
+        }
+        schema.add(Paths.get(analyzeConfig.getString("scopeschema", "sql/schema/optionchains/analyze_scope.sql")));
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(Paths.get(analyzeConfig.getString("sqldir")))) {
+            scripts = files.filter(file -> file.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+
+        JsonObject expected = new JsonObject();
+        try (Connection connection = DriverManager.getConnection(url, postgres.getString("user"), postgres.getString("password"))) {
+            connection.setAutoCommit(false);
+            try {
+                long shift;
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("CREATE SCHEMA " + GOLDEN_SCHEMA);
+                    stmt.execute("SET LOCAL search_path TO " + GOLDEN_SCHEMA);
+                    try (ResultSet rs = stmt.executeQuery("SELECT CURRENT_DATE")) {
+                        rs.next();
+                        shift = ChronoUnit.DAYS.between(fixtureDate, rs.getDate(1).toLocalDate());
+                    }
+                }
+                for (Path script : schema) {
+                    runScript(connection, script);
+                }
+                loadFixture(connection, fixture, shift);
+                for (Path script : scripts) {
+                    runScript(connection, script);
+                }
+                for (Map.Entry<String, String[]> table : GOLDEN_COLUMNS.entrySet()) {
+                    expected.put(table.getKey(), dumpTable(connection, table.getKey(), table.getValue()[0], table.getValue()[1], shift));
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+        Files.writeString(dir.resolve("expected.json"), goldenJson(expected));
+        for (String table : expected.fieldNames()) {
+            System.out.println(table + ": " + expected.getJsonObject(table).getJsonArray("rows").size() + " rows");
+        }
+    }
+
+    private static void loadFixture(Connection connection, JsonObject fixture, long shift) throws Exception {
+        JsonObject prices = fixture.getJsonObject("prices");
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO ticker (ticker_symbol, current_price) VALUES (?, ?)")) {
+            for (String ticker : prices.fieldNames()) {
+                stmt.setString(1, ticker);
+                stmt.setObject(2, prices.getDouble(ticker), Types.DOUBLE);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        JsonArray columns = fixture.getJsonArray("columns");
+        StringBuilder names = new StringBuilder("ticker_symbol, expiration_date");
+        for (int i = 0; i < columns.size(); i++) {
+            names.append(", ").append(columns.getString(i));
+        }
+        String insert = "INSERT INTO optionchains (" + names + ") VALUES (?, ?" + ", ?".repeat(columns.size()) + ")";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            for (Object item : fixture.getJsonArray("chains")) {
+                JsonArray row = (JsonArray) item;
+                stmt.setString(1, row.getString(0));
+                stmt.setDate(2, Date.valueOf(LocalDate.parse(row.getString(1)).plusDays(shift)));
+                for (int i = 0; i < columns.size(); i++) {
+                    // Open interest and volume are integer columns, the engine reads all as doubles
+                    stmt.setObject(i + 3, row.getValue(i + 2) == null ? null : row.getDouble(i + 2), Types.DOUBLE);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO analyze_scope (ticker_symbol) VALUES (?)")) {
+            for (Object ticker : fixture.getJsonArray("tickers")) {
+                stmt.setString(1, ticker.toString());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static JsonObject dumpTable(Connection connection, String table, String columns, String orderBy, long shift) throws Exception {
+        JsonArray rows = new JsonArray();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " ORDER BY " + orderBy)) {
+            int count = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                JsonArray row = new JsonArray();
+                for (int i = 1; i <= count; i++) {
+                    Object value = rs.getObject(i);
+                    if (value instanceof Date) {
+                        value = ((Date) value).toLocalDate().minusDays(shift).toString();
+                    } else if (value instanceof Short) {
+                        value = ((Short) value).intValue();
+                    } else if (value instanceof Float) {
+                        value = ((Float) value).doubleValue();
+                    }
+                    row.add(value);
+                }
+                rows.add(row);
+            }
+        }
+        return new JsonObject().put("columns", new JsonArray(List.of(columns.split(", ")))).put("rows", rows);
+    }
+
+    /**
+     * One table row per line, so diffs of the golden file stay readable.
+     */
+    private static String goldenJson(JsonObject expected) {
+        StringBuilder out = new StringBuilder("{\n");
+        int table = 0;
+        for (String name : expected.fieldNames()) {
+            JsonObject content = expected.getJsonObject(name);
+            out.append("  ").append(Json.encode(name)).append(": {\n")
+               .append("    \"columns\": ").append(content.getJsonArray("columns").encode()).append(",\n")
+               .append("    \"rows\": [\n");
+            JsonArray rows = content.getJsonArray("rows");
+            for (int i = 0; i < rows.size(); i++) {
+                out.append("      ").append(rows.getJsonArray(i).encode()).append(i + 1 < rows.size() ? ",\n" : "\n");
+            }
+            out.append("    ]\n  }").append(++table < expected.size() ? ",\n" : "\n");
+        }
+        return out.append("}\n").toString();
+    }
+
+    private static Map<String, Map<String, Object[]>> snapshot(Connection connection) throws Exception {
+        Map<String, Map<String, Object[]>> tables = new TreeMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            for (Map.Entry<String, Integer> table : KEYS.entrySet()) {
+                Map<String, Object[]> rows = new TreeMap<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table.getKey() +
+                                                      " WHERE ticker_symbol IN (SELECT ticker_symbol FROM analyze_scope)")) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    while (rs.next()) {
+                        StringBuilder key = new StringBuilder();
+                        for (int i = 1; i <= table.getValue(); i++) {
+                            key.append(i > 1 ? "/" : "").append(rs.getObject(i));
+                        }
+                        Object[] values = new Object[meta.getColumnCount()];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = rs.getObject(i + 1);
+                        }
+                        rows.put(key.toString(), values);
+                    }
+                    // Column names travel with the rows for the report
+                    Object[] names = new Object[meta.getColumnCount()];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = meta.getColumnName(i + 1);
+                    }
+                    rows.put("", names);
+                }
+                tables.put(table.getKey(), rows);
+            }
+        }
+        return tables;
+    }
+
+    private static int compare(String table, Map<String, Object[]> golden, Map<String, Object[]> computed) {
+        Object[] names = golden.get("");
+        List<String> report = new ArrayList<>();
+        for (Map.Entry<String, Object[]> row : golden.entrySet()) {
+            if (row.getKey().isEmpty()) {
+                continue;
+            }
+            Object[] other = computed.get(row.getKey());
+            if (other == null) {
+                report.add("missing " + row.getKey());
+                continue;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!matches(row.getValue()[i], other[i])) {
+                    report.add(row.getKey() + " " + names[i] + ": expected " + row.getValue()[i] + ", got " + other[i]);
+                }
+            }
+        }
+        for (String key : computed.keySet()) {
+            if (!key.isEmpty() && !golden.containsKey(key)) {
+                report.add("unexpected " + key);
+            }
+        }
+        System.out.println(table + ": " + (golden.size() - 1) + " rows, " + report.size() + " differences");
+        for (int i = 0; i < Math.min(MAX_REPORTED, report.size()); i++) {
+            System.out.println("  " + report.get(i));
+        }
+        return report.size();
+    }
+
+    private static boolean matches(Object expected, Object actual) {
+        if (expected instanceof Double && actual instanceof Double) {
+            double a = (Double) expected;
+            double b = (Double) actual;
+            return Math.abs(a - b) <= TOLERANCE * Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+        }
+        return Objects.equals(expected, actual);
+    }
+
+    private static void runScript(Connection connection, Path file) throws Exception {
+        String sqlContent = Files.readString(file);
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : sqlContent.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    stmt.execute(sql.trim());
+                }
+            }
+        }
+    }
+}
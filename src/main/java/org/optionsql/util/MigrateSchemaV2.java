@@ -0,0 +1,237 @@
+package org.optionsql.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migrates an options database from the v1 schema (VARCHAR expirations, NUMERIC prices and
+ * greeks) to the typed v2 schema in {@code sql/schema/optionchains}.
+ * <p>
+ * Generated columns prevent an in-place type change of optionchains, so the snapshot tables are
+ * renamed to {@code <table>_v1}, recreated from the v2 schema scripts and refilled with casted
+ * rows. The partitioned history has no generated columns and is altered in place. Everything
+ * runs in one transaction; readers keep the v1 tables until it commits.
+ * <p>
+ * The ticker_symbol keys compare bytewise in v2. A database that already has the v2 types but
+ * keys in the locale collation only gets those columns altered, which rebuilds their indexes.
+ * <p>
+ * Usage: {@code MigrateSchemaV2 [config file]}, the database is the one of the store service.
+ */
+public class MigrateSchemaV2 {
+
+    private static final String SCHEMA_DIR = "sql/schema/optionchains/";
+
+    /**
+     * Snapshot tables per schema script, recreated and refilled.
+     */
+    private static final Map<String, List<String>> REBUILD = new LinkedHashMap<>();
+
+    static {
+        REBUILD.put(SCHEMA_DIR + "option_chains.sql", List.of("ticker", "optionchains"));
+        REBUILD.put(SCHEMA_DIR + "option_analytics.sql", List.of("zero_gamma_ticker_expiration",
+                "top_strikes_ticker_expiration", "sentiment_ticker_expiration", "ticker_expirations", "key_levels"));
+    }
+
+    /**
+     * Tables keyed by ticker_symbol, in the order their keys are converted.
+     */
+    private static final List<String> KEY_TABLES = List.of("ticker", "optionchains", "zero_gamma_ticker_expiration",
+            "top_strikes_ticker_expiration", "sentiment_ticker_expiration", "ticker_expirations", "key_levels",
+            "optionchains_history", "analyze_scope");
+
+    public static void main(String[] args) throws Exception {
+        String configFile = args.length > 0 ? args[0] : "config/optionsql.json";
+        JsonObject config = new JsonObject(Files.readString(Paths.get(configFile)));
+        JsonObject postgres = config.getJsonObject("resources").getJsonObject("postgres");
+        String database = config.getJsonObject("services").getJsonObject("store").getString("database");
+        String url = "jdbc:postgresql://" + postgres.getString("hostname") + ":" + postgres.getInteger("port") + "/" + database;
+
+        try (Connection connection = DriverManager.getConnection(url, postgres.getString("user"), postgres.getString("password"))) {
+            boolean typed = "date".equals(columnType(connection, "optionchains", "expiration_date"));
+            if (typed && localeKeys(connection).isEmpty()) {
+                System.out.println("Database " + database + " is already on schema v2.");
+                return;
+            }
+            connection.setAutoCommit(false);
+            try {
+                migrate(connection, typed);
+                connection.commit();
+                System.out.println("Database " + database + " migrated to schema v2.");
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param typed the columns already have their v2 types, only the keys are left
+     */
+    private static void migrate(Connection connection, boolean typed) throws Exception {
+        // Views pin the types and collations of the columns they select
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP VIEW IF EXISTS adaptive_thresholds");
+            stmt.execute("DROP VIEW IF EXISTS optionchains_history_latest");
+        }
+        if (!typed) {
+            migrateTypes(connection);
+        }
+        for (String table : localeKeys(connection)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " ALTER COLUMN ticker_symbol TYPE VARCHAR(10) COLLATE \"C\"");
+                // The rewrite drops the column statistics
+                stmt.execute("ANALYZE " + table);
+            }
+            System.out.println("Changed the ticker key of " + table + " to compare bytewise");
+        }
+        runScript(connection, SCHEMA_DIR + "adaptive_thresholds.sql");
+        if (columnType(connection, "optionchains_history", "ticker_symbol") != null) {
+            runScript(connection, SCHEMA_DIR + "option_history.sql");
+        }
+    }
+
+    private static void migrateTypes(Connection connection) throws Exception {
+        for (Map.Entry<String, List<String>> entry : REBUILD.entrySet()) {
+            List<String> moved = new ArrayList<>();
+            try (Statement stmt = connection.createStatement()) {
+                for (String table : entry.getValue()) {
+                    if (columnType(connection, table, "ticker_symbol") == null) {
+                        continue;
+                    }
+                    // Index names are unique per schema, the v2 tables need the primary key names back
+                    stmt.execute("ALTER TABLE " + table + " RENAME TO " + table + "_v1");
+                    stmt.execute("ALTER INDEX IF EXISTS " + table + "_pkey RENAME TO " + table + "_v1_pkey");
+                    moved.add(table);
+                }
+            }
+            runScript(connection, entry.getKey());
+            for (String table : moved) {
+                long rows = copyRows(connection, table + "_v1", table);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("DROP TABLE " + table + "_v1");
+                }
+                System.out.println("Rebuilt " + table + ": " + rows + " rows");
+            }
+        }
+
+        if (columnType(connection, "optionchains_history", "expiration_date") != null) {
+            alterInPlace(connection, "optionchains_history", "optionchains");
+            System.out.println("Altered optionchains_history in place");
+        }
+    }
+
+    /**
+     * @return the existing {@link #KEY_TABLES} whose ticker_symbol is not in the C collation
+     */
+    private static List<String> localeKeys(Connection connection) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT c.collname FROM pg_attribute a JOIN pg_collation c ON c.oid = a.attcollation " +
+                "WHERE a.attrelid = to_regclass(?) AND a.attname = 'ticker_symbol' AND NOT a.attisdropped")) {
+            for (String table : KEY_TABLES) {
+                stmt.setString(1, table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next() && !"C".equals(rs.getString(1))) {
+                        tables.add(table);
+                    }
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Copy all non-generated columns, casting through their text form, which also turns the
+     * v1 "N/A" placeholder of missing dates into NULL.
+     */
+    private static long copyRows(Connection connection, String source, String target) throws SQLException {
+        Map<String, String> columns = columnTypes(connection, target);
+        StringBuilder names = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            if (columnType(connection, source, column.getKey()) == null) {
+                continue;
+            }
+            if (names.length() > 0) {
+                names.append(", ");
+                values.append(", ");
+            }
+            names.append(column.getKey());
+            values.append("CAST(NULLIF(").append(column.getKey()).append("::TEXT, 'N/A') AS ").append(column.getValue()).append(")");
+        }
+        try (Statement stmt = connection.createStatement()) {
+            return stmt.executeUpdate("INSERT INTO " + target + " (" + names + ") SELECT " + values + " FROM " + source);
+        }
+    }
+
+    /**
+     * Change the column types of a table without generated columns to those of the same named
+     * columns of the reference table.
+     */
+    private static void alterInPlace(Connection connection, String table, String reference) throws SQLException {
+        Map<String, String> target = columnTypes(connection, reference);
+        Map<String, String> current = columnTypes(connection, table);
+        List<String> changes = new ArrayList<>();
+        for (Map.Entry<String, String> column : current.entrySet()) {
+            String type = target.get(column.getKey());
+            if (type != null && !type.equals(column.getValue())) {
+                changes.add("ALTER COLUMN " + column.getKey() + " TYPE " + type +
+                            " USING CAST(NULLIF(" + column.getKey() + "::TEXT, 'N/A') AS " + type + ")");
+            }
+        }
+        if (!changes.isEmpty()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " " + String.join(", ", changes));
+            }
+        }
+    }
+
+    /**
+     * @return the non-generated columns of a table in column order, with their SQL type
+     */
+    private static Map<String, String> columnTypes(Connection connection, String table) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT a.attname, format_type(a.atttypid, a.atttypmod) FROM pg_attribute a " +
+                "WHERE a.attrelid = to_regclass(?) AND a.attnum > 0 AND NOT a.attisdropped AND a.attgenerated = '' " +
+                "ORDER BY a.attnum")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return the SQL type of a column, or null if the table or column does not exist
+     */
+    private static String columnType(Connection connection, String table, String column) throws SQLException {
+        return columnTypes(connection, table).get(column);
+    }
+
+    private static void runScript(Connection connection, String file) throws Exception {
+        String sqlContent = Files.readString(Paths.get(file));
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : sqlContent.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    stmt.execute(sql.trim());
+                }
+            }
+        }
+    }
+}
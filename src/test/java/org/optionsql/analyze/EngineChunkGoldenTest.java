@@ -0,0 +1,245 @@
+package org.optionsql.analyze;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link EngineChunk#compute} on a fixed set of option chains and compares the results with
+ * what the analysis scripts 000 to 290 wrote for the same chains.
+ * <p>
+ * {@code golden/fixture.json} holds the option chains as the engine reads them after 000 cleaned
+ * them, the ticker prices and the date of the run. {@code golden/expected.json} holds the rows the
+ * scripts left in the five engine tables, in the column order AnalyticsEngine writes them. The
+ * fixture holds synthetic chains with an unlisted ticker, a ticker without price, an expired and
+ * a same-day expiration and NULL exposures, volumes and open interest. After a change to the
+ * analysis scripts, regenerate the expected rows from the fixture against a Postgres server with
+ * {@code AnalyzeGoldenCheck --regenerate src/test/resources/org/optionsql/analyze/golden}.
+ * Doubles match within a relative tolerance, since Postgres and the engine may sum in a
+ * different order.
+ */
+class EngineChunkGoldenTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Number of leading primary key columns per table.
+     */
+    private static final Map<String, Integer> KEYS = Map.of(
+            "ticker_expirations", 2,
+            "zero_gamma_ticker_expiration", 3,
+            "top_strikes_ticker_expiration", 3,
+            "key_levels", 2,
+            "sentiment_ticker_expiration", 2);
+
+    @Test
+    void computeMatchesAnalysisScripts() throws IOException {
+        JsonObject fixture = resource("golden/fixture.json");
+        JsonObject expected = resource("golden/expected.json");
+
+        EngineChunk chunk = load(fixture);
+        for (int ticker = 0; ticker < chunk.tickers.length; ticker++) {
+            chunk.compute(ticker);
+        }
+
+        Map<String, List<Object[]>> computed = Map.of(
+                "ticker_expirations", tickerExpirations(chunk),
+                "zero_gamma_ticker_expiration", zeroGamma(chunk),
+                "top_strikes_ticker_expiration", topStrikes(chunk),
+                "key_levels", keyLevels(chunk),
+                "sentiment_ticker_expiration", sentiment(chunk));
+
+        List<String> differences = new ArrayList<>();
+        for (Map.Entry<String, Integer> table : KEYS.entrySet()) {
+            JsonObject golden = expected.getJsonObject(table.getKey());
+            assertTrue(golden.getJsonArray("rows").size() > 0, "No golden rows for " + table.getKey());
+            compare(table.getKey(), golden, computed.get(table.getKey()), table.getValue(), differences);
+        }
+        assertEquals(List.of(), differences);
+    }
+
+    private static EngineChunk load(JsonObject fixture) {
+        JsonArray symbols = fixture.getJsonArray("tickers");
+        String[] tickers = new String[symbols.size()];
+        for (int i = 0; i < tickers.length; i++) {
+            tickers[i] = symbols.getString(i);
+        }
+        EngineChunk chunk = new EngineChunk(tickers, LocalDate.parse(fixture.getString("today")));
+        JsonObject prices = fixture.getJsonObject("prices");
+        for (int ticker = 0; ticker < tickers.length; ticker++) {
+            if (prices.containsKey(tickers[ticker])) {
+                chunk.setPrice(ticker, value(prices.getValue(tickers[ticker])));
+            }
+        }
+        assertEquals(EngineChunk.COLUMNS, fixture.getJsonArray("columns").size());
+        for (Object item : fixture.getJsonArray("chains")) {
+            JsonArray row = (JsonArray) item;
+            double[] values = new double[EngineChunk.COLUMNS];
+            for (int c = 0; c < values.length; c++) {
+                values[c] = value(row.getValue(c + 2));
+            }
+            chunk.addRow(Arrays.asList(tickers).indexOf(row.getString(0)), LocalDate.parse(row.getString(1)), values);
+        }
+        chunk.finish();
+        return chunk;
+    }
+
+    private static List<Object[]> tickerExpirations(EngineChunk chunk) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int slice = 0; slice < chunk.slices; slice++) {
+            if (!chunk.expectedMove[slice]) {
+                continue;
+            }
+            List<Object> row = new ArrayList<>(List.of(chunk.tickers[chunk.sliceTicker[slice]], chunk.sliceExpiration[slice].toString()));
+            for (int i = 0; i < EngineChunk.AVERAGED.length; i++) {
+                int column = EngineChunk.AVERAGED[i];
+                boolean integer = column == EngineChunk.CALL_VOLUME || column == EngineChunk.PUT_VOLUME
+                                  || column == EngineChunk.CALL_OI || column == EngineChunk.PUT_OI;
+                row.add(integer ? int4(chunk.averages[slice][i]) : float8(chunk.averages[slice][i]));
+            }
+            row.add(float8(chunk.keyLevelDistance[slice]));
+            row.add(float8(chunk.moveDollars[slice]));
+            row.add(float8(chunk.movePercent[slice]));
+            row.add(float8(chunk.moveIv[slice]));
+            row.add(chunk.daysToExpiration[slice]);
+            rows.add(row.toArray());
+        }
+        return rows;
+    }
+
+    private static List<Object[]> zeroGamma(EngineChunk chunk) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int ticker = 0; ticker < chunk.tickers.length; ticker++) {
+            for (double[] level : chunk.zeroGamma.get(ticker)) {
+                rows.add(new Object[]{chunk.tickers[ticker], chunk.sliceExpiration[(int) level[0]].toString(),
+                        level[1], float8(level[2])});
+            }
+        }
+        return rows;
+    }
+
+    private static List<Object[]> topStrikes(EngineChunk chunk) {
+        double[][] values = chunk.columns;
+        List<Object[]> rows = new ArrayList<>();
+        for (int slice = 0; slice < chunk.slices; slice++) {
+            for (int row = chunk.sliceStart[slice]; row < chunk.sliceEnd(slice); row++) {
+                if (!chunk.topStrike[row]) {
+                    continue;
+                }
+                double netGex = values[EngineChunk.CALL_GEX][row] - values[EngineChunk.PUT_GEX][row];
+                rows.add(new Object[]{chunk.tickers[chunk.sliceTicker[slice]], chunk.sliceExpiration[slice].toString(),
+                        values[EngineChunk.STRIKE][row], float8(netGex),
+                        float8(values[EngineChunk.CALL_DEX][row] + values[EngineChunk.PUT_DEX][row]),
+                        int4(values[EngineChunk.CALL_OI][row] + values[EngineChunk.PUT_OI][row]),
+                        int4(values[EngineChunk.CALL_VOLUME][row] + values[EngineChunk.PUT_VOLUME][row]),
+                        (int) chunk.zgsCount[row], (int) chunk.topCount[row],
+                        netGex > 0 ? "Sell to Hedge" : "Buy to Hedge"});
+            }
+        }
+        return rows;
+    }
+
+    private static List<Object[]> keyLevels(EngineChunk chunk) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int ticker = 0; ticker < chunk.tickers.length; ticker++) {
+            for (Map.Entry<Double, EngineChunk.KeyLevel> entry : chunk.keyLevels.get(ticker).entrySet()) {
+                EngineChunk.KeyLevel level = entry.getValue();
+                rows.add(new Object[]{chunk.tickers[ticker], entry.getKey(), level.maxZgsCount, level.maxTopCount,
+                        float8(level.netGex), float8(level.netDex), level.netGex > 0 ? "Buy to Hedge" : "Sell to Hedge",
+                        int4(level.openInterest), int4(level.volume)});
+            }
+        }
+        return rows;
+    }
+
+    private static List<Object[]> sentiment(EngineChunk chunk) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int slice = 0; slice < chunk.slices; slice++) {
+            rows.add(new Object[]{chunk.tickers[chunk.sliceTicker[slice]], chunk.sliceExpiration[slice].toString(),
+                    chunk.sentiment[slice], float8(chunk.callGexTotal[slice]), float8(chunk.putGexTotal[slice]),
+                    float8(chunk.differencePercentage[slice]), float8(chunk.putCallRatio[slice])});
+        }
+        return rows;
+    }
+
+    private static void compare(String table, JsonObject golden, List<Object[]> computed, int keyColumns, List<String> differences) {
+        JsonArray names = golden.getJsonArray("columns");
+        Map<String, Object[]> expectedRows = new TreeMap<>();
+        for (Object item : golden.getJsonArray("rows")) {
+            Object[] row = ((JsonArray) item).getList().toArray();
+            expectedRows.put(key(row, keyColumns), row);
+        }
+        Map<String, Object[]> computedRows = new TreeMap<>();
+        for (Object[] row : computed) {
+            assertEquals(names.size(), row.length, table + " column count");
+            computedRows.put(key(row, keyColumns), row);
+        }
+        for (Map.Entry<String, Object[]> row : expectedRows.entrySet()) {
+            Object[] other = computedRows.get(row.getKey());
+            if (other == null) {
+                differences.add(table + " missing " + row.getKey());
+                continue;
+            }
+            for (int i = 0; i < names.size(); i++) {
+                if (!matches(row.getValue()[i], other[i])) {
+                    differences.add(table + " " + row.getKey() + " " + names.getString(i) + ": expected " +
+                                    row.getValue()[i] + ", got " + other[i]);
+                }
+            }
+        }
+        for (String key : computedRows.keySet()) {
+            if (!expectedRows.containsKey(key)) {
+                differences.add(table + " unexpected " + key);
+            }
+        }
+    }
+
+    private static String key(Object[] row, int keyColumns) {
+        return Arrays.toString(Arrays.copyOf(row, keyColumns));
+    }
+
+    private static boolean matches(Object expected, Object actual) {
+        if (expected instanceof Number && actual instanceof Number) {
+            double a = ((Number) expected).doubleValue();
+            double b = ((Number) actual).doubleValue();
+            return Math.abs(a - b) <= TOLERANCE * Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+        }
+        return Objects.equals(expected, actual);
+    }
+
+    /**
+     * NULL as the engine writes it.
+     */
+    private static Double float8(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private static Integer int4(double value) {
+        return Double.isNaN(value) ? null : (int) value;
+    }
+
+    private static double value(Object json) {
+        return json == null ? Double.NaN : ((Number) json).doubleValue();
+    }
+
+    private static JsonObject resource(String name) throws IOException {
+        try (InputStream in = EngineChunkGoldenTest.class.getResourceAsStream(name)) {
+            assertTrue(in != null, "Missing test resource " + name);
+            return new JsonObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.optionsql.archive;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Writes option chain snapshots with {@link ChainArchiveWriter} and reads them back with
+ * {@link ChainArchiveReader}, also after the last block of a file was torn or corrupted.
+ */
+class ChainArchiveTest {
+
+    private static final Instant MORNING = Instant.parse("2030-01-02T15:00:00Z");
+    private static final Instant NOON = Instant.parse("2030-01-02T17:00:00Z");
+    private static final Instant CLOSE = Instant.parse("2030-01-02T20:30:00Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotsRoundTrip() throws IOException {
+        ChainArchiveWriter writer = writer();
+        OptionChain first = chain("AAA", 0);
+        OptionChain second = chain("AAA", 1);
+        OptionChain other = chain("BBB", 2);
+        writer.append(MORNING, first);
+        writer.append(NOON, second);
+        writer.append(NOON, other);
+        // After midnight UTC, still the same trading day in New York
+        writer.append(Instant.parse("2030-01-03T01:00:00Z"), first);
+
+        ChainArchiveReader reader = new ChainArchiveReader(dir);
+        assertEquals(List.of(LocalDate.of(2030, 1, 2)), reader.days());
+        assertEquals(List.of("AAA", "BBB"), reader.tickers(LocalDate.of(2030, 1, 2)));
+
+        List<ChainArchiveReader.Snapshot> snapshots = reader.read(LocalDate.of(2030, 1, 2), "AAA");
+        assertEquals(3, snapshots.size());
+        assertEquals(MORNING, snapshots.get(0).getTimestamp());
+        assertSameChain(first, snapshots.get(0).getChain());
+        assertSameChain(second, snapshots.get(1).getChain());
+        assertSameChain(first, snapshots.get(2).getChain());
+        assertSameChain(other, reader.read(LocalDate.of(2030, 1, 2), "BBB").get(0).getChain());
+        assertEquals(List.of(), reader.read(LocalDate.of(2030, 1, 3), "AAA"));
+    }
+
+    @Test
+    void tornTrailingBlockIsSkipped() throws IOException {
+        ChainArchiveWriter writer = writer();
+        writer.append(MORNING, chain("AAA", 0));
+        writer.append(NOON, chain("AAA", 1));
+        long last = writer.append(CLOSE, chain("AAA", 2));
+
+        Path file = ChainArchiveWriter.file(dir, LocalDate.of(2030, 1, 2), "AAA");
+        long complete = Files.size(file);
+        ChainArchiveReader reader = new ChainArchiveReader(dir);
+        // Cut inside the header and inside the payload of the last block
+        for (long cut : new long[]{complete - last + 6, complete - 10}) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            List<ChainArchiveReader.Snapshot> snapshots = reader.read(LocalDate.of(2030, 1, 2), "AAA");
+            assertEquals(2, snapshots.size());
+            assertSameChain(chain("AAA", 1), snapshots.get(1).getChain());
+        }
+    }
+
+    @Test
+    void corruptTrailingBlockIsSkipped() throws IOException {
+        ChainArchiveWriter writer = writer();
+        writer.append(MORNING, chain("AAA", 0));
+        writer.append(NOON, chain("AAA", 1));
+
+        Path file = ChainArchiveWriter.file(dir, LocalDate.of(2030, 1, 2), "AAA");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 3] ^= 0x40;
+        Files.write(file, bytes);
+
+        List<ChainArchiveReader.Snapshot> snapshots = new ChainArchiveReader(dir).read(LocalDate.of(2030, 1, 2), "AAA");
+        assertEquals(1, snapshots.size());
+        assertSameChain(chain("AAA", 0), snapshots.get(0).getChain());
+    }
+
+    private ChainArchiveWriter writer() {
+        return new ChainArchiveWriter(new JsonObject().put("dir", dir.toString()).put("timezone", "America/New_York"));
+    }
+
+    /**
+     * A chain whose columns end up in every encoding: decimal strikes and quotes, gamma as a
+     * dictionary, raw IV and delta with NaN and -0.0, and an expiration without strikes.
+     */
+    private static OptionChain chain(String ticker, int variant) {
+        ExpirationSlice weekly = slice("2030-01-04", 40, variant);
+        ExpirationSlice empty = slice("2030-01-11", 0, variant);
+        ExpirationSlice monthly = slice("2030-01-18", 25, variant + 1);
+        return new OptionChain(ticker, "test", 101.37 + variant, 0.18, 0.65,
+                variant == 0 ? null : "2030-02-01", variant == 0 ? null : "before market", List.of(weekly, empty, monthly));
+    }
+
+    private static ExpirationSlice slice(String expiration, int n, int variant) {
+        double[] strikes = new double[n];
+        for (int j = 0; j < n; j++) {
+            strikes[j] = 80 + 2.5 * j;
+        }
+        return new ExpirationSlice(expiration, strikes, side(n, variant, 1), side(n, variant, -1));
+    }
+
+    private static OptionSide side(int n, int variant, int sign) {
+        double[] bid = new double[n];
+        double[] ask = new double[n];
+        double[] mid = new double[n];
+        int[] volume = new int[n];
+        int[] openInterest = new int[n];
+        double[] delta = new double[n];
+        double[] gamma = new double[n];
+        double[] theta = new double[n];
+        double[] vega = new double[n];
+        double[] iv = new double[n];
+        for (int j = 0; j < n; j++) {
+            bid[j] = Math.round((5 + variant - 0.1 * j) * 100) / 100.0;
+            ask[j] = bid[j] + 0.05;
+            mid[j] = (bid[j] + ask[j]) / 2;
+            volume[j] = (j * 37 + variant) % 500;
+            openInterest[j] = 1000 + 10 * j;
+            delta[j] = sign * Math.exp(-j / 9.0) / 1.7;
+            gamma[j] = j % 3 == 0 ? 0.01 : 0.02;
+            theta[j] = -0.01 * (j % 2);
+            vega[j] = Math.sqrt(j + variant + 1) / 31;
+            iv[j] = 0.2 + j / 997.0;
+        }
+        if (n > 2) {
+            iv[0] = Double.NaN;
+            delta[1] = -0.0;
+        }
+        return new OptionSide(bid, ask, mid, volume, openInterest, delta, gamma, theta, vega, iv);
+    }
+
+    private static void assertSameChain(OptionChain expected, OptionChain actual) {
+        assertEquals(expected.getTickerSymbol(), actual.getTickerSymbol());
+        assertEquals(expected.getSegment(), actual.getSegment());
+        assertEquals(expected.getCurrentPrice(), actual.getCurrentPrice());
+        assertEquals(expected.getIvHistoricalLow(), actual.getIvHistoricalLow());
+        assertEquals(expected.getIvHistoricalHigh(), actual.getIvHistoricalHigh());
+        assertEquals(expected.getNextEarningsDate(), actual.getNextEarningsDate());
+        assertEquals(expected.getNextEarningsTime(), actual.getNextEarningsTime());
+        assertEquals(expected.getSlices().size(), actual.getSlices().size());
+        for (int s = 0; s < expected.getSlices().size(); s++) {
+            ExpirationSlice a = expected.getSlices().get(s);
+            ExpirationSlice b = actual.getSlices().get(s);
+            assertEquals(a.getExpirationDate(), b.getExpirationDate());
+            assertEquals(a.size(), b.size());
+            for (int j = 0; j < a.size(); j++) {
+                assertEquals(a.getStrike(j), b.getStrike(j));
+                assertSameRow(a.getCalls(), b.getCalls(), j);
+                assertSameRow(a.getPuts(), b.getPuts(), j);
+            }
+        }
+    }
+
+    private static void assertSameRow(OptionSide a, OptionSide b, int j) {
+        double[][] pairs = {
+                {a.getBid(j), b.getBid(j)}, {a.getAsk(j), b.getAsk(j)}, {a.getMid(j), b.getMid(j)},
+                {a.getDelta(j), b.getDelta(j)}, {a.getGamma(j), b.getGamma(j)}, {a.getTheta(j), b.getTheta(j)},
+                {a.getVega(j), b.getVega(j)}, {a.getIv(j), b.getIv(j)}
+        };
+        for (double[] pair : pairs) {
+            assertEquals(Double.doubleToRawLongBits(pair[0]), Double.doubleToRawLongBits(pair[1]), "row " + j);
+        }
+        assertEquals(a.getVolume(j), b.getVolume(j));
+        assertEquals(a.getOpenInterest(j), b.getOpenInterest(j));
+    }
+}
@@ -0,0 +1,127 @@
+package org.optionsql.archive;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Encodes columns and decodes them again, checking the encoding each one gets and that doubles
+ * come back bit for bit, NaN and -0.0 included.
+ */
+class ColumnCodecTest {
+
+    @Test
+    void decimalsAsScaledDeltas() throws IOException {
+        double[] quotes = {1.25, 1.3, 101.05, -2.5, 0, 0.000001, 999999.99};
+        assertDoubles(ColumnCodec.DECIMAL_DELTA, quotes);
+        assertDoubles(ColumnCodec.DECIMAL_DELTA, new double[]{90, 95, 100, 105});
+    }
+
+    @Test
+    void fewDistinctValuesAsDictionary() throws IOException {
+        double[] values = new double[40];
+        double[] distinct = {Math.PI, Double.NaN, -0.0, 1e-9};
+        for (int i = 0; i < values.length; i++) {
+            values[i] = distinct[i % distinct.length];
+        }
+        assertDoubles(ColumnCodec.DICTIONARY, values);
+    }
+
+    @Test
+    void otherDoublesRaw() throws IOException {
+        Random random = new Random(42);
+        double[] greeks = new double[100];
+        for (int i = 0; i < greeks.length; i++) {
+            greeks[i] = random.nextGaussian() / 7;
+        }
+        greeks[10] = Double.NaN;
+        greeks[11] = -0.0;
+        greeks[12] = Double.POSITIVE_INFINITY;
+        greeks[13] = Double.longBitsToDouble(0x7ff8000000000abcL); // NaN with payload
+        assertDoubles(ColumnCodec.RAW, greeks);
+    }
+
+    @Test
+    void negativeZeroIsNotADecimal() throws IOException {
+        assertDoubles(ColumnCodec.RAW, new double[]{1.5, -0.0, 2.5});
+        assertDoubles(ColumnCodec.RAW, new double[]{1.5, Double.NaN, 2.5});
+    }
+
+    @Test
+    void intsAsVarints() throws IOException {
+        assertInts(ColumnCodec.VARINT, new int[]{0, 12, 3, 0, 4_000, 7, -1, 250});
+        assertInts(ColumnCodec.VARINT, new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1});
+        int[] increasing = new int[50];
+        for (int i = 0; i < increasing.length; i++) {
+            increasing[i] = 1_000_000 + 3 * i;
+        }
+        assertInts(ColumnCodec.VARINT_DELTA, increasing);
+    }
+
+    @Test
+    void emptyColumns() throws IOException {
+        assertDoubles(ColumnCodec.DECIMAL_DELTA, new double[0]);
+        assertInts(ColumnCodec.VARINT, new int[0]);
+    }
+
+    @Test
+    void varLongsRoundTrip() throws IOException {
+        long[] values = {0, 1, -1, 127, 128, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            ColumnCodec.writeVarLong(out, ColumnCodec.zigzag(value));
+        }
+        DataInputStream in = input(bytes.toByteArray());
+        for (long value : values) {
+            assertEquals(value, ColumnCodec.unzigzag(ColumnCodec.readVarLong(in)));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void unknownEncodingIsRejected() {
+        assertThrows(IOException.class, () -> ColumnCodec.readDoubles(input(new byte[]{9}), 1));
+        assertThrows(IOException.class, () -> ColumnCodec.readInts(input(new byte[]{ColumnCodec.RAW}), 1));
+    }
+
+    private static void assertDoubles(byte encoding, double[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnCodec.writeDoubles(new DataOutputStream(bytes), values);
+        byte[] encoded = bytes.toByteArray();
+        assertEquals(encoding, encoded[0]);
+
+        DataInputStream in = input(encoded);
+        double[] decoded = ColumnCodec.readDoubles(in, values.length);
+        assertEquals(0, in.available());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoded[i]), "value " + i);
+        }
+    }
+
+    private static void assertInts(byte encoding, int[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnCodec.writeInts(new DataOutputStream(bytes), values);
+        byte[] encoded = bytes.toByteArray();
+        assertEquals(encoding, encoded[0]);
+
+        DataInputStream in = input(encoded);
+        int[] decoded = ColumnCodec.readInts(in, values.length);
+        assertEquals(0, in.available());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], decoded[i], "value " + i);
+        }
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,169 @@
+package org.optionsql.fetch;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionSide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes {@code chain-response.json}, a marketdata.app response with the strikes out of order,
+ * nulls in quotes, greeks and counts, a call without put, a put without call and the columns the
+ * decoder skips, and checks the slices against the JsonObject merge the decoder replaced.
+ */
+class OptionChainDecoderTest {
+
+    private static final String[] FIELDS = {"bid", "ask", "mid", "volume", "oi", "delta", "gamma", "theta", "vega", "iv"};
+
+    @Test
+    void slicesAreSortedAndPaired() throws IOException {
+        DecodedChain chain = OptionChainDecoder.decode(resource("chain-response.json"));
+        assertTrue(chain.isOk());
+        assertEquals(10, chain.size());
+
+        List<ExpirationSlice> slices = chain.toSlices();
+        assertEquals(2, slices.size());
+        assertTrue(slices.get(0).getExpirationDate().compareTo(slices.get(1).getExpirationDate()) < 0);
+        assertStrikes(slices.get(0), 95, 100, 102.5, 110);
+        assertStrikes(slices.get(1), 100, 105);
+
+        ExpirationSlice first = slices.get(0);
+        // 95 is a put without call, 110 a call without put
+        assertEquals(0.0, first.getCalls().getBid(0));
+        assertEquals(0, first.getCalls().getOpenInterest(0));
+        assertEquals(0.8, first.getPuts().getBid(0));
+        assertEquals(0.35, first.getCalls().getBid(3));
+        assertEquals(0.0, first.getPuts().getIv(3));
+        assertEquals(0, first.getPuts().getVolume(3));
+        // A null volume becomes zero
+        assertEquals(0, first.getPuts().getVolume(1));
+        assertEquals(300, first.getPuts().getOpenInterest(1));
+
+        ExpirationSlice second = slices.get(1);
+        // The put at 105 is null in every field
+        assertEquals(0.0, second.getPuts().getBid(1));
+        assertEquals(0.0, second.getPuts().getDelta(1));
+        assertEquals(0, second.getPuts().getOpenInterest(1));
+        assertEquals(1.1, second.getCalls().getBid(1));
+    }
+
+    @Test
+    void matchesJsonObjectMerge() throws IOException {
+        Buffer body = resource("chain-response.json");
+        Map<String, JsonObject> expected = jsonObjectMerge(body.toJsonObject());
+
+        int rows = 0;
+        for (ExpirationSlice slice : OptionChainDecoder.decode(body).toSlices()) {
+            for (int j = 0; j < slice.size(); j++) {
+                String key = slice.getExpirationDate() + "-" + slice.getStrike(j);
+                JsonObject option = expected.get(key);
+                assertNotNull(option, "No merged option for " + key);
+                for (String field : FIELDS) {
+                    assertEquals(option.getDouble("call_" + field, 0.0), value(slice.getCalls(), field, j), key + " call_" + field);
+                    assertEquals(option.getDouble("put_" + field, 0.0), value(slice.getPuts(), field, j), key + " put_" + field);
+                }
+                rows++;
+            }
+        }
+        assertEquals(expected.size(), rows);
+    }
+
+    @Test
+    void errorResponseIsNotOk() throws IOException {
+        DecodedChain chain = OptionChainDecoder.decode(Buffer.buffer("{\"s\":\"error\",\"errmsg\":\"Invalid token\"}"));
+        assertFalse(chain.isOk());
+        assertEquals("error", chain.getStatus());
+        assertEquals("Invalid token", chain.getErrorMessage());
+        assertEquals(0, chain.size());
+    }
+
+    @Test
+    void inconsistentColumnsAreRejected() {
+        Buffer body = Buffer.buffer("{\"s\":\"ok\",\"side\":[\"call\",\"put\"],\"expiration\":[1893790800,1893790800]," +
+                                    "\"strike\":[100,100],\"bid\":[1.0]}");
+        assertThrows(IOException.class, () -> OptionChainDecoder.decode(body));
+    }
+
+    private static void assertStrikes(ExpirationSlice slice, double... strikes) {
+        assertEquals(strikes.length, slice.size());
+        for (int j = 0; j < strikes.length; j++) {
+            assertEquals(strikes[j], slice.getStrike(j));
+        }
+    }
+
+    private static double value(OptionSide side, String field, int j) {
+        switch (field) {
+            case "bid": return side.getBid(j);
+            case "ask": return side.getAsk(j);
+            case "mid": return side.getMid(j);
+            case "volume": return side.getVolume(j);
+            case "oi": return side.getOpenInterest(j);
+            case "delta": return side.getDelta(j);
+            case "gamma": return side.getGamma(j);
+            case "theta": return side.getTheta(j);
+            case "vega": return side.getVega(j);
+            default: return side.getIv(j);
+        }
+    }
+
+    /**
+     * The merge of calls and puts by expiration and strike the fetch service did on the parsed
+     * JsonObject before the streaming decoder, less the exposures it no longer computes.
+     */
+    private static Map<String, JsonObject> jsonObjectMerge(JsonObject response) {
+        response.forEach(entry -> {
+            if (entry.getValue() instanceof JsonArray array && array.stream().allMatch(v -> v == null || v instanceof Number)) {
+                for (int i = 0; i < array.size(); i++) {
+                    if (array.getValue(i) == null) {
+                        array.set(i, 0);
+                    }
+                }
+            }
+        });
+        JsonArray strikes = response.getJsonArray("strike");
+        JsonArray expirations = response.getJsonArray("expiration");
+        JsonArray sides = response.getJsonArray("side");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+        Map<String, JsonObject> options = new HashMap<>();
+        for (int i = 0; i < strikes.size(); i++) {
+            String expiration = dateFormat.format(new Date(expirations.getLong(i) * 1000));
+            String key = expiration + "-" + strikes.getDouble(i);
+            JsonObject option = options.computeIfAbsent(key, k -> new JsonObject());
+            String prefix = sides.getString(i).equals("call") ? "call_" : "put_";
+            option.put(prefix + "bid", response.getJsonArray("bid").getDouble(i))
+                    .put(prefix + "ask", response.getJsonArray("ask").getDouble(i))
+                    .put(prefix + "mid", response.getJsonArray("mid").getDouble(i))
+                    .put(prefix + "delta", response.getJsonArray("delta").getDouble(i))
+                    .put(prefix + "gamma", response.getJsonArray("gamma").getDouble(i))
+                    .put(prefix + "theta", response.getJsonArray("theta").getDouble(i))
+                    .put(prefix + "vega", response.getJsonArray("vega").getDouble(i))
+                    .put(prefix + "oi", response.getJsonArray("openInterest").getInteger(i))
+                    .put(prefix + "volume", response.getJsonArray("volume").getInteger(i))
+                    .put(prefix + "iv", response.getJsonArray("iv").getDouble(i));
+        }
+        return options;
+    }
+
+    private static Buffer resource(String name) throws IOException {
+        try (InputStream in = OptionChainDecoderTest.class.getResourceAsStream(name)) {
+            assertNotNull(in, "Missing test resource " + name);
+            return Buffer.buffer(in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.optionsql.model;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.optionsql.fetch.DecodedChain;
+import org.optionsql.fetch.OptionChainDecoder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks the heap footprint of decoded option chains per strike, a strike being one call and
+ * one put at the same expiration and strike price. The bound is asserted on the size estimate
+ * the fetch run logs, and the estimate is checked against the measured heap with a wide
+ * tolerance, since a heap measurement depends on the collector.
+ */
+class OptionChainFootprintTest {
+
+    private static final int CHAINS = 100;
+    private static final int EXPIRATIONS = 8;
+    private static final int STRIKES = 125;
+
+    /**
+     * Upper bound per strike: two sides of ten primitive columns plus the strike itself is
+     * 152 bytes, the rest is slack for headers. A strike as JsonObject with 21 boxed fields
+     * took well over 1 KiB.
+     */
+    private static final double MAX_BYTES_PER_STRIKE = 250;
+
+    /**
+     * Measurements taken before the estimate counts as off, each after a warm-up decode.
+     */
+    private static final int ATTEMPTS = 5;
+
+    @Test
+    void estimatedBytesPerStrike() throws Exception {
+        Buffer body = chainResponse();
+        long strikes = 0;
+        long estimated = 0;
+        for (int i = 0; i < CHAINS; i++) {
+            OptionChain chain = decode(body);
+            strikes += chain.getStrikeCount();
+            estimated += chain.getEstimatedBytes();
+        }
+
+        assertEquals((long) CHAINS * EXPIRATIONS * STRIKES, strikes);
+        double estimatedPerStrike = (double) estimated / strikes;
+        assertTrue(estimatedPerStrike <= MAX_BYTES_PER_STRIKE,
+                "Estimated " + estimatedPerStrike + " bytes per strike, expected at most " + MAX_BYTES_PER_STRIKE);
+    }
+
+    @Test
+    void estimateMatchesRetainedHeap() throws Exception {
+        Buffer body = chainResponse();
+        List<Double> measured = new ArrayList<>();
+        double estimatedPerStrike = 0;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            // Load classes and fill the string dictionaries before the baseline
+            decode(body);
+
+            long before = usedHeap();
+            OptionChain[] chains = new OptionChain[CHAINS];
+            for (int i = 0; i < CHAINS; i++) {
+                chains[i] = decode(body);
+            }
+            long after = usedHeap();
+
+            long strikes = 0;
+            long estimated = 0;
+            for (OptionChain chain : chains) {
+                strikes += chain.getStrikeCount();
+                estimated += chain.getEstimatedBytes();
+            }
+            Reference.reachabilityFence(chains);
+
+            double measuredPerStrike = (double) (after - before) / strikes;
+            estimatedPerStrike = (double) estimated / strikes;
+            // The estimate logged by the fetch run should stay close to reality
+            if (Math.abs(measuredPerStrike - estimatedPerStrike) <= estimatedPerStrike * 0.5) {
+                return;
+            }
+            measured.add(measuredPerStrike);
+        }
+        fail("Estimated " + estimatedPerStrike + " bytes per strike, measured " + measured);
+    }
+
+    private static OptionChain decode(Buffer body) throws Exception {
+        DecodedChain decoded = OptionChainDecoder.decode(body);
+        return new OptionChain("TEST", "test", 100.0, 10.0, 60.0, "N/A", "N/A", decoded.toSlices());
+    }
+
+    /**
+     * A marketdata.app style columnar response with a call and a put per strike.
+     */
+    private static Buffer chainResponse() {
+        JsonArray side = new JsonArray();
+        JsonArray expiration = new JsonArray();
+        JsonArray strike = new JsonArray();
+        JsonArray price = new JsonArray();
+        JsonArray greek = new JsonArray();
+        JsonArray count = new JsonArray();
+        LocalDate first = LocalDate.of(2030, 1, 4);
+        for (int e = 0; e < EXPIRATIONS; e++) {
+            long epoch = first.plusWeeks(e).atTime(20, 0).toEpochSecond(ZoneOffset.UTC);
+            for (int s = 0; s < STRIKES; s++) {
+                for (String type : new String[]{"call", "put"}) {
+                    side.add(type);
+                    expiration.add(epoch);
+                    strike.add(50.0 + s);
+                    price.add(1.25 + s * 0.01);
+                    greek.add(0.5 - s * 0.001);
+                    count.add(100 + s);
+                }
+            }
+        }
+        return new JsonObject()
+                .put("s", "ok")
+                .put("side", side)
+                .put("expiration", expiration)
+                .put("strike", strike)
+                .put("bid", price)
+                .put("ask", price)
+                .put("mid", price)
+                .put("delta", greek)
+                .put("gamma", greek)
+                .put("theta", greek)
+                .put("vega", greek)
+                .put("iv", greek)
+                .put("openInterest", count)
+                .put("volume", count)
+                .toBuffer();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
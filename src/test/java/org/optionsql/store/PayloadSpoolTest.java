@@ -0,0 +1,245 @@
+package org.optionsql.store;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.optionsql.model.ExpirationSlice;
+import org.optionsql.model.OptionChain;
+import org.optionsql.model.OptionSide;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Recovery of the {@link PayloadSpool} from what a crash leaves on disk: the records are written
+ * by the spool itself and then torn, cut or checkpointed before the spool is opened again.
+ */
+class PayloadSpoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenRecoversCompleteBatches() throws IOException {
+        PayloadSpool spool = open(1 << 20);
+        JsonArray first = chains("AAA", "BBB");
+        JsonArray second = chains("CCC");
+        spool.append(first, false, null, "fetch-1", "2030-01-02");
+        spool.append(second, true, new JsonArray().add("CCC"), "fetch-2", null);
+
+        PayloadSpool reopened = open(1 << 20);
+        PayloadSpool.SpoolBatch batch = reopened.peek();
+        assertEquals(1, batch.getId());
+        assertEquals("fetch-1", batch.getFetchBatch());
+        assertEquals("2030-01-02", batch.getTradingDay());
+        assertSameChains(first, reopened.read(batch));
+
+        reopened.markApplied(batch);
+        batch = reopened.peek();
+        assertEquals(2, batch.getId());
+        assertEquals(true, batch.isPartial());
+        assertEquals(new JsonArray().add("CCC"), batch.getTickers());
+        assertNull(batch.getTradingDay());
+        assertSameChains(second, reopened.read(batch));
+    }
+
+    @Test
+    void tornFinalRecordDropsItsBatch() throws IOException {
+        PayloadSpool spool = open(1 << 20);
+        spool.append(chains("AAA"), false, null, null, null);
+        spool.append(chains("BBB"), false, null, null, null);
+
+        // Flip a byte in the body of the end record of the second batch, its CRC no longer matches
+        Path segment = segments().get(0);
+        List<Integer> records = recordOffsets(segment);
+        int last = records.get(records.size() - 1);
+        patch(segment, last + 8 + 12, (byte) 0x5A);
+
+        PayloadSpool reopened = open(1 << 20);
+        assertEquals(1, reopened.peek().getId());
+        assertEquals(1, reopened.metrics().getInteger("pendingbatches"));
+
+        // The next batch overwrites the torn record and keeps ids unique
+        JsonArray next = chains("CCC");
+        assertEquals(3, reopened.append(next, false, null, null, null));
+        PayloadSpool again = open(1 << 20);
+        again.markApplied(again.peek());
+        assertEquals(3, again.peek().getId());
+        assertSameChains(next, again.read(again.peek()));
+    }
+
+    @Test
+    void batchWithoutEndRecordIsDropped() throws IOException {
+        PayloadSpool spool = open(1 << 20);
+        spool.append(chains("AAA"), false, null, null, null);
+        spool.append(chains("BBB", "CCC"), false, null, null, null);
+
+        // A zero length where the end record starts, as if the crash came before it was written
+        Path segment = segments().get(0);
+        List<Integer> records = recordOffsets(segment);
+        int end = records.get(records.size() - 1);
+        for (int i = 0; i < 4; i++) {
+            patch(segment, end + i, (byte) 0);
+        }
+
+        PayloadSpool reopened = open(1 << 20);
+        assertEquals(1, reopened.peek().getId());
+        assertEquals(1, reopened.metrics().getInteger("pendingbatches"));
+    }
+
+    @Test
+    void checkpointSurvivesReopen() throws IOException {
+        PayloadSpool spool = open(1 << 20);
+        spool.append(chains("AAA"), false, null, null, null);
+        JsonArray second = chains("BBB");
+        spool.append(second, false, null, null, null);
+        spool.markApplied(spool.peek());
+        assertEquals("1", Files.readString(dir.resolve("checkpoint")));
+        assertEquals(false, Files.exists(dir.resolve("checkpoint.tmp")));
+
+        PayloadSpool reopened = open(1 << 20);
+        assertEquals(1, reopened.metrics().getLong("lastappliedid"));
+        assertEquals(2, reopened.peek().getId());
+        assertSameChains(second, reopened.read(reopened.peek()));
+        reopened.markApplied(reopened.peek());
+        assertNull(reopened.peek());
+
+        PayloadSpool drained = open(1 << 20);
+        assertNull(drained.peek());
+        assertEquals(3, drained.append(chains("CCC"), false, null, null, null));
+    }
+
+    @Test
+    void compactionDeletesAppliedSegments() throws IOException {
+        // Segments smaller than a record, so every record rolls over to a segment of its own
+        PayloadSpool spool = open(64);
+        spool.append(chains("AAA", "BBB"), false, null, null, null);
+        spool.append(chains("CCC", "DDD"), false, null, null, null);
+        assertEquals(8, segments().size());
+
+        spool.markApplied(spool.peek());
+        assertEquals(4, segments().size());
+        assertEquals(4, spool.metrics().getInteger("segments"));
+
+        spool.markApplied(spool.peek());
+        // Only the active segment is left, rewound to empty
+        assertEquals(1, segments().size());
+        assertEquals(List.of(), recordOffsets(segments().get(0)));
+
+        PayloadSpool reopened = open(64);
+        assertNull(reopened.peek());
+        assertEquals(3, reopened.append(chains("EEE"), false, null, null, null));
+    }
+
+    private PayloadSpool open(int segmentBytes) throws IOException {
+        PayloadSpool spool = new PayloadSpool(new JsonObject()
+                .put("dir", dir.toString())
+                .put("segmentbytes", segmentBytes)
+                .put("fsync", false));
+        spool.open();
+        return spool;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*.spool")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * @return the offsets of the records of a segment, up to the terminator
+     */
+    private static List<Integer> recordOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> offsets = new ArrayList<>();
+        int pos = 8;
+        while (pos + 4 <= buffer.capacity() && buffer.getInt(pos) != 0) {
+            offsets.add(pos);
+            pos += 8 + buffer.getInt(pos);
+        }
+        return offsets;
+    }
+
+    private static void patch(Path file, int offset, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{value}), offset);
+        }
+    }
+
+    private static JsonArray chains(String... tickers) {
+        JsonArray options = new JsonArray();
+        for (String ticker : tickers) {
+            options.add(chain(ticker));
+        }
+        return options;
+    }
+
+    private static OptionChain chain(String ticker) {
+        List<ExpirationSlice> slices = new ArrayList<>();
+        for (int e = 0; e < 2; e++) {
+            double[] strikes = {90, 95.5, 100};
+            slices.add(new ExpirationSlice("2030-01-0" + (4 + e), strikes, side(e, 1), side(e, -1)));
+        }
+        BitSet unchanged = new BitSet();
+        unchanged.set(1);
+        return new OptionChain(ticker, "test", 97.25, 0.18, 0.65, "2030-02-01", "before market", slices, unchanged);
+    }
+
+    private static OptionSide side(int expiration, int sign) {
+        int n = 3;
+        double[][] columns = new double[8][n];
+        int[] volume = new int[n];
+        int[] openInterest = new int[n];
+        for (int j = 0; j < n; j++) {
+            for (int c = 0; c < columns.length; c++) {
+                columns[c][j] = sign * (expiration + 1) * (c + 1) * (j + 0.125);
+            }
+            volume[j] = 10 * j;
+            openInterest[j] = 100 + j;
+        }
+        // Values the codec must carry bit for bit
+        columns[3][0] = Double.NaN;
+        columns[4][1] = -0.0;
+        return new OptionSide(columns[0], columns[1], columns[2], volume, openInterest,
+                columns[3], columns[4], columns[5], columns[6], columns[7]);
+    }
+
+    private static void assertSameChains(JsonArray expected, JsonArray actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            OptionChain a = (OptionChain) expected.getValue(i);
+            OptionChain b = (OptionChain) actual.getValue(i);
+            assertEquals(a.getTickerSymbol(), b.getTickerSymbol());
+            assertEquals(a.getSegment(), b.getSegment());
+            assertEquals(a.getCurrentPrice(), b.getCurrentPrice());
+            assertEquals(a.getIvHistoricalLow(), b.getIvHistoricalLow());
+            assertEquals(a.getIvHistoricalHigh(), b.getIvHistoricalHigh());
+            assertEquals(a.getNextEarningsDate(), b.getNextEarningsDate());
+            assertEquals(a.getNextEarningsTime(), b.getNextEarningsTime());
+            assertEquals(a.getSlices().size(), b.getSlices().size());
+            for (int s = 0; s < a.getSlices().size(); s++) {
+                ExpirationSlice sa = a.getSlices().get(s);
+                ExpirationSlice sb = b.getSlices().get(s);
+                assertEquals(sa.getExpirationDate(), sb.getExpirationDate());
+                assertEquals(a.isUnchanged(s), b.isUnchanged(s));
+                assertEquals(sa.size(), sb.size());
+                assertEquals(sa.getContentHash(), sb.getContentHash());
+            }
+        }
+    }
+}